@@ -0,0 +1,197 @@
+/**
+ *
+ */
+package org.theseed.excel.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.theseed.excel.CustomWorkbook;
+import org.theseed.excel.DirectWorkbook;
+
+/**
+ * This class generates synthetic data for the benchmarks.  The data is generated once, up front, so that
+ * the benchmarks measure only the spreadsheet operations.  A fixed random seed is used so that every run
+ * produces the same data.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class BenchData {
+
+    /**
+     * This enum describes the shapes of generated sheets.
+     */
+    public static enum Shape {
+        /** many rows of mixed text and numbers */
+        TALL(50000, 4),
+        /** a moderate number of rows with many numeric columns */
+        WIDE(1000, 200),
+        /** rows where every identifier is a hyperlink */
+        LINKS(20000, 2),
+        /** rows where every identifier is a hyperlink with a comment */
+        COMMENTS(5000, 2);
+
+        /** number of data rows */
+        private final int rows;
+        /** number of numeric columns */
+        private final int numCols;
+
+        private Shape(int rows, int numCols) {
+            this.rows = rows;
+            this.numCols = numCols;
+        }
+
+        /**
+         * @return the number of data rows
+         */
+        public int getRows() {
+            return this.rows;
+        }
+
+        /**
+         * @return the number of numeric columns
+         */
+        public int getNumCols() {
+            return this.numCols;
+        }
+
+    }
+
+    // FIELDS
+    /** shape of the data */
+    private final Shape shape;
+    /** row identifiers */
+    private final String[] ids;
+    /** numeric data, indexed by row and column */
+    private final double[][] values;
+    /** integer data */
+    private final int[] counts;
+    /** flag data */
+    private final String[] flags;
+    /** descriptive text */
+    private final String[] text;
+    /** seed for random-number generation */
+    private static final long SEED = 1234567L;
+    /** possible words for descriptive text */
+    private static final String[] WORDS = new String[] { "hypothetical", "protein", "ribosomal", "transport",
+            "ATP-binding", "subunit", "kinase", "regulator", "membrane", "putative", "domain", "family" };
+
+    /**
+     * Generate the data for a sheet shape.
+     *
+     * @param shape		shape of the desired sheet
+     */
+    public BenchData(Shape shape) {
+        this.shape = shape;
+        Random rand = new Random(SEED);
+        final int n = shape.getRows();
+        this.ids = new String[n];
+        this.values = new double[n][shape.getNumCols()];
+        this.counts = new int[n];
+        this.flags = new String[n];
+        this.text = new String[n];
+        StringBuilder buffer = new StringBuilder(80);
+        for (int r = 0; r < n; r++) {
+            this.ids[r] = String.format("fig|%d.%d.peg.%d", 83333 + r % 50, 1 + r % 3, r);
+            for (int c = 0; c < this.values[r].length; c++)
+                this.values[r][c] = rand.nextGaussian() * 100.0;
+            this.counts[r] = rand.nextInt(10000);
+            this.flags[r] = (rand.nextBoolean() ? "Y" : "");
+            buffer.setLength(0);
+            int words = 2 + rand.nextInt(8);
+            for (int i = 0; i < words; i++) {
+                if (i > 0) buffer.append(' ');
+                buffer.append(WORDS[rand.nextInt(WORDS.length)]);
+            }
+            this.text[r] = buffer.toString();
+        }
+    }
+
+    /**
+     * @return the header list for this data
+     */
+    public List<String> getHeaders() {
+        List<String> retVal = new ArrayList<>(this.shape.getNumCols() + 4);
+        retVal.add("id");
+        for (int c = 0; c < this.shape.getNumCols(); c++)
+            retVal.add("value" + (c + 1));
+        retVal.add("count");
+        retVal.add("flag");
+        retVal.add("description");
+        return retVal;
+    }
+
+    /**
+     * Write this data to the current sheet of a workbook.  The headers must already be set.
+     *
+     * @param workbook	target workbook
+     */
+    public void fill(CustomWorkbook workbook) {
+        final int n = this.ids.length;
+        for (int r = 0; r < n; r++) {
+            workbook.addRow();
+            switch (this.shape) {
+            case LINKS -> workbook.storeCell(this.ids[r], this.url(r), null);
+            case COMMENTS -> workbook.storeCell(this.ids[r], this.url(r), this.text[r]);
+            default -> workbook.storeCell(this.ids[r], CustomWorkbook.Text.NORMAL);
+            }
+            for (double value : this.values[r])
+                workbook.storeCell(value, CustomWorkbook.Num.NORMAL);
+            workbook.storeCell(this.counts[r]);
+            workbook.storeCell(this.flags[r], CustomWorkbook.Text.FLAG);
+            workbook.storeCell(this.text[r], CustomWorkbook.Text.NORMAL);
+        }
+    }
+
+    /**
+     * Write this data to the current sheet of a direct workbook.  The headers must already be set.  The
+     * direct writer does not support comments, so the comment shape is written with links only.
+     *
+     * @param workbook	target workbook
+     */
+    public void fill(DirectWorkbook workbook) {
+        final int n = this.ids.length;
+        for (int r = 0; r < n; r++) {
+            workbook.addRow();
+            switch (this.shape) {
+            case LINKS, COMMENTS -> workbook.storeCell(this.ids[r], this.url(r));
+            default -> workbook.storeCell(this.ids[r], CustomWorkbook.Text.NORMAL);
+            }
+            for (double value : this.values[r])
+                workbook.storeCell(value, CustomWorkbook.Num.NORMAL);
+            workbook.storeCell(this.counts[r]);
+            workbook.storeCell(this.flags[r], CustomWorkbook.Text.FLAG);
+            workbook.storeCell(this.text[r], CustomWorkbook.Text.NORMAL);
+        }
+    }
+
+    /**
+     * @return the link URL for a row
+     *
+     * @param r		row index
+     */
+    private String url(int r) {
+        return "https://www.bv-brc.org/view/Feature/" + this.ids[r];
+    }
+
+    /**
+     * Generate values for a large histogram.
+     *
+     * @param nSeries	number of series
+     * @param nValues	number of values per series
+     *
+     * @return an array of values in the range [0, 1) for each series
+     */
+    public static double[][] histogram(int nSeries, int nValues) {
+        Random rand = new Random(SEED);
+        double[][] retVal = new double[nSeries][nValues];
+        for (int i = 0; i < nSeries; i++) {
+            for (int j = 0; j < nValues; j++)
+                retVal[i][j] = rand.nextDouble();
+        }
+        return retVal;
+    }
+
+}
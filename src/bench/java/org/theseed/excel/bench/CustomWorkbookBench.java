@@ -0,0 +1,101 @@
+/**
+ *
+ */
+package org.theseed.excel.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.theseed.excel.CustomWorkbook;
+
+/**
+ * These benchmarks measure the cost of writing a complete workbook:  cell storage, optional auto-sizing,
+ * table creation, and the final write in "close()".  The size of the output file is reported as an
+ * auxiliary counter.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+public class CustomWorkbookBench {
+
+    /** shape of the generated sheet */
+    @Param({ "TALL", "WIDE", "LINKS", "COMMENTS" })
+    public BenchData.Shape shape;
+
+    /** TRUE to use a streaming workbook */
+    @Param({ "false", "true" })
+    public boolean streaming;
+
+    /** TRUE to auto-size the columns before closing */
+    @Param({ "false", "true" })
+    public boolean autoSize;
+
+    /** generated data */
+    private BenchData data;
+
+    /** output file */
+    private File outFile;
+
+    /**
+     * This class reports the size of the output file.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Output {
+
+        /** size of the last output file in bytes */
+        public long outputBytes;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            this.outputBytes = 0;
+        }
+
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.data = new BenchData(this.shape);
+        this.outFile = File.createTempFile("bench", ".xlsx");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.outFile.delete();
+    }
+
+    @Benchmark
+    public void writeWorkbook(Output output) {
+        try (CustomWorkbook workbook = (this.streaming ? CustomWorkbook.createStreaming(this.outFile)
+                : CustomWorkbook.create(this.outFile))) {
+            workbook.addSheet("bench sheet", true);
+            workbook.setHeaders(this.data.getHeaders());
+            this.data.fill(workbook);
+            if (this.autoSize)
+                workbook.autoSizeColumns();
+        }
+        output.outputBytes = this.outFile.length();
+    }
+
+}
@@ -0,0 +1,94 @@
+/**
+ *
+ */
+package org.theseed.excel.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.theseed.excel.DirectWorkbook;
+
+/**
+ * These benchmarks measure the cost of writing a complete workbook with the {@link DirectWorkbook} writer.
+ * The data and the sheet layout are the same as in {@link CustomWorkbookBench}, so the two sets of results
+ * can be compared directly.  The size of the output file is reported as an auxiliary counter.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+public class DirectWorkbookBench {
+
+    /** shape of the generated sheet */
+    @Param({ "TALL", "WIDE", "LINKS" })
+    public BenchData.Shape shape;
+
+    /** output format */
+    @Param({ "XLSX", "XLSB" })
+    public DirectWorkbook.Format format;
+
+    /** generated data */
+    private BenchData data;
+
+    /** output file */
+    private File outFile;
+
+    /**
+     * This class reports the size of the output file.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Output {
+
+        /** size of the last output file in bytes */
+        public long outputBytes;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            this.outputBytes = 0;
+        }
+
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.data = new BenchData(this.shape);
+        this.outFile = File.createTempFile("bench", "." + this.format.name().toLowerCase());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.outFile.delete();
+    }
+
+    @Benchmark
+    public void writeWorkbook(Output output) {
+        try (DirectWorkbook workbook = new DirectWorkbook(this.outFile, this.format)) {
+            workbook.addSheet("bench sheet", true);
+            workbook.setHeaders(this.data.getHeaders());
+            this.data.fill(workbook);
+        }
+        output.outputBytes = this.outFile.length();
+    }
+
+}
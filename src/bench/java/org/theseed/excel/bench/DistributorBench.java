@@ -0,0 +1,130 @@
+/**
+ *
+ */
+package org.theseed.excel.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.excel.utils.Distributor;
+
+/**
+ * These benchmarks measure the cost of counting values in a distribution and of saving a large
+ * histogram in each layout.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+public class DistributorBench {
+
+    /** number of series in the histogram */
+    @Param({ "10", "2000" })
+    public int nSeries;
+
+    /** number of buckets in the histogram */
+    @Param({ "20", "100" })
+    public int nBuckets;
+
+    /** number of values per series */
+    private static final int N_VALUES = 1000;
+
+    /** generated values for each series */
+    private double[][] values;
+
+    /** series names */
+    private String[] names;
+
+    /** distributor filled with the generated values */
+    private Distributor filled;
+
+    /** output file */
+    private File outFile;
+
+    /**
+     * This class reports the size of the output file.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Output {
+
+        /** size of the last output file in bytes */
+        public long outputBytes;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            this.outputBytes = 0;
+        }
+
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, ParseFailureException {
+        this.values = BenchData.histogram(this.nSeries, N_VALUES);
+        this.names = new String[this.nSeries];
+        for (int i = 0; i < this.nSeries; i++)
+            this.names[i] = String.format("genome%05d", i);
+        this.filled = this.fill();
+        this.outFile = File.createTempFile("bench", ".xlsx");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.outFile.delete();
+    }
+
+    /**
+     * @return a distributor containing all the generated values
+     *
+     * @throws ParseFailureException
+     */
+    private Distributor fill() throws ParseFailureException {
+        Distributor retVal = new Distributor(0.0, 1.0, this.nBuckets);
+        for (int i = 0; i < this.nSeries; i++)
+            retVal.addValues(this.names[i], this.values[i]);
+        return retVal;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public Distributor addValues() throws ParseFailureException {
+        return this.fill();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void saveWide(Output output) {
+        this.filled.save(this.outFile, Distributor.Layout.WIDE);
+        output.outputBytes = this.outFile.length();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void saveLong(Output output) {
+        this.filled.save(this.outFile, Distributor.Layout.LONG);
+        output.outputBytes = this.outFile.length();
+    }
+
+}
@@ -0,0 +1,116 @@
+/**
+ *
+ */
+package org.theseed.excel.bench;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.theseed.excel.CustomWorkbook;
+import org.theseed.excel.ExcelUtils;
+
+/**
+ * These benchmarks measure the reading utilities on a tall generated sheet:  loading the workbook, scanning
+ * every cell through "getCell", and finding a marker near the bottom of the sheet.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx4g" })
+public class ExcelUtilsBench {
+
+    /** workbook file */
+    private File inFile;
+
+    /** loaded workbook */
+    private XSSFWorkbook workbook;
+
+    /** sheet to scan */
+    private Sheet sheet;
+
+    /** marker text in the last row */
+    private String marker;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BenchData data = new BenchData(BenchData.Shape.TALL);
+        this.inFile = File.createTempFile("bench", ".xlsx");
+        try (CustomWorkbook output = CustomWorkbook.create(this.inFile)) {
+            output.addSheet("bench sheet", true);
+            output.setHeaders(data.getHeaders());
+            data.fill(output);
+        }
+        this.workbook = this.load();
+        this.sheet = this.workbook.getSheetAt(0);
+        this.marker = ExcelUtils.stringValue(ExcelUtils.getCell(this.sheet, this.sheet.getLastRowNum(), 0));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.workbook.close();
+        this.inFile.delete();
+    }
+
+    /**
+     * @return the workbook read from the input file
+     *
+     * @throws IOException
+     */
+    private XSSFWorkbook load() throws IOException {
+        try (FileInputStream inStream = new FileInputStream(this.inFile)) {
+            return new XSSFWorkbook(inStream);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public XSSFWorkbook loadWorkbook() throws IOException {
+        return this.load();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void scanCells(Blackhole bh) {
+        final int lastRow = this.sheet.getLastRowNum();
+        final int width = this.sheet.getRow(0).getLastCellNum();
+        for (int r = 1; r <= lastRow; r++) {
+            for (int c = 0; c < width; c++) {
+                var cell = ExcelUtils.getCell(this.sheet, r, c);
+                if (c == 0)
+                    bh.consume(ExcelUtils.stringValue(cell));
+                else
+                    bh.consume(ExcelUtils.numValue(cell));
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean findMarker() {
+        return ExcelUtils.findMarker(this.sheet.rowIterator(), this.marker);
+    }
+
+}
@@ -0,0 +1,44 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import java.util.Arrays;
+
+import org.theseed.basic.BaseProcessor;
+
+/**
+ * This is the main class for the spreadsheet utility commands.  The first command-line parameter is the
+ * command name, and the remaining parameters are passed to the command's processor.
+ *
+ * 	tsv2xlsx	convert tab-delimited files to spreadsheets
+ * 	xlsx2tsv	export spreadsheet sheets to tab-delimited files
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class App {
+
+    public static void main(String[] args) {
+        // Get the control parameter.
+        String command = args[0];
+        String[] newArgs = Arrays.copyOfRange(args, 1, args.length);
+        BaseProcessor processor;
+        // Determine the command to process.
+        switch (command) {
+        case "tsv2xlsx" :
+            processor = new Tsv2XlsxProcessor();
+            break;
+        case "xlsx2tsv" :
+            processor = new Xlsx2TsvProcessor();
+            break;
+        default :
+            throw new RuntimeException("Invalid command " + command + ".");
+        }
+        // Process it.
+        boolean ok = processor.parseCommand(newArgs);
+        if (ok)
+            processor.run();
+    }
+
+}
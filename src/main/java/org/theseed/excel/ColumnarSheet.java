@@ -0,0 +1,685 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This object provides column-oriented access to the data in a single worksheet.  The first row of the
+ * sheet is taken as the headers.  Each column is either numeric (if every non-blank cell is a number) or
+ * string.  Numeric columns are stored as doubles (NaN for blanks) and string columns as indices into a
+ * string dictionary (-1 for blanks).
+ *
+ * The first time a sheet is read, it is streamed with the event API and a binary sidecar file is written
+ * next to the workbook.  On later reads,
+ * if the workbook's size and modification time are unchanged, the sidecar is memory-mapped instead of
+ * parsing the workbook, and the columns are handed out as views into the mapped file.  The sidecar file
+ * name contains a hash of the exact sheet name, and the name itself is stored in the sidecar and checked
+ * when it is mapped, so a sidecar is never used for the wrong sheet.  A damaged sidecar is ignored and the
+ * sheet is parsed again.  If the sidecar cannot be written, the same image is built in memory instead.
+ *
+ * The sidecar layout (all big-endian) is
+ *
+ *  	magic, version, workbook size, workbook modification time, row count, column count, string count,
+ *  	sheet name string index
+ *  	column directory (header string index, column type, data offset)
+ *  	string dictionary offsets (string count + 1 integers) followed by the UTF-8 string bytes
+ *  	column data, each column aligned on an 8-byte boundary
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ColumnarSheet {
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(ColumnarSheet.class);
+    /** mapped (or in-memory) sidecar image */
+    private final ByteBuffer image;
+    /** number of data rows */
+    private final int nRows;
+    /** number of columns */
+    private final int nCols;
+    /** number of strings in the dictionary */
+    private final int nStrings;
+    /** dictionary index of the sheet name */
+    private final int nameIdx;
+    /** header string index for each column */
+    private final int[] headerIdx;
+    /** TRUE for each numeric column */
+    private final boolean[] numeric;
+    /** data offset for each column */
+    private final int[] dataOffset;
+    /** position of the string dictionary offsets */
+    private final int dictPos;
+    /** position of the string dictionary bytes */
+    private final int blobPos;
+    /** decoded strings, filled in on demand */
+    private final String[] strings;
+    /** magic number identifying a sidecar file */
+    private static final int MAGIC = 0x58434F4C;
+    /** sidecar format version */
+    private static final int VERSION = 2;
+    /** column type for numbers */
+    private static final int NUM_TYPE = 1;
+    /** column type for strings */
+    private static final int STRING_TYPE = 2;
+    /** size of the fixed header */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4 + 4 + 4;
+    /** size of a column directory entry */
+    private static final int DIR_ENTRY_SIZE = 4 + 4 + 8;
+    /** number of bytes of the sheet name hash used in a sidecar file name */
+    private static final int NAME_HASH_BYTES = 8;
+    /** suffix for sidecar files */
+    public static final String SIDECAR_SUFFIX = ".cols";
+
+    /**
+     * Construct a columnar sheet from a sidecar image.  Every count and offset in the image is checked, so
+     * that a damaged image is rejected here rather than failing when the data is accessed.
+     *
+     * @param image		sidecar image to use
+     *
+     * @throws IllegalArgumentException if the image is not valid
+     */
+    private ColumnarSheet(ByteBuffer image) {
+        this.image = image;
+        final long limit = image.limit();
+        checkImage(limit >= HEADER_SIZE, "header is incomplete");
+        this.nRows = image.getInt(24);
+        this.nCols = image.getInt(28);
+        this.nStrings = image.getInt(32);
+        this.nameIdx = image.getInt(36);
+        checkImage(this.nRows >= 0 && this.nCols >= 0 && this.nStrings >= 0, "negative count");
+        checkImage(this.nameIdx >= 0 && this.nameIdx < this.nStrings, "invalid sheet name index");
+        // Locate the string dictionary.
+        long dirEnd = HEADER_SIZE + (long) DIR_ENTRY_SIZE * this.nCols;
+        long blobStart = dirEnd + 4L * (this.nStrings + 1);
+        checkImage(blobStart <= limit, "directory is truncated");
+        this.dictPos = (int) dirEnd;
+        this.blobPos = (int) blobStart;
+        int prevOffset = 0;
+        checkImage(image.getInt(this.dictPos) == 0, "invalid first string offset");
+        for (int i = 1; i <= this.nStrings; i++) {
+            int offset = image.getInt(this.dictPos + 4 * i);
+            checkImage(offset >= prevOffset, "string offsets out of order");
+            prevOffset = offset;
+        }
+        checkImage(this.blobPos + (long) prevOffset <= limit, "string data is truncated");
+        // Read the column directory.
+        this.headerIdx = new int[this.nCols];
+        this.numeric = new boolean[this.nCols];
+        this.dataOffset = new int[this.nCols];
+        int pos = HEADER_SIZE;
+        for (int c = 0; c < this.nCols; c++) {
+            this.headerIdx[c] = image.getInt(pos);
+            checkImage(this.headerIdx[c] >= 0 && this.headerIdx[c] < this.nStrings, "invalid header index");
+            int type = image.getInt(pos + 4);
+            checkImage(type == NUM_TYPE || type == STRING_TYPE, "invalid column type");
+            this.numeric[c] = (type == NUM_TYPE);
+            long offset = image.getLong(pos + 8);
+            long width = (this.numeric[c] ? 8L : 4L);
+            checkImage(offset >= this.blobPos + (long) prevOffset && offset + width * this.nRows <= limit,
+                    "column data is out of range");
+            this.dataOffset[c] = (int) offset;
+            pos += DIR_ENTRY_SIZE;
+        }
+        this.strings = new String[this.nStrings];
+    }
+
+    /**
+     * Verify a condition on a sidecar image.
+     *
+     * @param ok		TRUE if the image passes the check
+     * @param problem	description of the problem if it fails
+     *
+     * @throws IllegalArgumentException if the check fails
+     */
+    private static void checkImage(boolean ok, String problem) {
+        if (! ok)
+            throw new IllegalArgumentException("Invalid sidecar image: " + problem + ".");
+    }
+
+    /**
+     * Load the data for a worksheet, using the sidecar file if it is current.
+     *
+     * @param inFile		workbook file to read
+     * @param sheetName		name of the sheet to read
+     *
+     * @return a columnar view of the sheet's data
+     *
+     * @throws IOException
+     */
+    public static ColumnarSheet load(File inFile, String sheetName) throws IOException {
+        File sideFile = sidecarFile(inFile, sheetName);
+        ColumnarSheet retVal = null;
+        if (sideFile.canRead())
+            retVal = mapSidecar(inFile, sideFile, sheetName);
+        if (retVal == null) {
+            log.info("Parsing sheet {} from {}.", sheetName, inFile);
+            retVal = parseSheet(inFile, sheetName, sideFile);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the sidecar file for a worksheet in a workbook
+     *
+     * @param inFile		workbook file
+     * @param sheetName		name of the sheet
+     */
+    public static File sidecarFile(File inFile, String sheetName) {
+        // The safe form of the name is only for readability.  Many names have the same safe form, so the hash
+        // of the exact name is what distinguishes the sidecars.
+        byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("SHA-256").digest(sheetName.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+        String nameHash = HexFormat.of().formatHex(hash, 0, NAME_HASH_BYTES);
+        return new File(inFile.getAbsoluteFile().getParentFile(),
+                inFile.getName() + "." + TableName.fix(sheetName) + "." + nameHash + SIDECAR_SUFFIX);
+    }
+
+    /**
+     * Attempt to map a sidecar file.
+     *
+     * @param inFile		workbook file
+     * @param sideFile		sidecar file
+     * @param sheetName		name of the sheet expected in the sidecar
+     *
+     * @return the columnar sheet for the sidecar, or NULL if the sidecar is invalid, out of date, or for
+     * 		   a different sheet
+     *
+     * @throws IOException
+     */
+    private static ColumnarSheet mapSidecar(File inFile, File sideFile, String sheetName) throws IOException {
+        ColumnarSheet retVal = null;
+        try (FileChannel channel = FileChannel.open(sideFile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= HEADER_SIZE && size <= Integer.MAX_VALUE) {
+                ByteBuffer image = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                if (image.getInt(0) == MAGIC && image.getInt(4) == VERSION && image.getLong(8) == inFile.length()
+                        && image.getLong(16) == inFile.lastModified()) {
+                    try {
+                        ColumnarSheet sidecar = new ColumnarSheet(image);
+                        if (sidecar.getSheetName().equals(sheetName)) {
+                            log.debug("Using sidecar file {}.", sideFile);
+                            retVal = sidecar;
+                        }
+                    } catch (RuntimeException e) {
+                        // A damaged sidecar is treated like an out-of-date one, so the sheet is parsed again.
+                        log.warn("Sidecar file {} is damaged: {}", sideFile, e.toString());
+                    }
+                }
+            }
+        }
+        if (retVal == null)
+            log.info("Sidecar file {} is out of date or not for sheet {}.", sideFile, sheetName);
+        return retVal;
+    }
+
+    /**
+     * Parse a worksheet and write its sidecar image.
+     *
+     * @param inFile		workbook file
+     * @param sheetName		name of the sheet to parse
+     * @param sideFile		sidecar file to write
+     *
+     * @return the columnar sheet for the parsed data
+     *
+     * @throws IOException
+     */
+    private static ColumnarSheet parseSheet(File inFile, String sheetName, File sideFile) throws IOException {
+        long fileSize = inFile.length();
+        long modTime = inFile.lastModified();
+        Builder builder = null;
+        // The sheet is read with the event API, so the workbook is never built in memory.
+        try (OPCPackage pkg = OPCPackage.open(inFile, PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(pkg);
+            try (MappedSharedStrings strings = MappedSharedStrings.load(reader)) {
+                XSSFReader.SheetIterator iter = (XSSFReader.SheetIterator) reader.getSheetsData();
+                while (builder == null && iter.hasNext()) {
+                    try (InputStream sheetStream = iter.next()) {
+                        if (iter.getSheetName().equals(sheetName)) {
+                            try (SheetRowReader rows = new SheetRowReader(sheetStream, strings)) {
+                                builder = new Builder(rows, sheetName);
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (OpenXML4JException e) {
+            throw new IOException("Error opening workbook " + inFile + ": " + e.toString(), e);
+        }
+        if (builder == null)
+            throw new IOException("Sheet \"" + sheetName + "\" not found in " + inFile + ".");
+        ColumnarSheet retVal;
+        File tempFile = new File(sideFile.getPath() + ".tmp");
+        try {
+            try (OutputStream outStream = new FileOutputStream(tempFile)) {
+                builder.write(outStream, fileSize, modTime);
+            }
+            Files.move(tempFile.toPath(), sideFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            retVal = mapSidecar(inFile, sideFile, sheetName);
+        } catch (IOException e) {
+            log.warn("Could not write sidecar file {}: {}", sideFile, e.toString());
+            tempFile.delete();
+            retVal = null;
+        }
+        if (retVal == null) {
+            // Here we could not use a sidecar file, so we build the image in memory.
+            ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+            builder.write(outStream, fileSize, modTime);
+            retVal = new ColumnarSheet(ByteBuffer.wrap(outStream.toByteArray()));
+        }
+        return retVal;
+    }
+
+    /**
+     * This class collects the data from a worksheet and writes it as a sidecar image.
+     */
+    private static class Builder {
+
+        /** string dictionary */
+        private final List<String> dictionary;
+        /** map of strings to dictionary indices */
+        private final Map<String, Integer> dictMap;
+        /** header string index for each column */
+        private final int[] headers;
+        /** numeric data for each column, or NULL if the column is strings */
+        private final double[][] numbers;
+        /** string data for each column, or NULL if the column is numeric */
+        private final int[][] strings;
+        /** number of data rows */
+        private final int nRows;
+        /** dictionary index of the sheet name */
+        private final int nameIdx;
+        /** initial number of rows allocated for each column */
+        private static final int INITIAL_ROWS = 1024;
+
+        /**
+         * Collect the data from a worksheet.  The column types are not known until all the rows are read,
+         * so each column is collected as numbers until a non-numeric value is found.
+         *
+         * @param rows			row reader for the worksheet
+         * @param sheetName		sheet name to store in the image
+         *
+         * @throws IOException
+         */
+        protected Builder(SheetRowReader rows, String sheetName) throws IOException {
+            this.dictionary = new ArrayList<>();
+            this.dictMap = new HashMap<>();
+            this.nameIdx = this.intern(sheetName);
+            Object[] row = rows.next();
+            // The headers come from the first row of the sheet, if it is present.
+            int nCols = 0;
+            if (row != null && rows.getRowNum() == 0) {
+                nCols = row.length;
+                this.headers = new int[nCols];
+                for (int c = 0; c < nCols; c++)
+                    this.headers[c] = this.intern(SheetRowReader.stringValue(row[c]));
+                row = rows.next();
+            } else
+                this.headers = new int[0];
+            this.numbers = new double[nCols][];
+            this.strings = new int[nCols][];
+            int capacity = INITIAL_ROWS;
+            for (int c = 0; c < nCols; c++)
+                this.numbers[c] = blankNumbers(new double[capacity], 0);
+            int rowCount = 0;
+            while (row != null) {
+                // Missing rows are left blank.
+                int r = rows.getRowNum() - 1;
+                if (r >= capacity) {
+                    int newCapacity = Math.max(capacity * 2, r + 1);
+                    for (int c = 0; c < nCols; c++) {
+                        if (this.numbers[c] != null)
+                            this.numbers[c] = blankNumbers(Arrays.copyOf(this.numbers[c], newCapacity), capacity);
+                        else
+                            this.strings[c] = blankStrings(Arrays.copyOf(this.strings[c], newCapacity), capacity);
+                    }
+                    capacity = newCapacity;
+                }
+                final int n = Math.min(nCols, row.length);
+                for (int c = 0; c < n; c++) {
+                    if (row[c] != null)
+                        this.store(c, r, row[c]);
+                }
+                rowCount = r + 1;
+                row = rows.next();
+            }
+            this.nRows = rowCount;
+            for (int c = 0; c < nCols; c++) {
+                if (this.numbers[c] != null)
+                    this.numbers[c] = Arrays.copyOf(this.numbers[c], rowCount);
+                else
+                    this.strings[c] = Arrays.copyOf(this.strings[c], rowCount);
+            }
+        }
+
+        /**
+         * Store a non-blank value in a column.  If a numeric column receives a non-numeric value, it is
+         * converted to a string column.
+         *
+         * @param c			column index
+         * @param r			data row index
+         * @param value		value to store (a string or a double)
+         */
+        private void store(int c, int r, Object value) {
+            if (this.numbers[c] != null) {
+                if (value instanceof Double number)
+                    this.numbers[c][r] = number;
+                else {
+                    // Convert the numbers collected so far to strings.
+                    double[] values = this.numbers[c];
+                    int[] indices = new int[values.length];
+                    for (int i = 0; i < values.length; i++)
+                        indices[i] = (Double.isNaN(values[i]) ? -1 : this.intern(Double.toString(values[i])));
+                    this.numbers[c] = null;
+                    this.strings[c] = indices;
+                }
+            }
+            if (this.strings[c] != null) {
+                String string = SheetRowReader.stringValue(value);
+                this.strings[c][r] = (string.isEmpty() ? -1 : this.intern(string));
+            }
+        }
+
+        /**
+         * @return a numeric column array with its values from a given position set to blank
+         *
+         * @param values	array to fill
+         * @param start		first position to fill
+         */
+        private static double[] blankNumbers(double[] values, int start) {
+            Arrays.fill(values, start, values.length, Double.NaN);
+            return values;
+        }
+
+        /**
+         * @return a string column array with its values from a given position set to blank
+         *
+         * @param values	array to fill
+         * @param start		first position to fill
+         */
+        private static int[] blankStrings(int[] values, int start) {
+            Arrays.fill(values, start, values.length, -1);
+            return values;
+        }
+
+        /**
+         * @return the dictionary index of a string, adding it if necessary
+         *
+         * @param value		string to intern
+         */
+        private int intern(String value) {
+            return this.dictMap.computeIfAbsent(value, x -> {
+                this.dictionary.add(x);
+                return this.dictionary.size() - 1;
+            });
+        }
+
+        /**
+         * Write the sidecar image.
+         *
+         * @param outStream		output stream for the image
+         * @param fileSize		size of the source workbook
+         * @param modTime		modification time of the source workbook
+         *
+         * @throws IOException
+         */
+        protected void write(OutputStream outStream, long fileSize, long modTime) throws IOException {
+            final int nCols = this.headers.length;
+            final int nStrings = this.dictionary.size();
+            // Encode the strings so we can compute the data offsets.
+            byte[][] encoded = new byte[nStrings][];
+            long blobSize = 0;
+            for (int i = 0; i < nStrings; i++) {
+                encoded[i] = this.dictionary.get(i).getBytes(StandardCharsets.UTF_8);
+                blobSize += encoded[i].length;
+            }
+            long pos = align(HEADER_SIZE + (long) DIR_ENTRY_SIZE * nCols + 4L * (nStrings + 1) + blobSize);
+            long[] offsets = new long[nCols];
+            for (int c = 0; c < nCols; c++) {
+                offsets[c] = pos;
+                pos = align(pos + (this.numbers[c] != null ? 8L : 4L) * this.nRows);
+            }
+            if (pos > Integer.MAX_VALUE || blobSize > Integer.MAX_VALUE)
+                throw new IOException("Sheet is too large for a sidecar image.");
+            DataOutputStream dataStream = new DataOutputStream(new BufferedOutputStream(outStream));
+            dataStream.writeInt(MAGIC);
+            dataStream.writeInt(VERSION);
+            dataStream.writeLong(fileSize);
+            dataStream.writeLong(modTime);
+            dataStream.writeInt(this.nRows);
+            dataStream.writeInt(nCols);
+            dataStream.writeInt(nStrings);
+            dataStream.writeInt(this.nameIdx);
+            for (int c = 0; c < nCols; c++) {
+                dataStream.writeInt(this.headers[c]);
+                dataStream.writeInt(this.numbers[c] != null ? NUM_TYPE : STRING_TYPE);
+                dataStream.writeLong(offsets[c]);
+            }
+            int blobOffset = 0;
+            dataStream.writeInt(blobOffset);
+            for (byte[] string : encoded) {
+                blobOffset += string.length;
+                dataStream.writeInt(blobOffset);
+            }
+            for (byte[] string : encoded)
+                dataStream.write(string);
+            for (int c = 0; c < nCols; c++) {
+                pad(dataStream, offsets[c]);
+                if (this.numbers[c] != null) {
+                    for (double value : this.numbers[c])
+                        dataStream.writeDouble(value);
+                } else {
+                    for (int value : this.strings[c])
+                        dataStream.writeInt(value);
+                }
+            }
+            dataStream.flush();
+        }
+
+        /**
+         * Pad the output stream with zeroes up to the specified position.
+         *
+         * @param dataStream	output stream
+         * @param pos			desired position
+         *
+         * @throws IOException
+         */
+        private static void pad(DataOutputStream dataStream, long pos) throws IOException {
+            while (dataStream.size() < pos)
+                dataStream.writeByte(0);
+        }
+
+        /**
+         * @return a position rounded up to an 8-byte boundary
+         *
+         * @param pos	position to align
+         */
+        private static long align(long pos) {
+            return (pos + 7) & ~7L;
+        }
+
+    }
+
+    /**
+     * @return the number of data rows
+     */
+    public int size() {
+        return this.nRows;
+    }
+
+    /**
+     * @return the number of columns
+     */
+    public int width() {
+        return this.nCols;
+    }
+
+    /**
+     * @return the header for a column
+     *
+     * @param c		column index
+     */
+    public String getHeader(int c) {
+        return this.getDictString(this.headerIdx[c]);
+    }
+
+    /**
+     * @return the index of the column with the specified header, or -1 if there is none
+     *
+     * @param name	header to find
+     */
+    public int findColumn(String name) {
+        int retVal = -1;
+        for (int c = 0; c < this.nCols && retVal < 0; c++) {
+            if (this.getHeader(c).equals(name))
+                retVal = c;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if the specified column is numeric
+     *
+     * @param c		column index
+     */
+    public boolean isNumeric(int c) {
+        return this.numeric[c];
+    }
+
+    /**
+     * @return a read-only view of the values in a numeric column (NaN for blanks)
+     *
+     * @param c		column index
+     */
+    public DoubleBuffer getNumbers(int c) {
+        if (! this.numeric[c])
+            throw new IllegalArgumentException("Column " + c + " is not numeric.");
+        return this.slice(this.dataOffset[c], 8 * this.nRows).asDoubleBuffer().asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a read-only view of the dictionary indices in a string column (-1 for blanks)
+     *
+     * @param c		column index
+     */
+    public IntBuffer getStringIndices(int c) {
+        if (this.numeric[c])
+            throw new IllegalArgumentException("Column " + c + " is not a string column.");
+        return this.slice(this.dataOffset[c], 4 * this.nRows).asIntBuffer().asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a slice of the image
+     *
+     * @param pos		starting position
+     * @param len		length of the slice
+     */
+    private ByteBuffer slice(int pos, int len) {
+        ByteBuffer retVal = this.image.duplicate();
+        retVal.position(pos);
+        retVal.limit(pos + len);
+        return retVal.slice();
+    }
+
+    /**
+     * @return the numeric value in a cell, or NaN if it is blank or not numeric
+     *
+     * @param r		row index (0-based, not counting the header)
+     * @param c		column index
+     */
+    public double getDouble(int r, int c) {
+        double retVal = Double.NaN;
+        if (this.numeric[c])
+            retVal = this.image.getDouble(this.dataOffset[c] + 8 * r);
+        return retVal;
+    }
+
+    /**
+     * @return the string value in a cell, or an empty string if it is blank
+     *
+     * @param r		row index (0-based, not counting the header)
+     * @param c		column index
+     */
+    public String getString(int r, int c) {
+        String retVal;
+        if (this.numeric[c]) {
+            double value = this.getDouble(r, c);
+            retVal = (Double.isNaN(value) ? "" : Double.toString(value));
+        } else {
+            int idx = this.image.getInt(this.dataOffset[c] + 4 * r);
+            retVal = (idx < 0 ? "" : this.getDictString(idx));
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the string at the specified dictionary index
+     *
+     * @param idx	index of the desired string
+     */
+    public String getDictString(int idx) {
+        String retVal = this.strings[idx];
+        if (retVal == null) {
+            int start = this.image.getInt(this.dictPos + 4 * idx);
+            int end = this.image.getInt(this.dictPos + 4 * (idx + 1));
+            byte[] buffer = new byte[end - start];
+            this.image.duplicate().position(this.blobPos + start).get(buffer);
+            retVal = new String(buffer, StandardCharsets.UTF_8);
+            this.strings[idx] = retVal;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the name of the sheet whose data is in this object
+     */
+    public String getSheetName() {
+        return this.getDictString(this.nameIdx);
+    }
+
+    /**
+     * @return the number of strings in the dictionary
+     */
+    public int getDictSize() {
+        return this.nStrings;
+    }
+
+}
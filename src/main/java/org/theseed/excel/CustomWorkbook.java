@@ -3,41 +3,68 @@
  */
 package org.theseed.excel;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.poi.common.usermodel.HyperlinkType;
+import org.apache.poi.ooxml.POIXMLProperties;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
 import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.ClientAnchor;
+import org.apache.poi.ss.usermodel.Comment;
 import org.apache.poi.ss.usermodel.DataFormat;
+import org.apache.poi.ss.usermodel.Drawing;
 import org.apache.poi.ss.usermodel.FillPatternType;
 import org.apache.poi.ss.usermodel.HorizontalAlignment;
 import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.VerticalAlignment;
+import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.ss.util.AreaReference;
 import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFCell;
 import org.apache.poi.xssf.usermodel.XSSFCellStyle;
-import org.apache.poi.xssf.usermodel.XSSFClientAnchor;
-import org.apache.poi.xssf.usermodel.XSSFComment;
 import org.apache.poi.xssf.usermodel.XSSFCreationHelper;
-import org.apache.poi.xssf.usermodel.XSSFDrawing;
 import org.apache.poi.xssf.usermodel.XSSFFont;
 import org.apache.poi.xssf.usermodel.XSSFHyperlink;
-import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
 import org.apache.poi.xssf.usermodel.XSSFSheet;
 import org.apache.poi.xssf.usermodel.XSSFTable;
+import org.apache.poi.xssf.usermodel.XSSFTableColumn;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openxmlformats.schemas.officeDocument.x2006.customProperties.CTProperties;
+import org.openxmlformats.schemas.officeDocument.x2006.customProperties.CTProperty;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTCell;
 import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTTable;
 import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTTableStyleInfo;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.STCellType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.excel.WorkbookListener.Phase;
 
 /**
  * This object manages a workbook with tables and optionally various useful formattng options.   It supports
@@ -45,6 +72,54 @@ import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTTableStyleInfo;
  * that the data rows will be added sequentially and the cells will be added left to right.  This makes
  * it easy to stream data into the sheets.
  *
+ * A workbook created with {@link #createStreaming(File)} keeps only a window of recent rows in memory and
+ * flushes the rest to temporary files.  This allows very large sheets to be written in linear time and
+ * bounded memory, at the cost of restricting the column operations (auto-sizing and reformatting) to the
+ * rows still in memory.
+ *
+ * Alternatively, {@link #setSheetBudget(long)} lets each sheet start in memory and switch to streaming when
+ * its estimated heap reaches a budget.  A sheet that has switched tracks its column widths as rows are
+ * flushed, and column reformats are applied to the flushed rows when the workbook is written, so the column
+ * operations still cover the whole sheet.
+ *
+ * For plain numeric and text tables written in order, {@link DirectWorkbook} supports the sequential part of
+ * this interface and writes the workbook file directly, without the POI object model.  It can also write the
+ * binary (.xlsb) format, which POI cannot produce and which Excel opens much faster.
+ *
+ * Random-access stores into rows that do not exist yet are buffered and applied when the rows are created.
+ * In a streaming workbook, random-access stores into rows that have already been flushed are buffered until
+ * the workbook is written, and then merged into the sheet data as it is copied to the output file.  This
+ * allows totals to be filled back into the top rows of a streaming sheet.
+ *
+ * A sheet that reaches the row limit (by default, the Excel maximum) is finished and continued in a new sheet
+ * with the same name followed by a part number in parentheses, with the headers repeated.  Optionally, when
+ * the rows or estimated bytes in the workbook reach a budget, the workbook is written and the open sheets are
+ * continued in a new workbook file, whose name has the file number appended.
+ *
+ * A sheet created with {@link #addSortedSheet(String, boolean)} accepts its rows in any order, each with a
+ * sort key.  The rows are recorded in a compact binary form and spilled to temporary run files when they
+ * exceed a memory limit.  When the sheet is closed, the runs are merged and the rows are stored in key order.
+ *
+ * A {@link WorkbookTemplate} captures a prepared workbook (styles, settings, static sheets, and preset
+ * headers) as a byte image, so that many small workbooks can be stamped out without rebuilding it.
+ *
+ * When a workbook is regenerated with {@link #load(File)}, each sheet can be added with a fingerprint of
+ * its source data using {@link #addSheet(String, boolean, String)}.  A sheet whose fingerprint matches the
+ * one saved in the workbook is kept unchanged and need not be generated again.  The new fingerprint is only
+ * saved when the sheet is finished by {@link #closeSheet()} or by adding another sheet, so a sheet left
+ * incomplete by an error is generated again on the next run.
+ *
+ * Text in a sheet kept in memory normally goes into the workbook's shared-strings table, which stores each
+ * distinct value once but must hash every value stored.  Each column can instead store its text inline in
+ * the cells, which is cheaper for columns of unique values such as IDs, or decide between the two from the
+ * fraction of distinct values among its first cells (see {@link StringMode}).  When an automatic column
+ * chooses to share its text, its values are interned in a cache, so a repeated value is stored without going
+ * back through the shared-strings table.  Other shared text is left to the table's own index, so it is not
+ * mapped twice.  Rows created in a streaming wrapper always store their text inline.
+ *
+ * A {@link WorkbookListener} can be attached to monitor row and cell counts and the time spent in each
+ * phase of generation.  When no listener is attached, no timing is done.
+ *
  * @author Bruce Parrello
  *
  */
@@ -64,9 +139,76 @@ public class CustomWorkbook implements AutoCloseable {
         NORMAL, FLAG;
     }
 
+    /**
+     * This enum defines the ways the text in a column can be stored.
+     */
+    public static enum StringMode {
+        /** text is stored in the shared-strings table, so each distinct value is stored once */
+        SHARED,
+        /** text is stored inline in each cell, which avoids the shared-strings cost for unique values */
+        INLINE,
+        /** text is stored inline if most of the column's first values are distinct, and shared otherwise */
+        AUTO;
+    }
+
+    /**
+     * This class tracks the values sampled from a column to choose its string mode.
+     */
+    private static class StringSample {
+
+        /** distinct values sampled */
+        private final Set<String> distinct;
+        /** number of values sampled */
+        private int count;
+
+        /**
+         * Create an empty sample.
+         */
+        private StringSample() {
+            this.distinct = new HashSet<>();
+            this.count = 0;
+        }
+
+        /**
+         * Add a value to the sample.
+         *
+         * @param value		value to add
+         *
+         * @return the chosen string mode, or AUTO if the sample is not yet complete
+         */
+        private StringMode add(String value) {
+            StringMode retVal = StringMode.AUTO;
+            this.distinct.add(value);
+            this.count++;
+            if (this.count >= AUTO_SAMPLE)
+                retVal = (this.distinct.size() > this.count * AUTO_DISTINCT ? StringMode.INLINE : StringMode.SHARED);
+            return retVal;
+        }
+
+    }
+
+    /**
+     * This enum defines the ways cell comments can be stored.
+     */
+    public static enum CommentMode {
+        /** comments are pop-up drawing objects attached to the cells */
+        DRAWING,
+        /** comments are rows in a companion notes sheet, keyed by cell reference */
+        NOTES;
+    }
+
     // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(CustomWorkbook.class);
     /** master workbook */
     private XSSFWorkbook workbook;
+    /** streaming wrapper for the master workbook, or NULL if all rows are kept in memory */
+    private SXSSFWorkbook streamBook;
+    /** streaming wrapper for sheets that switch to streaming when they exceed the sheet budget, or NULL if
+     *  there is no budget */
+    private SXSSFWorkbook spillBook;
+    /** estimated heap bytes a sheet may retain before it switches to streaming, or 0 for no limit */
+    private long sheetBudget;
     /** default floating-point precision ("num") format */
     private int precision;
     /** maximum column width for the current sheet */
@@ -85,6 +227,64 @@ public class CustomWorkbook implements AutoCloseable {
     private int deadTables;
     /** list of open sheets */
     private List<Sheet> openSheets;
+    /** listener for generation metrics, or NULL if there is none */
+    private WorkbookListener listener;
+    /** storage mode for cell comments */
+    private CommentMode commentMode;
+    /** nanoseconds spent in each workbook-level phase */
+    private long[] phaseNanos;
+    /** row window size for a streaming workbook */
+    private int streamWindow;
+    /** map of sheet part names to random-access stores for flushed rows, to be applied after writing */
+    private Map<String, PatchBuffer> deferredPatches;
+    /** map of sheet part names to style changes for flushed rows, to be applied after writing */
+    private Map<String, List<SheetPatcher.Restyle>> deferredRestyles;
+    /** maximum number of rows (including the header) in a sheet before it continues in a new sheet */
+    private int rowLimit;
+    /** maximum number of data rows in a workbook file before rolling to a new file, or 0 for no limit */
+    private int rollRows;
+    /** maximum estimated bytes in a workbook file before rolling to a new file, or 0 for no limit */
+    private long rollBytes;
+    /** number of data rows added to the current workbook file */
+    private int fileRows;
+    /** estimated sheet XML bytes added to the current workbook file */
+    private long fileBytes;
+    /** original output file, from which the names of rolled files are computed */
+    private File baseFile;
+    /** list of workbook files written */
+    private List<File> outFiles;
+    /** map of sheet names to headers to store automatically when the sheets are added */
+    private Map<String, List<String>> presetHeaders;
+    /** template from which this workbook was created, or NULL if it was built from scratch */
+    private WorkbookTemplate template;
+    /** map of text values to their shared-strings indices, for the text of automatically shared columns */
+    private Map<String, Integer> sharedIndex;
+    /** names allocated to notes sheets, in lower case */
+    private Set<String> notesNames;
+    /** number of values sampled from a column to choose its string mode */
+    private static final int AUTO_SAMPLE = 100;
+    /** fraction of distinct sampled values above which a column's text is stored inline */
+    private static final double AUTO_DISTINCT = 0.5;
+    /** largest long integer that can be stored exactly as a number */
+    private static final long MAX_EXACT_LONG = 1L << 53;
+    /** rough estimate of the sheet XML bytes per row */
+    private static final long ROW_XML_BYTES = 20;
+    /** rough estimate of the sheet XML bytes per cell */
+    private static final long CELL_XML_BYTES = 30;
+    /** default memory limit for the buffered rows of a sorted sheet */
+    public static final long DEFAULT_SORT_MEMORY = 64L * 1024 * 1024;
+    /** maximum length of a sheet name in Excel */
+    public static final int MAX_SHEET_NAME = 31;
+    /** rough estimate of the heap bytes retained per cell */
+    private static final long CELL_BYTES = 250;
+    /** rough estimate of the heap bytes retained per row */
+    private static final long ROW_BYTES = 400;
+    /** suffix for the names of notes sheets */
+    private static final String NOTES_SUFFIX = " notes";
+    /** prefix for the names of the custom properties containing sheet fingerprints */
+    private static final String FINGERPRINT_PREFIX = "fingerprint:";
+    /** maximum length of a string constant in a formula */
+    private static final int MAX_FORMULA_STRING = 255;
     /** cell reference for spreadsheet origin */
     private static final CellReference ORIGIN_REF = new CellReference(0, 0);
 
@@ -125,12 +325,14 @@ public class CustomWorkbook implements AutoCloseable {
         // FIELDS
         /** current sheet */
         public XSSFSheet sheet;
+        /** sheet object through which rows are created (the streaming wrapper if we are streaming) */
+        private org.apache.poi.ss.usermodel.Sheet rowSheet;
         /** index of next row to add */
         public int rowIdx;
         /** current sheet header row */
-        public XSSFRow headerRow;
+        public Row headerRow;
         /** current sheet row */
-        public XSSFRow row;
+        public Row row;
         /** index of next cell to add to the row */
         public int colIdx;
         /** maximum width of spreadsheet in cells */
@@ -139,8 +341,44 @@ public class CustomWorkbook implements AutoCloseable {
         public boolean tableMode;
         /** this will be an array of the required header widths */
         public int[] autoWidths;
-        /** drawing helper for comments and graphs */
-        private final XSSFDrawing drawHelper;
+        /** header names, or NULL if no headers have been stored */
+        private List<String> headers;
+        /** drawing helper for comments and graphs, or NULL if it has not been needed yet */
+        private Drawing<?> drawHelper;
+        /** companion sheet for comments in notes mode, or NULL if it has not been needed yet */
+        private Sheet notesSheet;
+        /** base URLs for link-template columns, indexed by column (NULL if the column has none) */
+        private String[] linkTemplates;
+        /** buffered random-access stores for rows not in memory */
+        private PatchBuffer patches;
+        /** number of cells stored */
+        private int cellCount;
+        /** index of the first row created in the streaming wrapper (rows before this are in the sheet) */
+        private int streamStart;
+        /** number of cells stored before the first row created in the streaming wrapper */
+        private int streamCells;
+        /** style changes to apply to flushed rows after the workbook is written */
+        private List<SheetPatcher.Restyle> restyles;
+        /** nanoseconds spent in each phase for the current part of this sheet */
+        private long[] phaseNanos;
+        /** name originally given to this sheet */
+        private final String baseName;
+        /** number of the current part of this sheet (1 for the original worksheet) */
+        private int partNum;
+        /** buffer of rows waiting to be sorted, or NULL if this is not a sorted sheet */
+        private SortedRowBuffer sorter;
+        /** string mode for each column, or NULL if the column uses the sheet's default */
+        private StringMode[] stringModes;
+        /** default string mode for the columns */
+        private StringMode defaultStringMode;
+        /** value samples for the columns whose string mode is being chosen (NULL if there is none) */
+        private StringSample[] samples;
+        /** TRUE for each column that chose to share its text automatically, and so uses the interning cache */
+        private boolean[] interned;
+        /** content fingerprint to save when the sheet is finished, or NULL if there is none */
+        private String fingerprint;
+        /** TRUE if this is a companion sheet, which is finished with its parent sheet */
+        private boolean companion;
 
         /**
          * Create a new worksheet.
@@ -149,11 +387,79 @@ public class CustomWorkbook implements AutoCloseable {
          * @param isTable	TRUE to make this worksheet a table
          */
         protected Sheet(String name, boolean isTable) {
+            this.baseName = name;
+            this.partNum = 1;
+            this.tableMode = isTable;
+            this.linkTemplates = new String[0];
+            this.sorter = null;
+            this.stringModes = new StringMode[0];
+            this.defaultStringMode = StringMode.SHARED;
+            this.samples = new StringSample[0];
+            this.interned = new boolean[0];
+            this.fingerprint = null;
+            this.companion = false;
+            this.open(name);
+        }
+
+        /**
+         * Make this a sorted sheet.  Each row must be added with a sort key, and the rows are stored in
+         * key order when the sheet is closed or a column operation is performed.  Random-access stores and
+         * column operations cause the rows added so far to be stored, and turn off sorting.
+         *
+         * @param comparator	comparator for the sort keys
+         * @param memoryLimit	maximum estimated heap bytes of rows to buffer before spilling to disk
+         */
+        public void setSorted(Comparator<String> comparator, long memoryLimit) {
+            if (this.rowIdx > 1)
+                throw new IllegalStateException("Sheet " + this.sheet.getSheetName() + " already has data rows.");
+            this.sorter = new SortedRowBuffer(comparator, memoryLimit);
+        }
+
+        /**
+         * @return TRUE if rows are still being buffered for sorting
+         */
+        public boolean isSorted() {
+            return this.sorter != null;
+        }
+
+        /**
+         * Add a new data row with a sort key.  If this is not a sorted sheet, the key is ignored.
+         *
+         * @param key		sort key for the row
+         */
+        public void addRow(String key) {
+            if (this.sorter != null)
+                this.sorter.startRow(key);
+            else
+                this.addRow();
+        }
+
+        /**
+         * Store the buffered rows of a sorted sheet in key order, and turn off sorting.
+         */
+        private void sortRows() {
+            if (this.sorter != null) {
+                SortedRowBuffer buffer = this.sorter;
+                this.sorter = null;
+                buffer.replay(this);
+            }
+        }
+
+        /**
+         * Create the underlying worksheet for the current part of this sheet, and position ourselves at the
+         * top of it.
+         *
+         * @param name		name of the worksheet to create
+         */
+        private void open(String name) {
+            // All sheets are created through the row workbook, so that they are wrapped if we are streaming.
+            Workbook rowBook = CustomWorkbook.this.getRowBook();
             // Does this sheet already exist?
             XSSFSheet oldSheet = CustomWorkbook.this.workbook.getSheet(name);
             if (oldSheet != null) {
                 // Yes.  Create a new sheet with a dummy name.
-                this.sheet = CustomWorkbook.this.workbook.createSheet();
+                this.rowSheet = rowBook.createSheet();
+                this.sheet = CustomWorkbook.this.workbook.getSheetAt(rowBook.getSheetIndex(this.rowSheet));
                 // We must set up the old sheet for deletion.  We have to delete it at the
                 // end because of a bug in apache.
                 CustomWorkbook.this.deleteQueue.add(oldSheet);
@@ -173,15 +479,141 @@ public class CustomWorkbook implements AutoCloseable {
                 CustomWorkbook.this.workbook.setSheetName(newIdx, name);
             } else {
                 // Sheet is new.  Create it the simple way.
-                this.sheet = CustomWorkbook.this.workbook.createSheet(name);
+                this.rowSheet = rowBook.createSheet(name);
+                this.sheet = CustomWorkbook.this.workbook.getSheetAt(rowBook.getSheetIndex(this.rowSheet));
             }
+            // If we are not streaming, the sheet starts in memory even if it is wrapped for a later switch.
+            if (CustomWorkbook.this.streamBook == null)
+                this.rowSheet = this.sheet;
             // Create the header row.
-            this.headerRow = this.sheet.createRow(0);
-            // Position ourselves at the top of the sheet.
-            this.drawHelper = this.sheet.createDrawingPatriarch();
+            this.headerRow = this.rowSheet.createRow(0);
+            // Position ourselves at the top of the sheet.  The drawing and the notes sheet are created when
+            // the first comment is stored.
+            this.drawHelper = null;
+            this.notesSheet = null;
             this.rowIdx = 1;
             this.maxCols = 0;
-            this.tableMode = isTable;
+            this.cellCount = 0;
+            this.streamStart = 0;
+            this.streamCells = 0;
+            this.restyles = new ArrayList<>();
+            this.patches = new PatchBuffer();
+            this.phaseNanos = new long[Phase.values().length];
+        }
+
+        /**
+         * Continue this sheet in a new worksheet, repeating the headers.  The current worksheet is
+         * finished, and the new one is named with the part number in parentheses.
+         */
+        private void overflow() {
+            this.finishPart();
+            this.partNum++;
+            String suffix = " (" + this.partNum + ")";
+            String name = StringUtils.left(this.baseName, MAX_SHEET_NAME - suffix.length()) + suffix;
+            log.info("Sheet {} is full.  Continuing in sheet {}.", this.sheet.getSheetName(), name);
+            this.open(name);
+            if (this.headers != null)
+                this.setHeaders(this.headers);
+        }
+
+        /**
+         * Restart this sheet in a new workbook, repeating the headers.  This is called after the current
+         * part has been finished and the workbook has been replaced.
+         */
+        private void reopen() {
+            this.partNum = 1;
+            this.open(this.baseName);
+            if (this.headers != null)
+                this.setHeaders(this.headers);
+        }
+
+        /**
+         * @return the start time for a timed phase, or 0 if we are not timing
+         */
+        private long startTimer() {
+            return (CustomWorkbook.this.listener == null ? 0 : System.nanoTime());
+        }
+
+        /**
+         * Record the time spent in a phase.
+         *
+         * @param phase		phase being timed
+         * @param start		start time returned by {@link #startTimer()}
+         */
+        private void stopTimer(Phase phase, long start) {
+            if (start != 0)
+                this.phaseNanos[phase.ordinal()] += System.nanoTime() - start;
+        }
+
+        /**
+         * @return the estimated heap space retained by this sheet
+         */
+        public long getHeapEstimate() {
+            long rows = this.rowIdx;
+            long cells = this.cellCount;
+            if (this.rowSheet instanceof SXSSFSheet) {
+                // Only the rows before the switch to streaming and the rows in the window are in memory.
+                long window = CustomWorkbook.this.getWindow();
+                long streamRows = rows - this.streamStart;
+                long streamCells = cells - this.streamCells;
+                if (streamRows > window) {
+                    streamCells = streamCells * window / streamRows;
+                    streamRows = window;
+                }
+                rows = this.streamStart + streamRows;
+                cells = this.streamCells + streamCells;
+            }
+            return rows * ROW_BYTES + cells * CELL_BYTES;
+        }
+
+        /**
+         * @return TRUE if rows are being created in a streaming wrapper for this sheet
+         */
+        public boolean isStreaming() {
+            return this.rowSheet instanceof SXSSFSheet;
+        }
+
+        /**
+         * Switch this sheet from memory to streaming.  The rows already created stay in memory, and new
+         * rows are created in the streaming wrapper, so the heap retained by the sheet stops growing.
+         * All the columns are tracked for autosizing from this point, so the column widths of the rows
+         * flushed can still be computed.
+         */
+        private void switchToStreaming() {
+            SXSSFWorkbook spillBook = CustomWorkbook.this.spillBook;
+            SXSSFSheet streamSheet = spillBook.getSheetAt(CustomWorkbook.this.workbook.getSheetIndex(this.sheet));
+            log.info("Sheet {} has an estimated {} bytes in {} rows.  Switching to streaming.",
+                    this.sheet.getSheetName(), this.getHeapEstimate(), this.rowIdx);
+            streamSheet.trackAllColumnsForAutoSizing();
+            this.streamStart = this.rowIdx;
+            this.streamCells = this.cellCount;
+            this.rowSheet = streamSheet;
+        }
+
+        /**
+         * @return TRUE if rows have been flushed out of memory
+         */
+        private boolean hasFlushed() {
+            return (this.rowSheet instanceof SXSSFSheet streamSheet && streamSheet.getLastFlushedRowNum() >= 0);
+        }
+
+        /**
+         * @return the specified row, or NULL if it does not exist or has been flushed out of memory
+         *
+         * @param r		row index
+         */
+        private Row getMemoryRow(int r) {
+            Row retVal = this.rowSheet.getRow(r);
+            if (retVal == null && r < this.streamStart)
+                retVal = this.sheet.getRow(r);
+            return retVal;
+        }
+
+        /**
+         * @return the number of cells stored in this sheet
+         */
+        public int getCellCount() {
+            return this.cellCount;
         }
 
         /**
@@ -193,13 +625,42 @@ public class CustomWorkbook implements AutoCloseable {
             // Select the style.
             XSSFCellStyle style = (this.tableMode ? CustomWorkbook.this.textStyle : CustomWorkbook.this.headStyle);
             final int n = headers.size();
+            this.headers = new ArrayList<>(headers);
             this.autoWidths = new int[n];
+            if (n > this.maxCols) this.maxCols = n;
+            long start = this.startTimer();
             for (int i = 0; i < n; i++) {
-                XSSFCell curr = this.headerRow.createCell(i, CellType.STRING);
+                Cell curr = this.headerRow.createCell(i, CellType.STRING);
                 curr.setCellValue(headers.get(i));
                 curr.setCellStyle(style);
-                this.sheet.autoSizeColumn(i);
-                this.autoWidths[i] = this.sheet.getColumnWidth(i) + (this.tableMode ? 512 : 16);
+                this.sizeColumn(i);
+                this.autoWidths[i] = this.rowSheet.getColumnWidth(i) + (this.tableMode ? 512 : 16);
+            }
+            this.stopTimer(Phase.AUTOSIZE, start);
+        }
+
+        /**
+         * Size a column to fit the rows currently in memory.  For a streaming sheet, this is only the
+         * rows in the window, since we do not track column widths while rows are flushed.  For a sheet
+         * that switched to streaming, the column widths are tracked as rows are flushed, so all the rows
+         * are included.
+         *
+         * @param c		index of the column to size
+         */
+        private void sizeColumn(int c) {
+            if (! (this.rowSheet instanceof SXSSFSheet streamSheet))
+                this.rowSheet.autoSizeColumn(c);
+            else if (this.streamStart > 0) {
+                // Size the rows kept in memory, then the streamed rows, and keep the larger width.
+                this.sheet.autoSizeColumn(c);
+                int width = this.sheet.getColumnWidth(c);
+                streamSheet.autoSizeColumn(c);
+                if (streamSheet.getColumnWidth(c) < width)
+                    streamSheet.setColumnWidth(c, width);
+            } else {
+                streamSheet.trackColumnForAutoSizing(c);
+                streamSheet.autoSizeColumn(c);
+                streamSheet.untrackColumnForAutoSizing(c);
             }
         }
 
@@ -213,23 +674,46 @@ public class CustomWorkbook implements AutoCloseable {
          * @param max		minimum "high" value
          */
         public void storeCell(double value, double min, double max) {
-            XSSFCell cell = this.addCell();
-            cell.setCellValue(value);
-            if (value <= min)
-                cell.setCellStyle(CustomWorkbook.this.lowStyle);
-            else if (value >= max)
-                cell.setCellStyle(CustomWorkbook.this.highStyle);
-            else
-                cell.setCellStyle(CustomWorkbook.this.numStyle);
+            if (this.sorter != null)
+                this.sorter.addRange(value, min, max);
+            else {
+                long start = this.startTimer();
+                Cell cell = this.addCell();
+                cell.setCellValue(value);
+                if (value <= min)
+                    cell.setCellStyle(CustomWorkbook.this.lowStyle);
+                else if (value >= max)
+                    cell.setCellStyle(CustomWorkbook.this.highStyle);
+                else
+                    cell.setCellStyle(CustomWorkbook.this.numStyle);
+                this.stopTimer(Phase.CELLS, start);
+            }
         }
 
         /**
-         * Add a new data row to the sheet.
+         * Add a new data row to the sheet.  If the workbook file has reached its budget, the workbook is
+         * written first, and the sheet continues in a new workbook file.
          */
         public void addRow() {
-            this.row = this.sheet.createRow(this.rowIdx);
+            if (this.sorter != null)
+                throw new IllegalStateException("Rows in sorted sheet " + this.sheet.getSheetName() + " must have sort keys.");
+            // A companion sheet is written in the middle of a row of its parent, so it cannot start a new file.
+            if (! this.companion && CustomWorkbook.this.isRollDue())
+                CustomWorkbook.this.roll();
+            if (this.rowIdx >= CustomWorkbook.this.rowLimit)
+                this.overflow();
+            if (CustomWorkbook.this.sheetBudget > 0 && this.rowSheet == this.sheet
+                    && this.getHeapEstimate() >= CustomWorkbook.this.sheetBudget)
+                this.switchToStreaming();
+            this.row = this.rowSheet.createRow(this.rowIdx);
+            if (! this.patches.isEmpty())
+                this.cellCount += this.patches.apply(this.rowIdx, this.row);
             this.colIdx = 0;
             this.rowIdx++;
+            CustomWorkbook.this.fileRows++;
+            CustomWorkbook.this.fileBytes += ROW_XML_BYTES;
+            if (CustomWorkbook.this.listener != null)
+                CustomWorkbook.this.listener.rowAdded(this.sheet.getSheetName(), this.rowIdx - 1, this.cellCount);
         }
 
         /**
@@ -237,9 +721,11 @@ public class CustomWorkbook implements AutoCloseable {
          *
          * @return the new cell added
          */
-        private XSSFCell addCell() {
-            XSSFCell retVal = this.row.createCell(this.colIdx);
+        private Cell addCell() {
+            Cell retVal = this.row.createCell(this.colIdx);
             this.colIdx++;
+            this.cellCount++;
+            CustomWorkbook.this.fileBytes += CELL_XML_BYTES;
             if (this.colIdx > this.maxCols) this.maxCols = this.colIdx;
             return retVal;
         }
@@ -251,8 +737,14 @@ public class CustomWorkbook implements AutoCloseable {
          * @param style		style of number
          */
         public void storeCell(double value, Num style) {
-            XSSFCell cell = this.addCell();
-            this.storeDouble(cell, value, style);
+            if (this.sorter != null)
+                this.sorter.addNumber(value, style);
+            else {
+                long start = this.startTimer();
+                Cell cell = this.addCell();
+                this.storeDouble(cell, value, style);
+                this.stopTimer(Phase.CELLS, start);
+            }
         }
 
         /**
@@ -262,18 +754,28 @@ public class CustomWorkbook implements AutoCloseable {
          * @param value		value to store
          * @param style		style of number
          */
-        private void storeDouble(XSSFCell cell, double value, Num style) {
+        private void storeDouble(Cell cell, double value, Num style) {
             cell.setCellValue(value);
-            switch (style) {
-            case NORMAL -> cell.setCellStyle(CustomWorkbook.this.numStyle);
-            case FRACTION -> cell.setCellStyle(CustomWorkbook.this.fracStyle);
-            case ML -> cell.setCellStyle(CustomWorkbook.this.mlStyle);
-            }
+            cell.setCellStyle(this.numStyle(style));
+        }
+
+        /**
+         * @return the cell style for a number style
+         *
+         * @param style		style of number
+         */
+        private CellStyle numStyle(Num style) {
+            return switch (style) {
+            case NORMAL -> CustomWorkbook.this.numStyle;
+            case FRACTION -> CustomWorkbook.this.fracStyle;
+            case ML -> CustomWorkbook.this.mlStyle;
+            };
         }
 
         /**
          * Store a floating-point value in a random cell.  Random-access stores should be done after
-         * the sequential storing that is the norm.
+         * the sequential storing that is the norm.  If the target row is not in memory, the store is
+         * buffered until the row is created or the workbook is written.
          *
          * @param r			target row index
          * @param c			target column index
@@ -282,34 +784,79 @@ public class CustomWorkbook implements AutoCloseable {
          *
          */
         public void storeCell(int r, int c, double value, Num style) {
-            XSSFCell cell = this.findCell(r, c);
-            this.storeDouble(cell, value, style);
+            this.sortRows();
+            long start = this.startTimer();
+            Cell cell = this.findCell(r, c);
+            if (cell != null)
+                this.storeDouble(cell, value, style);
+            else
+                this.patches.addNumber(r, c, value, this.numStyle(style));
+            this.stopTimer(Phase.CELLS, start);
         }
 
         /**
-         * @return the identified spreadsheet cell
+         * @return the identified spreadsheet cell, or NULL if its row is not in memory
          *
          * @param r		target row index
          * @param c		target column index
          */
-        private XSSFCell findCell(int r, int c) {
-            var myRow = this.sheet.getRow(r);
-            if (myRow == null)
-                myRow = this.sheet.createRow(r);
-            return myRow.createCell(c);
+        private Cell findCell(int r, int c) {
+            Cell retVal = null;
+            var myRow = this.getMemoryRow(r);
+            if (myRow != null) {
+                this.cellCount++;
+                retVal = myRow.createCell(c);
+            }
+            return retVal;
         }
 
         /**
          * Store a string value in a random cell.  Random stores should be done after the sequential storing
-         * that is the norm.
+         * that is the norm.  If the target row is not in memory, the store is buffered until the row is
+         * created or the workbook is written.
          *
          * @param r			target row index
          * @param c			target column index
          * @param value		value to store
          */
         public void storeCell(int r, int c, String value) {
+            this.sortRows();
+            long start = this.startTimer();
             var cell = this.findCell(r, c);
-            cell.setCellValue(value);
+            if (cell != null)
+                this.setText(cell, value);
+            else
+                this.patches.addString(r, c, value);
+            this.stopTimer(Phase.CELLS, start);
+        }
+
+        /**
+         * @return the number of random-access stores still buffered for this sheet
+         */
+        public int getPendingCount() {
+            return this.patches.size();
+        }
+
+        /**
+         * Apply the buffered random-access stores that can still be applied in memory.  Stores for rows past
+         * the end of the sheet create the rows.  Anything left is for rows flushed from a streaming sheet,
+         * and is passed to the workbook to be applied after writing.
+         */
+        private void flushPatches() {
+            int r = this.patches.nextRow(-1);
+            while (r >= 0) {
+                Row myRow = this.getMemoryRow(r);
+                if (myRow == null && r >= this.rowIdx)
+                    myRow = this.rowSheet.createRow(r);
+                if (myRow != null)
+                    this.cellCount += this.patches.apply(r, myRow);
+                r = this.patches.nextRow(r);
+            }
+            if (! this.patches.isEmpty()) {
+                this.cellCount += this.patches.size();
+                String partName = this.sheet.getPackagePart().getPartName().getName();
+                CustomWorkbook.this.deferredPatches.put(partName, this.patches);
+            }
         }
 
         /**
@@ -318,9 +865,35 @@ public class CustomWorkbook implements AutoCloseable {
          * @param value		value to store
          */
         public void storeCell(int value) {
-            XSSFCell cell = this.addCell();
-            cell.setCellValue((double) value);
-            cell.setCellStyle(CustomWorkbook.this.intStyle);
+            if (this.sorter != null)
+                this.sorter.addInt(value);
+            else {
+                long start = this.startTimer();
+                Cell cell = this.addCell();
+                cell.setCellValue((double) value);
+                cell.setCellStyle(CustomWorkbook.this.intStyle);
+                this.stopTimer(Phase.CELLS, start);
+            }
+        }
+
+        /**
+         * Store a long integer value in the next cell of this row.  Excel keeps numbers as floating-point, so
+         * a value too large to be represented exactly is stored as text, which preserves all its digits.
+         *
+         * @param value		value to store
+         */
+        public void storeCell(long value) {
+            if (value > MAX_EXACT_LONG || value < -MAX_EXACT_LONG)
+                this.storeCell(Long.toString(value), Text.NORMAL);
+            else if (this.sorter != null)
+                this.sorter.addLong(value);
+            else {
+                long start = this.startTimer();
+                Cell cell = this.addCell();
+                cell.setCellValue((double) value);
+                cell.setCellStyle(CustomWorkbook.this.intStyle);
+                this.stopTimer(Phase.CELLS, start);
+            }
         }
 
         /**
@@ -330,17 +903,175 @@ public class CustomWorkbook implements AutoCloseable {
          * @param style		style of text
          */
         public void storeCell(String value, Text style) {
-            if (StringUtils.isBlank(value))
-                this.addCell();
+            if (this.sorter != null)
+                this.sorter.addText(value, style);
             else {
-                // Here we have real text to store in the cell.
-                XSSFCell cell = this.addCell();
+                long start = this.startTimer();
+                if (StringUtils.isBlank(value))
+                    this.addCell();
+                else {
+                    // Here we have real text to store in the cell.
+                    Cell cell = this.addCell();
+                    if (! this.storeTemplateLink(cell, value)) {
+                        this.setText(cell, value);
+                        switch (style) {
+                        case NORMAL -> cell.setCellStyle(CustomWorkbook.this.textStyle);
+                        case FLAG -> cell.setCellStyle(CustomWorkbook.this.flagStyle);
+                        }
+                    }
+                }
+                this.stopTimer(Phase.CELLS, start);
+            }
+        }
+
+        /**
+         * Store a text value in a cell according to the string mode of the cell's column.
+         *
+         * @param cell		target cell
+         * @param value		text to store
+         */
+        private void setText(Cell cell, String value) {
+            if (cell instanceof XSSFCell xcell && xcell.getCellType() != CellType.FORMULA
+                    && value.length() <= SpreadsheetVersion.EXCEL2007.getMaxTextLength()) {
+                final int c = cell.getColumnIndex();
+                StringMode mode = this.chooseStringMode(c, value);
+                if (mode == StringMode.INLINE) {
+                    CTCell ctCell = xcell.getCTCell();
+                    ctCell.setT(STCellType.INLINE_STR);
+                    // The rich-text wrapper marks leading and trailing spaces to be preserved.
+                    ctCell.setIs(new XSSFRichTextString(value).getCTRst());
+                } else if (c < this.interned.length && this.interned[c])
+                    CustomWorkbook.this.storeShared(xcell, value);
+                else
+                    cell.setCellValue(value);
+            } else {
+                // Streamed cells always store text inline, and POI handles formula cells and over-long strings.
                 cell.setCellValue(value);
-                switch (style) {
-                case NORMAL -> cell.setCellStyle(CustomWorkbook.this.textStyle);
-                case FLAG -> cell.setCellStyle(CustomWorkbook.this.flagStyle);
+            }
+        }
+
+        /**
+         * @return the string mode for a text value in a column; while a column's mode is being chosen,
+         * 		   this is SHARED
+         *
+         * @param c			index of the column
+         * @param value		value being stored
+         */
+        private StringMode chooseStringMode(int c, String value) {
+            StringMode retVal = (c < this.stringModes.length && this.stringModes[c] != null ? this.stringModes[c]
+                    : this.defaultStringMode);
+            if (retVal == StringMode.AUTO) {
+                if (c >= this.samples.length)
+                    this.samples = Arrays.copyOf(this.samples, c + 1);
+                if (this.samples[c] == null)
+                    this.samples[c] = new StringSample();
+                retVal = this.samples[c].add(value);
+                if (retVal == StringMode.AUTO)
+                    retVal = StringMode.SHARED;
+                else {
+                    // The choice is made, so it becomes the column's mode.
+                    log.debug("Text in column {} of sheet {} will be stored {}.", c, this.sheet.getSheetName(), retVal);
+                    this.samples[c] = null;
+                    this.storeStringMode(c, retVal);
+                    if (retVal == StringMode.SHARED) {
+                        if (c >= this.interned.length)
+                            this.interned = Arrays.copyOf(this.interned, c + 1);
+                        this.interned[c] = true;
+                    }
+                }
+            }
+            return retVal;
+        }
+
+        /**
+         * Record the string mode of a column.
+         *
+         * @param c			index of the column
+         * @param mode		new string mode, or NULL to use the sheet's default
+         */
+        private void storeStringMode(int c, StringMode mode) {
+            if (c >= this.stringModes.length)
+                this.stringModes = Arrays.copyOf(this.stringModes, c + 1);
+            this.stringModes[c] = mode;
+        }
+
+        /**
+         * Specify how the text in a column is stored.  This affects only text stored after the call, and only
+         * in rows kept in memory.
+         *
+         * @param c			index of the column
+         * @param mode		new string mode, or NULL to use the sheet's default
+         */
+        public void setStringMode(int c, StringMode mode) {
+            this.storeStringMode(c, mode);
+            if (c < this.samples.length)
+                this.samples[c] = null;
+            if (c < this.interned.length)
+                this.interned[c] = false;
+        }
+
+        /**
+         * Specify how the text is stored in columns that have no string mode of their own.  A column that
+         * has chosen its mode automatically keeps its choice.  The default is SHARED.
+         *
+         * @param mode		new default string mode
+         */
+        public void setStringMode(StringMode mode) {
+            this.defaultStringMode = mode;
+        }
+
+        /**
+         * @return the string mode of a column; for an automatic column, this is AUTO until the choice is made
+         *
+         * @param c			index of the column
+         */
+        public StringMode getStringMode(int c) {
+            return (c < this.stringModes.length && this.stringModes[c] != null ? this.stringModes[c]
+                    : this.defaultStringMode);
+        }
+
+        /**
+         * Specify a link template for a column.  Each non-blank text value subsequently stored in the column
+         * without an explicit URL will be linked to the base URL followed by the value.  The link is stored
+         * as a HYPERLINK formula with the value cached, rather than as a separate hyperlink object, which
+         * is much cheaper for columns with large numbers of links.
+         *
+         * @param c			index of the column
+         * @param baseUrl	base URL for the links, or NULL to turn off templated links
+         */
+        public void setLinkTemplate(int c, String baseUrl) {
+            if (c >= this.linkTemplates.length)
+                this.linkTemplates = Arrays.copyOf(this.linkTemplates, c + 1);
+            this.linkTemplates[c] = baseUrl;
+        }
+
+        /**
+         * Store a templated link in a cell, if the cell's column has a link template.
+         *
+         * @param cell		cell to receive the link
+         * @param value		text value for the cell
+         *
+         * @return TRUE if a link was stored, FALSE if the cell has not been filled in
+         */
+        private boolean storeTemplateLink(Cell cell, String value) {
+            boolean retVal = false;
+            int c = cell.getColumnIndex();
+            if (c < this.linkTemplates.length && this.linkTemplates[c] != null) {
+                String url = this.linkTemplates[c] + value;
+                // Excel limits the length of string constants in formulas.
+                if (url.length() <= MAX_FORMULA_STRING && value.length() <= MAX_FORMULA_STRING) {
+                    cell.setCellFormula("HYPERLINK(" + formulaString(url) + "," + formulaString(value) + ")");
+                    cell.setCellValue(value);
+                    cell.setCellStyle(CustomWorkbook.this.linkStyle);
+                    retVal = true;
+                } else {
+                    // Fall back to a normal link object.
+                    this.setText(cell, value);
+                    this.decorate(cell, url, null);
+                    retVal = true;
                 }
             }
+            return retVal;
         }
 
         /**
@@ -351,14 +1082,24 @@ public class CustomWorkbook implements AutoCloseable {
          * @param comment	comment for the cell (NULL for none)
          */
         public void storeCell(String value, String url, String comment) {
-            if (StringUtils.isBlank(value))
-                this.addCell();
+            if (this.sorter != null)
+                this.sorter.addLink(value, url, comment);
             else {
-                // Here we have real text to put in the cell.
-                XSSFCell cell = this.addCell();
-                cell.setCellValue(value);
-                // Process the link and comment.
-                this.decorate(cell, url, comment);
+                long start = this.startTimer();
+                if (StringUtils.isBlank(value))
+                    this.addCell();
+                else {
+                    // Here we have real text to put in the cell.
+                    Cell cell = this.addCell();
+                    if (StringUtils.isBlank(url) && this.storeTemplateLink(cell, value))
+                        this.addComment(cell, comment);
+                    else {
+                        this.setText(cell, value);
+                        // Process the link and comment.
+                        this.decorate(cell, url, comment);
+                    }
+                }
+                this.stopTimer(Phase.CELLS, start);
             }
         }
 
@@ -369,7 +1110,7 @@ public class CustomWorkbook implements AutoCloseable {
          * @param url		URL for the link, or NULL for no link
          * @param comment	text of the comment, or NULL for no comment
          */
-        private void decorate(XSSFCell cell, String url, String comment) {
+        private void decorate(Cell cell, String url, String comment) {
             if (StringUtils.isBlank(url)) {
                 // No link was provided, so format the cell as text.
                 cell.setCellStyle(CustomWorkbook.this.textStyle);
@@ -380,25 +1121,79 @@ public class CustomWorkbook implements AutoCloseable {
                 cell.setHyperlink(link);
                 cell.setCellStyle(CustomWorkbook.this.linkStyle);
             }
+            this.addComment(cell, comment);
+        }
+
+        /**
+         * Add an optional comment to a cell.
+         *
+         * @param cell		cell to receive the comment
+         * @param comment	text of the comment, or NULL for no comment
+         */
+        private void addComment(Cell cell, String comment) {
             if (! StringUtils.isBlank(comment)) {
                 // Here we have to add a comment.
-                int r = cell.getRowIndex();
-                int c = cell.getColumnIndex();
-                // This describes where the comment appears.  It appears under the cell.  The first four 0s are
-                // within-cell displacements.  We cover 5 columns and 2 rows.
-                XSSFClientAnchor anchor = this.drawHelper.createAnchor(0, 0, 0, 0, c, r+1, c+5, r+3);
-                XSSFComment commentObject = this.drawHelper.createCellComment(anchor);
-                commentObject.setAddress(r, c);
-                commentObject.setString(comment);
-                cell.setCellComment(commentObject);
+                long start = this.startTimer();
+                switch (CustomWorkbook.this.commentMode) {
+                case DRAWING -> this.addDrawingComment(cell, comment);
+                case NOTES -> this.addNote(cell, comment);
+                }
+                this.stopTimer(Phase.COMMENTS, start);
+            }
+        }
+
+        /**
+         * Attach a pop-up comment to a cell.
+         *
+         * @param cell		cell to receive the comment
+         * @param comment	text of the comment
+         */
+        private void addDrawingComment(Cell cell, String comment) {
+            if (this.drawHelper == null)
+                this.drawHelper = this.rowSheet.createDrawingPatriarch();
+            int r = cell.getRowIndex();
+            int c = cell.getColumnIndex();
+            // This describes where the comment appears.  It appears under the cell.  The first four 0s are
+            // within-cell displacements.  We cover 5 columns and 2 rows.
+            ClientAnchor anchor = this.drawHelper.createAnchor(0, 0, 0, 0, c, r+1, c+5, r+3);
+            Comment commentObject = this.drawHelper.createCellComment(anchor);
+            commentObject.setAddress(r, c);
+            commentObject.setString(CustomWorkbook.this.helper.createRichTextString(comment));
+            cell.setCellComment(commentObject);
+        }
+
+        /**
+         * Record the comment for a cell in the notes sheet.  Each note is a row containing the cell reference,
+         * the cell value, and the comment text.
+         *
+         * @param cell		cell being commented
+         * @param comment	text of the comment
+         */
+        private void addNote(Cell cell, String comment) {
+            if (this.notesSheet == null) {
+                // The notes sheet is closed with this one, so it is not put in the open-sheet list.
+                String name = CustomWorkbook.this.notesSheetName(this.sheet.getSheetName());
+                this.notesSheet = CustomWorkbook.this.new Sheet(name, false);
+                this.notesSheet.companion = true;
+                this.notesSheet.setHeaders(List.of("cell", "value", "comment"));
             }
+            this.notesSheet.addRow();
+            this.notesSheet.storeCell(new CellReference(cell.getRowIndex(), cell.getColumnIndex()).formatAsString(), Text.NORMAL);
+            if (cell.getCellType() == CellType.NUMERIC)
+                this.notesSheet.storeCell(cell.getNumericCellValue(), Num.NORMAL);
+            else
+                this.notesSheet.storeCell(ExcelUtils.stringValue(cell), Text.NORMAL);
+            this.notesSheet.storeCell(comment, Text.NORMAL);
         }
 
         /**
          * Store an empty cell in the current position.
          */
         public void storeBlankCell() {
-            this.addCell();
+            if (this.sorter != null)
+                this.sorter.addBlank();
+            else
+                this.addCell();
         }
 
         /**
@@ -409,9 +1204,15 @@ public class CustomWorkbook implements AutoCloseable {
          * @param comment	comment text (or NULL if no comment)
          */
         public void storeCell(int value, String url, String comment) {
-            XSSFCell cell = this.addCell();
-            cell.setCellValue((double) value);
-            this.decorate(cell, url, comment);
+            if (this.sorter != null)
+                this.sorter.addIntLink(value, url, comment);
+            else {
+                long start = this.startTimer();
+                Cell cell = this.addCell();
+                cell.setCellValue((double) value);
+                this.decorate(cell, url, comment);
+                this.stopTimer(Phase.CELLS, start);
+            }
         }
 
         /**
@@ -433,16 +1234,34 @@ public class CustomWorkbook implements AutoCloseable {
         }
 
         /**
-         * Reformat a number column as integer.
+         * Reformat a number column as integer.  Flushed rows are reformatted after the workbook is written.
          *
          * @param c		index of the column to reformat
          */
         public void reformatIntColumn(int c) {
+            this.sortRows();
             for (int r = 1; r < this.rowIdx; r++) {
-                XSSFCell cell = this.sheet.getRow(r).getCell(c);
-                if (cell.getCellType() == CellType.NUMERIC)
+                Cell cell = this.getCell(r, c);
+                if (cell != null && cell.getCellType() == CellType.NUMERIC)
                     cell.setCellStyle(CustomWorkbook.this.intStyle);
             }
+            if (this.hasFlushed())
+                this.restyles.add(new SheetPatcher.Restyle(c, 1, SheetPatcher.Target.NUMBER, null,
+                        CustomWorkbook.this.intStyle));
+        }
+
+        /**
+         * @return the specified cell, or NULL if it is empty or has been flushed out of memory
+         *
+         * @param r		row index
+         * @param c		column index
+         */
+        private Cell getCell(int r, int c) {
+            Cell retVal = null;
+            Row myRow = this.getMemoryRow(r);
+            if (myRow != null)
+                retVal = myRow.getCell(c);
+            return retVal;
         }
 
         /**
@@ -451,39 +1270,56 @@ public class CustomWorkbook implements AutoCloseable {
          * @param c		index of the column to autosize
          */
         public void autoSizeColumn(int c) {
-            this.sheet.autoSizeColumn(c);
+            this.sortRows();
+            long start = this.startTimer();
+            this.sizeColumn(c);
             if (this.tableMode) {
                 // Here we need to add space for the filter arrow.
-                int cWidth = this.sheet.getColumnWidth(c);
+                int cWidth = this.rowSheet.getColumnWidth(c);
                 if (cWidth < this.autoWidths[c])
-                    this.sheet.setColumnWidth(c, this.autoWidths[c]);
+                    this.rowSheet.setColumnWidth(c, this.autoWidths[c]);
                 else if (cWidth > CustomWorkbook.this.maxWidth) {
-                    this.sheet.setColumnWidth(c, CustomWorkbook.this.maxWidth);
+                    this.rowSheet.setColumnWidth(c, CustomWorkbook.this.maxWidth);
                     for (int r = 0; r < this.rowIdx; r++) {
-                        XSSFCell cell = this.sheet.getRow(r).getCell(c);
+                        Cell cell = this.getCell(r, c);
                         if (cell != null && cell.getCellType() == CellType.STRING) {
                             // We need to set the cell to wrap.  Does it have a link?
                             if (cell.getHyperlink() != null)
                                 cell.setCellStyle(CustomWorkbook.this.lwrapStyle);
                             else
                                 cell.setCellStyle(CustomWorkbook.this.wrapStyle);
+                        } else if (cell != null && cell.getCellType() == CellType.FORMULA
+                                && cell.getCachedFormulaResultType() == CellType.STRING) {
+                            // The only text formulas we create are templated links.
+                            cell.setCellStyle(CustomWorkbook.this.lwrapStyle);
                         }
                     }
+                    if (this.hasFlushed()) {
+                        this.restyles.add(new SheetPatcher.Restyle(c, 0, SheetPatcher.Target.STRING,
+                                CustomWorkbook.this.textStyle, CustomWorkbook.this.wrapStyle));
+                        this.restyles.add(new SheetPatcher.Restyle(c, 0, SheetPatcher.Target.TEXT,
+                                CustomWorkbook.this.linkStyle, CustomWorkbook.this.lwrapStyle));
+                    }
                 }
             }
+            this.stopTimer(Phase.AUTOSIZE, start);
         }
 
         /**
-         * Reformat a text column as flags.
+         * Reformat a text column as flags.  Flushed rows are reformatted after the workbook is written.
          *
          * @param c		index of column to reformat
          */
         public void reformatFlagColumn(int c) {
+            this.sortRows();
             for (int r = 1; r < this.rowIdx; r++) {
-                XSSFCell cell = this.sheet.getRow(r).getCell(c);
+                Cell cell = this.getCell(r, c);
                 if (cell != null && cell.getCellType() == CellType.STRING)
                     cell.setCellStyle(CustomWorkbook.this.flagStyle);
             }
+            if (this.hasFlushed())
+                this.restyles.add(new SheetPatcher.Restyle(c, 1, SheetPatcher.Target.STRING, null,
+                        CustomWorkbook.this.flagStyle));
         }
 
         /**
@@ -497,18 +1333,47 @@ public class CustomWorkbook implements AutoCloseable {
 
         @Override
         public void close() {
-            if (this.tableMode)
-                this.makeTable();
+            this.finishPart();
             CustomWorkbook.this.openSheets.remove(this);
         }
 
+        /**
+         * Finish the current worksheet of this sheet.
+         */
+        private void finishPart() {
+            this.sortRows();
+            if (! this.patches.isEmpty())
+                this.flushPatches();
+            if (! this.restyles.isEmpty()) {
+                String partName = this.sheet.getPackagePart().getPartName().getName();
+                CustomWorkbook.this.deferredRestyles.put(partName, this.restyles);
+            }
+            if (this.tableMode) {
+                // A table needs at least one column.
+                if (this.maxCols == 0)
+                    log.warn("Sheet {} has no columns, so it cannot be made a table.", this.sheet.getSheetName());
+                else {
+                    long start = this.startTimer();
+                    this.makeTable();
+                    this.stopTimer(Phase.TABLE, start);
+                }
+            }
+            if (this.notesSheet != null)
+                this.notesSheet.close();
+            if (CustomWorkbook.this.listener != null)
+                CustomWorkbook.this.listener.sheetClosed(this.sheet.getSheetName(), this.rowIdx - 1, this.cellCount,
+                        this.getHeapEstimate(), phaseMap(this.phaseNanos));
+        }
+
         /**
          * Convert the cells currently in the sheet to a table.
          */
         private void makeTable() {
-            // Delimit the table to the cells created.
+            // Delimit the table to the cells created.  Excel repairs a table with no data rows, so an empty
+            // table gets one blank data row.
+            int lastRow = Math.max(this.rowIdx - 1, 1);
             AreaReference range = new AreaReference(ORIGIN_REF,
-                    new CellReference(this.rowIdx - 1, this.maxCols - 1), SpreadsheetVersion.EXCEL2007);
+                    new CellReference(lastRow, this.maxCols - 1), SpreadsheetVersion.EXCEL2007);
             // Create the table.
             XSSFTable myTable = this.sheet.createTable(range);
             // Define the table style.
@@ -523,6 +1388,14 @@ public class CustomWorkbook implements AutoCloseable {
             cttable.setDisplayName("table_" + fixedName);
             cttable.setName(tableIdentifier.getId());
             cttable.setId(tableIdentifier.getNum());
+            // The table computes its column names from the header cells, but these are not visible to it if
+            // the sheet is streaming, so we store them explicitly.
+            if (this.headers != null) {
+                List<XSSFTableColumn> columns = myTable.getColumns();
+                final int n = Math.min(columns.size(), this.headers.size());
+                for (int i = 0; i < n; i++)
+                    columns.get(i).setName(this.headers.get(i));
+            }
             // Turn on auto-filter.
             cttable.addNewAutoFilter();
         }
@@ -536,7 +1409,7 @@ public class CustomWorkbook implements AutoCloseable {
      */
     public static CustomWorkbook create(File outFile) {
         CustomWorkbook retVal = new CustomWorkbook();
-        retVal.outFile = outFile;
+        retVal.setupOutput(outFile);
         // Create the workbook.
         retVal.workbook = new XSSFWorkbook();
         retVal.tableMap = new TableNameMap();
@@ -546,31 +1419,89 @@ public class CustomWorkbook implements AutoCloseable {
     }
 
     /**
-     * Construct a workbook from an existing file.
-     *
-     * @param inFile	workbook file to update
+     * Construct a new, blank streaming workbook to be written to the specified file.  Only the most recent
+     * rows of each sheet are kept in memory.
      *
-     * @throws IOException
+     * @param outFile	workbook output file
+     */
+    public static CustomWorkbook createStreaming(File outFile) {
+        return createStreaming(outFile, SXSSFWorkbook.DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Construct a new, blank streaming workbook to be written to the specified file.
+     *
+     * @param outFile	workbook output file
+     * @param window	number of rows per sheet to keep in memory
+     */
+    public static CustomWorkbook createStreaming(File outFile, int window) {
+        CustomWorkbook retVal = create(outFile);
+        // The streaming workbook uses the master workbook as a template, so the styles are shared.
+        retVal.streamBook = new SXSSFWorkbook(retVal.workbook, window);
+        retVal.streamWindow = window;
+        return retVal;
+    }
+
+    /**
+     * @return the workbook through which sheets are created and written
+     */
+    private Workbook getRowBook() {
+        Workbook retVal = this.workbook;
+        if (this.streamBook != null)
+            retVal = this.streamBook;
+        else if (this.spillBook != null)
+            retVal = this.spillBook;
+        return retVal;
+    }
+
+    /**
+     * @return the number of rows per sheet kept in memory by the streaming wrapper
+     */
+    private int getWindow() {
+        return (this.streamBook != null ? this.streamWindow : this.spillBook.getRandomAccessWindowSize());
+    }
+
+    /**
+     * Specify a heap budget for each sheet.  When the estimated heap retained by an in-memory sheet reaches
+     * the budget, the sheet switches to streaming:  the rows already created stay in memory, and later rows
+     * are flushed to disk as they leave the row window.  Autosizing still accounts for the flushed rows,
+     * and column reformats are applied to them after the workbook is written.  This has no effect on a
+     * streaming workbook, whose sheets are always streaming.
+     *
+     * @param bytes		estimated heap bytes a sheet may retain, or 0 for no limit
+     */
+    public void setSheetBudget(long bytes) {
+        this.sheetBudget = bytes;
+        // The wrapper must exist before the sheets are created, so that they are registered with it.
+        if (bytes > 0 && this.streamBook == null && this.spillBook == null)
+            this.spillBook = new SXSSFWorkbook(this.workbook, SXSSFWorkbook.DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @return TRUE if this is a streaming workbook
+     */
+    public boolean isStreaming() {
+        return this.streamBook != null;
+    }
+
+    /**
+     * Construct a workbook from an existing file.
+     *
+     * @param inFile	workbook file to update
+     *
+     * @throws IOException
      * @throws InvalidFormatException
      */
     public static CustomWorkbook load(File inFile) throws InvalidFormatException, IOException {
         CustomWorkbook retVal = new CustomWorkbook();
-        retVal.outFile = inFile;
+        retVal.setupOutput(inFile);
         // Read the workbook.
         try (FileInputStream inStream = new FileInputStream(inFile)) {
             retVal.workbook = new XSSFWorkbook(inStream);
         }
         // Now we need to find the old tables.  We add them to the table map so that new tables will
         // have unique names.
-        retVal.tableMap = new TableNameMap();
-        var iter = retVal.workbook.sheetIterator();
-        while (iter.hasNext()) {
-            XSSFSheet currSheet = (XSSFSheet) iter.next();
-            for (XSSFTable table : currSheet.getTables()) {
-                CTTable cttable = table.getCTTable();
-                retVal.tableMap.addTable(cttable.getName(), cttable.getId(), cttable.getDisplayName());
-            }
-        }
+        retVal.registerTables();
         // Finish setting up the workbook.
         retVal.precision = 2;
         retVal.setupWorkbook();
@@ -597,10 +1528,323 @@ public class CustomWorkbook implements AutoCloseable {
         this.maxWidth = maxWidth;
     }
 
+    /**
+     * Store a text value in a cell through the shared-strings table, using the interning cache.  This is
+     * only done for columns that chose to share their text automatically.  A value already stored by this
+     * object is found in the cache and referenced by its index, which avoids the cost of hashing its XML
+     * form in the table again.  (The table's total reference count only includes the
+     * first reference to each cached value, but it is only a hint to readers.)
+     *
+     * @param cell		target cell
+     * @param value		text to store
+     */
+    private void storeShared(XSSFCell cell, String value) {
+        Integer idx = this.sharedIndex.get(value);
+        if (idx == null) {
+            cell.setCellValue(value);
+            this.sharedIndex.put(value, Integer.valueOf(cell.getCTCell().getV()));
+        } else {
+            CTCell ctCell = cell.getCTCell();
+            ctCell.setT(STCellType.S);
+            ctCell.setV(idx.toString());
+        }
+    }
+
+    /**
+     * @return a unique name for the notes sheet of a worksheet
+     *
+     * @param sheetName		name of the worksheet
+     */
+    private String notesSheetName(String sheetName) {
+        String retVal = StringUtils.left(sheetName, MAX_SHEET_NAME - NOTES_SUFFIX.length()) + NOTES_SUFFIX;
+        // Sheet names that agree in their first characters get the same notes name, as does a sheet already
+        // named with the suffix, so we add a number until the name matches no sheet and no other notes sheet.
+        for (int k = 2; this.workbook.getSheet(retVal) != null || this.notesNames.contains(retVal.toLowerCase()); k++) {
+            String suffix = NOTES_SUFFIX + " (" + k + ")";
+            retVal = StringUtils.left(sheetName, MAX_SHEET_NAME - suffix.length()) + suffix;
+        }
+        this.notesNames.add(retVal.toLowerCase());
+        return retVal;
+    }
+
+    /**
+     * @return a string quoted for use as a constant in a formula
+     *
+     * @param value		string to quote
+     */
+    private static String formulaString(String value) {
+        return "\"" + StringUtils.replace(value, "\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Specify how cell comments should be stored.  Drawing comments are pop-ups attached to the cells, but
+     * each one requires a drawing object and anchor, which is expensive for large numbers of comments.  In
+     * notes mode, each commented sheet gets a companion sheet listing the cell references and comments.
+     * The change affects comments stored after this call.
+     *
+     * @param mode		new comment mode
+     */
+    public void setCommentMode(CommentMode mode) {
+        this.commentMode = mode;
+    }
+
+    /**
+     * Specify a listener to receive generation metrics.
+     *
+     * @param listener		new listener, or NULL to turn off monitoring
+     */
+    public void setListener(WorkbookListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return a map of phases to times, built from an array of phase times
+     *
+     * @param nanos		array of times in nanoseconds, indexed by phase ordinal
+     */
+    private static Map<Phase, Long> phaseMap(long[] nanos) {
+        Map<Phase, Long> retVal = new EnumMap<>(Phase.class);
+        for (Phase phase : Phase.values())
+            retVal.put(phase, nanos[phase.ordinal()]);
+        return retVal;
+    }
+
+    /**
+     * @return the start time for a workbook-level phase, or 0 if we are not timing
+     */
+    private long startTimer() {
+        return (this.listener == null ? 0 : System.nanoTime());
+    }
+
+    /**
+     * Record the time spent in a workbook-level phase.
+     *
+     * @param phase		phase being timed
+     * @param start		start time returned by {@link #startTimer()}
+     */
+    private void stopTimer(Phase phase, long start) {
+        if (start != 0)
+            this.phaseNanos[phase.ordinal()] += System.nanoTime() - start;
+    }
+
+    /**
+     * Create a new table map containing the tables already in the workbook, so that new tables will have
+     * unique names.
+     */
+    private void registerTables() {
+        this.tableMap = new TableNameMap();
+        var iter = this.workbook.sheetIterator();
+        while (iter.hasNext()) {
+            XSSFSheet currSheet = (XSSFSheet) iter.next();
+            for (XSSFTable table : currSheet.getTables()) {
+                CTTable cttable = table.getCTTable();
+                this.tableMap.addTable(cttable.getName(), cttable.getId(), cttable.getDisplayName());
+            }
+        }
+    }
+
+    /**
+     * Construct a new workbook from a template, to be written to the specified file.
+     *
+     * @param outFile	workbook output file
+     * @param template	template containing the prepared workbook
+     */
+    static CustomWorkbook create(File outFile, WorkbookTemplate template) {
+        CustomWorkbook retVal = new CustomWorkbook();
+        retVal.setupOutput(outFile);
+        retVal.template = template;
+        retVal.stampTemplate();
+        return retVal;
+    }
+
+    /**
+     * Construct a new streaming workbook from a template, to be written to the specified file.
+     *
+     * @param outFile	workbook output file
+     * @param template	template containing the prepared workbook
+     * @param window	number of rows per sheet to keep in memory
+     */
+    static CustomWorkbook createStreaming(File outFile, WorkbookTemplate template, int window) {
+        CustomWorkbook retVal = create(outFile, template);
+        retVal.streamBook = new SXSSFWorkbook(retVal.workbook, window);
+        retVal.streamWindow = window;
+        return retVal;
+    }
+
+    /**
+     * Replace the master workbook with a copy of the template's prepared workbook.  The styles are
+     * connected to the ones already in the copy rather than created.
+     */
+    private void stampTemplate() {
+        try (InputStream inStream = new ByteArrayInputStream(this.template.getImage())) {
+            this.workbook = new XSSFWorkbook(inStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.registerTables();
+        this.precision = this.template.getPrecision();
+        this.resetWorkbook();
+        this.bindStyles(this.template.getStyleIndices());
+        this.maxWidth = this.template.getMaxWidth();
+        this.commentMode = this.template.getCommentMode();
+        this.presetHeaders.putAll(this.template.getPresetHeaders());
+    }
+
+    /**
+     * Capture this workbook as a template.  The open sheets are closed and the replaced sheets deleted,
+     * and the workbook is serialized to a byte image along with its style indices and settings.  This
+     * workbook should not be used afterward.
+     *
+     * @return a template for creating copies of this workbook
+     */
+    WorkbookTemplate toTemplate() {
+        if (this.streamBook != null)
+            throw new IllegalStateException("A streaming workbook cannot be used as a template.");
+        while (! this.openSheets.isEmpty())
+            this.openSheets.get(0).close();
+        this.defaultSheet = null;
+        for (XSSFSheet deadSheet : this.deleteQueue)
+            this.workbook.removeSheetAt(this.workbook.getSheetIndex(deadSheet));
+        this.deleteQueue.clear();
+        XSSFCellStyle[] styles = this.getStyles();
+        short[] indices = new short[styles.length];
+        for (int i = 0; i < styles.length; i++)
+            indices[i] = styles[i].getIndex();
+        ByteArrayOutputStream image = new ByteArrayOutputStream();
+        try {
+            this.workbook.write(image);
+            this.workbook.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new WorkbookTemplate(image.toByteArray(), indices, this.precision, this.maxWidth, this.commentMode,
+                this.presetHeaders);
+    }
+
+    /**
+     * Specify headers to be stored automatically whenever a sheet with the specified name is added.
+     *
+     * @param sheetName		name of the sheet
+     * @param headers		list of header names
+     */
+    public void setPresetHeaders(String sheetName, List<String> headers) {
+        this.presetHeaders.put(sheetName, new ArrayList<>(headers));
+    }
+
+    /**
+     * Initialize the output file and the overflow limits.
+     *
+     * @param outFile	workbook output file
+     */
+    private void setupOutput(File outFile) {
+        this.outFile = outFile;
+        this.baseFile = outFile;
+        this.outFiles = new ArrayList<>();
+        this.rowLimit = SpreadsheetVersion.EXCEL2007.getMaxRows();
+        this.rollRows = 0;
+        this.rollBytes = 0;
+        this.presetHeaders = new HashMap<>();
+        this.template = null;
+    }
+
+    /**
+     * Specify the maximum number of rows in a sheet.  A sheet that reaches this limit is continued in a
+     * new sheet.  The default is the Excel maximum.
+     *
+     * @param limit		maximum number of rows, including the header row
+     */
+    public void setRowLimit(int limit) {
+        if (limit < 2 || limit > SpreadsheetVersion.EXCEL2007.getMaxRows())
+            throw new IllegalArgumentException("Invalid sheet row limit " + limit + ".");
+        this.rowLimit = limit;
+    }
+
+    /**
+     * Specify the budget for a workbook file.  When the budget is reached, the workbook is written, and the
+     * open sheets are continued in a new workbook file.  The new file has the same name as the original
+     * with an underscore and the file number appended to the base name.
+     *
+     * @param maxRows	maximum number of data rows in a file, or 0 for no limit
+     * @param maxBytes	maximum estimated sheet XML bytes in a file, or 0 for no limit
+     */
+    public void setRollLimits(int maxRows, long maxBytes) {
+        if (maxRows < 0 || maxBytes < 0)
+            throw new IllegalArgumentException("Workbook file budgets cannot be negative.");
+        this.rollRows = maxRows;
+        this.rollBytes = maxBytes;
+    }
+
+    /**
+     * @return the list of workbook files written so far
+     */
+    public List<File> getOutputFiles() {
+        return this.outFiles;
+    }
+
+    /**
+     * @return the number of text values in the interning cache for the current workbook file
+     */
+    int getInternedCount() {
+        return this.sharedIndex.size();
+    }
+
+    /**
+     * @return TRUE if the current workbook file has reached its budget
+     */
+    private boolean isRollDue() {
+        return (this.rollRows > 0 && this.fileRows >= this.rollRows)
+                || (this.rollBytes > 0 && this.fileBytes >= this.rollBytes);
+    }
+
+    /**
+     * Write the current workbook and continue the open sheets in a new workbook file.
+     */
+    private void roll() {
+        for (Sheet sheet : this.openSheets)
+            sheet.finishPart();
+        this.writeWorkbook();
+        String name = FilenameUtils.getBaseName(this.baseFile.getName()) + "_" + (this.outFiles.size() + 1) + "."
+                + FilenameUtils.getExtension(this.baseFile.getName());
+        this.outFile = new File(this.baseFile.getAbsoluteFile().getParentFile(), name);
+        log.info("Workbook budget reached.  Continuing in {}.", this.outFile);
+        // Save the settings that survive into the new workbook.
+        Sheet oldDefault = this.defaultSheet;
+        List<Sheet> oldSheets = this.openSheets;
+        int oldWidth = this.maxWidth;
+        CommentMode oldMode = this.commentMode;
+        // Create the new workbook.
+        if (this.template != null)
+            this.stampTemplate();
+        else {
+            this.workbook = new XSSFWorkbook();
+            this.tableMap = new TableNameMap();
+            this.setupWorkbook();
+        }
+        if (this.streamBook != null)
+            this.streamBook = new SXSSFWorkbook(this.workbook, this.streamWindow);
+        else if (this.spillBook != null)
+            this.spillBook = new SXSSFWorkbook(this.workbook, SXSSFWorkbook.DEFAULT_WINDOW_SIZE);
+        this.defaultSheet = oldDefault;
+        this.openSheets = oldSheets;
+        this.maxWidth = oldWidth;
+        this.commentMode = oldMode;
+        // Restart the open sheets.
+        for (Sheet sheet : this.openSheets)
+            sheet.reopen();
+    }
+
     /**
      * Perform all the necessary workbook initialization.
      */
     private void setupWorkbook() {
+        this.resetWorkbook();
+        this.createStyles();
+    }
+
+    /**
+     * Initialize the workbook state and helpers, but not the styles.
+     */
+    private void resetWorkbook() {
         // Clear the maximum width/
         this.maxWidth = Integer.MAX_VALUE;
         // Denote we have no worksheet.
@@ -609,9 +1853,25 @@ public class CustomWorkbook implements AutoCloseable {
         // Denote we have no worksheets to delete or dead tables.
         this.deleteQueue = new ArrayList<>();
         this.deadTables = 0;
+        this.phaseNanos = new long[Phase.values().length];
+        this.deferredPatches = new HashMap<>();
+        this.deferredRestyles = new HashMap<>();
+        this.sharedIndex = new HashMap<>();
+        this.notesNames = new HashSet<>();
+        this.fileRows = 0;
+        this.fileBytes = 0;
+        this.commentMode = CommentMode.DRAWING;
+        // The only formulas we create are templated links, so we do not need the expense of validating them.
+        this.workbook.setCellFormulaValidation(false);
         // Set up the creation helper and the formatter.
         this.helper = this.workbook.getCreationHelper();
         this.formatter = this.workbook.createDataFormat();
+    }
+
+    /**
+     * Create the cell styles.
+     */
+    private void createStyles() {
         short fracFmt = this.formatter.getFormat("#0.0000");
         short intFmt = this.formatter.getFormat("##0");
         short mlFmt = this.formatter.getFormat("#0.0");
@@ -658,6 +1918,38 @@ public class CustomWorkbook implements AutoCloseable {
         this.lwrapStyle.setWrapText(true);
     }
 
+    /**
+     * @return the cell styles, in a fixed order that matches {@link #bindStyles(short[])}
+     */
+    private XSSFCellStyle[] getStyles() {
+        return new XSSFCellStyle[] { this.numStyle, this.fracStyle, this.mlStyle, this.intStyle, this.linkStyle,
+                this.highStyle, this.lowStyle, this.textStyle, this.flagStyle, this.wrapStyle, this.lwrapStyle,
+                this.headStyle };
+    }
+
+    /**
+     * Connect the cell styles to styles that already exist in the workbook.
+     *
+     * @param indices	indices of the styles, in the order returned by {@link #getStyles()}
+     */
+    private void bindStyles(short[] indices) {
+        XSSFCellStyle[] styles = new XSSFCellStyle[indices.length];
+        for (int i = 0; i < indices.length; i++)
+            styles[i] = this.workbook.getCellStyleAt(indices[i]);
+        this.numStyle = styles[0];
+        this.fracStyle = styles[1];
+        this.mlStyle = styles[2];
+        this.intStyle = styles[3];
+        this.linkStyle = styles[4];
+        this.highStyle = styles[5];
+        this.lowStyle = styles[6];
+        this.textStyle = styles[7];
+        this.flagStyle = styles[8];
+        this.wrapStyle = styles[9];
+        this.lwrapStyle = styles[10];
+        this.headStyle = styles[11];
+    }
+
     /**
      * This method sets up the default-precision number styles.
      */
@@ -690,6 +1982,156 @@ public class CustomWorkbook implements AutoCloseable {
             this.closeSheet();
         this.defaultSheet = this.new Sheet(name, isTable);
         this.openSheets.add(this.defaultSheet);
+        List<String> headers = this.presetHeaders.get(name);
+        if (headers != null)
+            this.defaultSheet.setHeaders(headers);
+    }
+
+    /**
+     * Create a new worksheet unless its content is unchanged.  The caller computes a fingerprint of the
+     * sheet's source data, and the fingerprint is saved in the workbook's custom properties.  If the
+     * workbook already has the sheet with the same fingerprint, the old sheet is kept as-is, there is
+     * no current sheet, and the caller should skip generating it.  Otherwise, the old fingerprint and any
+     * continuation sheets from the old content are removed, and the sheet is created as in
+     * {@link #addSheet(String, boolean)}.  The new fingerprint is saved when the sheet is finished by
+     * {@link #closeSheet()} or by adding another sheet.  A sheet still open when the workbook is closed
+     * may be incomplete because of an error, so its fingerprint is not saved.
+     *
+     * @param name			name of the new worksheet
+     * @param isTable		TRUE to make this worksheet a table
+     * @param fingerprint	fingerprint of the sheet's content
+     *
+     * @return TRUE if the sheet was created and must be filled, FALSE if the existing sheet is unchanged
+     */
+    public boolean addSheet(String name, boolean isTable, String fingerprint) {
+        boolean retVal;
+        if (fingerprint.equals(this.getFingerprint(name)) && this.workbook.getSheet(name) != null) {
+            this.closeSheet();
+            log.info("Sheet {} is unchanged.", name);
+            retVal = false;
+        } else {
+            this.removeFingerprint(name);
+            this.removeContinuations(name);
+            this.addSheet(name, isTable);
+            this.defaultSheet.fingerprint = fingerprint;
+            retVal = true;
+        }
+        return retVal;
+    }
+
+    /**
+     * Remove the saved content fingerprint for a sheet.
+     *
+     * @param name		name of the sheet
+     */
+    private void removeFingerprint(String name) {
+        CTProperties props = this.workbook.getProperties().getCustomProperties().getUnderlyingProperties();
+        final String propName = FINGERPRINT_PREFIX + name;
+        for (int i = props.sizeOfPropertyArray() - 1; i >= 0; i--) {
+            if (propName.equals(props.getPropertyArray(i).getName()))
+                props.removeProperty(i);
+        }
+    }
+
+    /**
+     * Queue for deletion the continuation sheets left from an earlier version of a sheet.  These are the
+     * sheets named with part numbers 2, 3, and so on, up to the first part number not present.
+     *
+     * @param name		name of the sheet
+     */
+    private void removeContinuations(String name) {
+        boolean done = false;
+        for (int k = 2; ! done; k++) {
+            String suffix = " (" + k + ")";
+            XSSFSheet oldPart = this.workbook.getSheet(StringUtils.left(name, MAX_SHEET_NAME - suffix.length()) + suffix);
+            if (oldPart == null)
+                done = true;
+            else {
+                // The sheet is deleted when the workbook is written, so for now it gets a dead name.
+                this.deleteQueue.add(oldPart);
+                this.workbook.setSheetName(this.workbook.getSheetIndex(oldPart),
+                        String.format("_deadSheet%d", this.deleteQueue.size()));
+            }
+        }
+    }
+
+    /**
+     * @return the saved content fingerprint for a sheet, or NULL if there is none
+     *
+     * @param name		name of the sheet
+     */
+    public String getFingerprint(String name) {
+        String retVal = null;
+        CTProperty prop = this.workbook.getProperties().getCustomProperties().getProperty(FINGERPRINT_PREFIX + name);
+        if (prop != null && prop.isSetLpwstr())
+            retVal = prop.getLpwstr();
+        return retVal;
+    }
+
+    /**
+     * Save the content fingerprint for a sheet in the custom properties.
+     *
+     * @param name			name of the sheet
+     * @param fingerprint	fingerprint to save
+     */
+    private void setFingerprint(String name, String fingerprint) {
+        POIXMLProperties.CustomProperties props = this.workbook.getProperties().getCustomProperties();
+        CTProperty prop = props.getProperty(FINGERPRINT_PREFIX + name);
+        if (prop == null)
+            props.addProperty(FINGERPRINT_PREFIX + name, fingerprint);
+        else
+            prop.setLpwstr(fingerprint);
+    }
+
+    /**
+     * Create a new worksheet for objects of a specified class.  The headers and link templates are set up
+     * from the class's {@link RecordMapper}.
+     *
+     * @param name		name of the new worksheet
+     * @param isTable	TRUE to make this worksheet a table
+     * @param type		class of the objects to be stored
+     *
+     * @return the mapper for the class, to be passed to {@link #storeRecords(RecordMapper, Iterable)}
+     */
+    public <T> RecordMapper<T> addSheet(String name, boolean isTable, Class<T> type) {
+        RecordMapper<T> retVal = RecordMapper.of(type);
+        this.addSheet(name, isTable);
+        retVal.setup(this.defaultSheet);
+        return retVal;
+    }
+
+    /**
+     * Store a sequence of objects in new rows of the current worksheet, one object per row.
+     *
+     * @param mapper	mapper for the objects' class
+     * @param records	objects to store
+     */
+    public <T> void storeRecords(RecordMapper<T> mapper, Iterable<? extends T> records) {
+        mapper.storeRecords(this.defaultSheet, records);
+    }
+
+    /**
+     * Create a new sorted worksheet.  Rows are added with {@link #addRow(String)}, and are stored in
+     * key order when the sheet is closed.
+     *
+     * @param name		name of the new worksheet
+     * @param isTable	TRUE to make this worksheet a table
+     */
+    public void addSortedSheet(String name, boolean isTable) {
+        this.addSortedSheet(name, isTable, Comparator.naturalOrder(), DEFAULT_SORT_MEMORY);
+    }
+
+    /**
+     * Create a new sorted worksheet with a custom key ordering and memory limit.
+     *
+     * @param name			name of the new worksheet
+     * @param isTable		TRUE to make this worksheet a table
+     * @param comparator	comparator for the sort keys
+     * @param memoryLimit	maximum estimated heap bytes of rows to buffer before spilling to disk
+     */
+    public void addSortedSheet(String name, boolean isTable, Comparator<String> comparator, long memoryLimit) {
+        this.addSheet(name, isTable);
+        this.defaultSheet.setSorted(comparator, memoryLimit);
     }
 
     /**
@@ -721,6 +2163,19 @@ public class CustomWorkbook implements AutoCloseable {
         this.defaultSheet.addRow();
     }
 
+    /**
+     * Add a new data row with a sort key to the current sheet.  If the current sheet is not sorted, the
+     * key is ignored.
+     *
+     * @param key		sort key for the row
+     */
+    public void addRow(String key) {
+        if (this.defaultSheet.isSorted())
+            this.defaultSheet.addRow(key);
+        else
+            this.addRow();
+    }
+
     /**
      * Store a floating-point value in the next cell of the current row.
      *
@@ -766,6 +2221,16 @@ public class CustomWorkbook implements AutoCloseable {
         this.defaultSheet.storeCell(value);
     }
 
+    /**
+     * Store a long integer value in the next cell of the current row.  A value too large to be represented
+     * exactly in Excel is stored as text.
+     *
+     * @param value		value to store
+     */
+    public void storeCell(long value) {
+        this.defaultSheet.storeCell(value);
+    }
+
     /**
      * Store a text value in the next cell of this row.
      *
@@ -832,6 +2297,35 @@ public class CustomWorkbook implements AutoCloseable {
         this.defaultSheet.autoSizeColumn(c);
     }
 
+    /**
+     * Specify how the text in a column of the current sheet is stored.
+     *
+     * @param c			index of the column
+     * @param mode		new string mode, or NULL to use the sheet's default
+     */
+    public void setStringMode(int c, StringMode mode) {
+        this.defaultSheet.setStringMode(c, mode);
+    }
+
+    /**
+     * Specify how the text is stored in columns of the current sheet that have no string mode of their own.
+     *
+     * @param mode		new default string mode
+     */
+    public void setStringMode(StringMode mode) {
+        this.defaultSheet.setStringMode(mode);
+    }
+
+    /**
+     * Specify a link template for a column of the current sheet.
+     *
+     * @param c			index of the column
+     * @param baseUrl	base URL for the links, or NULL to turn off templated links
+     */
+    public void setLinkTemplate(int c, String baseUrl) {
+        this.defaultSheet.setLinkTemplate(c, baseUrl);
+    }
+
     /**
      * Reformat a text column as flags.
      *
@@ -861,30 +2355,67 @@ public class CustomWorkbook implements AutoCloseable {
      * Finalize the current sheet.
      */
     public void closeSheet() {
-        // Currently, we just need to convert it to a table if this is table mode.
-        if (this.defaultSheet != null)
+        if (this.defaultSheet != null) {
             this.defaultSheet.close();
+            // The sheet is complete, so its fingerprint can be saved.
+            if (this.defaultSheet.fingerprint != null)
+                this.setFingerprint(this.defaultSheet.baseName, this.defaultSheet.fingerprint);
+        }
         // Insure we don't close it again.
         this.defaultSheet = null;
     }
 
     @Override
     public void close() {
-        // Insure the open sheets are closed.
-        while (! this.openSheets.isEmpty())
-            this.openSheets.get(0).close();
+        // Insure the open sheets are closed.  We may be here because of an error, so an open sheet may be
+        // incomplete, and its fingerprint is not saved.
+        while (! this.openSheets.isEmpty()) {
+            Sheet openSheet = this.openSheets.get(0);
+            if (openSheet.fingerprint != null)
+                log.info("Sheet {} was not finished, so its fingerprint is not saved.", openSheet.baseName);
+            openSheet.close();
+        }
         this.defaultSheet = null;
+        this.writeWorkbook();
+    }
+
+    /**
+     * Delete the replaced sheets and write the workbook to the current output file.
+     */
+    private void writeWorkbook() {
         // Delete the dead sheets.
+        long start = this.startTimer();
+        Workbook rowBook = this.getRowBook();
         for (XSSFSheet deadSheet : this.deleteQueue) {
             int deadIdx = this.workbook.getSheetIndex(deadSheet);
-            this.workbook.removeSheetAt(deadIdx);
+            rowBook.removeSheetAt(deadIdx);
         }
-        // Here we write out the Excel file, de-checking any IO exception that occurs.
-        try (OutputStream outStream = new FileOutputStream(this.outFile)) {
-            this.workbook.write(outStream);
+        this.stopTimer(Phase.CLEANUP, start);
+        // Here we write out the Excel file, de-checking any IO exception that occurs.  If there are stores
+        // for flushed rows, we write to a temporary file and apply them while copying it to the output file.
+        start = this.startTimer();
+        File writeFile = this.outFile;
+        try {
+            if (! this.deferredPatches.isEmpty() || ! this.deferredRestyles.isEmpty())
+                writeFile = Files.createTempFile("patch", ".xlsx").toFile();
+            try (OutputStream outStream = new FileOutputStream(writeFile)) {
+                rowBook.write(outStream);
+            }
+            if (writeFile != this.outFile)
+                SheetPatcher.rewrite(writeFile, this.outFile, this.deferredPatches, this.deferredRestyles);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
+        } finally {
+            // Clean up the temporary files for a streaming workbook.
+            if (rowBook instanceof SXSSFWorkbook streamingBook)
+                streamingBook.dispose();
+            if (writeFile != this.outFile)
+                writeFile.delete();
         }
+        this.stopTimer(Phase.WRITE, start);
+        this.outFiles.add(this.outFile);
+        if (this.listener != null)
+            this.listener.workbookWritten(this.outFile, this.outFile.length(), phaseMap(this.phaseNanos));
     }
 
 }
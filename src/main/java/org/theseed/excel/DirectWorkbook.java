@@ -0,0 +1,1311 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.ss.util.WorkbookUtil;
+
+/**
+ * This object writes plain numeric and text tables directly to a workbook file, without the POI object
+ * model.  Each sheet's data is generated into a reusable byte buffer and written straight to the deflater
+ * stream of the output package, so no per-row or per-cell objects are created, and numbers are formatted
+ * into the buffer without creating strings.  The styles, table, and workbook parts are generated here as
+ * well.
+ *
+ * The sequential part of the {@link CustomWorkbook} interface is supported:  sheets are added one at a
+ * time, headers are stored first, and then the rows are added with their cells left to right, using the
+ * same number and text styles.  Text cells can have hyperlinks.  Comments, random-access stores, and column
+ * operations are not supported.  The columns are always sized to fit the headers and the first rows of each
+ * sheet, since the column widths have to be written before the rows.  A table sheet must have headers.
+ *
+ * Strings are stored inline rather than in a shared-strings table.  Values that are not finite are stored
+ * as "#NUM!" errors.
+ *
+ * The workbook can be written in either of two formats.  The default, for files that do not end in ".xlsb",
+ * is the normal XML format, in which numbers are written with 15 significant digits, the precision Excel
+ * keeps.  The binary format (see {@link XlsbWriter}) stores each cell as a small record with its number in
+ * native form, so it is faster to write and much faster for Excel to open, but fewer programs can read it.
+ * The binary parts use the same styles, tables, and hyperlinks as the XML parts.
+ *
+ * The binary format is experimental.  Its output has only been read back with the POI binary event reader,
+ * never opened in Excel itself, and there is no Excel-generated reference file to compare it with.  Use the
+ * XML format for anything that must open in Excel until that has been done.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class DirectWorkbook implements AutoCloseable {
+
+    /**
+     * This enum describes the output formats.
+     */
+    public static enum Format {
+        /** Office Open XML workbook (.xlsx) */
+        XLSX("xml", TYPE_PREFIX + "sheet.main+xml", TYPE_PREFIX + "worksheet+xml", TYPE_PREFIX + "styles+xml",
+                TYPE_PREFIX + "table+xml"),
+        /** Excel binary workbook (.xlsb); experimental, since it has not been verified in Excel */
+        XLSB("bin", "application/vnd.ms-excel.sheet.binary.macroEnabled.main", "application/vnd.ms-excel.worksheet",
+                "application/vnd.ms-excel.styles", "application/vnd.ms-excel.table");
+
+        /** file extension for the parts */
+        private final String ext;
+        /** content type of the workbook part */
+        private final String workbookType;
+        /** content type of a sheet part */
+        private final String sheetType;
+        /** content type of the styles part */
+        private final String stylesType;
+        /** content type of a table part */
+        private final String tableType;
+
+        /**
+         * Construct an output format.
+         *
+         * @param ext				file extension for the parts
+         * @param workbookType		content type of the workbook part
+         * @param sheetType			content type of a sheet part
+         * @param stylesType		content type of the styles part
+         * @param tableType			content type of a table part
+         */
+        private Format(String ext, String workbookType, String sheetType, String stylesType, String tableType) {
+            this.ext = ext;
+            this.workbookType = workbookType;
+            this.sheetType = sheetType;
+            this.stylesType = stylesType;
+            this.tableType = tableType;
+        }
+
+        /**
+         * @return the format indicated by a file's extension
+         *
+         * @param file		file to check
+         */
+        public static Format of(File file) {
+            return (StringUtils.endsWithIgnoreCase(file.getName(), ".xlsb") ? XLSB : XLSX);
+        }
+
+    }
+
+    /**
+     * This record describes a hyperlink in the current sheet.
+     *
+     * @param row		row index (0-based)
+     * @param col		column index (0-based)
+     * @param url		target URL
+     */
+    static record Link(int row, int col, String url) { }
+
+    // FIELDS
+    /** output package stream */
+    private final ZipOutputStream zip;
+    /** file to which the workbook is being written */
+    private final File outFile;
+    /** output format */
+    private final Format format;
+    /** TRUE if the output format is binary */
+    private final boolean binary;
+    /** names of the sheets written, in order */
+    private final List<String> sheetNames;
+    /** set of sheet names written, in lower case */
+    private final Set<String> sheetNameSet;
+    /** table number for each sheet written, or 0 if the sheet is not a table */
+    private final List<Long> tableNums;
+    /** number of tables written */
+    private int tableCount;
+    /** set of table display names used, in lower case */
+    private final Set<String> tableNameSet;
+    /** number of digits after the decimal point for normal numbers */
+    private int precision;
+    /** output buffer for the current sheet */
+    private byte[] buffer;
+    /** position of the next byte in the output buffer */
+    private int pos;
+    /** TRUE if the current sheet's first rows are still being buffered to compute the column widths */
+    private boolean sampling;
+    /** name of the current sheet, or NULL if no sheet is open */
+    private String sheetName;
+    /** TRUE if the current sheet is to be a table */
+    private boolean tableMode;
+    /** headers for the current sheet, or NULL if none have been stored */
+    private List<String> headers;
+    /** index of the current row (0-based), or -1 if no row has been started */
+    private int rowIdx;
+    /** TRUE if a row has been started and not yet ended */
+    private boolean rowOpen;
+    /** position in the output buffer of the start of the current row */
+    private int rowStart;
+    /** index of the first nonblank cell in the current row, or -1 if there is none */
+    private int rowFirstCol;
+    /** index of the last nonblank cell in the current row */
+    private int rowLastCol;
+    /** scratch space for a binary row header */
+    private final byte[] rowHeader;
+    /** hyperlinks in the current sheet */
+    private final List<Link> links;
+    /** index of the next cell in the current row */
+    private int colIdx;
+    /** maximum number of cells in a row of the current sheet */
+    private int maxCols;
+    /** maximum display width in characters of each column of the current sheet */
+    private int[] colChars;
+    /** column letters for each column index, as ASCII bytes */
+    private byte[][] colLetters;
+    /** scratch space for the digits of a number */
+    private final byte[] digits;
+    /** initial size of the output buffer */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** number of bytes in the output buffer that causes it to be written at the end of a row */
+    private static final int FLUSH_SIZE = BUFFER_SIZE * 3 / 4;
+    /** number of data rows used to compute the column widths */
+    private static final int SAMPLE_ROWS = 100;
+    /** maximum length of a cell string */
+    private static final int MAX_TEXT = SpreadsheetVersion.EXCEL2007.getMaxTextLength();
+    /** maximum column width in characters */
+    private static final int MAX_WIDTH = 255;
+    /** number of significant digits written for a floating-point number */
+    private static final int SIG_DIGITS = 15;
+    /** smallest power of ten in a number to format without a string */
+    private static final int MIN_EXP = -280;
+    /** largest power of ten in a number to format without a string */
+    private static final int MAX_EXP = 280;
+    /** table of powers of ten, offset so that index 0 is 10 to the power {@link #MIN_EXP} */
+    private static final double[] POW10 = new double[MAX_EXP - MIN_EXP + SIG_DIGITS + 1];
+    /** smallest mantissa with all the significant digits */
+    private static final long MIN_MANTISSA = 100_000_000_000_000L;
+    /** smallest mantissa with too many significant digits */
+    private static final long MAX_MANTISSA = 1_000_000_000_000_000L;
+    /** smallest whole number written in scientific notation */
+    private static final double MAX_WHOLE = 1e15;
+    /** namespace for spreadsheet parts */
+    private static final String MAIN_NS = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+    /** namespace for relationship references */
+    private static final String REL_NS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+    /** namespace for relationship parts */
+    private static final String PKG_REL_NS = "http://schemas.openxmlformats.org/package/2006/relationships";
+    /** prefix for content types of spreadsheet parts */
+    private static final String TYPE_PREFIX = "application/vnd.openxmlformats-officedocument.spreadsheetml.";
+    /** XML declaration for each part */
+    private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+    /** relationship ID of a sheet's table */
+    static final String TABLE_REL_ID = "rId1";
+
+    // STYLES
+    /** normal number style index */
+    private static final int NUM_STYLE = 1;
+    /** fraction number style index */
+    private static final int FRAC_STYLE = 2;
+    /** machine-learning input number style index */
+    private static final int ML_STYLE = 3;
+    /** integer number style index */
+    private static final int INT_STYLE = 4;
+    /** high-number style index */
+    private static final int HIGH_STYLE = 5;
+    /** low-number style index */
+    private static final int LOW_STYLE = 6;
+    /** text style index */
+    private static final int TEXT_STYLE = 7;
+    /** flag style index */
+    private static final int FLAG_STYLE = 8;
+    /** header style index */
+    private static final int HEAD_STYLE = 9;
+    /** hyperlink style index */
+    private static final int LINK_STYLE = 10;
+    /** number of styles */
+    private static final int NUM_STYLES = 11;
+    /** ID of the first custom number format */
+    static final int FIRST_FORMAT = 164;
+    /** indexed colors of the solid fills (grey 25%, bright green, and rose for the header, high, and low fills) */
+    static final int[] FILL_COLORS = new int[] { 22, 11, 45 };
+    /** indexed color of the hyperlink font (indigo) */
+    static final int LINK_COLOR = 62;
+    /** general horizontal alignment */
+    static final int GENERAL = 0;
+    /** left horizontal alignment */
+    static final int LEFT = 1;
+    /** center horizontal alignment */
+    static final int CENTER = 2;
+    /** right horizontal alignment */
+    static final int RIGHT = 3;
+    /** XML names of the horizontal alignments */
+    private static final String[] ALIGNMENTS = new String[] { null, "left", "center", "right" };
+    /** cell formats by style index; each is a number format ID, font ID, fill ID, horizontal alignment,
+     *  and 1 for top vertical alignment or 0 for the default */
+    static final int[][] XF_SPECS = new int[][] {
+        { 0, 0, 0, GENERAL, 0 },
+        { FIRST_FORMAT, 0, 0, RIGHT, 0 },
+        { FIRST_FORMAT + 1, 0, 0, RIGHT, 1 },
+        { FIRST_FORMAT + 2, 0, 0, RIGHT, 1 },
+        { FIRST_FORMAT + 3, 0, 0, RIGHT, 1 },
+        { FIRST_FORMAT, 0, 3, RIGHT, 0 },
+        { FIRST_FORMAT, 0, 4, RIGHT, 0 },
+        { 0, 0, 0, LEFT, 1 },
+        { 0, 0, 0, CENTER, 1 },
+        { 0, 0, 2, GENERAL, 0 },
+        { 0, 1, 0, LEFT, 1 }
+    };
+
+    // XML FRAGMENTS
+    /** start of a row */
+    private static final byte[] ROW_START = ascii("<row r=\"");
+    /** end of a row start tag */
+    private static final byte[] ROW_OPEN = ascii("\">");
+    /** end of a row */
+    private static final byte[] ROW_END = ascii("</row>");
+    /** start of a cell */
+    private static final byte[] CELL_START = ascii("<c r=\"");
+    /** end of a cell start tag and start of a number value, for each style */
+    private static final byte[][] NUM_OPEN = new byte[NUM_STYLES][];
+    /** end of a cell start tag and start of an inline string value, for each style */
+    private static final byte[][] TEXT_OPEN = new byte[NUM_STYLES][];
+    /** end of a number cell */
+    private static final byte[] NUM_END = ascii("</v></c>");
+    /** end of an inline string cell */
+    private static final byte[] TEXT_END = ascii("</t></is></c>");
+    /** end of a cell start tag and value for an error cell */
+    private static final byte[] ERROR_VALUE = ascii("\" t=\"e\"><v>#NUM!</v></c>");
+
+    static {
+        for (int i = 0; i < POW10.length; i++)
+            POW10[i] = Double.parseDouble("1e" + (i + MIN_EXP));
+        for (int i = 0; i < NUM_STYLES; i++) {
+            NUM_OPEN[i] = ascii("\" s=\"" + i + "\"><v>");
+            TEXT_OPEN[i] = ascii("\" s=\"" + i + "\" t=\"inlineStr\"><is><t xml:space=\"preserve\">");
+        }
+    }
+
+    /**
+     * Create a new workbook file.  The format is binary (which is experimental) if the file name ends in
+     * ".xlsb" and XML otherwise.
+     *
+     * @param outFile	file to which the workbook should be written
+     */
+    public DirectWorkbook(File outFile) {
+        this(outFile, Format.of(outFile));
+    }
+
+    /**
+     * Create a new workbook file in a specified format.
+     *
+     * @param outFile	file to which the workbook should be written
+     * @param format	output format
+     */
+    public DirectWorkbook(File outFile, Format format) {
+        this.outFile = outFile;
+        this.format = format;
+        this.binary = (format == Format.XLSB);
+        try {
+            this.zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(outFile), BUFFER_SIZE));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.zip.setLevel(Deflater.BEST_SPEED);
+        this.sheetNames = new ArrayList<>();
+        this.sheetNameSet = new HashSet<>();
+        this.tableNums = new ArrayList<>();
+        this.tableCount = 0;
+        this.tableNameSet = new HashSet<>();
+        this.precision = 2;
+        this.buffer = new byte[BUFFER_SIZE];
+        this.pos = 0;
+        this.sheetName = null;
+        this.colLetters = new byte[0][];
+        this.colChars = new int[0];
+        this.digits = new byte[SIG_DIGITS + 5];
+        this.rowHeader = new byte[XlsbWriter.MAX_HEADER + XlsbWriter.ROW_HDR_SIZE
+                + 8 * (SpreadsheetVersion.EXCEL2007.getMaxColumns() / XlsbWriter.SPAN_COLS)];
+        this.links = new ArrayList<>();
+    }
+
+    /**
+     * @return the ASCII bytes of a string
+     *
+     * @param string	string to convert
+     */
+    private static byte[] ascii(String string) {
+        return string.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Specify the number of digits after the decimal point for normal numbers.  This applies to the
+     * whole workbook.
+     *
+     * @param newPrecision		new number of digits past the decimal
+     */
+    public void setPrecision(int newPrecision) {
+        this.precision = newPrecision;
+    }
+
+    /**
+     * Specify the compression level for the parts written from now on.  The default is the fastest level.
+     *
+     * @param level		compression level (0-9)
+     */
+    public void setCompressionLevel(int level) {
+        this.zip.setLevel(level);
+    }
+
+    /**
+     * Start a new worksheet.  The previous worksheet, if any, is finished.  The name must be a valid Excel
+     * sheet name.
+     *
+     * @param name		name of the new worksheet
+     * @param isTable	TRUE to make this worksheet a table
+     */
+    public void addSheet(String name, boolean isTable) {
+        WorkbookUtil.validateSheetName(name);
+        if (this.sheetNameSet.contains(name.toLowerCase()))
+            throw new IllegalArgumentException("Duplicate sheet name \"" + name + "\".");
+        this.closeSheet();
+        this.sheetNames.add(name);
+        this.sheetNameSet.add(name.toLowerCase());
+        this.sheetName = name;
+        this.tableMode = isTable;
+        this.headers = null;
+        this.rowIdx = -1;
+        this.rowOpen = false;
+        this.colIdx = 0;
+        this.maxCols = 0;
+        Arrays.fill(this.colChars, 0);
+        this.links.clear();
+        this.sampling = true;
+        this.pos = 0;
+        try {
+            this.zip.putNextEntry(new ZipEntry("xl/worksheets/sheet" + this.sheetNames.size() + "." + this.format.ext));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Store the headers for the current worksheet.  This must be done before any rows are added.
+     *
+     * @param headers	list of header names to store
+     */
+    public void setHeaders(List<String> headers) {
+        if (this.rowIdx >= 0)
+            throw new IllegalStateException("Headers for sheet " + this.sheetName + " must be stored before the rows.");
+        List<String> names = new ArrayList<>(headers);
+        if (this.tableMode) {
+            // A table's column names must be unique and nonblank, and must match the header cells.
+            Set<String> used = new HashSet<>();
+            for (int i = 0; i < names.size(); i++) {
+                String base = names.get(i);
+                if (StringUtils.isBlank(base))
+                    base = "Column" + (i + 1);
+                String name = base;
+                for (int k = 2; used.contains(name.toLowerCase()); k++)
+                    name = base + k;
+                used.add(name.toLowerCase());
+                names.set(i, name);
+            }
+        }
+        this.headers = names;
+        this.startRow();
+        int style = (this.tableMode ? TEXT_STYLE : HEAD_STYLE);
+        for (String name : names)
+            this.putString(name, style);
+    }
+
+    /**
+     * Add a new data row to the current worksheet.
+     */
+    public void addRow() {
+        if (this.rowIdx < 0)
+            this.rowIdx = 0;
+        this.startRow();
+    }
+
+    /**
+     * Finish the current row and start the next one.
+     */
+    private void startRow() {
+        if (this.sheetName == null)
+            throw new IllegalStateException("No sheet is open.");
+        this.endRow();
+        this.rowIdx++;
+        if (this.sampling && this.rowIdx > SAMPLE_ROWS)
+            this.endSample();
+        else if (! this.sampling && this.pos >= FLUSH_SIZE)
+            this.flushBuffer();
+        this.colIdx = 0;
+        this.rowStart = this.pos;
+        this.rowFirstCol = -1;
+        if (! this.binary) {
+            this.put(ROW_START);
+            this.putLong(this.rowIdx + 1);
+            this.put(ROW_OPEN);
+        }
+        this.rowOpen = true;
+    }
+
+    /**
+     * Finish the current row, if any.
+     */
+    private void endRow() {
+        if (this.rowOpen) {
+            if (this.binary)
+                this.putRowHeader();
+            else
+                this.put(ROW_END);
+            this.rowOpen = false;
+        }
+    }
+
+    /**
+     * Insert the binary row header in front of the current row's cells.  The header contains the column
+     * spans, one for each block of {@link XlsbWriter#SPAN_COLS} columns, which are not known until the
+     * row is finished.  Each span runs from the first to the last nonblank cell in its block.
+     */
+    private void putRowHeader() {
+        int spans = 0;
+        if (this.rowFirstCol >= 0)
+            spans = this.rowLastCol / XlsbWriter.SPAN_COLS - this.rowFirstCol / XlsbWriter.SPAN_COLS + 1;
+        byte[] hdr = this.rowHeader;
+        int n = XlsbWriter.putHeader(hdr, 0, XlsbWriter.ROW_HDR, XlsbWriter.ROW_HDR_SIZE + 8 * spans);
+        n = XlsbWriter.putInt32(hdr, n, this.rowIdx);
+        // The row uses the default format and the default height, with no flags.
+        n = XlsbWriter.putInt32(hdr, n, 0);
+        hdr[n++] = (byte) XlsbWriter.ROW_HEIGHT;
+        hdr[n++] = (byte) (XlsbWriter.ROW_HEIGHT >> 8);
+        hdr[n++] = 0;
+        hdr[n++] = 0;
+        hdr[n++] = 0;
+        n = XlsbWriter.putInt32(hdr, n, spans);
+        for (int i = 0; i < spans; i++) {
+            int blockStart = (this.rowFirstCol / XlsbWriter.SPAN_COLS + i) * XlsbWriter.SPAN_COLS;
+            n = XlsbWriter.putInt32(hdr, n, Math.max(this.rowFirstCol, blockStart));
+            n = XlsbWriter.putInt32(hdr, n, Math.min(this.rowLastCol, blockStart + XlsbWriter.SPAN_COLS - 1));
+        }
+        this.reserve(n);
+        System.arraycopy(this.buffer, this.rowStart, this.buffer, this.rowStart + n, this.pos - this.rowStart);
+        System.arraycopy(hdr, 0, this.buffer, this.rowStart, n);
+        this.pos += n;
+    }
+
+    /**
+     * Store a floating-point value in the next cell of this row.
+     *
+     * @param value		value to store
+     * @param style		style of number
+     */
+    public void storeCell(double value, CustomWorkbook.Num style) {
+        int styleIdx = switch (style) {
+            case NORMAL -> NUM_STYLE;
+            case FRACTION -> FRAC_STYLE;
+            case ML -> ML_STYLE;
+        };
+        this.putNumber(value, styleIdx);
+    }
+
+    /**
+     * Store a number in a cell and format it normally.
+     *
+     * @param value		number to store
+     */
+    public void storeCell(double value) {
+        this.putNumber(value, NUM_STYLE);
+    }
+
+    /**
+     * Store a range-colored value in the next cell of this row.  The value will be normally-colored
+     * if it is between the minimum and maximum.  If it is at or below the minimum, it will be red.  If
+     * it is at or above the maximum, it will be green.
+     *
+     * @param value		value to store
+     * @param min		maximum "low" value
+     * @param max		minimum "high" value
+     */
+    public void storeCell(double value, double min, double max) {
+        int styleIdx = NUM_STYLE;
+        if (value <= min)
+            styleIdx = LOW_STYLE;
+        else if (value >= max)
+            styleIdx = HIGH_STYLE;
+        this.putNumber(value, styleIdx);
+    }
+
+    /**
+     * Store an integer value in the next cell of this row.
+     *
+     * @param value		value to store
+     */
+    public void storeCell(int value) {
+        this.startCell();
+        if (this.binary) {
+            if (value >= XlsbWriter.MIN_RK && value <= XlsbWriter.MAX_RK) {
+                // This is an RK number flagged as an integer.
+                this.putCellHeader(XlsbWriter.CELL_RK, 4, INT_STYLE);
+                this.pos = XlsbWriter.putInt32(this.buffer, this.pos, (value << 2) | 0x02);
+            } else {
+                this.putCellHeader(XlsbWriter.CELL_REAL, 8, INT_STYLE);
+                this.pos = XlsbWriter.putInt64(this.buffer, this.pos, Double.doubleToRawLongBits(value));
+            }
+            this.endCell(intDigits(value) + (value < 0 ? 1 : 0));
+        } else {
+            this.putCellRef();
+            this.put(NUM_OPEN[INT_STYLE]);
+            int start = this.pos;
+            this.putLong(value);
+            int width = this.pos - start;
+            this.put(NUM_END);
+            this.endCell(width);
+        }
+    }
+
+    /**
+     * Store a text value in the next cell of this row.
+     *
+     * @param value		value to store
+     * @param style		style of text
+     */
+    public void storeCell(String value, CustomWorkbook.Text style) {
+        if (StringUtils.isBlank(value))
+            this.storeBlankCell();
+        else
+            this.putString(value, (style == CustomWorkbook.Text.FLAG ? FLAG_STYLE : TEXT_STYLE));
+    }
+
+    /**
+     * Store a normal text value in the next cell of this row.
+     *
+     * @param value		value to store
+     */
+    public void storeCell(String value) {
+        this.storeCell(value, CustomWorkbook.Text.NORMAL);
+    }
+
+    /**
+     * Store a text value with a hyperlink in the next cell of this row.
+     *
+     * @param value		value to store
+     * @param url		URL for the link, or NULL for no link
+     */
+    public void storeCell(String value, String url) {
+        if (StringUtils.isBlank(url))
+            this.storeCell(value);
+        else if (StringUtils.isBlank(value))
+            this.storeBlankCell();
+        else {
+            final int c = this.colIdx;
+            this.putString(value, LINK_STYLE);
+            this.links.add(new Link(this.rowIdx, c, url));
+        }
+    }
+
+    /**
+     * @return the relationship ID for a hyperlink in the current sheet
+     *
+     * @param idx	index of the hyperlink in the sheet
+     */
+    static String linkRelId(int idx) {
+        return "rId" + (idx + 2);
+    }
+
+    /**
+     * Skip the next cell in this row, leaving it blank.
+     */
+    public void storeBlankCell() {
+        this.colIdx++;
+        if (this.colIdx > this.maxCols)
+            this.maxCols = this.colIdx;
+    }
+
+    /**
+     * Write a number cell.
+     *
+     * @param value		value to store
+     * @param style		index of the cell style
+     */
+    private void putNumber(double value, int style) {
+        this.startCell();
+        if (! Double.isFinite(value)) {
+            if (this.binary) {
+                this.putCellHeader(XlsbWriter.CELL_ERROR, 1, style);
+                this.buffer[this.pos++] = XlsbWriter.ERR_NUM;
+            } else {
+                this.putCellRef();
+                this.put(ERROR_VALUE);
+            }
+            this.endCell(6);
+        } else {
+            if (this.binary) {
+                this.putCellHeader(XlsbWriter.CELL_REAL, 8, style);
+                this.pos = XlsbWriter.putInt64(this.buffer, this.pos, Double.doubleToRawLongBits(value));
+            } else {
+                this.putCellRef();
+                this.put(NUM_OPEN[style]);
+                this.putDouble(value);
+                this.put(NUM_END);
+            }
+            // The display width depends on the number format, not on the digits written.
+            int width = intDigits(value) + (value < 0 ? 1 : 0);
+            if (style == FRAC_STYLE)
+                width += 5;
+            else if (style == ML_STYLE)
+                width += 2;
+            else if (this.precision > 0)
+                width += this.precision + 1;
+            this.endCell(width);
+        }
+    }
+
+    /**
+     * @return the number of digits in the integer part of a number
+     *
+     * @param value		number to examine
+     */
+    private static int intDigits(double value) {
+        double v = Math.abs(value);
+        int retVal = 1;
+        for (double limit = 10.0; v >= limit && retVal < 20; limit *= 10.0)
+            retVal++;
+        return retVal;
+    }
+
+    /**
+     * Write a string cell.  Excel cannot hold a string longer than its maximum text length.
+     *
+     * @param value		value to store
+     * @param style		index of the cell style
+     */
+    private void putString(String value, int style) {
+        if (value.length() > MAX_TEXT)
+            throw new IllegalArgumentException("The maximum length of cell contents (text) is " + MAX_TEXT
+                    + " characters.");
+        this.startCell();
+        if (this.binary) {
+            final int n = value.length();
+            this.putCellHeader(XlsbWriter.CELL_ST, 4 + 2 * n, style);
+            this.pos = XlsbWriter.putInt32(this.buffer, this.pos, n);
+            this.pos = XlsbWriter.putChars(this.buffer, this.pos, value);
+        } else {
+            this.putCellRef();
+            this.put(TEXT_OPEN[style]);
+            this.putText(value);
+            this.put(TEXT_END);
+        }
+        this.endCell(value.length());
+    }
+
+    /**
+     * Prepare to write a nonblank cell at the current position.
+     */
+    private void startCell() {
+        if (! this.rowOpen)
+            throw new IllegalStateException("No row has been added to sheet " + this.sheetName + ".");
+        final int c = this.colIdx;
+        if (c >= this.colChars.length)
+            this.colChars = Arrays.copyOf(this.colChars, Math.max(c + 1, this.colChars.length * 2));
+        if (this.rowFirstCol < 0)
+            this.rowFirstCol = c;
+        this.rowLastCol = c;
+    }
+
+    /**
+     * Write the start of an XML cell tag with the reference for the current position.  The caller must
+     * write the rest of the tag.
+     */
+    private void putCellRef() {
+        final int c = this.colIdx;
+        if (c >= this.colLetters.length) {
+            int n = Math.max(c + 1, this.colLetters.length * 2);
+            int old = this.colLetters.length;
+            this.colLetters = Arrays.copyOf(this.colLetters, n);
+            for (int i = old; i < n; i++)
+                this.colLetters[i] = ascii(CellReference.convertNumToColString(i));
+        }
+        this.put(CELL_START);
+        this.put(this.colLetters[c]);
+        this.putLong(this.rowIdx + 1);
+    }
+
+    /**
+     * Write a binary cell record header for the current position.  Room is reserved for the value as well.
+     *
+     * @param type		record type
+     * @param size		number of bytes in the cell value
+     * @param style		index of the cell style
+     */
+    private void putCellHeader(int type, int size, int style) {
+        this.reserve(XlsbWriter.MAX_HEADER + XlsbWriter.CELL_HDR_SIZE + size);
+        this.pos = XlsbWriter.putHeader(this.buffer, this.pos, type, XlsbWriter.CELL_HDR_SIZE + size);
+        this.pos = XlsbWriter.putInt32(this.buffer, this.pos, this.colIdx);
+        // The style index is 3 bytes, followed by a byte of flags we do not use.
+        this.pos = XlsbWriter.putInt32(this.buffer, this.pos, style);
+    }
+
+    /**
+     * Finish the cell at the current position and move to the next position.
+     *
+     * @param width		display width of the cell value in characters
+     */
+    private void endCell(int width) {
+        if (this.sampling && width > this.colChars[this.colIdx])
+            this.colChars[this.colIdx] = width;
+        this.colIdx++;
+        if (this.colIdx > this.maxCols)
+            this.maxCols = this.colIdx;
+    }
+
+    /**
+     * Insure there is room in the output buffer.  The buffer is only written to the output between rows,
+     * so that a binary row header can be inserted in front of its cells, and it grows if a row (or the
+     * sample of the first rows) does not fit.
+     *
+     * @param n		number of bytes needed
+     */
+    private void reserve(int n) {
+        if (this.pos + n > this.buffer.length)
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.pos + n));
+    }
+
+    /**
+     * Write the output buffer to the package stream.
+     */
+    private void flushBuffer() {
+        try {
+            this.zip.write(this.buffer, 0, this.pos);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.pos = 0;
+    }
+
+    /**
+     * Add bytes to the output buffer.
+     *
+     * @param bytes		bytes to add (a small number)
+     */
+    private void put(byte[] bytes) {
+        this.reserve(bytes.length);
+        System.arraycopy(bytes, 0, this.buffer, this.pos, bytes.length);
+        this.pos += bytes.length;
+    }
+
+    /**
+     * Add the decimal digits of an integer to the output buffer.
+     *
+     * @param value		integer to write
+     */
+    private void putLong(long value) {
+        this.reserve(21);
+        long v = value;
+        if (v < 0) {
+            this.buffer[this.pos++] = '-';
+            v = -v;
+        }
+        int n = 0;
+        do {
+            this.digits[n++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v > 0);
+        while (n > 0)
+            this.buffer[this.pos++] = this.digits[--n];
+    }
+
+    /**
+     * Add a floating-point number to the output buffer.  Whole numbers are written without a decimal
+     * point.  Other numbers are rounded to {@link #SIG_DIGITS} significant digits and written in
+     * positional notation if they are of moderate size, or scientific notation otherwise.
+     *
+     * @param value		number to write (must be finite)
+     */
+    private void putDouble(double value) {
+        double v = Math.abs(value);
+        if (value == Math.rint(value) && v < MAX_WHOLE)
+            this.putLong((long) value);
+        else {
+            int exp = (int) Math.floor(Math.log10(v));
+            if (exp < MIN_EXP || exp > MAX_EXP) {
+                // The number is too extreme to scale with the table.  This is rare, so we allow a string.
+                byte[] string = ascii(Double.toString(value));
+                this.put(string);
+            } else {
+                // Scale the number to an integer with all the significant digits.  The logarithm can be
+                // off by one near a power of ten, and rounding can carry into a new digit, so we adjust.
+                long mantissa = Math.round(v * POW10[SIG_DIGITS - 1 - exp - MIN_EXP]);
+                if (mantissa >= MAX_MANTISSA) {
+                    exp++;
+                    mantissa = Math.round(v * POW10[SIG_DIGITS - 1 - exp - MIN_EXP]);
+                } else if (mantissa < MIN_MANTISSA) {
+                    exp--;
+                    mantissa = Math.round(v * POW10[SIG_DIGITS - 1 - exp - MIN_EXP]);
+                }
+                if (mantissa >= MAX_MANTISSA) {
+                    exp++;
+                    mantissa /= 10;
+                }
+                // Extract the digits, dropping trailing zeros.
+                int n = SIG_DIGITS;
+                while (n > 1 && mantissa % 10 == 0) {
+                    mantissa /= 10;
+                    n--;
+                }
+                for (int i = n - 1; i >= 0; i--) {
+                    this.digits[i] = (byte) ('0' + mantissa % 10);
+                    mantissa /= 10;
+                }
+                this.reserve(SIG_DIGITS + 10);
+                if (value < 0)
+                    this.buffer[this.pos++] = '-';
+                if (exp >= 0 && exp < SIG_DIGITS) {
+                    // Here we have a normal number with an integer part.
+                    for (int i = 0; i <= exp; i++)
+                        this.buffer[this.pos++] = (i < n ? this.digits[i] : (byte) '0');
+                    if (n > exp + 1) {
+                        this.buffer[this.pos++] = '.';
+                        for (int i = exp + 1; i < n; i++)
+                            this.buffer[this.pos++] = this.digits[i];
+                    }
+                } else if (exp < 0 && exp >= -5) {
+                    // Here we have a small fraction.
+                    this.buffer[this.pos++] = '0';
+                    this.buffer[this.pos++] = '.';
+                    for (int i = -1; i > exp; i--)
+                        this.buffer[this.pos++] = '0';
+                    for (int i = 0; i < n; i++)
+                        this.buffer[this.pos++] = this.digits[i];
+                } else {
+                    // Here we need scientific notation.
+                    this.buffer[this.pos++] = this.digits[0];
+                    if (n > 1) {
+                        this.buffer[this.pos++] = '.';
+                        for (int i = 1; i < n; i++)
+                            this.buffer[this.pos++] = this.digits[i];
+                    }
+                    this.buffer[this.pos++] = 'E';
+                    this.putLong(exp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add text to the output buffer, encoded in UTF-8 and escaped for XML.  Characters that are not
+     * valid in XML are dropped.
+     *
+     * @param text		text to write
+     */
+    private void putText(String text) {
+        final int n = text.length();
+        for (int i = 0; i < n; i++) {
+            char ch = text.charAt(i);
+            this.reserve(6);
+            if (ch < 0x80) {
+                switch (ch) {
+                case '&' -> this.putAscii("&amp;");
+                case '<' -> this.putAscii("&lt;");
+                case '>' -> this.putAscii("&gt;");
+                default -> {
+                    if (ch >= 0x20 || ch == '\t' || ch == '\n' || ch == '\r')
+                        this.buffer[this.pos++] = (byte) ch;
+                }
+                }
+            } else if (ch < 0x800) {
+                this.buffer[this.pos++] = (byte) (0xC0 | (ch >> 6));
+                this.buffer[this.pos++] = (byte) (0x80 | (ch & 0x3F));
+            } else if (Character.isHighSurrogate(ch) && i + 1 < n && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int cp = Character.toCodePoint(ch, text.charAt(i + 1));
+                i++;
+                this.buffer[this.pos++] = (byte) (0xF0 | (cp >> 18));
+                this.buffer[this.pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                this.buffer[this.pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                this.buffer[this.pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (! Character.isSurrogate(ch) && ch < 0xFFFE) {
+                this.buffer[this.pos++] = (byte) (0xE0 | (ch >> 12));
+                this.buffer[this.pos++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+                this.buffer[this.pos++] = (byte) (0x80 | (ch & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Add a short ASCII string to the output buffer.  The caller must have reserved the space.
+     *
+     * @param string	string to write
+     */
+    private void putAscii(String string) {
+        final int n = string.length();
+        for (int i = 0; i < n; i++)
+            this.buffer[this.pos++] = (byte) string.charAt(i);
+    }
+
+    /**
+     * Write the start of the current sheet, including the column widths computed from the rows
+     * buffered so far, followed by the buffered rows.  After this, the buffer is written to the output
+     * whenever it fills.
+     */
+    private void endSample() {
+        // Compute the column widths, allowing space for the filter arrow in a table.
+        int pad = (this.tableMode ? 3 : 1);
+        int[] widths = new int[this.maxCols];
+        for (int c = 0; c < this.maxCols; c++) {
+            // A column can have only blank cells, in which case it was never seen.
+            int chars = (c < this.colChars.length ? this.colChars[c] : 0);
+            widths[c] = Math.min(chars + pad, MAX_WIDTH);
+        }
+        byte[] start;
+        if (this.binary)
+            start = XlsbWriter.sheetStart(widths);
+        else {
+            StringBuilder xml = new StringBuilder(200 + this.maxCols * 60);
+            xml.append(XML_HEADER).append("<worksheet xmlns=\"").append(MAIN_NS).append("\" xmlns:r=\"")
+                    .append(REL_NS).append("\">");
+            if (this.maxCols > 0) {
+                xml.append("<cols>");
+                for (int c = 0; c < this.maxCols; c++)
+                    xml.append("<col min=\"").append(c + 1).append("\" max=\"").append(c + 1).append("\" width=\"")
+                            .append(widths[c]).append("\" customWidth=\"1\"/>");
+                xml.append("</cols>");
+            }
+            xml.append("<sheetData>");
+            start = xml.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        try {
+            this.zip.write(start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.sampling = false;
+        this.flushBuffer();
+        // Return an oversized sample buffer to the normal size.
+        if (this.buffer.length > BUFFER_SIZE)
+            this.buffer = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Finish the current worksheet, if any.
+     */
+    public void closeSheet() {
+        if (this.sheetName != null) {
+            this.endRow();
+            if (this.sampling)
+                this.endSample();
+            this.flushBuffer();
+            final int sheetNum = this.sheetNames.size();
+            final String ext = this.format.ext;
+            boolean table = (this.tableMode && this.headers != null && ! this.headers.isEmpty());
+            try {
+                if (this.binary)
+                    this.zip.write(XlsbWriter.sheetEnd(this.links, table));
+                else
+                    this.zip.write(this.sheetEndXml(table).getBytes(StandardCharsets.UTF_8));
+                this.zip.closeEntry();
+                long tableNum = 0;
+                TableName tableIdentifier = null;
+                if (table) {
+                    this.tableCount++;
+                    tableNum = this.tableCount;
+                    tableIdentifier = new TableName(this.tableDisplayName(tableNum), tableNum, this.sheetName);
+                }
+                if (table || ! this.links.isEmpty()) {
+                    StringBuilder xml = new StringBuilder(200 + this.links.size() * 150);
+                    xml.append(XML_HEADER).append("<Relationships xmlns=\"").append(PKG_REL_NS).append("\">");
+                    if (table)
+                        xml.append("<Relationship Id=\"").append(TABLE_REL_ID).append("\" Type=\"").append(REL_NS)
+                                .append("/table\" Target=\"../tables/table").append(tableNum).append('.').append(ext)
+                                .append("\"/>");
+                    for (int i = 0; i < this.links.size(); i++)
+                        xml.append("<Relationship Id=\"").append(linkRelId(i)).append("\" Type=\"").append(REL_NS)
+                                .append("/hyperlink\" Target=\"").append(escape(this.links.get(i).url()))
+                                .append("\" TargetMode=\"External\"/>");
+                    xml.append("</Relationships>");
+                    this.writePart("xl/worksheets/_rels/sheet" + sheetNum + "." + ext + ".rels", xml.toString());
+                }
+                if (table)
+                    this.writeTable(tableIdentifier);
+                this.tableNums.add(tableNum);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.sheetName = null;
+        }
+    }
+
+    /**
+     * @return the XML at the end of the current sheet, starting with the end of the sheet data
+     *
+     * @param table		TRUE if the sheet has a table
+     */
+    private String sheetEndXml(boolean table) {
+        StringBuilder retVal = new StringBuilder(100 + this.links.size() * 40);
+        retVal.append("</sheetData>");
+        if (! this.links.isEmpty()) {
+            retVal.append("<hyperlinks>");
+            for (int i = 0; i < this.links.size(); i++) {
+                Link link = this.links.get(i);
+                retVal.append("<hyperlink ref=\"").append(new CellReference(link.row(), link.col()).formatAsString())
+                        .append("\" r:id=\"").append(linkRelId(i)).append("\"/>");
+            }
+            retVal.append("</hyperlinks>");
+        }
+        if (table)
+            retVal.append("<tableParts count=\"1\"><tablePart r:id=\"").append(TABLE_REL_ID).append("\"/></tableParts>");
+        retVal.append("</worksheet>");
+        return retVal.toString();
+    }
+
+    /**
+     * @return a unique display name for the current sheet's table
+     *
+     * @param tableNum	number of the table
+     */
+    private String tableDisplayName(long tableNum) {
+        String retVal = "table_" + TableName.fix(this.sheetName);
+        if (! this.tableNameSet.add(retVal)) {
+            // Different sheet names can have the same safe form, so we add a numeric suffix.
+            String base = retVal;
+            int suffix = (int) tableNum;
+            do {
+                retVal = base + "_" + suffix;
+                suffix++;
+            } while (! this.tableNameSet.add(retVal));
+        }
+        return retVal;
+    }
+
+    /**
+     * Write the table part for the current sheet.
+     *
+     * @param tableIdentifier	identifying information for the table, whose ID is its display name
+     *
+     * @throws IOException
+     */
+    private void writeTable(TableName tableIdentifier) throws IOException {
+        final int n = this.headers.size();
+        // A table needs at least one data row, so a table with only headers gets a blank one.
+        final int lastRow = Math.max(this.rowIdx, 1);
+        if (this.binary) {
+            this.writePart("xl/tables/table" + tableIdentifier.getNum() + ".bin",
+                    XlsbWriter.table(tableIdentifier, tableIdentifier.getId(), this.headers, lastRow));
+        } else {
+            String ref = "A1:" + CellReference.convertNumToColString(n - 1) + (lastRow + 1);
+            StringBuilder xml = new StringBuilder(300 + n * 40);
+            xml.append(XML_HEADER).append("<table xmlns=\"").append(MAIN_NS).append("\" id=\"")
+                    .append(tableIdentifier.getNum()).append("\" name=\"").append(escape(tableIdentifier.getId()))
+                    .append("\" displayName=\"").append(escape(tableIdentifier.getId())).append("\" ref=\"").append(ref)
+                    .append("\" totalsRowShown=\"0\"><autoFilter ref=\"").append(ref).append("\"/><tableColumns count=\"")
+                    .append(n).append("\">");
+            for (int i = 0; i < n; i++)
+                xml.append("<tableColumn id=\"").append(i + 1).append("\" name=\"").append(escape(this.headers.get(i)))
+                        .append("\"/>");
+            xml.append("</tableColumns><tableStyleInfo name=\"").append(XlsbWriter.TABLE_STYLE)
+                    .append("\" showFirstColumn=\"0\" showLastColumn=\"0\" showRowStripes=\"1\" showColumnStripes=\"0\"/></table>");
+            this.writePart("xl/tables/table" + tableIdentifier.getNum() + ".xml", xml.toString());
+        }
+    }
+
+    /**
+     * Write a complete package part.
+     *
+     * @param name		name of the part's zip entry
+     * @param content	XML content of the part
+     *
+     * @throws IOException
+     */
+    private void writePart(String name, String content) throws IOException {
+        this.writePart(name, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write a complete binary package part.
+     *
+     * @param name		name of the part's zip entry
+     * @param content	content of the part
+     *
+     * @throws IOException
+     */
+    private void writePart(String name, byte[] content) throws IOException {
+        this.zip.putNextEntry(new ZipEntry(name));
+        this.zip.write(content);
+        this.zip.closeEntry();
+    }
+
+    /**
+     * @return a string escaped for use in an XML attribute
+     *
+     * @param string	string to escape
+     */
+    private static String escape(String string) {
+        StringBuilder retVal = new StringBuilder(string.length() + 10);
+        final int n = string.length();
+        for (int i = 0; i < n; i++) {
+            char ch = string.charAt(i);
+            switch (ch) {
+            case '&' -> retVal.append("&amp;");
+            case '<' -> retVal.append("&lt;");
+            case '>' -> retVal.append("&gt;");
+            case '"' -> retVal.append("&quot;");
+            default -> {
+                if (ch >= 0x20)
+                    retVal.append(ch);
+            }
+            }
+        }
+        return retVal.toString();
+    }
+
+    /**
+     * @return the custom number format codes, in ID order starting from {@link #FIRST_FORMAT}
+     */
+    private String[] formatCodes() {
+        return new String[] { "###0." + StringUtils.repeat('0', this.precision), "#0.0000", "#0.0", "##0" };
+    }
+
+    /**
+     * @return the XML for the styles part
+     */
+    private String stylesXml() {
+        String[] codes = this.formatCodes();
+        StringBuilder xml = new StringBuilder(2000);
+        xml.append(XML_HEADER).append("<styleSheet xmlns=\"").append(MAIN_NS).append("\">")
+                .append("<numFmts count=\"").append(codes.length).append("\">");
+        for (int i = 0; i < codes.length; i++)
+            xml.append("<numFmt numFmtId=\"").append(FIRST_FORMAT + i).append("\" formatCode=\"").append(escape(codes[i]))
+                    .append("\"/>");
+        xml.append("</numFmts><fonts count=\"2\"><font><sz val=\"11\"/><name val=\"Calibri\"/><family val=\"2\"/></font>")
+                .append("<font><u/><sz val=\"11\"/><color indexed=\"").append(LINK_COLOR)
+                .append("\"/><name val=\"Calibri\"/><family val=\"2\"/></font></fonts>")
+                .append("<fills count=\"").append(2 + FILL_COLORS.length).append("\"><fill><patternFill patternType=\"none\"/></fill>")
+                .append("<fill><patternFill patternType=\"gray125\"/></fill>");
+        for (int color : FILL_COLORS)
+            xml.append("<fill><patternFill patternType=\"solid\"><fgColor indexed=\"").append(color)
+                    .append("\"/><bgColor indexed=\"64\"/></patternFill></fill>");
+        xml.append("</fills><borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>")
+                .append("<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>")
+                .append("<cellXfs count=\"").append(XF_SPECS.length).append("\">");
+        for (int[] spec : XF_SPECS)
+            appendXf(xml, spec);
+        xml.append("</cellXfs><cellStyles count=\"1\"><cellStyle name=\"Normal\" xfId=\"0\" builtinId=\"0\"/></cellStyles>")
+                .append("</styleSheet>");
+        return xml.toString();
+    }
+
+    /**
+     * Add a cell format to the styles XML.
+     *
+     * @param xml		styles XML being built
+     * @param spec		format specification (see {@link #XF_SPECS})
+     */
+    private static void appendXf(StringBuilder xml, int[] spec) {
+        xml.append("<xf numFmtId=\"").append(spec[0]).append("\" fontId=\"").append(spec[1]).append("\" fillId=\"")
+                .append(spec[2]).append("\" borderId=\"0\" xfId=\"0\"");
+        if (spec[0] != 0)
+            xml.append(" applyNumberFormat=\"1\"");
+        if (spec[1] != 0)
+            xml.append(" applyFont=\"1\"");
+        if (spec[2] != 0)
+            xml.append(" applyFill=\"1\"");
+        if (spec[3] == GENERAL && spec[4] == 0)
+            xml.append("/>");
+        else {
+            xml.append(" applyAlignment=\"1\"><alignment");
+            if (spec[3] != GENERAL)
+                xml.append(" horizontal=\"").append(ALIGNMENTS[spec[3]]).append('"');
+            if (spec[4] != 0)
+                xml.append(" vertical=\"top\"");
+            xml.append("/></xf>");
+        }
+    }
+
+    /**
+     * Finish the workbook and write its remaining parts.
+     */
+    @Override
+    public void close() {
+        this.closeSheet();
+        // A workbook must have at least one sheet.
+        if (this.sheetNames.isEmpty()) {
+            this.addSheet("Sheet1", false);
+            this.closeSheet();
+        }
+        final int n = this.sheetNames.size();
+        final String ext = this.format.ext;
+        try {
+            // Write the workbook part and its relationships.
+            StringBuilder xml = new StringBuilder(200 + n * 80);
+            if (this.binary)
+                this.writePart("xl/workbook.bin", XlsbWriter.workbook(this.sheetNames));
+            else {
+                xml.append(XML_HEADER).append("<workbook xmlns=\"").append(MAIN_NS).append("\" xmlns:r=\"").append(REL_NS)
+                        .append("\"><sheets>");
+                for (int i = 1; i <= n; i++)
+                    xml.append("<sheet name=\"").append(escape(this.sheetNames.get(i - 1))).append("\" sheetId=\"").append(i)
+                            .append("\" r:id=\"rId").append(i).append("\"/>");
+                xml.append("</sheets></workbook>");
+                this.writePart("xl/workbook.xml", xml.toString());
+                xml.setLength(0);
+            }
+            xml.append(XML_HEADER).append("<Relationships xmlns=\"").append(PKG_REL_NS).append("\">");
+            for (int i = 1; i <= n; i++)
+                xml.append("<Relationship Id=\"rId").append(i).append("\" Type=\"").append(REL_NS)
+                        .append("/worksheet\" Target=\"worksheets/sheet").append(i).append('.').append(ext).append("\"/>");
+            xml.append("<Relationship Id=\"rId").append(n + 1).append("\" Type=\"").append(REL_NS)
+                    .append("/styles\" Target=\"styles.").append(ext).append("\"/></Relationships>");
+            this.writePart("xl/_rels/workbook." + ext + ".rels", xml.toString());
+            if (this.binary)
+                this.writePart("xl/styles.bin", XlsbWriter.styles(this.formatCodes()));
+            else
+                this.writePart("xl/styles.xml", this.stylesXml());
+            // Write the package relationships.
+            this.writePart("_rels/.rels", XML_HEADER + "<Relationships xmlns=\"" + PKG_REL_NS
+                    + "\"><Relationship Id=\"rId1\" Type=\"" + REL_NS + "/officeDocument\" Target=\"xl/workbook." + ext
+                    + "\"/></Relationships>");
+            // Write the content types.
+            xml.setLength(0);
+            xml.append(XML_HEADER).append("<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">")
+                    .append("<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>")
+                    .append("<Default Extension=\"xml\" ContentType=\"application/xml\"/>")
+                    .append("<Override PartName=\"/xl/workbook.").append(ext).append("\" ContentType=\"")
+                    .append(this.format.workbookType).append("\"/>")
+                    .append("<Override PartName=\"/xl/styles.").append(ext).append("\" ContentType=\"")
+                    .append(this.format.stylesType).append("\"/>");
+            for (int i = 1; i <= n; i++) {
+                xml.append("<Override PartName=\"/xl/worksheets/sheet").append(i).append('.').append(ext)
+                        .append("\" ContentType=\"").append(this.format.sheetType).append("\"/>");
+                long tableNum = this.tableNums.get(i - 1);
+                if (tableNum > 0)
+                    xml.append("<Override PartName=\"/xl/tables/table").append(tableNum).append('.').append(ext)
+                            .append("\" ContentType=\"").append(this.format.tableType).append("\"/>");
+            }
+            xml.append("</Types>");
+            this.writePart("[Content_Types].xml", xml.toString());
+            this.zip.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the file to which the workbook is being written
+     */
+    public File getOutFile() {
+        return this.outFile;
+    }
+
+    /**
+     * @return the output format
+     */
+    public Format getFormat() {
+        return this.format;
+    }
+
+}
@@ -0,0 +1,47 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * This annotation describes how a record component or object field is written to a spreadsheet column by
+ * a {@link RecordMapper}.  Every component of a record is written, whether or not it is annotated; for
+ * an ordinary class, only the annotated fields are written.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.FIELD, ElementType.RECORD_COMPONENT })
+public @interface ExcelColumn {
+
+    /** column header (default is the field name) */
+    String header() default "";
+
+    /** column position, for ordinary classes (columns are sorted by position, then declaration order) */
+    int order() default 0;
+
+    /** style for floating-point values */
+    CustomWorkbook.Num num() default CustomWorkbook.Num.NORMAL;
+
+    /** style for text values */
+    CustomWorkbook.Text text() default CustomWorkbook.Text.NORMAL;
+
+    /** if nonblank, base URL for linking the values in the column */
+    String link() default "";
+
+    /** floating-point values at or below this are colored as low (must be used with {@link #high()}) */
+    double low() default Double.NaN;
+
+    /** floating-point values at or above this are colored as high (must be used with {@link #low()}) */
+    double high() default Double.NaN;
+
+    /** TRUE to leave this field out of the spreadsheet */
+    boolean ignore() default false;
+
+}
@@ -70,7 +70,8 @@ public class ExcelUtils {
 
     /**
      * Cycle the row iterator until it is positioned after the specified marker row.  The marker
-     * row is indicated by a specific value in the first column.
+     * row is indicated by a specific value in the first column.  For repeated lookups in the same sheet,
+     * use a {@link SheetIndex}, which finds markers without scanning.
      *
      * @param rowIter	spreadsheet row iterator
      * @param marker	marker text
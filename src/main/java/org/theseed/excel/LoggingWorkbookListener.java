@@ -0,0 +1,67 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import java.io.File;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This workbook listener logs progress every so many rows, and logs the row counts, cell counts, and
+ * phase timings for each sheet and for the workbook as a whole.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class LoggingWorkbookListener implements WorkbookListener {
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(LoggingWorkbookListener.class);
+    /** number of rows between progress messages */
+    private final int interval;
+
+    /**
+     * Construct a logging listener.
+     *
+     * @param interval		number of rows between progress messages (must be at least 1)
+     */
+    public LoggingWorkbookListener(int interval) {
+        if (interval < 1)
+            throw new IllegalArgumentException("Progress interval must be at least 1.");
+        this.interval = interval;
+    }
+
+    @Override
+    public void rowAdded(String sheetName, int rows, int cells) {
+        if (rows % this.interval == 0)
+            log.info("{} rows ({} cells) added to sheet {}.", rows, cells, sheetName);
+    }
+
+    @Override
+    public void sheetClosed(String sheetName, int rows, int cells, long heapBytes, Map<Phase, Long> times) {
+        log.info("Sheet {} closed with {} rows and {} cells (about {} KB of heap). Times: {}.", sheetName, rows,
+                cells, heapBytes / 1024, formatTimes(times));
+    }
+
+    @Override
+    public void workbookWritten(File outFile, long bytes, Map<Phase, Long> times) {
+        log.info("{} bytes written to {}. Times: {}.", bytes, outFile, formatTimes(times));
+    }
+
+    /**
+     * @return a display string for a map of phase timings, in milliseconds
+     *
+     * @param times		map of phases to nanoseconds
+     */
+    private static String formatTimes(Map<Phase, Long> times) {
+        return times.entrySet().stream().filter(x -> x.getValue() > 0)
+                .map(x -> String.format("%s %d ms", x.getKey(), x.getValue() / 1000000))
+                .collect(Collectors.joining(", "));
+    }
+
+}
@@ -0,0 +1,306 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.ss.usermodel.RichTextString;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.SharedStrings;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This is a shared-strings table for reading very large workbooks with the event API.  Instead of keeping
+ * the strings on the heap, it writes their UTF-8 bytes to a temporary file and keeps only a primitive array
+ * of offsets in memory.  The file is memory-mapped, and each string is decoded when it is requested.  Heap
+ * usage is therefore eight bytes per string, regardless of the string lengths.
+ *
+ * Only the plain text of each string is kept.  Formatting runs are discarded, and phonetic runs are
+ * skipped.  The table must be closed to release the temporary file, and cannot be used afterward.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class MappedSharedStrings implements SharedStrings, Closeable {
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(MappedSharedStrings.class);
+    /** temporary file containing the string bytes */
+    private final Path tempFile;
+    /** starting offset of each string, followed by the end offset of the last one */
+    private long[] offsets;
+    /** number of unique strings */
+    private int uniqueCount;
+    /** total number of string references, according to the workbook */
+    private int count;
+    /** mapped segments of the string file */
+    private ByteBuffer[] segments;
+    /** size of a mapped segment */
+    private static final int SEGMENT_SIZE = 1 << 30;
+    /** size of the output staging buffer */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Construct a shared-strings table from the shared-strings part of a workbook.
+     *
+     * @param inStream		input stream for the shared-strings XML
+     *
+     * @throws IOException
+     */
+    public MappedSharedStrings(InputStream inStream) throws IOException {
+        this.tempFile = Files.createTempFile("sst", ".bin");
+        this.offsets = new long[1024];
+        this.uniqueCount = 0;
+        this.count = 0;
+        try {
+            this.parse(inStream);
+            this.map();
+        } catch (IOException | RuntimeException e) {
+            this.close();
+            throw e;
+        }
+        log.debug("{} shared strings stored in {}.", this.uniqueCount, this.tempFile);
+    }
+
+    /**
+     * Load the shared-strings table for a workbook being read with the event API.
+     *
+     * @param reader	event reader for the workbook
+     *
+     * @return the shared-strings table, or an empty one if the workbook has none
+     *
+     * @throws IOException
+     */
+    public static MappedSharedStrings load(XSSFReader reader) throws IOException {
+        try (InputStream inStream = reader.getSharedStringsData()) {
+            return new MappedSharedStrings(inStream);
+        } catch (InvalidFormatException e) {
+            throw new IOException("Invalid shared-strings table: " + e.toString());
+        }
+    }
+
+    /**
+     * Parse the shared-strings XML and write the strings to the temporary file.
+     *
+     * @param inStream		input stream for the XML (may be NULL)
+     *
+     * @throws IOException
+     */
+    private void parse(InputStream inStream) throws IOException {
+        try (FileChannel channel = FileChannel.open(this.tempFile, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long pos = 0;
+            if (inStream != null) {
+                XMLInputFactory factory = XMLInputFactory.newFactory();
+                factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+                factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+                XMLStreamReader reader = factory.createXMLStreamReader(inStream);
+                StringBuilder text = new StringBuilder(100);
+                boolean inText = false;
+                boolean inPhonetic = false;
+                while (reader.hasNext()) {
+                    switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT -> {
+                        switch (reader.getLocalName()) {
+                        case "sst" -> {
+                            this.count = intAttribute(reader, "count");
+                        }
+                        case "si" -> text.setLength(0);
+                        case "rPh" -> inPhonetic = true;
+                        case "t" -> inText = ! inPhonetic;
+                        default -> {
+                            }
+                        }
+                    }
+                    case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE -> {
+                        if (inText)
+                            text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                    case XMLStreamConstants.END_ELEMENT -> {
+                        switch (reader.getLocalName()) {
+                        case "t" -> inText = false;
+                        case "rPh" -> inPhonetic = false;
+                        case "si" -> pos = this.store(channel, buffer, pos, text);
+                        default -> {
+                            }
+                        }
+                    }
+                    default -> {
+                        }
+                    }
+                }
+                reader.close();
+            }
+            this.flush(channel, buffer);
+            this.addOffset(pos);
+        } catch (XMLStreamException e) {
+            throw new IOException("Error parsing shared strings: " + e.toString());
+        }
+        if (this.count < this.uniqueCount)
+            this.count = this.uniqueCount;
+    }
+
+    /**
+     * @return the integer value of an attribute, or 0 if it is missing or invalid
+     *
+     * @param reader	XML reader positioned on an element
+     * @param name		name of the attribute
+     */
+    private static int intAttribute(XMLStreamReader reader, String name) {
+        int retVal = 0;
+        String value = reader.getAttributeValue(null, name);
+        if (value != null) {
+            try {
+                retVal = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                retVal = 0;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Store a string in the temporary file.
+     *
+     * @param channel	output channel for the temporary file
+     * @param buffer	staging buffer for output
+     * @param pos		current file position
+     * @param text		string to store
+     *
+     * @return the new file position
+     *
+     * @throws IOException
+     */
+    private long store(FileChannel channel, ByteBuffer buffer, long pos, CharSequence text) throws IOException {
+        this.addOffset(pos);
+        this.uniqueCount++;
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > buffer.remaining()) {
+            this.flush(channel, buffer);
+            if (bytes.length > buffer.capacity())
+                channel.write(ByteBuffer.wrap(bytes));
+            else
+                buffer.put(bytes);
+        } else
+            buffer.put(bytes);
+        return pos + bytes.length;
+    }
+
+    /**
+     * Write the staging buffer to the temporary file.
+     *
+     * @param channel	output channel for the temporary file
+     * @param buffer	staging buffer to flush
+     *
+     * @throws IOException
+     */
+    private void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Add a new offset to the offset array.
+     *
+     * @param pos	offset to add
+     */
+    private void addOffset(long pos) {
+        if (this.uniqueCount >= this.offsets.length)
+            this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+        this.offsets[this.uniqueCount] = pos;
+    }
+
+    /**
+     * Map the temporary file into memory.
+     *
+     * @throws IOException
+     */
+    private void map() throws IOException {
+        try (FileChannel channel = FileChannel.open(this.tempFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int n = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            this.segments = new ByteBuffer[n];
+            for (int i = 0; i < n; i++) {
+                long start = (long) i * SEGMENT_SIZE;
+                this.segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+        }
+    }
+
+    /**
+     * @return the plain text of the string at the specified index
+     *
+     * @param idx	index of the desired string
+     */
+    public String getString(int idx) {
+        if (this.segments == null)
+            throw new IllegalStateException("Shared-strings table used after it was closed.");
+        if (idx < 0 || idx >= this.uniqueCount)
+            throw new IndexOutOfBoundsException("Shared string index " + idx + " is out of range.");
+        long start = this.offsets[idx];
+        int len = (int) (this.offsets[idx + 1] - start);
+        byte[] bytes = new byte[len];
+        int done = 0;
+        // The string may cross a segment boundary, so we copy it in pieces.
+        while (done < len) {
+            long pos = start + done;
+            ByteBuffer segment = this.segments[(int) (pos / SEGMENT_SIZE)].duplicate();
+            segment.position((int) (pos % SEGMENT_SIZE));
+            int chunk = Math.min(len - done, segment.remaining());
+            segment.get(bytes, done, chunk);
+            done += chunk;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public RichTextString getItemAt(int idx) {
+        return new XSSFRichTextString(this.getString(idx));
+    }
+
+    @Override
+    public int getCount() {
+        return this.count;
+    }
+
+    @Override
+    public int getUniqueCount() {
+        return this.uniqueCount;
+    }
+
+    @Override
+    public void close() {
+        // Dropping the mappings does not unmap them:  a mapped buffer is only released when it is garbage
+        // collected.  On Windows, a mapped file cannot be deleted, so the delete here may fail.  We do not
+        // register the file for deletion at exit, because that list is never released and would grow with
+        // every workbook read by a long-running program.
+        this.segments = null;
+        try {
+            Files.deleteIfExists(this.tempFile);
+        } catch (IOException e) {
+            log.warn("Could not delete shared-strings file {}: {}", this.tempFile, e.toString());
+        }
+    }
+
+}
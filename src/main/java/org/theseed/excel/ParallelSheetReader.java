@@ -0,0 +1,205 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This object reads the sheets of a workbook concurrently.  Each sheet is a separate part of the workbook
+ * package, so the sheets can be parsed independently.  The workbook is opened once, and its shared strings
+ * are loaded into a single read-only {@link MappedSharedStrings} table that all the sheet parsers use.
+ * Each sheet is passed to a client function as a {@link SheetRowReader}, and the function's result for
+ * each sheet is delivered through a future.
+ *
+ * The sheets are parsed on an executor, which defaults to the common fork-join pool.  The reader must not
+ * be closed until all the futures have completed.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ParallelSheetReader implements AutoCloseable {
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(ParallelSheetReader.class);
+    /** workbook package */
+    private final OPCPackage pkg;
+    /** shared-strings table */
+    private final MappedSharedStrings strings;
+    /** names of the sheets, in order */
+    private final List<String> sheetNames;
+    /** package parts for the sheets, in order */
+    private final List<PackagePart> sheetParts;
+    /** executor for parsing the sheets */
+    private Executor executor;
+
+    /**
+     * This interface describes a function that processes the rows of a sheet.
+     *
+     * @param <T>	type of result
+     */
+    @FunctionalInterface
+    public interface SheetFunction<T> {
+
+        /**
+         * @return the result of processing a sheet
+         *
+         * @param sheetName		name of the sheet
+         * @param rows			row reader for the sheet
+         *
+         * @throws IOException
+         */
+        public T apply(String sheetName, SheetRowReader rows) throws IOException;
+
+    }
+
+    /**
+     * Open a workbook for parallel reading.
+     *
+     * @param inFile	workbook file to read
+     *
+     * @throws IOException
+     */
+    public ParallelSheetReader(File inFile) throws IOException {
+        try {
+            this.pkg = OPCPackage.open(inFile, PackageAccess.READ);
+        } catch (OpenXML4JException e) {
+            throw new IOException("Error opening workbook " + inFile + ": " + e.toString(), e);
+        }
+        try {
+            XSSFReader reader = new XSSFReader(this.pkg);
+            this.strings = MappedSharedStrings.load(reader);
+            // Find all the sheet parts.  This is done here so the package metadata is only read on one thread.
+            this.sheetNames = new ArrayList<>();
+            this.sheetParts = new ArrayList<>();
+            XSSFReader.SheetIterator iter = (XSSFReader.SheetIterator) reader.getSheetsData();
+            while (iter.hasNext()) {
+                iter.next().close();
+                this.sheetNames.add(iter.getSheetName());
+                this.sheetParts.add(iter.getSheetPart());
+            }
+        } catch (IOException e) {
+            this.pkg.revert();
+            throw e;
+        } catch (OpenXML4JException | RuntimeException e) {
+            this.pkg.revert();
+            throw new IOException("Error reading workbook " + inFile + ": " + e.toString(), e);
+        }
+        this.executor = ForkJoinPool.commonPool();
+        log.debug("{} sheets found in {}.", this.sheetNames.size(), inFile);
+    }
+
+    /**
+     * Specify the executor for parsing the sheets.
+     *
+     * @param executor	executor to use
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the names of the sheets, in order
+     */
+    public List<String> getSheetNames() {
+        return Collections.unmodifiableList(this.sheetNames);
+    }
+
+    /**
+     * Start processing all the sheets concurrently.
+     *
+     * @param <T>			type of result
+     * @param function		function to apply to each sheet
+     *
+     * @return a map from sheet names to the futures for the results, in sheet order
+     */
+    public <T> Map<String, CompletableFuture<T>> submitAll(SheetFunction<T> function) {
+        Map<String, CompletableFuture<T>> retVal = new LinkedHashMap<>(this.sheetNames.size() * 4 / 3 + 1);
+        for (int i = 0; i < this.sheetNames.size(); i++) {
+            final String name = this.sheetNames.get(i);
+            final PackagePart part = this.sheetParts.get(i);
+            retVal.put(name, CompletableFuture.supplyAsync(() -> this.process(name, part, function), this.executor));
+        }
+        return retVal;
+    }
+
+    /**
+     * Process all the sheets concurrently and wait for the results.
+     *
+     * @param <T>			type of result
+     * @param function		function to apply to each sheet
+     *
+     * @return a map from sheet names to the results, in sheet order
+     *
+     * @throws IOException
+     */
+    public <T> Map<String, T> readAll(SheetFunction<T> function) throws IOException {
+        Map<String, CompletableFuture<T>> futures = this.submitAll(function);
+        Map<String, T> retVal = new LinkedHashMap<>(futures.size() * 4 / 3 + 1);
+        try {
+            for (Map.Entry<String, CompletableFuture<T>> entry : futures.entrySet())
+                retVal.put(entry.getKey(), entry.getValue().join());
+        } catch (CompletionException e) {
+            // Insure no sheet is still being read before we report the error.
+            CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0]))
+                    .exceptionally(x -> null).join();
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException ue)
+                throw ue.getCause();
+            else if (cause instanceof RuntimeException re)
+                throw re;
+            else
+                throw e;
+        }
+        return retVal;
+    }
+
+    /**
+     * Apply a function to a single sheet.
+     *
+     * @param <T>			type of result
+     * @param name			name of the sheet
+     * @param part			package part for the sheet
+     * @param function		function to apply
+     *
+     * @return the function result
+     */
+    private <T> T process(String name, PackagePart part, SheetFunction<T> function) {
+        T retVal;
+        try (InputStream sheetStream = part.getInputStream();
+                SheetRowReader rows = new SheetRowReader(sheetStream, this.strings)) {
+            retVal = function.apply(name, rows);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return retVal;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.strings.close();
+        this.pkg.close();
+    }
+
+}
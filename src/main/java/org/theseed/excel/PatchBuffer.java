@@ -0,0 +1,353 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import java.util.Arrays;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+
+/**
+ * This object buffers random-access cell stores that cannot be applied immediately, either because the
+ * target row has not been created yet or because it has already been flushed out of a streaming sheet.
+ * Each store is keyed by a single long that combines the row and column indices, so the buffer is kept in
+ * primitive arrays and sorted with a primitive sort.  If the same cell is stored more than once, the last
+ * store wins.
+ *
+ * The buffer is sorted lazily, when it is queried after new stores have been added.  Applied stores are
+ * removed.  Since rows are normally created in order, these are usually at the front of the buffer, and
+ * removing them is cheap.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class PatchBuffer {
+
+    // FIELDS
+    /** row/column keys */
+    private long[] keys;
+    /** numeric values */
+    private double[] numbers;
+    /** string values (NULL for numeric stores) */
+    private String[] strings;
+    /** cell styles (NULL for none) */
+    private CellStyle[] styles;
+    /** index of the first live store */
+    private int start;
+    /** index past the last store */
+    private int end;
+    /** index past the last sorted store */
+    private int sortedEnd;
+    /** number of bits in a key used for the column index */
+    private static final int COL_BITS = 14;
+    /** mask for extracting the column index from a key */
+    private static final long COL_MASK = (1L << COL_BITS) - 1;
+    /** number of bits in a sort value used for the array index */
+    private static final int SEQ_BITS = 29;
+    /** mask for extracting the array index from a sort value */
+    private static final long SEQ_MASK = (1L << SEQ_BITS) - 1;
+
+    /**
+     * Construct an empty patch buffer.
+     */
+    public PatchBuffer() {
+        final int n = 64;
+        this.keys = new long[n];
+        this.numbers = new double[n];
+        this.strings = new String[n];
+        this.styles = new CellStyle[n];
+        this.start = 0;
+        this.end = 0;
+        this.sortedEnd = 0;
+    }
+
+    /**
+     * Buffer a numeric store.
+     *
+     * @param r			row index
+     * @param c			column index
+     * @param value		value to store
+     * @param style		style for the cell
+     */
+    public void addNumber(int r, int c, double value, CellStyle style) {
+        this.add(r, c, value, null, style);
+    }
+
+    /**
+     * Buffer a string store.
+     *
+     * @param r			row index
+     * @param c			column index
+     * @param value		value to store
+     */
+    public void addString(int r, int c, String value) {
+        this.add(r, c, 0.0, value, null);
+    }
+
+    /**
+     * Buffer a store.
+     *
+     * @param r			row index
+     * @param c			column index
+     * @param number	numeric value
+     * @param string	string value, or NULL if the value is numeric
+     * @param style		style for the cell, or NULL for the default
+     */
+    private void add(int r, int c, double number, String string, CellStyle style) {
+        // The row index must fit in the bits of the sort value above the column and array index.
+        if (r < 0 || r >= SpreadsheetVersion.EXCEL2007.getMaxRows())
+            throw new IllegalArgumentException("Invalid row index " + r + ".");
+        if (c < 0 || c > COL_MASK)
+            throw new IllegalArgumentException("Invalid column index " + c + ".");
+        if (this.end >= this.keys.length) {
+            // Compact out the applied stores before growing.
+            int n = this.end - this.start;
+            int newLen = Math.max(this.keys.length, n * 2);
+            this.keys = copy(this.keys, this.start, n, newLen);
+            this.numbers = copy(this.numbers, this.start, n, newLen);
+            this.strings = copy(this.strings, this.start, n, newLen);
+            this.styles = copy(this.styles, this.start, n, newLen);
+            this.sortedEnd -= this.start;
+            this.start = 0;
+            this.end = n;
+            if (this.end > SEQ_MASK)
+                throw new IllegalStateException("Too many random-access stores buffered.");
+        }
+        this.keys[this.end] = ((long) r << COL_BITS) | c;
+        this.numbers[this.end] = number;
+        this.strings[this.end] = string;
+        this.styles[this.end] = style;
+        this.end++;
+    }
+
+    /**
+     * @return a copy of a segment of an array, extended to a new length
+     */
+    private static long[] copy(long[] array, int from, int n, int newLen) {
+        long[] retVal = new long[newLen];
+        System.arraycopy(array, from, retVal, 0, n);
+        return retVal;
+    }
+
+    /**
+     * @return a copy of a segment of an array, extended to a new length
+     */
+    private static double[] copy(double[] array, int from, int n, int newLen) {
+        double[] retVal = new double[newLen];
+        System.arraycopy(array, from, retVal, 0, n);
+        return retVal;
+    }
+
+    /**
+     * @return a copy of a segment of an array, extended to a new length
+     */
+    private static <T> T[] copy(T[] array, int from, int n, int newLen) {
+        T[] retVal = Arrays.copyOf(array, newLen);
+        System.arraycopy(array, from, retVal, 0, n);
+        Arrays.fill(retVal, n, newLen, null);
+        return retVal;
+    }
+
+    /**
+     * Sort the live stores by key, keeping only the last store for each cell.
+     */
+    private void sort() {
+        if (this.sortedEnd < this.end) {
+            final int n = this.end - this.start;
+            // Pack each key with its index, so the sort is stable and needs no boxing.
+            long[] packed = new long[n];
+            for (int i = 0; i < n; i++)
+                packed[i] = (this.keys[this.start + i] << SEQ_BITS) | i;
+            Arrays.sort(packed);
+            long[] newKeys = new long[this.keys.length];
+            double[] newNumbers = new double[this.keys.length];
+            String[] newStrings = new String[this.keys.length];
+            CellStyle[] newStyles = new CellStyle[this.keys.length];
+            int out = 0;
+            for (int i = 0; i < n; i++) {
+                long key = packed[i] >>> SEQ_BITS;
+                // Skip this store if a later one is for the same cell.
+                if (i + 1 < n && (packed[i + 1] >>> SEQ_BITS) == key)
+                    continue;
+                int idx = this.start + (int) (packed[i] & SEQ_MASK);
+                newKeys[out] = key;
+                newNumbers[out] = this.numbers[idx];
+                newStrings[out] = this.strings[idx];
+                newStyles[out] = this.styles[idx];
+                out++;
+            }
+            this.keys = newKeys;
+            this.numbers = newNumbers;
+            this.strings = newStrings;
+            this.styles = newStyles;
+            this.start = 0;
+            this.end = out;
+            this.sortedEnd = out;
+        }
+    }
+
+    /**
+     * @return TRUE if there are no stores in the buffer
+     */
+    public boolean isEmpty() {
+        return this.start >= this.end;
+    }
+
+    /**
+     * @return the number of distinct cells in the buffer
+     */
+    public int size() {
+        this.sort();
+        return this.end - this.start;
+    }
+
+    /**
+     * @return the index of the first store for a row at or after the specified row
+     *
+     * @param r		row index
+     */
+    private int lowerBound(int r) {
+        this.sort();
+        long target = (long) r << COL_BITS;
+        int lo = this.start;
+        int hi = this.end;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this.keys[mid] < target)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * @return the smallest row index greater than the specified one that has stores, or -1 if there is none
+     *
+     * @param r		row index to start after (-1 to start from the beginning)
+     */
+    public int nextRow(int r) {
+        int idx = this.lowerBound(r + 1);
+        return (idx < this.end ? this.getRow(idx) : -1);
+    }
+
+    /**
+     * Apply all the stores for a row, and remove them from the buffer.
+     *
+     * @param r			row index
+     * @param row		row to receive the stores
+     *
+     * @return the number of cells stored
+     */
+    public int apply(int r, Row row) {
+        int lo = this.lowerBound(r);
+        int hi = lo;
+        while (hi < this.end && this.getRow(hi) == r) {
+            Cell cell = row.createCell(this.getCol(hi));
+            if (this.strings[hi] != null)
+                cell.setCellValue(this.strings[hi]);
+            else
+                cell.setCellValue(this.numbers[hi]);
+            if (this.styles[hi] != null)
+                cell.setCellStyle(this.styles[hi]);
+            hi++;
+        }
+        this.remove(lo, hi);
+        return hi - lo;
+    }
+
+    /**
+     * Remove a range of stores from the sorted buffer.
+     *
+     * @param lo	index of the first store to remove
+     * @param hi	index past the last store to remove
+     */
+    private void remove(int lo, int hi) {
+        if (lo < hi) {
+            if (lo == this.start) {
+                // This is the normal case, where the rows are processed in order.
+                Arrays.fill(this.strings, lo, hi, null);
+                Arrays.fill(this.styles, lo, hi, null);
+                this.start = hi;
+            } else {
+                final int n = this.end - hi;
+                System.arraycopy(this.keys, hi, this.keys, lo, n);
+                System.arraycopy(this.numbers, hi, this.numbers, lo, n);
+                System.arraycopy(this.strings, hi, this.strings, lo, n);
+                System.arraycopy(this.styles, hi, this.styles, lo, n);
+                this.end -= hi - lo;
+                Arrays.fill(this.strings, this.end, this.end + hi - lo, null);
+                Arrays.fill(this.styles, this.end, this.end + hi - lo, null);
+            }
+            this.sortedEnd = this.end;
+        }
+    }
+
+    /**
+     * @return the index of the first store for a row, or -1 if the row has none
+     *
+     * @param r		row index
+     */
+    protected int find(int r) {
+        int idx = this.lowerBound(r);
+        return (idx < this.end && this.getRow(idx) == r ? idx : -1);
+    }
+
+    /**
+     * @return TRUE if the specified index is a store in the buffer
+     *
+     * @param idx	index to check
+     */
+    protected boolean isValid(int idx) {
+        return idx >= this.start && idx < this.end;
+    }
+
+    /**
+     * @return the row index of a store
+     *
+     * @param idx	index of the store
+     */
+    protected int getRow(int idx) {
+        return (int) (this.keys[idx] >>> COL_BITS);
+    }
+
+    /**
+     * @return the column index of a store
+     *
+     * @param idx	index of the store
+     */
+    protected int getCol(int idx) {
+        return (int) (this.keys[idx] & COL_MASK);
+    }
+
+    /**
+     * @return the string value of a store, or NULL if it is numeric
+     *
+     * @param idx	index of the store
+     */
+    protected String getString(int idx) {
+        return this.strings[idx];
+    }
+
+    /**
+     * @return the numeric value of a store
+     *
+     * @param idx	index of the store
+     */
+    protected double getNumber(int idx) {
+        return this.numbers[idx];
+    }
+
+    /**
+     * @return the style of a store, or NULL if it has none
+     *
+     * @param idx	index of the store
+     */
+    protected CellStyle getStyle(int idx) {
+        return this.styles[idx];
+    }
+
+}
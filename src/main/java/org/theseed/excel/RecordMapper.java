@@ -0,0 +1,316 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This object writes Java objects to spreadsheet rows, one object per row and one field per column.  For a
+ * record class, every component is a column; for an ordinary class, every field with an {@link ExcelColumn}
+ * annotation is a column.  The annotations specify the headers, styles, and links.
+ *
+ * Each field is read through a method handle adapted to the field's primitive type, so the handles are
+ * built once per class and no reflection or boxing is done per row.  Integer-valued fields (int, long, short,
+ * byte) are stored as integers, other numeric fields as floating-point, booleans as flags ("Y" or blank),
+ * and everything else as text using its string form.  A NULL value is a blank cell.  Links are only
+ * supported for int, short, byte, and text columns; a link on any other column is rejected when the mapper
+ * is built.
+ *
+ * Mappers are cached by class, so {@link #of(Class)} is cheap after the first call for a class.
+ *
+ * @param <T>	type of object to map
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class RecordMapper<T> {
+
+    /**
+     * This enum describes the ways a field value can be stored.
+     */
+    private static enum Kind {
+        /** primitive integer */
+        INT,
+        /** primitive long integer */
+        LONG,
+        /** primitive floating-point */
+        DOUBLE,
+        /** primitive boolean */
+        BOOLEAN,
+        /** boxed number */
+        NUMBER,
+        /** any other object */
+        TEXT;
+    }
+
+    /**
+     * This object describes a single column.
+     */
+    private static class Column {
+
+        /** column header */
+        private final String header;
+        /** storage type of the field */
+        private final Kind kind;
+        /** accessor for the field, adapted to the storage type */
+        private final MethodHandle getter;
+        /** style for floating-point values */
+        private final CustomWorkbook.Num num;
+        /** style for text values */
+        private final CustomWorkbook.Text text;
+        /** base URL for links, or NULL if there are none */
+        private final String link;
+        /** low value for range coloring, or NaN if there is none */
+        private final double low;
+        /** high value for range coloring, or NaN if there is none */
+        private final double high;
+        /** position for sorting */
+        private final int order;
+
+        /**
+         * Construct a column descriptor.
+         *
+         * @param name			field name
+         * @param accessor		method handle for reading the field
+         * @param annotation	column annotation, or NULL if there is none
+         */
+        private Column(String name, MethodHandle accessor, ExcelColumn annotation) {
+            Class<?> type = accessor.type().returnType();
+            if (type == int.class || type == short.class || type == byte.class) {
+                this.kind = Kind.INT;
+                this.getter = accessor.asType(MethodType.methodType(int.class, Object.class));
+            } else if (type == long.class) {
+                this.kind = Kind.LONG;
+                this.getter = accessor.asType(MethodType.methodType(long.class, Object.class));
+            } else if (type == double.class || type == float.class) {
+                this.kind = Kind.DOUBLE;
+                this.getter = accessor.asType(MethodType.methodType(double.class, Object.class));
+            } else if (type == boolean.class) {
+                this.kind = Kind.BOOLEAN;
+                this.getter = accessor.asType(MethodType.methodType(boolean.class, Object.class));
+            } else {
+                this.kind = (Number.class.isAssignableFrom(type) ? Kind.NUMBER : Kind.TEXT);
+                this.getter = accessor.asType(MethodType.methodType(Object.class, Object.class));
+            }
+            if (annotation == null) {
+                this.header = name;
+                this.num = CustomWorkbook.Num.NORMAL;
+                this.text = CustomWorkbook.Text.NORMAL;
+                this.link = null;
+                this.low = Double.NaN;
+                this.high = Double.NaN;
+                this.order = 0;
+            } else {
+                this.header = (annotation.header().isEmpty() ? name : annotation.header());
+                this.num = annotation.num();
+                this.text = annotation.text();
+                this.link = (annotation.link().isBlank() ? null : annotation.link());
+                this.low = annotation.low();
+                this.high = annotation.high();
+                this.order = annotation.order();
+            }
+            if (this.link != null && this.kind != Kind.INT && this.kind != Kind.TEXT)
+                throw new IllegalArgumentException("Field " + name + " cannot have a link, because it is not an integer or text.");
+        }
+
+        /**
+         * Store this column's value from an object in the next cell of a sheet's current row.
+         *
+         * @param sheet		target sheet
+         * @param record	object containing the value
+         *
+         * @throws Throwable
+         */
+        private void store(CustomWorkbook.Sheet sheet, Object record) throws Throwable {
+            switch (this.kind) {
+            case INT -> {
+                int value = (int) this.getter.invokeExact(record);
+                if (this.link == null)
+                    sheet.storeCell(value);
+                else
+                    sheet.storeCell(value, this.link + value, null);
+            }
+            case LONG -> sheet.storeCell((long) this.getter.invokeExact(record));
+            case DOUBLE -> this.storeDouble(sheet, (double) this.getter.invokeExact(record));
+            case BOOLEAN -> sheet.storeCell((boolean) this.getter.invokeExact(record) ? "Y" : "",
+                    CustomWorkbook.Text.FLAG);
+            case NUMBER -> {
+                Object value = (Object) this.getter.invokeExact(record);
+                if (value == null)
+                    sheet.storeBlankCell();
+                else if (value instanceof Integer || value instanceof Short || value instanceof Byte)
+                    sheet.storeCell(((Number) value).intValue());
+                else if (value instanceof Long longValue)
+                    sheet.storeCell(longValue.longValue());
+                else
+                    this.storeDouble(sheet, ((Number) value).doubleValue());
+            }
+            case TEXT -> {
+                Object value = (Object) this.getter.invokeExact(record);
+                if (value == null)
+                    sheet.storeBlankCell();
+                else
+                    sheet.storeCell(value.toString(), this.text);
+            }
+            }
+        }
+
+        /**
+         * Store a floating-point value in the next cell of a sheet's current row.
+         *
+         * @param sheet		target sheet
+         * @param value		value to store
+         */
+        private void storeDouble(CustomWorkbook.Sheet sheet, double value) {
+            if (Double.isNaN(this.low) || Double.isNaN(this.high))
+                sheet.storeCell(value, this.num);
+            else
+                sheet.storeCell(value, this.low, this.high);
+        }
+
+    }
+
+    // FIELDS
+    /** class being mapped */
+    private final Class<T> type;
+    /** column descriptors, in order */
+    private final Column[] columns;
+    /** column headers, in order */
+    private final List<String> headers;
+    /** cache of mappers by class */
+    private static final ClassValue<RecordMapper<?>> CACHE = new ClassValue<>() {
+        @Override
+        protected RecordMapper<?> computeValue(Class<?> type) {
+            return new RecordMapper<>(type);
+        }
+    };
+
+    /**
+     * Construct a mapper for a class.
+     *
+     * @param type		class to map
+     */
+    private RecordMapper(Class<T> type) {
+        this.type = type;
+        List<Column> cols = new ArrayList<>();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            if (type.isRecord()) {
+                for (RecordComponent component : type.getRecordComponents()) {
+                    ExcelColumn annotation = component.getAnnotation(ExcelColumn.class);
+                    if (annotation == null || ! annotation.ignore()) {
+                        Method accessor = component.getAccessor();
+                        accessor.setAccessible(true);
+                        cols.add(new Column(component.getName(), lookup.unreflect(accessor), annotation));
+                    }
+                }
+            } else {
+                // Collect the annotated fields, superclass fields first.
+                List<Class<?>> classes = new ArrayList<>();
+                for (Class<?> curr = type; curr != null && curr != Object.class; curr = curr.getSuperclass())
+                    classes.add(0, curr);
+                for (Class<?> curr : classes) {
+                    for (Field field : curr.getDeclaredFields()) {
+                        ExcelColumn annotation = field.getAnnotation(ExcelColumn.class);
+                        if (annotation != null && ! annotation.ignore() && ! Modifier.isStatic(field.getModifiers())) {
+                            field.setAccessible(true);
+                            cols.add(new Column(field.getName(), lookup.unreflectGetter(field), annotation));
+                        }
+                    }
+                }
+                // The sort is stable, so declaration order is kept for equal positions.
+                cols.sort(Comparator.comparingInt(x -> x.order));
+            }
+        } catch (IllegalAccessException | RuntimeException e) {
+            throw new IllegalArgumentException("Cannot map class " + type.getName() + ": " + e.toString(), e);
+        }
+        if (cols.isEmpty())
+            throw new IllegalArgumentException("Class " + type.getName() + " has no columns to map.");
+        this.columns = cols.toArray(new Column[cols.size()]);
+        List<String> headerList = new ArrayList<>(cols.size());
+        for (Column col : cols)
+            headerList.add(col.header);
+        this.headers = Collections.unmodifiableList(headerList);
+    }
+
+    /**
+     * @return the mapper for a class
+     *
+     * @param <T>		type of object to map
+     * @param type		class to map
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> RecordMapper<T> of(Class<T> type) {
+        return (RecordMapper<T>) CACHE.get(type);
+    }
+
+    /**
+     * Prepare a sheet for this mapper's objects by storing the headers and the column link templates.
+     *
+     * @param sheet		sheet to prepare
+     */
+    public void setup(CustomWorkbook.Sheet sheet) {
+        sheet.setHeaders(this.headers);
+        for (int c = 0; c < this.columns.length; c++) {
+            Column col = this.columns[c];
+            if (col.link != null && col.kind == Kind.TEXT)
+                sheet.setLinkTemplate(c, col.link);
+        }
+    }
+
+    /**
+     * Store an object in a new row of a sheet.
+     *
+     * @param sheet		target sheet
+     * @param record	object to store
+     */
+    public void storeRecord(CustomWorkbook.Sheet sheet, T record) {
+        sheet.addRow();
+        for (Column col : this.columns) {
+            try {
+                col.store(sheet, record);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Error reading column " + col.header + ": " + e.toString(), e);
+            }
+        }
+    }
+
+    /**
+     * Store a sequence of objects in new rows of a sheet.
+     *
+     * @param sheet		target sheet
+     * @param records	objects to store
+     */
+    public void storeRecords(CustomWorkbook.Sheet sheet, Iterable<? extends T> records) {
+        for (T record : records)
+            this.storeRecord(sheet, record);
+    }
+
+    /**
+     * @return the column headers, in order
+     */
+    public List<String> getHeaders() {
+        return this.headers;
+    }
+
+    /**
+     * @return the class being mapped
+     */
+    public Class<T> getType() {
+        return this.type;
+    }
+
+}
@@ -0,0 +1,185 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+/**
+ * This object indexes a worksheet for fast lookups.  It is built in a single pass over the sheet, and maps
+ * header names to column indices and first-column values to row indices.  The first-column map serves both
+ * for keyed rows and for the marker rows used by {@link ExcelUtils#findMarker}.  Values are compared using
+ * {@link ExcelUtils#stringValue}, so they are trimmed, and numeric cells are keyed by their string form.
+ *
+ * A first-column value can occur in many rows.  {@link #findRow(String)} returns the first such row, and
+ * {@link #findRows(String)} returns all of them in order.
+ *
+ * The index is a snapshot.  If rows are added or changed after it is built, it must be rebuilt.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SheetIndex {
+
+    // FIELDS
+    /** sheet being indexed */
+    private final Sheet sheet;
+    /** index of the header row */
+    private final int headerRow;
+    /** map of header names to column indices */
+    private final Map<String, Integer> colMap;
+    /** map of first-column values to the first row containing them */
+    private final Map<String, Integer> rowMap;
+    /** map of first-column values found in more than one row to all the rows containing them */
+    private final Map<String, List<Integer>> dupMap;
+    /** list of header names, in column order */
+    private final List<String> headers;
+
+    /**
+     * Index a sheet whose headers are in the first row.
+     *
+     * @param sheet		sheet to index
+     */
+    public SheetIndex(Sheet sheet) {
+        this(sheet, 0);
+    }
+
+    /**
+     * Index a sheet.
+     *
+     * @param sheet			sheet to index
+     * @param headerRow		index of the header row (0-based), or -1 if there are no headers
+     */
+    public SheetIndex(Sheet sheet, int headerRow) {
+        this.sheet = sheet;
+        this.headerRow = headerRow;
+        this.colMap = new HashMap<>();
+        this.headers = new ArrayList<>();
+        final int nRows = sheet.getLastRowNum() + 1;
+        this.rowMap = new HashMap<>(nRows * 4 / 3 + 1);
+        this.dupMap = new HashMap<>();
+        for (Row row : sheet) {
+            int r = row.getRowNum();
+            if (r == headerRow) {
+                // Build the column map.
+                final int n = Math.max(row.getLastCellNum(), 0);
+                for (int c = 0; c < n; c++) {
+                    String header = ExcelUtils.stringValue(row.getCell(c));
+                    this.headers.add(header);
+                    this.colMap.putIfAbsent(header, c);
+                }
+            }
+            String key = ExcelUtils.stringValue(row.getCell(0));
+            Integer first = this.rowMap.putIfAbsent(key, r);
+            if (first != null) {
+                List<Integer> rows = this.dupMap.computeIfAbsent(key, x -> new ArrayList<>(List.of(first)));
+                rows.add(r);
+            }
+        }
+    }
+
+    /**
+     * @return the index of the column with the specified header, or -1 if there is none
+     *
+     * @param header	header name to find
+     */
+    public int findColumn(String header) {
+        return this.colMap.getOrDefault(header, -1);
+    }
+
+    /**
+     * @return the index of the first row with the specified value in the first column, or -1 if there is none
+     *
+     * @param key		first-column value to find
+     */
+    public int findRow(String key) {
+        return this.rowMap.getOrDefault(key, -1);
+    }
+
+    /**
+     * @return the indices of all the rows with the specified value in the first column (empty if there are none)
+     *
+     * @param key		first-column value to find
+     */
+    public List<Integer> findRows(String key) {
+        List<Integer> retVal = this.dupMap.get(key);
+        if (retVal == null) {
+            Integer r = this.rowMap.get(key);
+            retVal = (r == null ? Collections.emptyList() : List.of(r));
+        } else
+            retVal = Collections.unmodifiableList(retVal);
+        return retVal;
+    }
+
+    /**
+     * @return the index of the row after the first marker row, or -1 if the marker is not found; this
+     * 		   is the row at which {@link ExcelUtils#findMarker} would leave its iterator
+     *
+     * @param marker	marker text in the first column
+     */
+    public int findMarker(String marker) {
+        int retVal = this.findRow(marker);
+        if (retVal >= 0)
+            retVal++;
+        return retVal;
+    }
+
+    /**
+     * @return the cell in the specified row under the specified header, or NULL if there is none
+     *
+     * @param row		index of the row
+     * @param header	header of the column
+     */
+    public Cell getCell(int row, String header) {
+        Cell retVal = null;
+        int col = this.findColumn(header);
+        if (col >= 0)
+            retVal = ExcelUtils.getCell(this.sheet, row, col);
+        return retVal;
+    }
+
+    /**
+     * @return the cell in the first row with the specified key under the specified header, or NULL if
+     * 		   there is none
+     *
+     * @param key		first-column value of the row
+     * @param header	header of the column
+     */
+    public Cell getCell(String key, String header) {
+        Cell retVal = null;
+        int row = this.findRow(key);
+        if (row >= 0)
+            retVal = this.getCell(row, header);
+        return retVal;
+    }
+
+    /**
+     * @return the header names, in column order
+     */
+    public List<String> getHeaders() {
+        return Collections.unmodifiableList(this.headers);
+    }
+
+    /**
+     * @return the index of the header row, or -1 if there are no headers
+     */
+    public int getHeaderRow() {
+        return this.headerRow;
+    }
+
+    /**
+     * @return the sheet being indexed
+     */
+    public Sheet getSheet() {
+        return this.sheet;
+    }
+
+}
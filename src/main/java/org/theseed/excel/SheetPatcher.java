@@ -0,0 +1,398 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.util.CellReference;
+
+/**
+ * This class applies buffered random-access stores to the sheets of a workbook file that has already been
+ * written.  It is used for stores into rows that were flushed out of a streaming sheet before the store
+ * was made.  The workbook package is copied entry by entry, and each sheet part with pending stores is
+ * streamed through a StAX filter that merges the stores into its rows in order.  Only one row of the
+ * sheet is ever in memory.
+ *
+ * The patcher can also change the styles of flushed cells.  A column reformat on a streaming sheet can only
+ * restyle the rows still in memory, so the sheet records a {@link Restyle} rule for the column instead, and
+ * the rule is applied to the matching cells as they are copied.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class SheetPatcher {
+
+    // FIELDS
+    /** input for the sheet XML */
+    private final XMLEventReader reader;
+    /** output for the patched sheet XML */
+    private final XMLEventWriter writer;
+    /** buffered stores to apply */
+    private final PatchBuffer patches;
+    /** style changes to apply, in the order they were requested */
+    private final List<Restyle> restyles;
+    /** namespace URI for generated elements */
+    private String nsUri;
+    /** namespace prefix for generated elements */
+    private String prefix;
+    /** index of the next store to apply to the current row, or -1 if the current row has none */
+    private int cursor;
+    /** index of the current row */
+    private int currentRow;
+    /** factory for StAX input */
+    private static final XMLInputFactory IN_FACTORY = XMLInputFactory.newInstance();
+    /** factory for StAX output */
+    private static final XMLOutputFactory OUT_FACTORY = XMLOutputFactory.newInstance();
+    /** factory for generated events */
+    private static final XMLEventFactory EVENTS = XMLEventFactory.newInstance();
+    /** empty namespace list for generated elements */
+    private static final List<Namespace> NO_NAMESPACES = Collections.emptyList();
+
+    /**
+     * This enum describes the kinds of cells a style change applies to.
+     */
+    static enum Target {
+        /** numeric cells */
+        NUMBER,
+        /** string constants */
+        STRING,
+        /** string constants and string formulas */
+        TEXT;
+
+        /**
+         * @return TRUE if a cell with the specified type attribute is of this kind
+         *
+         * @param type		value of the cell's "t" attribute, or NULL if it has none
+         */
+        private boolean matches(String type) {
+            return switch (this) {
+            case NUMBER -> (type == null || type.equals("n"));
+            case STRING -> (type != null && (type.equals("s") || type.equals("inlineStr")));
+            case TEXT -> (type != null && (type.equals("s") || type.equals("inlineStr") || type.equals("str")));
+            };
+        }
+    }
+
+    /**
+     * This class describes a style change for the cells of a column.
+     */
+    static class Restyle {
+
+        /** index of the column to restyle */
+        private final int col;
+        /** index of the first row to restyle */
+        private final int firstRow;
+        /** kind of cell to restyle */
+        private final Target target;
+        /** index of the style to replace, or -1 to replace any style */
+        private final int fromStyle;
+        /** index of the new style */
+        private final int toStyle;
+
+        /**
+         * Construct a style change.
+         *
+         * @param col			index of the column to restyle
+         * @param firstRow		index of the first row to restyle
+         * @param target		kind of cell to restyle
+         * @param fromStyle		style to replace, or NULL to replace any style
+         * @param toStyle		new style
+         */
+        Restyle(int col, int firstRow, Target target, CellStyle fromStyle, CellStyle toStyle) {
+            this.col = col;
+            this.firstRow = firstRow;
+            this.target = target;
+            this.fromStyle = (fromStyle == null ? -1 : fromStyle.getIndex());
+            this.toStyle = toStyle.getIndex();
+        }
+
+    }
+
+    /**
+     * Construct a patcher for a single sheet part.
+     *
+     * @param inStream		input stream for the sheet XML
+     * @param outStream		output stream for the patched sheet XML
+     * @param patches		buffered stores to apply
+     * @param restyles		style changes to apply
+     *
+     * @throws XMLStreamException
+     */
+    private SheetPatcher(InputStream inStream, OutputStream outStream, PatchBuffer patches, List<Restyle> restyles)
+            throws XMLStreamException {
+        this.reader = IN_FACTORY.createXMLEventReader(inStream);
+        this.writer = OUT_FACTORY.createXMLEventWriter(outStream, "UTF-8");
+        this.patches = patches;
+        this.restyles = restyles;
+        this.nsUri = XMLConstants.NULL_NS_URI;
+        this.prefix = XMLConstants.DEFAULT_NS_PREFIX;
+        this.cursor = -1;
+        this.currentRow = -1;
+    }
+
+    /**
+     * Copy a workbook file, applying buffered stores to the specified sheet parts.
+     *
+     * @param inFile		workbook file to copy
+     * @param outFile		output file for the patched workbook
+     * @param patchMap		map of sheet part names to the stores for each sheet
+     *
+     * @throws IOException
+     */
+    public static void rewrite(File inFile, File outFile, Map<String, PatchBuffer> patchMap) throws IOException {
+        rewrite(inFile, outFile, patchMap, Collections.emptyMap());
+    }
+
+    /**
+     * Copy a workbook file, applying buffered stores and style changes to the specified sheet parts.
+     *
+     * @param inFile		workbook file to copy
+     * @param outFile		output file for the patched workbook
+     * @param patchMap		map of sheet part names to the stores for each sheet
+     * @param restyleMap	map of sheet part names to the style changes for each sheet
+     *
+     * @throws IOException
+     */
+    public static void rewrite(File inFile, File outFile, Map<String, PatchBuffer> patchMap,
+            Map<String, List<Restyle>> restyleMap) throws IOException {
+        try (ZipFile zip = new ZipFile(inFile);
+                ZipOutputStream outStream = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(outFile)))) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                outStream.putNextEntry(new ZipEntry(entry.getName()));
+                // Part names have a leading slash, but zip entry names do not.
+                PatchBuffer patches = patchMap.get("/" + entry.getName());
+                List<Restyle> restyles = restyleMap.get("/" + entry.getName());
+                try (InputStream inStream = zip.getInputStream(entry)) {
+                    if (patches == null && restyles == null)
+                        inStream.transferTo(outStream);
+                    else {
+                        SheetPatcher patcher = new SheetPatcher(inStream, CloseShieldOutputStream.wrap(outStream),
+                                (patches == null ? new PatchBuffer() : patches),
+                                (restyles == null ? Collections.emptyList() : restyles));
+                        patcher.run();
+                    }
+                } catch (XMLStreamException e) {
+                    throw new IOException("Error patching " + entry.getName() + ": " + e.getMessage(), e);
+                }
+                outStream.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Copy the sheet XML, merging in the buffered stores.
+     *
+     * @throws XMLStreamException
+     */
+    private void run() throws XMLStreamException {
+        boolean inSheetData = false;
+        int nextRow = this.patches.nextRow(-1);
+        while (this.reader.hasNext()) {
+            XMLEvent event = this.reader.nextEvent();
+            if (event.isStartElement()) {
+                StartElement start = event.asStartElement();
+                String name = start.getName().getLocalPart();
+                if (name.equals("sheetData")) {
+                    inSheetData = true;
+                    this.nsUri = start.getName().getNamespaceURI();
+                    this.prefix = start.getName().getPrefix();
+                } else if (inSheetData && name.equals("row")) {
+                    int r = Integer.parseInt(getAttribute(start, "r")) - 1;
+                    // Rows that exist only in the patch buffer go in front of this one.
+                    while (nextRow >= 0 && nextRow < r) {
+                        this.writeRow(nextRow);
+                        nextRow = this.patches.nextRow(nextRow);
+                    }
+                    this.currentRow = r;
+                    this.cursor = (nextRow == r ? this.patches.find(r) : -1);
+                } else if (name.equals("c") && (this.cursor >= 0 || ! this.restyles.isEmpty())) {
+                    int c = new CellReference(getAttribute(start, "r")).getCol();
+                    if (this.cursor >= 0) {
+                        // Stores for earlier columns go in front of this cell.
+                        while (this.hasCell() && this.patches.getCol(this.cursor) < c)
+                            this.writeCell(this.cursor++);
+                        if (this.hasCell() && this.patches.getCol(this.cursor) == c) {
+                            // The store replaces this cell.
+                            this.writeCell(this.cursor++);
+                            this.skipElement();
+                            event = null;
+                        }
+                    }
+                    if (event != null && ! this.restyles.isEmpty())
+                        event = this.restyle(start, c);
+                }
+            } else if (event.isEndElement()) {
+                String name = event.asEndElement().getName().getLocalPart();
+                if (this.currentRow >= 0 && name.equals("row")) {
+                    // Stores past the last cell go at the end of the row.
+                    while (this.hasCell())
+                        this.writeCell(this.cursor++);
+                    if (nextRow == this.currentRow)
+                        nextRow = this.patches.nextRow(this.currentRow);
+                    this.currentRow = -1;
+                    this.cursor = -1;
+                } else if (inSheetData && name.equals("sheetData")) {
+                    // Rows past the end of the sheet go at the end of the sheet data.
+                    while (nextRow >= 0) {
+                        this.writeRow(nextRow);
+                        nextRow = this.patches.nextRow(nextRow);
+                    }
+                    inSheetData = false;
+                }
+            }
+            if (event != null)
+                this.writer.add(event);
+        }
+        this.writer.flush();
+        this.writer.close();
+    }
+
+    /**
+     * @return a cell's start element with the style changes for its column applied
+     *
+     * @param start		start element of the cell
+     * @param c			index of the cell's column
+     */
+    private StartElement restyle(StartElement start, int c) {
+        StartElement retVal = start;
+        String type = getAttribute(start, "t");
+        String styleString = getAttribute(start, "s");
+        int style = (styleString == null ? 0 : Integer.parseInt(styleString));
+        int newStyle = style;
+        // The changes are applied in order, so a later change can replace the result of an earlier one.
+        for (Restyle rule : this.restyles) {
+            if (rule.col == c && this.currentRow >= rule.firstRow && rule.target.matches(type)
+                    && (rule.fromStyle < 0 || rule.fromStyle == newStyle))
+                newStyle = rule.toStyle;
+        }
+        if (newStyle != style) {
+            List<Attribute> attributes = new ArrayList<>(4);
+            Iterator<Attribute> iter = start.getAttributes();
+            while (iter.hasNext()) {
+                Attribute attr = iter.next();
+                if (! attr.getName().getLocalPart().equals("s"))
+                    attributes.add(attr);
+            }
+            attributes.add(EVENTS.createAttribute("s", Integer.toString(newStyle)));
+            retVal = EVENTS.createStartElement(start.getName(), attributes.iterator(), start.getNamespaces());
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if the cursor is positioned on a store for the current row
+     */
+    private boolean hasCell() {
+        return this.cursor >= 0 && this.patches.isValid(this.cursor)
+                && this.patches.getRow(this.cursor) == this.currentRow;
+    }
+
+    /**
+     * Skip the rest of the current element in the input.
+     *
+     * @throws XMLStreamException
+     */
+    private void skipElement() throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            XMLEvent event = this.reader.nextEvent();
+            if (event.isStartElement())
+                depth++;
+            else if (event.isEndElement())
+                depth--;
+        }
+    }
+
+    /**
+     * Write a row that consists only of buffered stores.
+     *
+     * @param r		index of the row to write
+     *
+     * @throws XMLStreamException
+     */
+    private void writeRow(int r) throws XMLStreamException {
+        List<Attribute> attributes = List.of(EVENTS.createAttribute("r", Integer.toString(r + 1)));
+        this.writer.add(EVENTS.createStartElement(this.prefix, this.nsUri, "row", attributes.iterator(), NO_NAMESPACES.iterator()));
+        for (int i = this.patches.find(r); this.patches.isValid(i) && this.patches.getRow(i) == r; i++)
+            this.writeCell(i);
+        this.writer.add(EVENTS.createEndElement(this.prefix, this.nsUri, "row"));
+    }
+
+    /**
+     * Write a cell for a buffered store.
+     *
+     * @param idx	index of the store
+     *
+     * @throws XMLStreamException
+     */
+    private void writeCell(int idx) throws XMLStreamException {
+        List<Attribute> attributes = new ArrayList<>(3);
+        String ref = new CellReference(this.patches.getRow(idx), this.patches.getCol(idx)).formatAsString();
+        attributes.add(EVENTS.createAttribute("r", ref));
+        CellStyle style = this.patches.getStyle(idx);
+        if (style != null)
+            attributes.add(EVENTS.createAttribute("s", Short.toString(style.getIndex())));
+        String string = this.patches.getString(idx);
+        if (string != null) {
+            // Strings are stored inline, since the shared-strings table has already been written.
+            attributes.add(EVENTS.createAttribute("t", "inlineStr"));
+            this.writer.add(EVENTS.createStartElement(this.prefix, this.nsUri, "c", attributes.iterator(), NO_NAMESPACES.iterator()));
+            this.writer.add(EVENTS.createStartElement(this.prefix, this.nsUri, "is"));
+            List<Attribute> space = List.of(EVENTS.createAttribute("xml", XMLConstants.XML_NS_URI, "space", "preserve"));
+            this.writer.add(EVENTS.createStartElement(this.prefix, this.nsUri, "t", space.iterator(), NO_NAMESPACES.iterator()));
+            this.writer.add(EVENTS.createCharacters(string));
+            this.writer.add(EVENTS.createEndElement(this.prefix, this.nsUri, "t"));
+            this.writer.add(EVENTS.createEndElement(this.prefix, this.nsUri, "is"));
+        } else {
+            this.writer.add(EVENTS.createStartElement(this.prefix, this.nsUri, "c", attributes.iterator(), NO_NAMESPACES.iterator()));
+            this.writer.add(EVENTS.createStartElement(this.prefix, this.nsUri, "v"));
+            this.writer.add(EVENTS.createCharacters(Double.toString(this.patches.getNumber(idx))));
+            this.writer.add(EVENTS.createEndElement(this.prefix, this.nsUri, "v"));
+        }
+        this.writer.add(EVENTS.createEndElement(this.prefix, this.nsUri, "c"));
+    }
+
+    /**
+     * @return the value of an attribute, or NULL if it is not present
+     *
+     * @param start		element start event
+     * @param name		local name of the attribute
+     */
+    private static String getAttribute(StartElement start, String name) {
+        Attribute attr = start.getAttributeByName(new QName(name));
+        return (attr == null ? null : attr.getValue());
+    }
+
+}
@@ -0,0 +1,203 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.model.SharedStrings;
+
+/**
+ * This object reads the rows of a single worksheet from the sheet XML of a workbook being processed with
+ * the event API.  Each call to {@link #next()} returns the cell values of the next row present in the
+ * sheet, so only one row is ever in memory.  A cell value is a string, a double, or NULL for a blank cell.
+ * Formula cells return their cached values, and boolean cells return "TRUE" or "FALSE".  Cell formatting
+ * is ignored.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SheetRowReader implements AutoCloseable {
+
+    // FIELDS
+    /** XML reader for the sheet */
+    private final XMLStreamReader reader;
+    /** shared-strings table for the workbook */
+    private final SharedStrings strings;
+    /** buffer for the current row's cell values */
+    private final List<Object> cells;
+    /** buffer for the current cell's text */
+    private final StringBuilder text;
+    /** index of the row most recently returned */
+    private int rowNum;
+    /** factory for sheet XML readers */
+    private static final XMLInputFactory IN_FACTORY = XMLInputFactory.newFactory();
+    static {
+        IN_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        IN_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * Construct a row reader for a sheet.
+     *
+     * @param sheetStream	input stream for the sheet XML
+     * @param strings		shared-strings table for the workbook
+     *
+     * @throws IOException
+     */
+    public SheetRowReader(InputStream sheetStream, SharedStrings strings) throws IOException {
+        try {
+            this.reader = IN_FACTORY.createXMLStreamReader(sheetStream);
+        } catch (XMLStreamException e) {
+            throw new IOException("Error opening sheet XML: " + e.toString(), e);
+        }
+        this.strings = strings;
+        this.cells = new ArrayList<>();
+        this.text = new StringBuilder(100);
+        this.rowNum = -1;
+    }
+
+    /**
+     * @return the cell values of the next row, or NULL if there are no more rows
+     *
+     * @throws IOException
+     */
+    public Object[] next() throws IOException {
+        Object[] retVal = null;
+        try {
+            String type = null;
+            int col = 0;
+            boolean inValue = false;
+            while (retVal == null && this.reader.hasNext()) {
+                switch (this.reader.next()) {
+                case XMLStreamConstants.START_ELEMENT -> {
+                    switch (this.reader.getLocalName()) {
+                    case "row" -> {
+                        this.cells.clear();
+                        col = 0;
+                        String r = this.reader.getAttributeValue(null, "r");
+                        this.rowNum = (r == null ? this.rowNum + 1 : Integer.parseInt(r) - 1);
+                    }
+                    case "c" -> {
+                        String ref = this.reader.getAttributeValue(null, "r");
+                        if (ref != null)
+                            col = new CellReference(ref).getCol();
+                        type = this.reader.getAttributeValue(null, "t");
+                        this.text.setLength(0);
+                    }
+                    case "v", "t" -> inValue = true;
+                    default -> {
+                        }
+                    }
+                }
+                case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE -> {
+                    if (inValue)
+                        this.text.append(this.reader.getTextCharacters(), this.reader.getTextStart(),
+                                this.reader.getTextLength());
+                }
+                case XMLStreamConstants.END_ELEMENT -> {
+                    switch (this.reader.getLocalName()) {
+                    case "v", "t" -> inValue = false;
+                    case "c" -> {
+                        while (this.cells.size() < col)
+                            this.cells.add(null);
+                        this.cells.add(this.cellValue(type));
+                        col++;
+                    }
+                    case "row" -> retVal = this.cells.toArray();
+                    default -> {
+                        }
+                    }
+                }
+                default -> {
+                    }
+                }
+            }
+        } catch (XMLStreamException | NumberFormatException e) {
+            throw new IOException("Error reading sheet XML: " + e.toString(), e);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the value of the current cell, as a string, a double, or NULL for a blank
+     *
+     * @param type		cell type attribute, or NULL for a number
+     */
+    private Object cellValue(String type) {
+        Object retVal;
+        if (this.text.length() == 0)
+            retVal = null;
+        else if (type == null || type.equals("n")) {
+            try {
+                retVal = Double.valueOf(this.text.toString());
+            } catch (NumberFormatException e) {
+                retVal = this.text.toString();
+            }
+        } else {
+            retVal = switch (type) {
+            case "s" -> this.sharedString(Integer.parseInt(this.text.toString()));
+            case "b" -> (this.text.charAt(0) == '1' ? "TRUE" : "FALSE");
+            default -> this.text.toString();
+            };
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the plain text of a shared string
+     *
+     * @param idx	index of the string in the shared-strings table
+     */
+    private String sharedString(int idx) {
+        String retVal;
+        if (this.strings instanceof MappedSharedStrings mapped)
+            retVal = mapped.getString(idx);
+        else
+            retVal = this.strings.getItemAt(idx).getString();
+        return retVal;
+    }
+
+    /**
+     * @return the string form of a cell value, as computed by {@link ExcelUtils#stringValue}
+     *
+     * @param value		cell value (a string, a double, or NULL)
+     */
+    public static String stringValue(Object value) {
+        String retVal;
+        if (value == null)
+            retVal = "";
+        else if (value instanceof Double d)
+            retVal = Double.toString(d);
+        else
+            retVal = StringUtils.trim(value.toString());
+        return retVal;
+    }
+
+    /**
+     * @return the index (0-based) of the row most recently returned by {@link #next()}
+     */
+    public int getRowNum() {
+        return this.rowNum;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Error closing sheet XML: " + e.toString(), e);
+        }
+    }
+
+}
@@ -0,0 +1,626 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This object buffers the rows of a sorted sheet.  Each row has a sort key, and its cells are recorded as
+ * a compact binary list of store operations.  When the buffered rows exceed a memory limit, they are sorted
+ * and spilled to a temporary run file.  When the sheet is finished, the runs and the rows still in memory
+ * are merged, and the store operations are replayed into the sheet in key order.  Rows with equal keys
+ * stay in the order they were added.  No more than {@link #MAX_FAN_IN} sources are open at once; if there
+ * are too many run files, groups of them are first merged into larger runs.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class SortedRowBuffer implements AutoCloseable {
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(SortedRowBuffer.class);
+    /** comparator for sort keys */
+    private final Comparator<String> comparator;
+    /** maximum estimated heap bytes of buffered rows before spilling */
+    private final long memoryLimit;
+    /** rows buffered in memory */
+    private List<SortedRow> rows;
+    /** estimated heap bytes of the buffered rows */
+    private long memoryUsed;
+    /** list of run files */
+    private final List<File> runFiles;
+    /** key of the row being recorded, or NULL if no row has been started */
+    private String currentKey;
+    /** buffer for the cells of the row being recorded */
+    private final ByteArrayOutputStream cellBytes;
+    /** data stream for the cells of the row being recorded */
+    private final DataOutputStream cellStream;
+    /** number of rows added */
+    private long rowCount;
+    /** estimated heap overhead per buffered row */
+    private static final long ROW_OVERHEAD = 80;
+    /** maximum number of row sources merged in a single pass */
+    public static final int MAX_FAN_IN = 64;
+
+    /** operation code for a floating-point cell */
+    private static final byte OP_NUM = 1;
+    /** operation code for a range-colored cell */
+    private static final byte OP_RANGE = 2;
+    /** operation code for an integer cell */
+    private static final byte OP_INT = 3;
+    /** operation code for a text cell */
+    private static final byte OP_TEXT = 4;
+    /** operation code for a text cell with a link and comment */
+    private static final byte OP_LINK = 5;
+    /** operation code for an integer cell with a link and comment */
+    private static final byte OP_INT_LINK = 6;
+    /** operation code for a blank cell */
+    private static final byte OP_BLANK = 7;
+    /** operation code for a long integer cell */
+    private static final byte OP_LONG = 8;
+
+    /**
+     * This class represents a buffered row.
+     */
+    private static class SortedRow {
+
+        /** sort key */
+        private final String key;
+        /** sequence number, for keeping equal keys in their original order */
+        private final long seq;
+        /** recorded cells */
+        private final byte[] data;
+
+        /**
+         * Create a buffered row.
+         *
+         * @param key		sort key
+         * @param seq		sequence number
+         * @param data		recorded cells
+         */
+        protected SortedRow(String key, long seq, byte[] data) {
+            this.key = key;
+            this.seq = seq;
+            this.data = data;
+        }
+
+    }
+
+    /**
+     * This class is a source of rows for the merge.  It is positioned on its current row, which is NULL when
+     * the source is exhausted.
+     */
+    private static abstract class RowSource implements AutoCloseable {
+
+        /** current row */
+        protected SortedRow current;
+
+        /**
+         * Move to the next row.
+         *
+         * @throws IOException
+         */
+        protected abstract void advance() throws IOException;
+
+        @Override
+        public void close() throws IOException { }
+
+    }
+
+    /**
+     * This row source reads a run file.
+     */
+    private static class RunSource extends RowSource {
+
+        /** input stream for the run file */
+        private final DataInputStream inStream;
+
+        /**
+         * Open a run file and position on its first row.
+         *
+         * @param runFile	run file to read
+         *
+         * @throws IOException
+         */
+        protected RunSource(File runFile) throws IOException {
+            this.inStream = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile)));
+            this.advance();
+        }
+
+        @Override
+        protected void advance() throws IOException {
+            try {
+                String key = readString(this.inStream);
+                long seq = this.inStream.readLong();
+                byte[] data = new byte[this.inStream.readInt()];
+                this.inStream.readFully(data);
+                this.current = new SortedRow(key, seq, data);
+            } catch (EOFException e) {
+                this.current = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.inStream.close();
+        }
+
+    }
+
+    /**
+     * This row source reads the sorted rows in memory.
+     */
+    private static class MemorySource extends RowSource {
+
+        /** sorted rows */
+        private final List<SortedRow> rows;
+        /** index of the next row */
+        private int nextIdx;
+
+        /**
+         * Position on the first of a list of sorted rows.
+         *
+         * @param rows		list of rows to read
+         */
+        protected MemorySource(List<SortedRow> rows) {
+            this.rows = rows;
+            this.nextIdx = 0;
+            this.advance();
+        }
+
+        @Override
+        protected void advance() {
+            this.current = (this.nextIdx < this.rows.size() ? this.rows.get(this.nextIdx++) : null);
+        }
+
+    }
+
+    /**
+     * This interface receives the rows produced by a merge.
+     */
+    private interface RowSink {
+
+        /**
+         * Process the next row in key order.
+         *
+         * @param row	row to process
+         *
+         * @throws IOException
+         */
+        void accept(SortedRow row) throws IOException;
+
+    }
+
+    /**
+     * Create an empty sorted-row buffer.
+     *
+     * @param comparator	comparator for sort keys
+     * @param memoryLimit	maximum estimated heap bytes of buffered rows before spilling to a run file
+     */
+    public SortedRowBuffer(Comparator<String> comparator, long memoryLimit) {
+        this.comparator = comparator;
+        this.memoryLimit = memoryLimit;
+        this.rows = new ArrayList<>();
+        this.memoryUsed = 0;
+        this.runFiles = new ArrayList<>();
+        this.currentKey = null;
+        this.cellBytes = new ByteArrayOutputStream(256);
+        this.cellStream = new DataOutputStream(this.cellBytes);
+        this.rowCount = 0;
+    }
+
+    /**
+     * @return the comparison of two buffered rows
+     */
+    private int compareRows(SortedRow a, SortedRow b) {
+        int retVal = this.comparator.compare(a.key, b.key);
+        if (retVal == 0)
+            retVal = Long.compare(a.seq, b.seq);
+        return retVal;
+    }
+
+    /**
+     * Start a new row.
+     *
+     * @param key		sort key for the row
+     */
+    public void startRow(String key) {
+        this.endRow();
+        this.currentKey = key;
+    }
+
+    /**
+     * Finish the row being recorded and add it to the buffer.
+     */
+    private void endRow() {
+        if (this.currentKey != null) {
+            byte[] data = this.cellBytes.toByteArray();
+            this.cellBytes.reset();
+            this.rows.add(new SortedRow(this.currentKey, this.rowCount, data));
+            this.rowCount++;
+            this.memoryUsed += ROW_OVERHEAD + data.length + 2L * this.currentKey.length();
+            this.currentKey = null;
+            if (this.memoryUsed >= this.memoryLimit)
+                this.spill();
+        }
+    }
+
+    /**
+     * @return the data stream for recording a cell in the current row
+     *
+     * @param op	operation code for the cell
+     */
+    private DataOutputStream cell(byte op) throws IOException {
+        if (this.currentKey == null)
+            throw new IllegalStateException("Cell stored in a sorted sheet before the first row was added.");
+        this.cellStream.writeByte(op);
+        return this.cellStream;
+    }
+
+    /**
+     * Record a floating-point cell.
+     *
+     * @param value		value to store
+     * @param style		style of number
+     */
+    public void addNumber(double value, CustomWorkbook.Num style) {
+        try {
+            DataOutputStream out = this.cell(OP_NUM);
+            out.writeDouble(value);
+            out.writeByte(style.ordinal());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Record a range-colored cell.
+     *
+     * @param value		value to store
+     * @param min		maximum "low" value
+     * @param max		minimum "high" value
+     */
+    public void addRange(double value, double min, double max) {
+        try {
+            DataOutputStream out = this.cell(OP_RANGE);
+            out.writeDouble(value);
+            out.writeDouble(min);
+            out.writeDouble(max);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Record an integer cell.
+     *
+     * @param value		value to store
+     */
+    public void addInt(int value) {
+        try {
+            this.cell(OP_INT).writeInt(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Record a long integer cell.
+     *
+     * @param value		value to store
+     */
+    public void addLong(long value) {
+        try {
+            this.cell(OP_LONG).writeLong(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Record a text cell.
+     *
+     * @param value		value to store
+     * @param style		style of text
+     */
+    public void addText(String value, CustomWorkbook.Text style) {
+        try {
+            DataOutputStream out = this.cell(OP_TEXT);
+            writeString(out, value);
+            out.writeByte(style.ordinal());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Record a text cell with a link and comment.
+     *
+     * @param value		value to store
+     * @param url		URL for the link (NULL for none)
+     * @param comment	comment for the cell (NULL for none)
+     */
+    public void addLink(String value, String url, String comment) {
+        try {
+            DataOutputStream out = this.cell(OP_LINK);
+            writeString(out, value);
+            writeString(out, url);
+            writeString(out, comment);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Record an integer cell with a link and comment.
+     *
+     * @param value		value to store
+     * @param url		URL for the link (NULL for none)
+     * @param comment	comment for the cell (NULL for none)
+     */
+    public void addIntLink(int value, String url, String comment) {
+        try {
+            DataOutputStream out = this.cell(OP_INT_LINK);
+            out.writeInt(value);
+            writeString(out, url);
+            writeString(out, comment);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Record a blank cell.
+     */
+    public void addBlank() {
+        try {
+            this.cell(OP_BLANK);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Sort the buffered rows and write them to a new run file.
+     */
+    private void spill() {
+        this.rows.sort(this::compareRows);
+        try {
+            File runFile = File.createTempFile("sort", ".run");
+            this.runFiles.add(runFile);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile)))) {
+                for (SortedRow row : this.rows)
+                    writeRow(out, row);
+            }
+            log.debug("{} sorted rows spilled to run file {}.", this.rows.size(), runFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.rows = new ArrayList<>();
+        this.memoryUsed = 0;
+    }
+
+    /**
+     * Write a row to a run file.
+     *
+     * @param out		output stream for the run file
+     * @param row		row to write
+     *
+     * @throws IOException
+     */
+    private static void writeRow(DataOutputStream out, SortedRow row) throws IOException {
+        writeString(out, row.key);
+        out.writeLong(row.seq);
+        out.writeInt(row.data.length);
+        out.write(row.data);
+    }
+
+    /**
+     * Merge the buffered rows and replay them into a sheet in key order.  The buffer is empty afterward.
+     *
+     * @param sheet		sheet to receive the rows
+     */
+    public void replay(CustomWorkbook.Sheet sheet) {
+        this.endRow();
+        this.rows.sort(this::compareRows);
+        if (! this.runFiles.isEmpty())
+            log.info("Merging {} run files and {} buffered rows into sheet {}.", this.runFiles.size(), this.rows.size(),
+                    sheet.sheet.getSheetName());
+        try {
+            // The final pass also reads the rows in memory, so it can only take one less than the maximum run files.
+            while (this.runFiles.size() >= MAX_FAN_IN)
+                this.mergeRuns();
+            this.merge(this.runFiles, this.rows, x -> replayRow(sheet, x.data));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            this.close();
+        }
+    }
+
+    /**
+     * Merge the oldest {@link #MAX_FAN_IN} run files into a single new run file, and delete them.
+     *
+     * @throws IOException
+     */
+    private void mergeRuns() throws IOException {
+        List<File> group = new ArrayList<>(this.runFiles.subList(0, MAX_FAN_IN));
+        File runFile = File.createTempFile("sort", ".run");
+        this.runFiles.add(runFile);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile)))) {
+            this.merge(group, Collections.emptyList(), x -> writeRow(out, x));
+        }
+        log.debug("{} run files merged into {}.", group.size(), runFile);
+        // The new run file is written, so the group can go.
+        this.runFiles.subList(0, MAX_FAN_IN).clear();
+        for (File oldFile : group) {
+            if (! oldFile.delete())
+                log.warn("Could not delete run file {}.", oldFile);
+        }
+    }
+
+    /**
+     * Merge a list of run files and a list of sorted rows in memory, and pass the rows in key order to a
+     * row sink.
+     *
+     * @param runs		list of run files to merge
+     * @param memRows	sorted list of rows in memory
+     * @param sink		receiver for the merged rows
+     *
+     * @throws IOException
+     */
+    private void merge(List<File> runs, List<SortedRow> memRows, RowSink sink) throws IOException {
+        PriorityQueue<RowSource> queue = new PriorityQueue<>(runs.size() + 1,
+                (a, b) -> this.compareRows(a.current, b.current));
+        List<RowSource> sources = new ArrayList<>(runs.size() + 1);
+        try {
+            for (File runFile : runs)
+                sources.add(new RunSource(runFile));
+            sources.add(new MemorySource(memRows));
+            for (RowSource source : sources) {
+                if (source.current != null)
+                    queue.add(source);
+            }
+            while (! queue.isEmpty()) {
+                RowSource source = queue.poll();
+                sink.accept(source.current);
+                source.advance();
+                if (source.current != null)
+                    queue.add(source);
+            }
+        } finally {
+            for (RowSource source : sources) {
+                try {
+                    source.close();
+                } catch (IOException e) {
+                    log.warn("Error closing run file: {}", e.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * Replay the recorded cells of one row into a sheet.
+     *
+     * @param sheet		sheet to receive the row
+     * @param data		recorded cells
+     *
+     * @throws IOException
+     */
+    private static void replayRow(CustomWorkbook.Sheet sheet, byte[] data) throws IOException {
+        sheet.addRow();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        while (in.available() > 0) {
+            byte op = in.readByte();
+            switch (op) {
+            case OP_NUM -> {
+                double value = in.readDouble();
+                sheet.storeCell(value, CustomWorkbook.Num.values()[in.readByte()]);
+            }
+            case OP_RANGE -> {
+                double value = in.readDouble();
+                double min = in.readDouble();
+                sheet.storeCell(value, min, in.readDouble());
+            }
+            case OP_INT -> sheet.storeCell(in.readInt());
+            case OP_TEXT -> {
+                String value = readString(in);
+                sheet.storeCell(value, CustomWorkbook.Text.values()[in.readByte()]);
+            }
+            case OP_LINK -> {
+                String value = readString(in);
+                String url = readString(in);
+                sheet.storeCell(value, url, readString(in));
+            }
+            case OP_INT_LINK -> {
+                int value = in.readInt();
+                String url = readString(in);
+                sheet.storeCell(value, url, readString(in));
+            }
+            case OP_BLANK -> sheet.storeBlankCell();
+            case OP_LONG -> sheet.storeCell(in.readLong());
+            default -> throw new IOException("Invalid operation code " + op + " in sorted row.");
+            }
+        }
+    }
+
+    /**
+     * Write a possibly-NULL string to a data stream.  Unlike "writeUTF", this has no length limit.
+     *
+     * @param out		output stream
+     * @param string	string to write, or NULL
+     *
+     * @throws IOException
+     */
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null)
+            out.writeInt(-1);
+        else {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * @return a possibly-NULL string read from a data stream
+     *
+     * @param in		input stream
+     *
+     * @throws IOException
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        String retVal = null;
+        int len = in.readInt();
+        if (len >= 0) {
+            byte[] bytes = new byte[len];
+            in.readFully(bytes);
+            retVal = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of rows added
+     */
+    public long size() {
+        return this.rowCount + (this.currentKey != null ? 1 : 0);
+    }
+
+    /**
+     * Delete the run files and release the buffered rows.
+     */
+    @Override
+    public void close() {
+        for (File runFile : this.runFiles) {
+            if (! runFile.delete())
+                log.warn("Could not delete run file {}.", runFile);
+        }
+        this.runFiles.clear();
+        this.rows = new ArrayList<>();
+        this.memoryUsed = 0;
+    }
+
+}
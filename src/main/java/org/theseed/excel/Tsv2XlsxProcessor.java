@@ -0,0 +1,339 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.basic.BaseProcessor;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.io.TabbedLineReader;
+
+/**
+ * This command converts tab-delimited files with headers to spreadsheets.  Each input file becomes a
+ * styled sheet (a table by default) named after the file.  Normally each file becomes its own workbook,
+ * and the files are converted concurrently on a bounded thread pool.  Concurrency is also capped by a
+ * heap budget:  each conversion reserves an estimate of the heap it needs before it starts, so several
+ * large files will not be held in memory at once.  A file too big to convert in memory within the budget
+ * is converted with a streaming workbook instead.
+ *
+ * If a combined workbook is specified, all the files become sheets in that single workbook, and they are
+ * converted one at a time.
+ *
+ * Two input files can have the same base name (for example, "a.tbl" and "a.tsv", or files with the same
+ * name in different directories).  A number is then added to the later file's output workbook name or,
+ * for a combined workbook, to its sheet name, so no output is overwritten.
+ *
+ * The positional parameters are the names of the input files.  A directory name is replaced by the files
+ * in the directory with one of the input extensions.
+ *
+ * The command-line options are as follows.
+ *
+ * -h	display command-line usage
+ * -v	display more detailed log messages
+ * -o	output directory (default is the directory containing each input file)
+ * -t	maximum number of concurrent conversions (default is the number of processors)
+ *
+ * --heap		heap budget for concurrent conversions, in megabytes (default is half the maximum heap)
+ * --ext		comma-delimited list of input extensions for directories (default "tbl,tsv,txt")
+ * --combined	if specified, the name of a single output workbook to contain all the sheets
+ * --plain		if specified, the sheets are plain sheets rather than tables
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class Tsv2XlsxProcessor extends BaseProcessor {
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(Tsv2XlsxProcessor.class);
+    /** list of input files to convert */
+    private List<File> files;
+    /** output workbook for each input file, or NULL if there is a combined workbook */
+    private List<File> outFiles;
+    /** sheet name for each input file */
+    private List<String> sheetNames;
+    /** set of extensions for input files found in directories */
+    private Set<String> extensions;
+    /** semaphore controlling the heap budget, in megabytes */
+    private Semaphore heapPermits;
+    /** number of conversions in progress */
+    private AtomicInteger active;
+    /** highest number of conversions in progress at once */
+    private AtomicInteger peakActive;
+    /** number of conversions that used a streaming workbook */
+    private AtomicInteger streamCount;
+    /** estimated heap bytes per byte of tab-delimited input for an in-memory workbook (about 250 bytes
+     *  per cell, and about 8 bytes per tab-delimited field) */
+    private static final long HEAP_FACTOR = 30;
+    /** estimated heap megabytes for a streaming conversion */
+    private static final int STREAM_COST = 32;
+    /** number of bytes in a megabyte */
+    private static final long MEGABYTE = 1024L * 1024;
+
+    // COMMAND-LINE OPTIONS
+
+    /** output directory */
+    @Option(name = "--outDir", aliases = { "-o" }, metaVar = "outDir", usage = "output directory (default is input directory)")
+    private File outDir;
+
+    /** maximum number of concurrent conversions */
+    @Option(name = "--threads", aliases = { "-t" }, metaVar = "8", usage = "maximum number of concurrent conversions")
+    private int threads;
+
+    /** heap budget in megabytes */
+    @Option(name = "--heap", metaVar = "2048", usage = "heap budget for concurrent conversions, in megabytes")
+    private int heapBudget;
+
+    /** comma-delimited list of input extensions */
+    @Option(name = "--ext", metaVar = "tbl,tsv", usage = "input file extensions for directories")
+    private String extList;
+
+    /** combined output workbook */
+    @Option(name = "--combined", metaVar = "all.xlsx", usage = "if specified, a single output workbook for all the sheets")
+    private File combinedFile;
+
+    /** TRUE to create plain sheets rather than tables */
+    @Option(name = "--plain", usage = "if specified, create plain sheets rather than tables")
+    private boolean plainFlag;
+
+    /** input files and directories */
+    @Argument(index = 0, metaVar = "inFile1 inFile2 ...", usage = "input files or directories", required = true)
+    private List<File> inFiles;
+
+    @Override
+    protected void setDefaults() {
+        this.outDir = null;
+        this.threads = Runtime.getRuntime().availableProcessors();
+        this.heapBudget = (int) (Runtime.getRuntime().maxMemory() / MEGABYTE / 2);
+        this.extList = "tbl,tsv,txt";
+        this.combinedFile = null;
+        this.plainFlag = false;
+        this.inFiles = new ArrayList<>();
+    }
+
+    @Override
+    protected void validateParms() throws IOException, ParseFailureException {
+        if (this.threads < 1)
+            throw new ParseFailureException("Thread count must be at least 1.");
+        if (this.heapBudget < STREAM_COST)
+            throw new ParseFailureException("Heap budget must be at least " + STREAM_COST + " megabytes.");
+        if (this.outDir != null && ! this.outDir.isDirectory())
+            throw new IOException("Output directory " + this.outDir + " is not found or invalid.");
+        this.extensions = new HashSet<>(Arrays.asList(StringUtils.split(this.extList.toLowerCase(), ',')));
+        // Expand the directories.
+        this.files = new ArrayList<>(this.inFiles.size());
+        for (File inFile : this.inFiles) {
+            if (inFile.isDirectory()) {
+                File[] subFiles = inFile.listFiles(x -> x.isFile()
+                        && this.extensions.contains(FilenameUtils.getExtension(x.getName()).toLowerCase()));
+                Arrays.sort(subFiles);
+                this.files.addAll(Arrays.asList(subFiles));
+            } else if (! inFile.canRead())
+                throw new IOException("Input file " + inFile + " is not found or unreadable.");
+            else
+                this.files.add(inFile);
+        }
+        this.computeOutputNames();
+        log.info("{} input files to convert.", this.files.size());
+    }
+
+    /**
+     * Compute the output workbook and sheet name for each input file.  Characters that are not allowed in a
+     * sheet name are replaced, and names that would collide are given a numeric suffix.
+     */
+    private void computeOutputNames() {
+        final int n = this.files.size();
+        this.sheetNames = new ArrayList<>(n);
+        this.outFiles = new ArrayList<>(n);
+        Set<String> usedSheets = new HashSet<>();
+        Set<File> usedFiles = new HashSet<>();
+        for (File inFile : this.files) {
+            String baseName = FilenameUtils.getBaseName(inFile.getName());
+            String safeName = WorkbookUtil.createSafeSheetName(baseName, '_');
+            String name = safeName;
+            if (this.combinedFile != null) {
+                // All the sheets are in one workbook, where sheet names are compared without regard to case.
+                for (int k = 2; ! usedSheets.add(name.toLowerCase()); k++) {
+                    String suffix = " (" + k + ")";
+                    name = StringUtils.left(safeName, CustomWorkbook.MAX_SHEET_NAME - suffix.length()) + suffix;
+                }
+                this.outFiles.add(null);
+            } else {
+                File dir = (this.outDir != null ? this.outDir : inFile.getAbsoluteFile().getParentFile());
+                File outFile = new File(dir, baseName + ".xlsx").getAbsoluteFile();
+                for (int k = 2; ! usedFiles.add(outFile); k++)
+                    outFile = new File(dir, baseName + "_" + k + ".xlsx").getAbsoluteFile();
+                this.outFiles.add(outFile);
+            }
+            this.sheetNames.add(name);
+        }
+    }
+
+    @Override
+    protected void runCommand() throws Exception {
+        if (this.combinedFile != null) {
+            // Here all the files go into one workbook.
+            try (CustomWorkbook workbook = CustomWorkbook.createStreaming(this.combinedFile)) {
+                for (int i = 0; i < this.files.size(); i++)
+                    this.convert(this.files.get(i), this.sheetNames.get(i), workbook);
+            }
+            log.info("{} sheets written to {}.", this.files.size(), this.combinedFile);
+        } else {
+            this.heapPermits = new Semaphore(this.heapBudget);
+            this.active = new AtomicInteger();
+            this.peakActive = new AtomicInteger();
+            this.streamCount = new AtomicInteger();
+            ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+            try {
+                List<Future<File>> results = new ArrayList<>(this.files.size());
+                for (int i = 0; i < this.files.size(); i++) {
+                    // Reserve heap for the conversion before it is queued.
+                    final int idx = i;
+                    long estimate = (this.files.get(i).length() * HEAP_FACTOR + MEGABYTE - 1) / MEGABYTE;
+                    final boolean streaming = (estimate > this.heapBudget);
+                    final int cost = (streaming ? STREAM_COST : (int) Math.max(1, estimate));
+                    this.heapPermits.acquire(cost);
+                    results.add(pool.submit(() -> this.convertFile(idx, streaming, cost)));
+                }
+                for (Future<File> result : results) {
+                    try {
+                        result.get();
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof Exception ex)
+                            throw ex;
+                        else
+                            throw new RuntimeException(cause);
+                    }
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+            log.info("{} workbooks written.", this.files.size());
+        }
+    }
+
+    /**
+     * Convert a single file to its own workbook.
+     *
+     * @param idx			index of the input file
+     * @param streaming		TRUE to use a streaming workbook
+     * @param cost			heap reservation to release when the conversion is finished
+     *
+     * @return the output file
+     *
+     * @throws IOException
+     */
+    private File convertFile(int idx, boolean streaming, int cost) throws IOException {
+        File inFile = this.files.get(idx);
+        File retVal = this.outFiles.get(idx);
+        int running = this.active.incrementAndGet();
+        this.peakActive.accumulateAndGet(running, Math::max);
+        if (streaming)
+            this.streamCount.incrementAndGet();
+        try {
+            try (CustomWorkbook workbook = (streaming ? CustomWorkbook.createStreaming(retVal) : CustomWorkbook.create(retVal))) {
+                this.convert(inFile, this.sheetNames.get(idx), workbook);
+            }
+            log.info("{} converted to {}.", inFile, retVal);
+        } finally {
+            this.active.decrementAndGet();
+            this.heapPermits.release(cost);
+        }
+        return retVal;
+    }
+
+    /**
+     * Copy a tab-delimited file into a new sheet of a workbook.
+     *
+     * @param inFile		input file
+     * @param name			name for the new sheet
+     * @param workbook		output workbook
+     *
+     * @throws IOException
+     */
+    private void convert(File inFile, String name, CustomWorkbook workbook) throws IOException {
+        try (TabbedLineReader inStream = new TabbedLineReader(inFile)) {
+            workbook.addSheet(name, ! this.plainFlag);
+            workbook.setHeaders(Arrays.asList(inStream.getLabels()));
+            for (TabbedLineReader.Line line : inStream) {
+                workbook.addRow();
+                for (String field : line.getFields())
+                    storeField(workbook, field);
+            }
+        }
+        workbook.autoSizeColumns();
+    }
+
+    /**
+     * Store a field in the next cell of the current row, as a number if it is numeric.
+     *
+     * @param workbook		output workbook
+     * @param field			field to store
+     */
+    private static void storeField(CustomWorkbook workbook, String field) {
+        if (! NumberUtils.isParsable(field))
+            workbook.storeCell(field);
+        else if (field.indexOf('.') < 0 && field.length() < 10)
+            workbook.storeCell(Integer.parseInt(field));
+        else
+            workbook.storeCell(Double.parseDouble(field));
+    }
+
+    /**
+     * @return the output workbooks, in input order (NULL entries if there is a combined workbook)
+     */
+    List<File> getOutFiles() {
+        return this.outFiles;
+    }
+
+    /**
+     * @return the sheet names, in input order
+     */
+    List<String> getSheetNames() {
+        return this.sheetNames;
+    }
+
+    /**
+     * @return the highest number of separate conversions in progress at once during the last run
+     */
+    int getPeakActive() {
+        return this.peakActive.get();
+    }
+
+    /**
+     * @return the number of separate conversions that used a streaming workbook during the last run
+     */
+    int getStreamCount() {
+        return this.streamCount.get();
+    }
+
+    /**
+     * @return the heap budget not reserved at the end of the last run, in megabytes
+     */
+    int getAvailableHeap() {
+        return this.heapPermits.availablePermits();
+    }
+
+}
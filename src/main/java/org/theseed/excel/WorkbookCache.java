@@ -0,0 +1,266 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This object caches parsed workbooks so that spreadsheets read repeatedly are only parsed once.  Each
+ * entry is keyed by the canonical path of the file, and remembers the file size and modification time
+ * at which it was loaded.  If either of these changes, the entry is discarded and the file is re-read.
+ *
+ * The cache is limited by an estimate of the memory occupied by the parsed workbooks.  When the limit is
+ * exceeded, the least-recently-used workbooks are evicted.  The cache is safe to use from multiple threads,
+ * and if several threads request the same file at once, only one of them will load it.
+ *
+ * The workbooks returned are shared, so they must be treated as read-only.  In particular, they are not
+ * suitable for {@link CustomWorkbook#load(File)}, which updates the workbook in place.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class WorkbookCache {
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(WorkbookCache.class);
+    /** map of canonical file names to cache entries, in access order */
+    private final LinkedHashMap<String, Entry> entryMap;
+    /** maximum total weight of the cached workbooks */
+    private final long maxWeight;
+    /** total weight of the loaded workbooks */
+    private long totalWeight;
+    /** number of cache hits */
+    private long hits;
+    /** number of cache misses */
+    private long misses;
+    /** estimated ratio of in-memory workbook size to file size */
+    private static final int DOM_EXPANSION = 30;
+
+    /**
+     * This class describes a single cache entry.  The workbook is loaded through a future, so that
+     * other threads requesting the same file can wait for the load to complete.
+     */
+    private static class Entry {
+
+        /** size of the file when loaded */
+        private final long fileSize;
+        /** modification time of the file when loaded */
+        private final long modTime;
+        /** estimated memory weight of the workbook */
+        private final long weight;
+        /** future for the loaded workbook */
+        private final CompletableFuture<Workbook> workbook;
+
+        /**
+         * Create a new, unloaded cache entry.
+         *
+         * @param file		file to be loaded into this entry
+         */
+        protected Entry(File file) {
+            this.fileSize = file.length();
+            this.modTime = file.lastModified();
+            this.weight = this.fileSize * DOM_EXPANSION;
+            this.workbook = new CompletableFuture<>();
+        }
+
+        /**
+         * @return TRUE if this entry is still valid for the specified file
+         *
+         * @param file		file whose entry is to be checked
+         */
+        protected boolean isCurrent(File file) {
+            return (file.length() == this.fileSize && file.lastModified() == this.modTime);
+        }
+
+        /**
+         * @return TRUE if this entry has been successfully loaded
+         */
+        protected boolean isLoaded() {
+            return this.workbook.isDone() && ! this.workbook.isCompletedExceptionally();
+        }
+
+    }
+
+    /**
+     * Construct a new workbook cache.
+     *
+     * @param maxBytes	estimated maximum memory to use for cached workbooks
+     */
+    public WorkbookCache(long maxBytes) {
+        this.maxWeight = maxBytes;
+        this.entryMap = new LinkedHashMap<>(16, 0.75f, true);
+        this.totalWeight = 0;
+        this.hits = 0;
+        this.misses = 0;
+    }
+
+    /**
+     * Get the parsed workbook for a file.  The workbook will be loaded if it is not in the cache or the file
+     * has changed.
+     *
+     * @param file		file containing the workbook
+     *
+     * @return the parsed workbook, which must not be modified
+     *
+     * @throws IOException
+     */
+    public Workbook get(File file) throws IOException {
+        String key = file.getCanonicalPath();
+        Entry entry;
+        boolean loader = false;
+        synchronized (this) {
+            entry = this.entryMap.get(key);
+            if (entry != null && ! entry.isCurrent(file)) {
+                log.info("Workbook {} has changed and will be reloaded.", file);
+                this.remove(key, entry);
+                entry = null;
+            }
+            if (entry == null) {
+                // Here we must load the file ourselves.  Other threads will wait on the future.
+                entry = new Entry(file);
+                this.entryMap.put(key, entry);
+                loader = true;
+                this.misses++;
+            } else
+                this.hits++;
+        }
+        if (loader)
+            this.load(file, key, entry);
+        try {
+            return entry.workbook.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioError)
+                throw ioError;
+            else if (cause instanceof UncheckedIOException ioError)
+                throw ioError.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Load a workbook into a cache entry and update the cache weight.
+     *
+     * @param file		file containing the workbook
+     * @param key		canonical file name
+     * @param entry		entry to receive the workbook
+     */
+    private void load(File file, String key, Entry entry) {
+        try (FileInputStream inStream = new FileInputStream(file)) {
+            log.info("Loading workbook {} into cache.", file);
+            Workbook workbook = new XSSFWorkbook(inStream);
+            synchronized (this) {
+                entry.workbook.complete(workbook);
+                // Only count the weight if the entry was not invalidated while we were loading.
+                if (this.entryMap.get(key) == entry) {
+                    this.totalWeight += entry.weight;
+                    this.evict();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                this.entryMap.remove(key, entry);
+            }
+            entry.workbook.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Evict least-recently-used workbooks until the cache is within its weight limit.  The most recent
+     * entry is always kept, even if it is over the limit by itself.  Entries still loading are skipped.
+     * This method must be called while synchronized.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iter = this.entryMap.entrySet().iterator();
+        int remaining = this.entryMap.size();
+        while (this.totalWeight > this.maxWeight && remaining > 1 && iter.hasNext()) {
+            Map.Entry<String, Entry> oldest = iter.next();
+            remaining--;
+            Entry entry = oldest.getValue();
+            if (entry.isLoaded()) {
+                log.debug("Evicting workbook {} from cache.", oldest.getKey());
+                iter.remove();
+                this.totalWeight -= entry.weight;
+            }
+        }
+    }
+
+    /**
+     * Remove an entry from the cache.  This method must be called while synchronized.
+     *
+     * @param key		canonical file name
+     * @param entry		entry to remove
+     */
+    private void remove(String key, Entry entry) {
+        if (this.entryMap.remove(key, entry) && entry.isLoaded())
+            this.totalWeight -= entry.weight;
+    }
+
+    /**
+     * Remove a file from the cache.
+     *
+     * @param file		file to remove
+     *
+     * @throws IOException
+     */
+    public void invalidate(File file) throws IOException {
+        String key = file.getCanonicalPath();
+        synchronized (this) {
+            Entry entry = this.entryMap.get(key);
+            if (entry != null)
+                this.remove(key, entry);
+        }
+    }
+
+    /**
+     * Remove all the workbooks from the cache.
+     */
+    public synchronized void clear() {
+        this.entryMap.clear();
+        this.totalWeight = 0;
+    }
+
+    /**
+     * @return the number of workbooks in the cache
+     */
+    public synchronized int size() {
+        return this.entryMap.size();
+    }
+
+    /**
+     * @return the estimated memory weight of the cached workbooks
+     */
+    public synchronized long getWeight() {
+        return this.totalWeight;
+    }
+
+    /**
+     * @return the number of cache hits
+     */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * @return the number of cache misses
+     */
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+}
@@ -0,0 +1,274 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+
+/**
+ * This object compares two workbooks and reports the differences, for regression-testing generated
+ * spreadsheets against golden files.  The workbooks are read with the event API, sheet by sheet and row
+ * by row, so only one row of each is in memory and the shared strings are kept in memory-mapped files.
+ *
+ * Sheets are paired by position.  Rows are paired by row number, and a missing row compares equal to a
+ * row of blank cells.  Cell values are compared using the semantics of {@link ExcelUtils}:  strings are
+ * trimmed, a blank cell equals an empty string, and a number compared to a string is converted to a
+ * string.  Two numbers match if they differ by no more than the tolerance, which is absolute for numbers
+ * smaller than 1 in magnitude and relative for larger ones.  The comparison stops after the specified
+ * number of differences has been found.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class WorkbookDiff {
+
+    // FIELDS
+    /** numeric tolerance */
+    private final double tolerance;
+    /** maximum number of differences to report */
+    private final int maxDiffs;
+    /** differences found */
+    private List<Difference> diffs;
+    /** TRUE if the comparison stopped before the end of the workbooks */
+    private boolean truncated;
+    /** empty row for comparing against missing rows */
+    private static final Object[] EMPTY_ROW = new Object[0];
+
+    /**
+     * This object describes a single difference between the workbooks.  For a difference in the sheets
+     * themselves, the row and column are -1 and the values are the sheet names.
+     */
+    public static class Difference {
+
+        /** name of the sheet in the expected workbook */
+        private final String sheetName;
+        /** index of the row (0-based) */
+        private final int row;
+        /** index of the column (0-based) */
+        private final int col;
+        /** expected value */
+        private final String expected;
+        /** actual value */
+        private final String actual;
+
+        /**
+         * Construct a difference descriptor.
+         *
+         * @param sheetName		name of the sheet in the expected workbook
+         * @param row			index of the row, or -1 for a sheet difference
+         * @param col			index of the column, or -1 for a sheet difference
+         * @param expected		expected value
+         * @param actual		actual value
+         */
+        Difference(String sheetName, int row, int col, String expected, String actual) {
+            this.sheetName = sheetName;
+            this.row = row;
+            this.col = col;
+            this.expected = expected;
+            this.actual = actual;
+        }
+
+        /**
+         * @return the name of the sheet in the expected workbook
+         */
+        public String getSheetName() {
+            return this.sheetName;
+        }
+
+        /**
+         * @return the index of the row (0-based), or -1 for a sheet difference
+         */
+        public int getRow() {
+            return this.row;
+        }
+
+        /**
+         * @return the index of the column (0-based), or -1 for a sheet difference
+         */
+        public int getCol() {
+            return this.col;
+        }
+
+        /**
+         * @return the expected value
+         */
+        public String getExpected() {
+            return this.expected;
+        }
+
+        /**
+         * @return the actual value
+         */
+        public String getActual() {
+            return this.actual;
+        }
+
+        @Override
+        public String toString() {
+            String retVal;
+            if (this.row < 0)
+                retVal = "Sheet \"" + this.expected + "\" found as \"" + this.actual + "\".";
+            else
+                retVal = this.sheetName + "!" + new CellReference(this.row, this.col).formatAsString(false)
+                        + ": expected \"" + this.expected + "\", found \"" + this.actual + "\".";
+            return retVal;
+        }
+
+    }
+
+    /**
+     * Construct a workbook comparator.
+     *
+     * @param tolerance		numeric tolerance
+     * @param maxDiffs		maximum number of differences to report
+     */
+    public WorkbookDiff(double tolerance, int maxDiffs) {
+        this.tolerance = tolerance;
+        this.maxDiffs = maxDiffs;
+        this.diffs = new ArrayList<>();
+        this.truncated = false;
+    }
+
+    /**
+     * Compare two workbooks.
+     *
+     * @param expectedFile	file containing the expected workbook
+     * @param actualFile	file containing the workbook to check
+     *
+     * @return the list of differences found (empty if the workbooks match)
+     *
+     * @throws IOException
+     */
+    public List<Difference> compare(File expectedFile, File actualFile) throws IOException {
+        this.diffs = new ArrayList<>();
+        this.truncated = false;
+        try (OPCPackage expectedPkg = OPCPackage.open(expectedFile, PackageAccess.READ);
+                OPCPackage actualPkg = OPCPackage.open(actualFile, PackageAccess.READ)) {
+            XSSFReader expectedReader = new XSSFReader(expectedPkg);
+            XSSFReader actualReader = new XSSFReader(actualPkg);
+            try (MappedSharedStrings expectedStrings = MappedSharedStrings.load(expectedReader);
+                    MappedSharedStrings actualStrings = MappedSharedStrings.load(actualReader)) {
+                var expectedIter = (XSSFReader.SheetIterator) expectedReader.getSheetsData();
+                var actualIter = (XSSFReader.SheetIterator) actualReader.getSheetsData();
+                while (! this.truncated && (expectedIter.hasNext() || actualIter.hasNext())) {
+                    if (! actualIter.hasNext()) {
+                        expectedIter.next().close();
+                        this.addDiff(new Difference(expectedIter.getSheetName(), -1, -1, expectedIter.getSheetName(), ""));
+                    } else if (! expectedIter.hasNext()) {
+                        actualIter.next().close();
+                        this.addDiff(new Difference("", -1, -1, "", actualIter.getSheetName()));
+                    } else {
+                        try (InputStream expectedStream = expectedIter.next(); InputStream actualStream = actualIter.next()) {
+                            String sheetName = expectedIter.getSheetName();
+                            if (! sheetName.equals(actualIter.getSheetName()))
+                                this.addDiff(new Difference(sheetName, -1, -1, sheetName, actualIter.getSheetName()));
+                            this.compareSheets(sheetName, new SheetRowReader(expectedStream, expectedStrings),
+                                    new SheetRowReader(actualStream, actualStrings));
+                        }
+                    }
+                }
+            }
+        } catch (OpenXML4JException e) {
+            throw new IOException("Error opening workbook: " + e.toString(), e);
+        }
+        return this.diffs;
+    }
+
+    /**
+     * Compare the rows of two sheets.
+     *
+     * @param sheetName			name of the sheet, for reporting
+     * @param expectedRows		row reader for the expected sheet
+     * @param actualRows		row reader for the sheet to check
+     *
+     * @throws IOException
+     */
+    private void compareSheets(String sheetName, SheetRowReader expectedRows, SheetRowReader actualRows) throws IOException {
+        try (expectedRows; actualRows) {
+            Object[] expected = expectedRows.next();
+            Object[] actual = actualRows.next();
+            while (! this.truncated && (expected != null || actual != null)) {
+                int expectedNum = (expected == null ? Integer.MAX_VALUE : expectedRows.getRowNum());
+                int actualNum = (actual == null ? Integer.MAX_VALUE : actualRows.getRowNum());
+                if (expectedNum == actualNum) {
+                    this.compareRows(sheetName, expectedNum, expected, actual);
+                    expected = expectedRows.next();
+                    actual = actualRows.next();
+                } else if (expectedNum < actualNum) {
+                    this.compareRows(sheetName, expectedNum, expected, EMPTY_ROW);
+                    expected = expectedRows.next();
+                } else {
+                    this.compareRows(sheetName, actualNum, EMPTY_ROW, actual);
+                    actual = actualRows.next();
+                }
+            }
+        }
+    }
+
+    /**
+     * Compare the cells of two rows.
+     *
+     * @param sheetName		name of the sheet, for reporting
+     * @param r				index of the row
+     * @param expected		expected cell values
+     * @param actual		cell values to check
+     */
+    private void compareRows(String sheetName, int r, Object[] expected, Object[] actual) {
+        final int n = Math.max(expected.length, actual.length);
+        for (int c = 0; c < n && ! this.truncated; c++) {
+            Object expectedValue = (c < expected.length ? expected[c] : null);
+            Object actualValue = (c < actual.length ? actual[c] : null);
+            if (! matches(expectedValue, actualValue, this.tolerance))
+                this.addDiff(new Difference(sheetName, r, c, SheetRowReader.stringValue(expectedValue),
+                        SheetRowReader.stringValue(actualValue)));
+        }
+    }
+
+    /**
+     * Record a difference.  If the difference limit is reached, the comparison is stopped.
+     *
+     * @param diff		difference to record
+     */
+    private void addDiff(Difference diff) {
+        if (this.diffs.size() >= this.maxDiffs)
+            this.truncated = true;
+        else
+            this.diffs.add(diff);
+    }
+
+    /**
+     * @return TRUE if two cell values match
+     *
+     * @param expected		expected value (a string, a double, or NULL)
+     * @param actual		value to check (a string, a double, or NULL)
+     * @param tolerance		numeric tolerance
+     */
+    public static boolean matches(Object expected, Object actual, double tolerance) {
+        boolean retVal;
+        if (expected instanceof Double e && actual instanceof Double a) {
+            double diff = Math.abs(e - a);
+            retVal = (diff <= tolerance * Math.max(1.0, Math.max(Math.abs(e), Math.abs(a)))
+                    || e.equals(a));
+        } else
+            retVal = SheetRowReader.stringValue(expected).equals(SheetRowReader.stringValue(actual));
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if the last comparison stopped at the difference limit, so there may be more differences
+     */
+    public boolean isTruncated() {
+        return this.truncated;
+    }
+
+}
@@ -0,0 +1,66 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * This interface is used to monitor the generation of a {@link CustomWorkbook}.  A listener is notified as
+ * rows are added, when each sheet is closed, and when the workbook is written.  If no listener is attached
+ * to a workbook, no timing is performed.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public interface WorkbookListener {
+
+    /**
+     * This enum describes the phases of workbook generation that are timed.
+     */
+    public static enum Phase {
+        /** storing values in cells (including comment creation) */
+        CELLS,
+        /** creating cell comments */
+        COMMENTS,
+        /** auto-sizing columns */
+        AUTOSIZE,
+        /** converting a sheet to a table */
+        TABLE,
+        /** deleting replaced sheets */
+        CLEANUP,
+        /** writing the workbook file */
+        WRITE;
+    }
+
+    /**
+     * This method is called each time a row is added to a sheet.
+     *
+     * @param sheetName		name of the sheet
+     * @param rows			number of data rows in the sheet so far
+     * @param cells			number of cells in the sheet so far
+     */
+    public void rowAdded(String sheetName, int rows, int cells);
+
+    /**
+     * This method is called when a sheet is closed.
+     *
+     * @param sheetName		name of the sheet
+     * @param rows			number of data rows in the sheet
+     * @param cells			number of cells in the sheet
+     * @param heapBytes		estimated heap space retained by the sheet
+     * @param times			map of phases to the nanoseconds spent in each for this sheet
+     */
+    public void sheetClosed(String sheetName, int rows, int cells, long heapBytes, Map<Phase, Long> times);
+
+    /**
+     * This method is called after the workbook has been written.
+     *
+     * @param outFile		output file
+     * @param bytes			number of bytes written
+     * @param times			map of phases to the nanoseconds spent in each for the workbook as a whole
+     */
+    public void workbookWritten(File outFile, long bytes, Map<Phase, Long> times);
+
+}
@@ -0,0 +1,164 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+/**
+ * This object is a prepared workbook skeleton from which many small workbooks can be created quickly.  The
+ * skeleton is built once by a setup function that is passed a blank {@link CustomWorkbook}.  The setup
+ * function can set the precision and maximum column width, create static sheets (such as a legend or a
+ * parameter summary), and specify headers to be stored automatically when particular sheets are added.
+ * The result is kept as a serialized byte image, along with the indices of the standard cell styles.
+ *
+ * Each workbook created from the template loads a copy of the image and connects to the existing styles
+ * instead of creating new ones.  The template is immutable, so it can be shared by multiple threads.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class WorkbookTemplate {
+
+    // FIELDS
+    /** serialized image of the prepared workbook */
+    private final byte[] image;
+    /** indices of the standard cell styles in the prepared workbook */
+    private final short[] styleIndices;
+    /** number of digits to show after the decimal point */
+    private final int precision;
+    /** maximum column width */
+    private final int maxWidth;
+    /** comment mode for new sheets */
+    private final CustomWorkbook.CommentMode commentMode;
+    /** map of sheet names to preset headers */
+    private final Map<String, List<String>> presetHeaders;
+
+    /**
+     * Construct a workbook template.
+     *
+     * @param image				serialized image of the prepared workbook
+     * @param styleIndices		indices of the standard cell styles
+     * @param precision			number of digits to show after the decimal point
+     * @param maxWidth			maximum column width
+     * @param commentMode		comment mode for new sheets
+     * @param presetHeaders		map of sheet names to preset headers
+     */
+    WorkbookTemplate(byte[] image, short[] styleIndices, int precision, int maxWidth,
+            CustomWorkbook.CommentMode commentMode, Map<String, List<String>> presetHeaders) {
+        this.image = image;
+        this.styleIndices = styleIndices;
+        this.precision = precision;
+        this.maxWidth = maxWidth;
+        this.commentMode = commentMode;
+        Map<String, List<String>> headerMap = new HashMap<>(presetHeaders.size() * 4 / 3 + 1);
+        for (Map.Entry<String, List<String>> entry : presetHeaders.entrySet())
+            headerMap.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+        this.presetHeaders = Collections.unmodifiableMap(headerMap);
+    }
+
+    /**
+     * Build a workbook template.
+     *
+     * @param setup		function to prepare the workbook; any sheets it leaves open are closed
+     *
+     * @return a template for the prepared workbook
+     */
+    public static WorkbookTemplate create(Consumer<CustomWorkbook> setup) {
+        CustomWorkbook prototype = CustomWorkbook.create(null);
+        setup.accept(prototype);
+        return prototype.toTemplate();
+    }
+
+    /**
+     * Create a new workbook from this template.
+     *
+     * @param outFile	workbook output file
+     *
+     * @return a workbook containing a copy of the prepared skeleton
+     */
+    public CustomWorkbook create(File outFile) {
+        return CustomWorkbook.create(outFile, this);
+    }
+
+    /**
+     * Create a new streaming workbook from this template.
+     *
+     * @param outFile	workbook output file
+     *
+     * @return a streaming workbook containing a copy of the prepared skeleton
+     */
+    public CustomWorkbook createStreaming(File outFile) {
+        return CustomWorkbook.createStreaming(outFile, this, SXSSFWorkbook.DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Create a new streaming workbook from this template.
+     *
+     * @param outFile	workbook output file
+     * @param window	number of rows per sheet to keep in memory
+     *
+     * @return a streaming workbook containing a copy of the prepared skeleton
+     */
+    public CustomWorkbook createStreaming(File outFile, int window) {
+        return CustomWorkbook.createStreaming(outFile, this, window);
+    }
+
+    /**
+     * @return the serialized image of the prepared workbook
+     */
+    byte[] getImage() {
+        return this.image;
+    }
+
+    /**
+     * @return the size of the serialized workbook image, in bytes
+     */
+    public int getImageSize() {
+        return this.image.length;
+    }
+
+    /**
+     * @return the indices of the standard cell styles
+     */
+    short[] getStyleIndices() {
+        return this.styleIndices;
+    }
+
+    /**
+     * @return the number of digits to show after the decimal point
+     */
+    public int getPrecision() {
+        return this.precision;
+    }
+
+    /**
+     * @return the maximum column width
+     */
+    public int getMaxWidth() {
+        return this.maxWidth;
+    }
+
+    /**
+     * @return the comment mode for new sheets
+     */
+    public CustomWorkbook.CommentMode getCommentMode() {
+        return this.commentMode;
+    }
+
+    /**
+     * @return the map of sheet names to preset headers
+     */
+    public Map<String, List<String>> getPresetHeaders() {
+        return this.presetHeaders;
+    }
+
+}
@@ -0,0 +1,775 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This object builds the records of an Excel binary (BIFF12) workbook part.  Each record consists of a
+ * record type and a payload size, both written as variable-length integers with 7 bits per byte, followed
+ * by the payload.  The payload of the current record is built in a separate buffer, so its size is known
+ * when the record is finished.  All values are little-endian, and strings are UTF-16 preceded by a 4-byte
+ * character count.
+ *
+ * The static methods build the workbook, styles, and table parts, and the start and end of each worksheet
+ * part, for {@link DirectWorkbook}.  The sheet data records are written by the workbook itself using the
+ * static buffer methods here, since they are the bulk of the output.
+ *
+ * The record layouts follow the published [MS-XLSB] specification, but the output has only been checked
+ * with the POI binary reader, not with Excel, so this format should be treated as experimental.
+ *
+ * @author Bruce Parrello
+ *
+ */
+class XlsbWriter {
+
+    // FIELDS
+    /** finished records */
+    private byte[] out;
+    /** number of bytes of finished records */
+    private int outLen;
+    /** payload of the current record */
+    private byte[] body;
+    /** number of bytes in the current payload */
+    private int bodyLen;
+    /** type of the current record */
+    private int type;
+
+    // RECORD TYPES
+    /** row header */
+    static final int ROW_HDR = 0;
+    /** cell with an RK (compressed) number */
+    static final int CELL_RK = 2;
+    /** cell with an error value */
+    static final int CELL_ERROR = 3;
+    /** cell with a floating-point number */
+    static final int CELL_REAL = 5;
+    /** cell with an inline string */
+    static final int CELL_ST = 6;
+    /** font definition */
+    static final int FONT = 43;
+    /** number format definition */
+    static final int FMT = 44;
+    /** fill definition */
+    static final int FILL = 45;
+    /** border definition */
+    static final int BORDER = 46;
+    /** cell format definition */
+    static final int XF = 47;
+    /** named cell style */
+    static final int STYLE = 48;
+    /** column width and format */
+    static final int COL_INFO = 60;
+    /** file version */
+    static final int FILE_VERSION = 128;
+    /** start of a worksheet */
+    static final int BEGIN_SHEET = 129;
+    /** end of a worksheet */
+    static final int END_SHEET = 130;
+    /** start of a workbook */
+    static final int BEGIN_BOOK = 131;
+    /** end of a workbook */
+    static final int END_BOOK = 132;
+    /** start of the workbook windows */
+    static final int BEGIN_BOOK_VIEWS = 135;
+    /** end of the workbook windows */
+    static final int END_BOOK_VIEWS = 136;
+    /** start of the sheet list */
+    static final int BEGIN_BUNDLE_SHS = 143;
+    /** end of the sheet list */
+    static final int END_BUNDLE_SHS = 144;
+    /** start of the sheet data */
+    static final int BEGIN_SHEET_DATA = 145;
+    /** end of the sheet data */
+    static final int END_SHEET_DATA = 146;
+    /** workbook properties */
+    static final int WB_PROP = 153;
+    /** sheet list entry */
+    static final int BUNDLE_SH = 156;
+    /** calculation properties */
+    static final int CALC_PROP = 157;
+    /** workbook window */
+    static final int BOOK_VIEW = 158;
+    /** start of an auto-filter */
+    static final int BEGIN_A_FILTER = 161;
+    /** end of an auto-filter */
+    static final int END_A_FILTER = 162;
+    /** start of the style sheet */
+    static final int BEGIN_STYLE_SHEET = 278;
+    /** end of the style sheet */
+    static final int END_STYLE_SHEET = 279;
+    /** start of a table */
+    static final int BEGIN_LIST = 343;
+    /** end of a table */
+    static final int END_LIST = 344;
+    /** start of the table columns */
+    static final int BEGIN_LIST_COLS = 345;
+    /** end of the table columns */
+    static final int END_LIST_COLS = 346;
+    /** start of a table column */
+    static final int BEGIN_LIST_COL = 347;
+    /** end of a table column */
+    static final int END_LIST_COL = 348;
+    /** start of the column definitions */
+    static final int BEGIN_COL_INFOS = 390;
+    /** end of the column definitions */
+    static final int END_COL_INFOS = 391;
+    /** hyperlink */
+    static final int HLINK = 494;
+    /** start of the differential formats */
+    static final int BEGIN_DXFS = 505;
+    /** end of the differential formats */
+    static final int END_DXFS = 506;
+    /** start of the table styles */
+    static final int BEGIN_TABLE_STYLES = 508;
+    /** end of the table styles */
+    static final int END_TABLE_STYLES = 509;
+    /** table style options */
+    static final int TABLE_STYLE_CLIENT = 513;
+    /** start of the fills */
+    static final int BEGIN_FILLS = 603;
+    /** end of the fills */
+    static final int END_FILLS = 604;
+    /** start of the fonts */
+    static final int BEGIN_FONTS = 611;
+    /** end of the fonts */
+    static final int END_FONTS = 612;
+    /** start of the borders */
+    static final int BEGIN_BORDERS = 613;
+    /** end of the borders */
+    static final int END_BORDERS = 614;
+    /** start of the number formats */
+    static final int BEGIN_FMTS = 615;
+    /** end of the number formats */
+    static final int END_FMTS = 616;
+    /** start of the cell formats */
+    static final int BEGIN_CELL_XFS = 617;
+    /** end of the cell formats */
+    static final int END_CELL_XFS = 618;
+    /** start of the named cell styles */
+    static final int BEGIN_STYLES = 619;
+    /** end of the named cell styles */
+    static final int END_STYLES = 620;
+    /** start of the cell style formats */
+    static final int BEGIN_CELL_STYLE_XFS = 626;
+    /** end of the cell style formats */
+    static final int END_CELL_STYLE_XFS = 627;
+    /** start of the table references */
+    static final int BEGIN_LIST_PARTS = 660;
+    /** table reference */
+    static final int LIST_PART = 661;
+    /** end of the table references */
+    static final int END_LIST_PARTS = 662;
+
+    // CONSTANTS
+    /** error code for "#NUM!" */
+    static final byte ERR_NUM = 0x24;
+    /** maximum number of bytes in a record header */
+    static final int MAX_HEADER = 6;
+    /** number of columns covered by a column span in a row header */
+    static final int SPAN_COLS = 1024;
+    /** size of a row header without its column spans */
+    static final int ROW_HDR_SIZE = 17;
+    /** default row height in twips */
+    static final int ROW_HEIGHT = 300;
+    /** size of a cell header */
+    static final int CELL_HDR_SIZE = 8;
+    /** smallest integer that fits in an RK number */
+    static final int MIN_RK = -(1 << 29);
+    /** largest integer that fits in an RK number */
+    static final int MAX_RK = (1 << 29) - 1;
+    /** color type for automatic colors */
+    private static final int AUTO_COLOR = 0;
+    /** color type for indexed colors */
+    private static final int INDEXED_COLOR = 1;
+    /** fill pattern for no fill */
+    private static final int FLS_NONE = 0;
+    /** fill pattern for a solid fill */
+    private static final int FLS_SOLID = 1;
+    /** fill pattern for the 12.5% gray fill */
+    private static final int FLS_GRAY125 = 0x11;
+    /** indexed color for the system foreground */
+    private static final int SYSTEM_FORE = 64;
+    /** indexed color for the system background */
+    private static final int SYSTEM_BACK = 65;
+    /** table style used for tables */
+    static final String TABLE_STYLE = "TableStyleMedium9";
+
+    /**
+     * Create a new, empty record writer.
+     */
+    XlsbWriter() {
+        this.out = new byte[1024];
+        this.outLen = 0;
+        this.body = new byte[256];
+        this.bodyLen = 0;
+        this.type = -1;
+    }
+
+    /**
+     * Write a record header to a buffer.  The caller must insure there are {@link #MAX_HEADER} bytes of room.
+     *
+     * @param buffer	target buffer
+     * @param pos		position at which to write
+     * @param type		record type
+     * @param size		payload size in bytes
+     *
+     * @return the position after the header
+     */
+    static int putHeader(byte[] buffer, int pos, int type, int size) {
+        int retVal = pos;
+        if (type < 0x80)
+            buffer[retVal++] = (byte) type;
+        else {
+            buffer[retVal++] = (byte) (0x80 | (type & 0x7F));
+            buffer[retVal++] = (byte) (type >> 7);
+        }
+        int remaining = size;
+        while (remaining >= 0x80) {
+            buffer[retVal++] = (byte) (0x80 | (remaining & 0x7F));
+            remaining >>>= 7;
+        }
+        buffer[retVal++] = (byte) remaining;
+        return retVal;
+    }
+
+    /**
+     * Write a 4-byte integer to a buffer.
+     *
+     * @param buffer	target buffer
+     * @param pos		position at which to write
+     * @param value		value to write
+     *
+     * @return the position after the value
+     */
+    static int putInt32(byte[] buffer, int pos, int value) {
+        buffer[pos] = (byte) value;
+        buffer[pos + 1] = (byte) (value >> 8);
+        buffer[pos + 2] = (byte) (value >> 16);
+        buffer[pos + 3] = (byte) (value >> 24);
+        return pos + 4;
+    }
+
+    /**
+     * Write an 8-byte integer to a buffer.
+     *
+     * @param buffer	target buffer
+     * @param pos		position at which to write
+     * @param value		value to write
+     *
+     * @return the position after the value
+     */
+    static int putInt64(byte[] buffer, int pos, long value) {
+        putInt32(buffer, pos, (int) value);
+        return putInt32(buffer, pos + 4, (int) (value >> 32));
+    }
+
+    /**
+     * Write the characters of a string to a buffer in UTF-16.  The caller must write the character count.
+     *
+     * @param buffer	target buffer
+     * @param pos		position at which to write
+     * @param string	string to write
+     *
+     * @return the position after the characters
+     */
+    static int putChars(byte[] buffer, int pos, String string) {
+        int retVal = pos;
+        final int n = string.length();
+        for (int i = 0; i < n; i++) {
+            char ch = string.charAt(i);
+            buffer[retVal++] = (byte) ch;
+            buffer[retVal++] = (byte) (ch >> 8);
+        }
+        return retVal;
+    }
+
+    /**
+     * Start a new record.
+     *
+     * @param recordType	type of the record
+     */
+    void begin(int recordType) {
+        this.type = recordType;
+        this.bodyLen = 0;
+    }
+
+    /**
+     * Finish the current record.
+     */
+    void end() {
+        this.ensureOut(MAX_HEADER + this.bodyLen);
+        this.outLen = putHeader(this.out, this.outLen, this.type, this.bodyLen);
+        System.arraycopy(this.body, 0, this.out, this.outLen, this.bodyLen);
+        this.outLen += this.bodyLen;
+        this.type = -1;
+    }
+
+    /**
+     * Write a record with no payload.
+     *
+     * @param recordType	type of the record
+     */
+    void record(int recordType) {
+        this.begin(recordType);
+        this.end();
+    }
+
+    /**
+     * Insure there is room for more finished records.
+     *
+     * @param n		number of bytes needed
+     */
+    private void ensureOut(int n) {
+        if (this.outLen + n > this.out.length)
+            this.out = Arrays.copyOf(this.out, Math.max(this.out.length * 2, this.outLen + n));
+    }
+
+    /**
+     * Insure there is room in the current payload.
+     *
+     * @param n		number of bytes needed
+     */
+    private void ensureBody(int n) {
+        if (this.bodyLen + n > this.body.length)
+            this.body = Arrays.copyOf(this.body, Math.max(this.body.length * 2, this.bodyLen + n));
+    }
+
+    /**
+     * Add a 1-byte integer to the current payload.
+     *
+     * @param value		value to add
+     */
+    void int8(int value) {
+        this.ensureBody(1);
+        this.body[this.bodyLen++] = (byte) value;
+    }
+
+    /**
+     * Add a 2-byte integer to the current payload.
+     *
+     * @param value		value to add
+     */
+    void int16(int value) {
+        this.ensureBody(2);
+        this.body[this.bodyLen++] = (byte) value;
+        this.body[this.bodyLen++] = (byte) (value >> 8);
+    }
+
+    /**
+     * Add a 4-byte integer to the current payload.
+     *
+     * @param value		value to add
+     */
+    void int32(int value) {
+        this.ensureBody(4);
+        this.bodyLen = putInt32(this.body, this.bodyLen, value);
+    }
+
+    /**
+     * Add a floating-point number to the current payload.
+     *
+     * @param value		value to add
+     */
+    void float64(double value) {
+        this.ensureBody(8);
+        this.bodyLen = putInt64(this.body, this.bodyLen, Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Add a string to the current payload.  A null string is written as a count of -1, which is only
+     * valid where the string is optional.
+     *
+     * @param value		string to add, or NULL for a null string
+     */
+    void string(String value) {
+        if (value == null)
+            this.int32(-1);
+        else {
+            this.int32(value.length());
+            this.ensureBody(value.length() * 2);
+            this.bodyLen = putChars(this.body, this.bodyLen, value);
+        }
+    }
+
+    /**
+     * Add a color to the current payload.
+     *
+     * @param colorType		color type
+     * @param index			color index (for indexed colors)
+     */
+    void color(int colorType, int index) {
+        // The low bit is the valid-RGB flag, which we leave off.
+        this.int8(colorType << 1);
+        this.int8(index);
+        this.int16(0);
+        this.int8(0);
+        this.int8(0);
+        this.int8(0);
+        this.int8(0xFF);
+    }
+
+    /**
+     * Add a cell range to the current payload.
+     *
+     * @param firstRow		first row index (0-based)
+     * @param lastRow		last row index (0-based)
+     * @param firstCol		first column index (0-based)
+     * @param lastCol		last column index (0-based)
+     */
+    void range(int firstRow, int lastRow, int firstCol, int lastCol) {
+        this.int32(firstRow);
+        this.int32(lastRow);
+        this.int32(firstCol);
+        this.int32(lastCol);
+    }
+
+    /**
+     * @return the finished records
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(this.out, this.outLen);
+    }
+
+    /**
+     * @return the records at the start of a worksheet, through the start of the sheet data
+     *
+     * @param widths	width of each column in characters
+     */
+    static byte[] sheetStart(int[] widths) {
+        XlsbWriter writer = new XlsbWriter();
+        writer.record(BEGIN_SHEET);
+        if (widths.length > 0) {
+            writer.record(BEGIN_COL_INFOS);
+            for (int c = 0; c < widths.length; c++) {
+                writer.begin(COL_INFO);
+                writer.int32(c);
+                writer.int32(c);
+                writer.int32(widths[c] * 256);
+                writer.int32(0);
+                // This is the user-set flag, which corresponds to a custom width.
+                writer.int16(0x0002);
+                writer.end();
+            }
+            writer.record(END_COL_INFOS);
+        }
+        writer.record(BEGIN_SHEET_DATA);
+        return writer.toByteArray();
+    }
+
+    /**
+     * @return the records at the end of a worksheet, starting with the end of the sheet data
+     *
+     * @param links		hyperlinks in the sheet
+     * @param table		TRUE if the sheet has a table
+     */
+    static byte[] sheetEnd(List<DirectWorkbook.Link> links, boolean table) {
+        XlsbWriter writer = new XlsbWriter();
+        writer.record(END_SHEET_DATA);
+        for (int i = 0; i < links.size(); i++) {
+            DirectWorkbook.Link link = links.get(i);
+            writer.begin(HLINK);
+            writer.range(link.row(), link.row(), link.col(), link.col());
+            writer.string(DirectWorkbook.linkRelId(i));
+            // These are the location, tooltip, and display text, which we leave empty.
+            writer.string("");
+            writer.string("");
+            writer.string("");
+            writer.end();
+        }
+        if (table) {
+            writer.begin(BEGIN_LIST_PARTS);
+            writer.int32(1);
+            writer.end();
+            writer.begin(LIST_PART);
+            writer.string(DirectWorkbook.TABLE_REL_ID);
+            writer.end();
+            writer.record(END_LIST_PARTS);
+        }
+        writer.record(END_SHEET);
+        return writer.toByteArray();
+    }
+
+    /**
+     * @return the workbook part
+     *
+     * @param sheetNames	names of the sheets, in order
+     */
+    static byte[] workbook(List<String> sheetNames) {
+        XlsbWriter writer = new XlsbWriter();
+        // Besides the sheet list, Excel expects the file version, workbook properties, window, and
+        // calculation properties in every workbook part.
+        writer.record(BEGIN_BOOK);
+        writer.begin(FILE_VERSION);
+        // The code-name GUID is empty, and the application versions are those of Excel 2007.
+        for (int i = 0; i < 4; i++)
+            writer.int32(0);
+        writer.string("xl");
+        writer.string("4");
+        writer.string("4");
+        writer.string("4505");
+        writer.end();
+        writer.begin(WB_PROP);
+        // Dates are based on 1900, ink annotations are shown, and pictures are compressed.  There is no
+        // theme and no code name.
+        writer.int32(0x00010020);
+        writer.int32(0);
+        writer.string(null);
+        writer.end();
+        writer.record(BEGIN_BOOK_VIEWS);
+        writer.begin(BOOK_VIEW);
+        // The window position and size are in twips.  The tab bar takes 60% of the scroll bar area, and the
+        // first sheet is both the first tab shown and the active sheet.
+        writer.int32(0);
+        writer.int32(0);
+        writer.int32(28800);
+        writer.int32(12300);
+        writer.int32(600);
+        writer.int32(0);
+        writer.int32(0);
+        // Both scroll bars and the sheet tabs are shown, and dates are grouped in auto-filters.
+        writer.int8(0x78);
+        writer.end();
+        writer.record(END_BOOK_VIEWS);
+        writer.record(BEGIN_BUNDLE_SHS);
+        for (int i = 1; i <= sheetNames.size(); i++) {
+            writer.begin(BUNDLE_SH);
+            // The sheet is visible, its tab ID is its position, and its relationship ID matches the position.
+            writer.int32(0);
+            writer.int32(i);
+            writer.string("rId" + i);
+            writer.string(sheetNames.get(i - 1));
+            writer.end();
+        }
+        writer.record(END_BUNDLE_SHS);
+        writer.begin(CALC_PROP);
+        // Calculation is automatic with A1 references, full precision, and multiple threads, and the
+        // iteration settings are the defaults.
+        writer.int32(0);
+        writer.int32(1);
+        writer.int32(100);
+        writer.float64(0.001);
+        writer.int32(1);
+        writer.int16(0x006A);
+        writer.end();
+        writer.record(END_BOOK);
+        return writer.toByteArray();
+    }
+
+    /**
+     * @return the styles part
+     *
+     * @param formatCodes	custom number format codes, in ID order
+     */
+    static byte[] styles(String[] formatCodes) {
+        XlsbWriter writer = new XlsbWriter();
+        writer.record(BEGIN_STYLE_SHEET);
+        writer.begin(BEGIN_FMTS);
+        writer.int32(formatCodes.length);
+        writer.end();
+        for (int i = 0; i < formatCodes.length; i++) {
+            writer.begin(FMT);
+            writer.int16(DirectWorkbook.FIRST_FORMAT + i);
+            writer.string(formatCodes[i]);
+            writer.end();
+        }
+        writer.record(END_FMTS);
+        writer.begin(BEGIN_FONTS);
+        writer.int32(2);
+        writer.end();
+        writer.font(false);
+        writer.font(true);
+        writer.record(END_FONTS);
+        writer.begin(BEGIN_FILLS);
+        writer.int32(2 + DirectWorkbook.FILL_COLORS.length);
+        writer.end();
+        writer.fill(FLS_NONE, SYSTEM_FORE);
+        writer.fill(FLS_GRAY125, SYSTEM_FORE);
+        for (int color : DirectWorkbook.FILL_COLORS)
+            writer.fill(FLS_SOLID, color);
+        writer.record(END_FILLS);
+        writer.begin(BEGIN_BORDERS);
+        writer.int32(1);
+        writer.end();
+        writer.begin(BORDER);
+        writer.int8(0);
+        // These are the top, bottom, left, right, and diagonal borders, all empty.
+        for (int i = 0; i < 5; i++) {
+            writer.int8(0);
+            writer.int8(0);
+            writer.color(AUTO_COLOR, 0);
+        }
+        writer.end();
+        writer.record(END_BORDERS);
+        writer.begin(BEGIN_CELL_STYLE_XFS);
+        writer.int32(1);
+        writer.end();
+        writer.xf(0xFFFF, new int[] { 0, 0, 0, DirectWorkbook.GENERAL, 0 }, 0);
+        writer.record(END_CELL_STYLE_XFS);
+        writer.begin(BEGIN_CELL_XFS);
+        writer.int32(DirectWorkbook.XF_SPECS.length);
+        writer.end();
+        for (int[] spec : DirectWorkbook.XF_SPECS) {
+            int applied = (spec[0] != 0 ? 0x01 : 0) | (spec[1] != 0 ? 0x02 : 0) | (spec[2] != 0 ? 0x10 : 0)
+                    | (spec[3] != DirectWorkbook.GENERAL || spec[4] != 0 ? 0x04 : 0);
+            writer.xf(0, spec, applied);
+        }
+        writer.record(END_CELL_XFS);
+        writer.begin(BEGIN_STYLES);
+        writer.int32(1);
+        writer.end();
+        writer.begin(STYLE);
+        writer.int32(0);
+        writer.int16(0x0001);
+        writer.int8(0);
+        writer.int8(0xFF);
+        writer.string("Normal");
+        writer.end();
+        writer.record(END_STYLES);
+        writer.begin(BEGIN_DXFS);
+        writer.int32(0);
+        writer.end();
+        writer.record(END_DXFS);
+        writer.begin(BEGIN_TABLE_STYLES);
+        writer.int32(0);
+        writer.string(TABLE_STYLE);
+        writer.string("PivotStyleLight16");
+        writer.end();
+        writer.record(END_TABLE_STYLES);
+        writer.record(END_STYLE_SHEET);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Write a font record.  The font is 11-point Calibri.
+     *
+     * @param link		TRUE for the hyperlink font (underlined indigo), FALSE for the normal font
+     */
+    private void font(boolean link) {
+        this.begin(FONT);
+        this.int16(220);
+        this.int16(0);
+        this.int16(400);
+        this.int16(0);
+        this.int8(link ? 1 : 0);
+        // This is the font family (swiss), the character set, and an unused byte.
+        this.int8(2);
+        this.int8(0);
+        this.int8(0);
+        if (link)
+            this.color(INDEXED_COLOR, DirectWorkbook.LINK_COLOR);
+        else
+            this.color(AUTO_COLOR, 0);
+        this.int8(0);
+        this.string("Calibri");
+        this.end();
+    }
+
+    /**
+     * Write a fill record.
+     *
+     * @param pattern	fill pattern
+     * @param color		indexed foreground color
+     */
+    private void fill(int pattern, int color) {
+        this.begin(FILL);
+        this.int32(pattern);
+        this.color(INDEXED_COLOR, color);
+        this.color(INDEXED_COLOR, (pattern == FLS_SOLID ? SYSTEM_FORE : SYSTEM_BACK));
+        // The rest describes a gradient, which we do not use.
+        this.int32(0);
+        for (int i = 0; i < 5; i++)
+            this.float64(0.0);
+        this.int32(0);
+        this.end();
+    }
+
+    /**
+     * Write a cell format record.
+     *
+     * @param parent	index of the parent cell style format, or 0xFFFF for a cell style format
+     * @param spec		format specification (see {@link DirectWorkbook#XF_SPECS})
+     * @param applied	bit mask of the attribute groups that differ from the parent
+     */
+    private void xf(int parent, int[] spec, int applied) {
+        this.begin(XF);
+        this.int16(parent);
+        this.int16(spec[0]);
+        this.int16(spec[1]);
+        this.int16(spec[2]);
+        this.int16(0);
+        // This is the text rotation and indent.
+        this.int8(0);
+        this.int8(0);
+        // The vertical alignment is 0 for top and 2 for bottom, and the locked bit is set.
+        int vertical = (spec[4] != 0 ? 0 : 2);
+        this.int16(spec[3] | (vertical << 3) | 0x1000);
+        this.int16(applied);
+        this.end();
+    }
+
+    /**
+     * @return the table part
+     *
+     * @param tableIdentifier	identifying information for the table
+     * @param displayName		display name of the table
+     * @param headers			column names of the table
+     * @param lastRow			index of the table's last row (0-based)
+     */
+    static byte[] table(TableName tableIdentifier, String displayName, List<String> headers, int lastRow) {
+        XlsbWriter writer = new XlsbWriter();
+        final int n = headers.size();
+        writer.begin(BEGIN_LIST);
+        writer.range(0, lastRow, 0, n - 1);
+        // This is a worksheet table with a header row, no totals row, and no special options.
+        writer.int32(0);
+        writer.int32((int) tableIdentifier.getNum());
+        writer.int32(1);
+        writer.int32(0);
+        writer.int32(0);
+        // There are no differential formats for the header, data, totals, or borders.
+        for (int i = 0; i < 6; i++)
+            writer.int32(-1);
+        writer.int32(0);
+        writer.string(tableIdentifier.getId());
+        writer.string(displayName);
+        // There is no comment and there are no cell styles.
+        for (int i = 0; i < 4; i++)
+            writer.string(null);
+        writer.end();
+        writer.begin(BEGIN_A_FILTER);
+        writer.range(0, lastRow, 0, n - 1);
+        writer.end();
+        writer.record(END_A_FILTER);
+        writer.begin(BEGIN_LIST_COLS);
+        writer.int32(n);
+        writer.end();
+        for (int i = 0; i < n; i++) {
+            String name = headers.get(i);
+            writer.begin(BEGIN_LIST_COL);
+            writer.int32(i + 1);
+            writer.int32(0);
+            for (int k = 0; k < 3; k++)
+                writer.int32(-1);
+            writer.int32(0);
+            // The unique name and the caption are both the column name.  There is no totals label or style.
+            writer.string(name);
+            writer.string(name);
+            for (int k = 0; k < 4; k++)
+                writer.string(null);
+            writer.end();
+            writer.record(END_LIST_COL);
+        }
+        writer.record(END_LIST_COLS);
+        writer.begin(TABLE_STYLE_CLIENT);
+        // Only the row stripes are shown.
+        writer.int16(0x0004);
+        writer.string(TABLE_STYLE);
+        writer.end();
+        writer.record(END_LIST);
+        return writer.toByteArray();
+    }
+
+}
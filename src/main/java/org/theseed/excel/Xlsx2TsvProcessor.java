@@ -0,0 +1,307 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.basic.BaseProcessor;
+import org.theseed.basic.ParseFailureException;
+
+/**
+ * This command exports the sheets of a workbook to tab-delimited files.  The workbook is read with the
+ * event API and written through a file channel, so memory use is constant regardless of the workbook size.
+ * Each sheet is written to a file in the output directory named after the sheet (converted to a safe
+ * name by {@link TableName#fix}) with the extension ".tbl".  If two sheets have the same safe name, a
+ * number is added to the later one's file name.
+ *
+ * If a marker is specified, the rows of each sheet are skipped up to and including the first row whose
+ * first column contains the marker text, as in {@link ExcelUtils#findMarker}.  A sheet without the
+ * marker produces no output.  The first row written is taken as the header row, and the columns to
+ * export can be selected by header name or by 1-based column index.
+ *
+ * Strings are trimmed, and any tabs or line breaks inside them are converted to spaces.  Whole numbers are
+ * written without a decimal point.
+ *
+ * The positional parameter is the name of the input workbook.
+ *
+ * The command-line options are as follows.
+ *
+ * -h	display command-line usage
+ * -v	display more detailed log messages
+ * -o	output directory (default is the current directory)
+ *
+ * --sheet		name of the sheet to export (default is all sheets)
+ * --cols		comma-delimited list of column names or 1-based indices to export (default is all columns)
+ * --marker		if specified, the first-column text of the marker row after which the data begins
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class Xlsx2TsvProcessor extends BaseProcessor {
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(Xlsx2TsvProcessor.class);
+    /** list of column specifications to export, or NULL to export all columns */
+    private List<String> colSpecs;
+    /** output buffer */
+    private ByteBuffer buffer;
+    /** size of the output buffer */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // COMMAND-LINE OPTIONS
+
+    /** output directory */
+    @Option(name = "--outDir", aliases = { "-o" }, metaVar = "outDir", usage = "output directory")
+    private File outDir;
+
+    /** name of the sheet to export */
+    @Option(name = "--sheet", metaVar = "Sheet1", usage = "name of the sheet to export (default all)")
+    private String sheetName;
+
+    /** comma-delimited list of columns to export */
+    @Option(name = "--cols", metaVar = "fid,3,name", usage = "comma-delimited list of columns to export (default all)")
+    private String colList;
+
+    /** marker text for the row before the data */
+    @Option(name = "--marker", metaVar = "DATA", usage = "first-column text of the row after which the data begins")
+    private String marker;
+
+    /** input workbook */
+    @Argument(index = 0, metaVar = "inFile.xlsx", usage = "input workbook", required = true)
+    private File inFile;
+
+    @Override
+    protected void setDefaults() {
+        this.outDir = new File(System.getProperty("user.dir"));
+        this.sheetName = null;
+        this.colList = null;
+        this.marker = null;
+    }
+
+    @Override
+    protected void validateParms() throws IOException, ParseFailureException {
+        if (! this.inFile.canRead())
+            throw new IOException("Input workbook " + this.inFile + " is not found or unreadable.");
+        if (! this.outDir.isDirectory())
+            throw new IOException("Output directory " + this.outDir + " is not found or invalid.");
+        if (this.colList == null)
+            this.colSpecs = null;
+        else {
+            this.colSpecs = new ArrayList<>();
+            for (String spec : StringUtils.split(this.colList, ','))
+                this.colSpecs.add(spec.trim());
+            if (this.colSpecs.isEmpty())
+                throw new ParseFailureException("Column list is empty.");
+        }
+    }
+
+    @Override
+    protected void runCommand() throws Exception {
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        int found = 0;
+        Set<String> fileNames = new HashSet<>();
+        try (OPCPackage pkg = OPCPackage.open(this.inFile, PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(pkg);
+            try (MappedSharedStrings strings = MappedSharedStrings.load(reader)) {
+                XSSFReader.SheetIterator iter = (XSSFReader.SheetIterator) reader.getSheetsData();
+                while (iter.hasNext()) {
+                    try (InputStream sheetStream = iter.next()) {
+                        String name = iter.getSheetName();
+                        if (this.sheetName == null || this.sheetName.equals(name)) {
+                            found++;
+                            File outFile = new File(this.outDir, outputName(name, fileNames));
+                            try (SheetRowReader rows = new SheetRowReader(sheetStream, strings)) {
+                                long count = this.exportSheet(rows, outFile);
+                                if (count < 0)
+                                    log.warn("Marker \"{}\" not found in sheet {}.", this.marker, name);
+                                else
+                                    log.info("{} data rows written from sheet {} to {}.", count, name, outFile);
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (OpenXML4JException e) {
+            throw new IOException("Error opening workbook: " + e.toString(), e);
+        }
+        if (found == 0 && this.sheetName != null)
+            throw new ParseFailureException("Sheet \"" + this.sheetName + "\" not found in " + this.inFile + ".");
+    }
+
+    /**
+     * @return a unique output file name for a sheet
+     *
+     * @param name			name of the sheet
+     * @param fileNames		set of file names already used; the new name is added
+     */
+    private static String outputName(String name, Set<String> fileNames) {
+        String base = TableName.fix(name);
+        String retVal = base + ".tbl";
+        if (! fileNames.add(retVal)) {
+            // Different sheet names can have the same safe form, so we add a number.
+            for (int k = 2; ! fileNames.add(retVal); k++)
+                retVal = base + "_" + k + ".tbl";
+            log.warn("Sheet {} is written to {} because its default file name is in use.", name, retVal);
+        }
+        return retVal;
+    }
+
+    /**
+     * Export a sheet to a tab-delimited file.
+     *
+     * @param rows		row reader for the sheet
+     * @param outFile	output file
+     *
+     * @return the number of data rows written, or -1 if a marker was specified and not found
+     *
+     * @throws IOException
+     * @throws ParseFailureException
+     */
+    private long exportSheet(SheetRowReader rows, File outFile) throws IOException, ParseFailureException {
+        long retVal = -1;
+        Object[] row = rows.next();
+        // Skip to the marker.
+        boolean found = true;
+        if (this.marker != null) {
+            found = false;
+            while (row != null && ! found) {
+                found = (row.length > 0 && SheetRowReader.stringValue(row[0]).contentEquals(this.marker));
+                row = rows.next();
+            }
+        }
+        if (found) {
+            retVal = 0;
+            try (FileChannel channel = FileChannel.open(outFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                // An empty sheet produces an empty file.  Otherwise, the first row is the header row, which
+                // determines the columns.
+                if (row != null) {
+                    int[] cols = this.computeColumns(row);
+                    this.writeRow(channel, row, cols);
+                    for (row = rows.next(); row != null; row = rows.next()) {
+                        this.writeRow(channel, row, cols);
+                        retVal++;
+                    }
+                }
+                this.flush(channel);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the indices of the columns to export
+     *
+     * @param headers	header row
+     *
+     * @throws ParseFailureException
+     */
+    private int[] computeColumns(Object[] headers) throws ParseFailureException {
+        int[] retVal;
+        if (this.colSpecs == null) {
+            retVal = new int[headers.length];
+            for (int i = 0; i < headers.length; i++)
+                retVal[i] = i;
+        } else {
+            retVal = new int[this.colSpecs.size()];
+            for (int i = 0; i < retVal.length; i++) {
+                String spec = this.colSpecs.get(i);
+                int col = -1;
+                for (int c = 0; c < headers.length && col < 0; c++) {
+                    if (spec.equals(SheetRowReader.stringValue(headers[c])))
+                        col = c;
+                }
+                if (col < 0 && StringUtils.isNumeric(spec))
+                    col = Integer.parseInt(spec) - 1;
+                if (col < 0)
+                    throw new ParseFailureException("Column \"" + spec + "\" not found.");
+                retVal[i] = col;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Write a row of cells to the output.
+     *
+     * @param channel	output channel
+     * @param row		cell values for the row
+     * @param cols		indices of the columns to write
+     *
+     * @throws IOException
+     */
+    private void writeRow(FileChannel channel, Object[] row, int[] cols) throws IOException {
+        StringBuilder line = new StringBuilder(cols.length * 10);
+        for (int i = 0; i < cols.length; i++) {
+            if (i > 0)
+                line.append('\t');
+            int c = cols[i];
+            if (c < row.length && row[c] != null)
+                line.append(formatValue(row[c]));
+        }
+        line.append('\n');
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > this.buffer.remaining()) {
+            this.flush(channel);
+            if (bytes.length > this.buffer.capacity())
+                channel.write(ByteBuffer.wrap(bytes));
+            else
+                this.buffer.put(bytes);
+        } else
+            this.buffer.put(bytes);
+    }
+
+    /**
+     * @return the output form of a cell value
+     *
+     * @param value		cell value (a string or a double)
+     */
+    private static String formatValue(Object value) {
+        String retVal;
+        if (value instanceof Double d) {
+            double v = d;
+            if (v == Math.rint(v) && Math.abs(v) < 1e15)
+                retVal = Long.toString((long) v);
+            else
+                retVal = Double.toString(v);
+        } else
+            retVal = StringUtils.replaceChars(StringUtils.trim(value.toString()), "\t\r\n", "   ");
+        return retVal;
+    }
+
+    /**
+     * Write the output buffer to the channel.
+     *
+     * @param channel	output channel
+     *
+     * @throws IOException
+     */
+    private void flush(FileChannel channel) throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining())
+            channel.write(this.buffer);
+        this.buffer.clear();
+    }
+
+}
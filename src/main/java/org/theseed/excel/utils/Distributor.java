@@ -8,12 +8,13 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.stream.Collectors;
 
+import org.apache.poi.ss.SpreadsheetVersion;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.theseed.basic.ParseFailureException;
 import org.theseed.excel.CustomWorkbook;
+import org.theseed.excel.WorkbookListener;
 
 /**
  * This object creates a distribution spreadsheet.  The constructor passes in a minimum, a maximum, and a number
@@ -21,11 +22,26 @@ import org.theseed.excel.CustomWorkbook;
  * the appropriate bucket.  A method is provided to write the results to an Excel spreadsheet in the form of a
  * table.  Each row is a bucket and each column is a series name.
  *
+ * For large numbers of series, the spreadsheet can be written in long format instead, with one row for each
+ * series/bucket pair.  In either layout, the output is paged across multiple sheets if it would exceed the
+ * size limits of a sheet, and it is written through a streaming workbook so that the save time is linear
+ * in the number of cells.
+ *
  * @author Bruce Parrello
  *
  */
 public class Distributor {
 
+    /**
+     * This enum describes the possible spreadsheet layouts.
+     */
+    public static enum Layout {
+        /** one row per bucket, one column per series */
+        WIDE,
+        /** one row per series/bucket pair, with columns for the series name, bucket minimum, and count */
+        LONG;
+    }
+
     // FIELDS
     /** logging facility */
     private static final Logger log = LoggerFactory.getLogger(Distributor.class);
@@ -39,6 +55,19 @@ public class Distributor {
     private double minimum;
     /** recommended display precision for floating-point */
     private int precision;
+    /** maximum number of series columns per sheet in the wide layout */
+    private int pageWidth;
+    /** listener for spreadsheet generation metrics, or NULL if there is none */
+    private WorkbookListener listener;
+    /** default maximum number of series columns per sheet; POI's table construction is quadratic in the
+     * column count, so we keep the default well below Excel's limit */
+    public static final int DEFAULT_PAGE_WIDTH = 1000;
+    /** maximum number of series columns per sheet allowed by Excel (one column is reserved for the bucket) */
+    public static final int MAX_PAGE_WIDTH = SpreadsheetVersion.EXCEL2007.getMaxColumns() - 1;
+    /** maximum number of data rows per sheet (one row is reserved for the headers) */
+    private static final int MAX_PAGE_ROWS = SpreadsheetVersion.EXCEL2007.getMaxRows() - 1;
+    /** base name for distribution sheets */
+    private static final String SHEET_NAME = "Distribution";
 
     /**
      * Construct a distributor.
@@ -64,6 +93,27 @@ public class Distributor {
         int divisor = (int) Math.ceil(Math.log10(Math.abs(n))) + 1;
         this.precision = 0;
         if (digits - divisor < 0) this.precision = divisor - digits;
+        this.pageWidth = DEFAULT_PAGE_WIDTH;
+    }
+
+    /**
+     * Specify the maximum number of series columns per sheet in the wide layout.
+     *
+     * @param width		new maximum width (at least 1 and no more than {@link #MAX_PAGE_WIDTH})
+     */
+    public void setPageWidth(int width) {
+        if (width < 1 || width > MAX_PAGE_WIDTH)
+            throw new IllegalArgumentException("Page width must be between 1 and " + MAX_PAGE_WIDTH + ".");
+        this.pageWidth = width;
+    }
+
+    /**
+     * Specify a listener to monitor spreadsheet generation when the distribution is saved.
+     *
+     * @param listener		listener to use, or NULL to turn off monitoring
+     */
+    public void setListener(WorkbookListener listener) {
+        this.listener = listener;
     }
 
     /**
@@ -115,22 +165,55 @@ public class Distributor {
     }
 
     /**
-     * Save a spreadsheet for this distribution.
+     * Save a spreadsheet for this distribution in the wide layout.
      *
      * @param outFile	name of the file in which to store the spreadsheet
      */
     public void save(File outFile) {
-        try (CustomWorkbook workbook = CustomWorkbook.create(outFile)) {
-            log.info("Saving distribution data to {}.", outFile);
-            workbook.addSheet("Distribution", true);
+        this.save(outFile, Layout.WIDE);
+    }
+
+    /**
+     * Save a spreadsheet for this distribution.
+     *
+     * @param outFile	name of the file in which to store the spreadsheet
+     * @param layout	layout to use for the distribution data
+     */
+    public void save(File outFile, Layout layout) {
+        try (CustomWorkbook workbook = CustomWorkbook.createStreaming(outFile)) {
+            log.info("Saving distribution data for {} series to {}.", this.bucketMap.size(), outFile);
+            workbook.setListener(this.listener);
             workbook.setPrecision(this.precision);
-            // Get an ordered list of the buckets.
-            var names = this.bucketMap.keySet();
-            var bucketList = names.stream().map(x -> this.bucketMap.get(x)).collect(Collectors.toList());
+            switch (layout) {
+            case WIDE -> this.saveWide(workbook);
+            case LONG -> this.saveLong(workbook);
+            }
+        }
+    }
+
+    /**
+     * Write the distribution in the wide layout.  Each group of series that fits in a sheet gets its own
+     * sheet.
+     *
+     * @param workbook	output workbook
+     */
+    private void saveWide(CustomWorkbook workbook) {
+        // Get an ordered list of the series names.
+        List<String> names = new ArrayList<>(this.bucketMap.keySet());
+        final int nNames = names.size();
+        int page = 1;
+        int start = 0;
+        do {
+            int end = Math.min(nNames, start + this.pageWidth);
+            workbook.addSheet(pageName(page), true);
+            List<String> pageNames = names.subList(start, end);
+            int[][] bucketList = new int[pageNames.size()][];
+            for (int i = 0; i < bucketList.length; i++)
+                bucketList[i] = this.bucketMap.get(pageNames.get(i));
             // Create the header list.
-            List<String> headers = new ArrayList<>(nBuckets + 1);
+            List<String> headers = new ArrayList<>(pageNames.size() + 1);
             headers.add("bucket_min");
-            headers.addAll(names);
+            headers.addAll(pageNames);
             workbook.setHeaders(headers);
             // Now loop through the rows (one per bucket), filling in the cells.
             for (int idx = 0; idx < this.nBuckets; idx++) {
@@ -139,7 +222,54 @@ public class Distributor {
                 for (int[] buckets : bucketList)
                     workbook.storeCell(buckets[idx]);
             }
+            page++;
+            start = end;
+        } while (start < nNames);
+    }
+
+    /**
+     * Write the distribution in the long layout.  A new sheet is started whenever the current one is full.
+     *
+     * @param workbook	output workbook
+     */
+    private void saveLong(CustomWorkbook workbook) {
+        final List<String> headers = List.of("series", "bucket_min", "count");
+        int page = 1;
+        int rowCount = MAX_PAGE_ROWS;
+        for (Map.Entry<String, int[]> seriesEntry : this.bucketMap.entrySet()) {
+            String name = seriesEntry.getKey();
+            int[] buckets = seriesEntry.getValue();
+            for (int idx = 0; idx < this.nBuckets; idx++) {
+                if (rowCount >= MAX_PAGE_ROWS) {
+                    workbook.addSheet(pageName(page), true);
+                    workbook.setHeaders(headers);
+                    page++;
+                    rowCount = 0;
+                }
+                workbook.addRow();
+                workbook.storeCell(name);
+                workbook.storeCell(this.getLower(idx));
+                workbook.storeCell(buckets[idx]);
+                rowCount++;
+            }
+        }
+        // Insure we have at least one sheet, even if there is no data.
+        if (page == 1) {
+            workbook.addSheet(pageName(page), true);
+            workbook.setHeaders(headers);
         }
     }
 
+    /**
+     * @return the name of the sheet for the specified page
+     *
+     * @param page	page number (1-based)
+     */
+    private static String pageName(int page) {
+        String retVal = SHEET_NAME;
+        if (page > 1)
+            retVal = String.format("%s (%d)", SHEET_NAME, page);
+        return retVal;
+    }
+
 }
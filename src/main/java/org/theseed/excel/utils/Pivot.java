@@ -0,0 +1,566 @@
+/**
+ *
+ */
+package org.theseed.excel.utils;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.excel.CustomWorkbook;
+import org.theseed.excel.WorkbookListener;
+
+/**
+ * This object builds a pivot table:  a summary of numeric values grouped by a row key and a column key.
+ * Each input record has a row key, a column key, and a value.  The keys are interned to integers, and the
+ * count, sum, minimum, and maximum for each key pair are kept in primitive arrays indexed through an
+ * open-addressing hash table, so that very large numbers of records can be aggregated without boxing.
+ *
+ * The pivot is written as a table through a streaming {@link CustomWorkbook}.  In the wide layout, there
+ * is one row per row key and one column per column key.  In the long layout, there is one row per key pair
+ * that has data.  The keys are sorted in both layouts.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class Pivot {
+
+    /**
+     * This enum describes the statistics that can be displayed for a key pair.
+     */
+    public static enum Stat {
+        /** number of values */
+        COUNT,
+        /** total of the values */
+        SUM,
+        /** mean of the values */
+        MEAN,
+        /** smallest value */
+        MIN,
+        /** largest value */
+        MAX;
+    }
+
+    /**
+     * This enum describes the possible spreadsheet layouts.
+     */
+    public static enum Layout {
+        /** one row per row key, one column per column key */
+        WIDE,
+        /** one row per key pair, with columns for the row key, the column key, and the statistic */
+        LONG;
+    }
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(Pivot.class);
+    /** title of the row-key column */
+    private final String rowTitle;
+    /** title of the column-key column in the long layout */
+    private final String colTitle;
+    /** interned row keys */
+    private final KeyTable rowKeys;
+    /** interned column keys */
+    private final KeyTable colKeys;
+    /** hash table of key pairs to aggregate indices */
+    private long[] slotPairs;
+    /** aggregate index for each hash slot (-1 for an empty slot) */
+    private int[] slotIdx;
+    /** number of key pairs */
+    private int nPairs;
+    /** value count for each key pair */
+    private long[] counts;
+    /** value total for each key pair */
+    private double[] sums;
+    /** minimum value for each key pair */
+    private double[] mins;
+    /** maximum value for each key pair */
+    private double[] maxs;
+    /** listener for spreadsheet generation metrics, or NULL if there is none */
+    private WorkbookListener listener;
+    /** maximum number of column keys in the wide layout (one column is reserved for the row key) */
+    public static final int MAX_WIDE_COLUMNS = SpreadsheetVersion.EXCEL2007.getMaxColumns() - 1;
+    /** initial number of aggregate slots */
+    private static final int INITIAL_SIZE = 1024;
+
+    /**
+     * This class interns strings to consecutive integers using an open-addressing hash table.
+     */
+    private static class KeyTable {
+
+        /** interned strings, indexed by ID */
+        private String[] names;
+        /** hash codes of the interned strings, indexed by ID */
+        private int[] hashes;
+        /** number of interned strings */
+        private int size;
+        /** hash table of IDs (each entry is the ID plus one, or 0 for an empty slot) */
+        private int[] slots;
+
+        /**
+         * Create an empty key table.
+         */
+        protected KeyTable() {
+            this.names = new String[64];
+            this.hashes = new int[64];
+            this.size = 0;
+            this.slots = new int[128];
+        }
+
+        /**
+         * @return the ID for a key, interning it if it is new
+         *
+         * @param key		key to intern
+         */
+        protected int intern(String key) {
+            final int hash = key.hashCode();
+            int mask = this.slots.length - 1;
+            int pos = mix(hash) & mask;
+            int retVal = -1;
+            while (retVal < 0) {
+                int entry = this.slots[pos];
+                if (entry == 0) {
+                    // Here we have a new key.
+                    retVal = this.add(key, hash, pos);
+                } else if (this.hashes[entry - 1] == hash && this.names[entry - 1].equals(key))
+                    retVal = entry - 1;
+                else
+                    pos = (pos + 1) & mask;
+            }
+            return retVal;
+        }
+
+        /**
+         * @return the ID of a key, or -1 if it has not been interned
+         *
+         * @param key		key to find
+         */
+        protected int find(String key) {
+            final int hash = key.hashCode();
+            int mask = this.slots.length - 1;
+            int pos = mix(hash) & mask;
+            int retVal = -1;
+            int entry = this.slots[pos];
+            while (entry != 0 && retVal < 0) {
+                if (this.hashes[entry - 1] == hash && this.names[entry - 1].equals(key))
+                    retVal = entry - 1;
+                else {
+                    pos = (pos + 1) & mask;
+                    entry = this.slots[pos];
+                }
+            }
+            return retVal;
+        }
+
+        /**
+         * Add a new key to the table.
+         *
+         * @param key		key to add
+         * @param hash		hash code of the key
+         * @param pos		empty slot for the key
+         *
+         * @return the ID of the new key
+         */
+        private int add(String key, int hash, int pos) {
+            int retVal = this.size;
+            if (retVal >= this.names.length) {
+                this.names = Arrays.copyOf(this.names, retVal * 2);
+                this.hashes = Arrays.copyOf(this.hashes, retVal * 2);
+            }
+            this.names[retVal] = key;
+            this.hashes[retVal] = hash;
+            this.size++;
+            this.slots[pos] = this.size;
+            // Keep the load factor at or below one half.
+            if (this.size * 2 > this.slots.length) {
+                this.slots = new int[this.slots.length * 2];
+                int mask = this.slots.length - 1;
+                for (int i = 0; i < this.size; i++) {
+                    int p = mix(this.hashes[i]) & mask;
+                    while (this.slots[p] != 0)
+                        p = (p + 1) & mask;
+                    this.slots[p] = i + 1;
+                }
+            }
+            return retVal;
+        }
+
+        /**
+         * @return the key with the specified ID
+         *
+         * @param id	ID of the key
+         */
+        protected String get(int id) {
+            return this.names[id];
+        }
+
+        /**
+         * @return the number of keys
+         */
+        protected int size() {
+            return this.size;
+        }
+
+        /**
+         * @return the key IDs, sorted by key
+         */
+        protected int[] sortedIds() {
+            Integer[] ids = new Integer[this.size];
+            for (int i = 0; i < this.size; i++)
+                ids[i] = i;
+            Arrays.sort(ids, Comparator.comparing(i -> this.names[i]));
+            return Arrays.stream(ids).mapToInt(Integer::intValue).toArray();
+        }
+
+    }
+
+    /**
+     * Construct an empty pivot.
+     *
+     * @param rowTitle		title for the row keys
+     * @param colTitle		title for the column keys (used in the long layout)
+     */
+    public Pivot(String rowTitle, String colTitle) {
+        this.rowTitle = rowTitle;
+        this.colTitle = colTitle;
+        this.rowKeys = new KeyTable();
+        this.colKeys = new KeyTable();
+        this.slotPairs = new long[INITIAL_SIZE * 2];
+        this.slotIdx = new int[INITIAL_SIZE * 2];
+        Arrays.fill(this.slotIdx, -1);
+        this.nPairs = 0;
+        this.counts = new long[INITIAL_SIZE];
+        this.sums = new double[INITIAL_SIZE];
+        this.mins = new double[INITIAL_SIZE];
+        this.maxs = new double[INITIAL_SIZE];
+    }
+
+    /**
+     * @return a well-distributed version of a hash code
+     *
+     * @param hash	hash code to mix
+     */
+    private static int mix(int hash) {
+        int retVal = hash * 0x9E3779B9;
+        return retVal ^ (retVal >>> 16);
+    }
+
+    /**
+     * @return the slot hash for a key pair
+     *
+     * @param pair	combined row and column IDs
+     */
+    private static int mix(long pair) {
+        return mix((int) (pair >>> 32) * 31 + (int) pair);
+    }
+
+    /**
+     * Specify a listener to monitor spreadsheet generation when the pivot is saved.
+     *
+     * @param listener		listener to use, or NULL to turn off monitoring
+     */
+    public void setListener(WorkbookListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the ID for a row key, interning it if it is new
+     *
+     * @param key		row key
+     */
+    public int rowId(String key) {
+        return this.rowKeys.intern(key);
+    }
+
+    /**
+     * @return the ID for a column key, interning it if it is new
+     *
+     * @param key		column key
+     */
+    public int colId(String key) {
+        return this.colKeys.intern(key);
+    }
+
+    /**
+     * Add a value for a pair of keys.
+     *
+     * @param rowKey	row key
+     * @param colKey	column key
+     * @param value		value to add
+     */
+    public void add(String rowKey, String colKey, double value) {
+        this.add(this.rowKeys.intern(rowKey), this.colKeys.intern(colKey), value);
+    }
+
+    /**
+     * Add a value for a pair of key IDs.  This is faster for callers that process many records with the
+     * same keys, since the keys need only be interned once.
+     *
+     * @param rowId		row key ID from {@link #rowId(String)}
+     * @param colId		column key ID from {@link #colId(String)}
+     * @param value		value to add
+     */
+    public void add(int rowId, int colId, double value) {
+        int idx = this.findPair(rowId, colId, true);
+        this.counts[idx]++;
+        this.sums[idx] += value;
+        if (value < this.mins[idx])
+            this.mins[idx] = value;
+        if (value > this.maxs[idx])
+            this.maxs[idx] = value;
+    }
+
+    /**
+     * Find the aggregate index for a pair of key IDs.
+     *
+     * @param rowId		row key ID
+     * @param colId		column key ID
+     * @param create	TRUE to create the aggregate if it does not exist
+     *
+     * @return the aggregate index, or -1 if it does not exist and we are not creating it
+     */
+    private int findPair(int rowId, int colId, boolean create) {
+        final long pair = ((long) rowId << 32) | colId;
+        int mask = this.slotIdx.length - 1;
+        int pos = mix(pair) & mask;
+        int retVal = this.slotIdx[pos];
+        while (retVal >= 0 && this.slotPairs[pos] != pair) {
+            pos = (pos + 1) & mask;
+            retVal = this.slotIdx[pos];
+        }
+        if (retVal < 0 && create) {
+            retVal = this.nPairs;
+            if (retVal >= this.counts.length)
+                this.growAggregates();
+            this.counts[retVal] = 0;
+            this.sums[retVal] = 0.0;
+            this.mins[retVal] = Double.POSITIVE_INFINITY;
+            this.maxs[retVal] = Double.NEGATIVE_INFINITY;
+            this.nPairs++;
+            this.slotPairs[pos] = pair;
+            this.slotIdx[pos] = retVal;
+            // Keep the load factor at or below one half.
+            if (this.nPairs * 2 > this.slotIdx.length)
+                this.rehash();
+        }
+        return retVal;
+    }
+
+    /**
+     * Double the size of the aggregate arrays.
+     */
+    private void growAggregates() {
+        int newLen = this.counts.length * 2;
+        this.counts = Arrays.copyOf(this.counts, newLen);
+        this.sums = Arrays.copyOf(this.sums, newLen);
+        this.mins = Arrays.copyOf(this.mins, newLen);
+        this.maxs = Arrays.copyOf(this.maxs, newLen);
+    }
+
+    /**
+     * Double the size of the key-pair hash table.
+     */
+    private void rehash() {
+        long[] oldPairs = this.slotPairs;
+        int[] oldIdx = this.slotIdx;
+        this.slotPairs = new long[oldPairs.length * 2];
+        this.slotIdx = new int[oldIdx.length * 2];
+        Arrays.fill(this.slotIdx, -1);
+        int mask = this.slotIdx.length - 1;
+        for (int i = 0; i < oldIdx.length; i++) {
+            if (oldIdx[i] >= 0) {
+                int pos = mix(oldPairs[i]) & mask;
+                while (this.slotIdx[pos] >= 0)
+                    pos = (pos + 1) & mask;
+                this.slotPairs[pos] = oldPairs[i];
+                this.slotIdx[pos] = oldIdx[i];
+            }
+        }
+    }
+
+    /**
+     * @return the value of a statistic for an aggregate
+     *
+     * @param idx		aggregate index
+     * @param stat		statistic to compute
+     */
+    private double statValue(int idx, Stat stat) {
+        return switch (stat) {
+        case COUNT -> this.counts[idx];
+        case SUM -> this.sums[idx];
+        case MEAN -> this.sums[idx] / this.counts[idx];
+        case MIN -> this.mins[idx];
+        case MAX -> this.maxs[idx];
+        };
+    }
+
+    /**
+     * Get a statistic for a pair of keys.
+     *
+     * @param rowKey	row key
+     * @param colKey	column key
+     * @param stat		statistic desired
+     *
+     * @return the value of the statistic, or NaN if the key pair has no data
+     */
+    public double get(String rowKey, String colKey, Stat stat) {
+        double retVal = Double.NaN;
+        int rowId = this.rowKeys.find(rowKey);
+        int colId = this.colKeys.find(colKey);
+        if (rowId >= 0 && colId >= 0) {
+            int idx = this.findPair(rowId, colId, false);
+            if (idx >= 0)
+                retVal = this.statValue(idx, stat);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of distinct row keys
+     */
+    public int getRowCount() {
+        return this.rowKeys.size();
+    }
+
+    /**
+     * @return the number of distinct column keys
+     */
+    public int getColCount() {
+        return this.colKeys.size();
+    }
+
+    /**
+     * @return the number of key pairs with data
+     */
+    public int size() {
+        return this.nPairs;
+    }
+
+    /**
+     * Save a spreadsheet for this pivot in the wide layout.
+     *
+     * @param outFile	name of the file in which to store the spreadsheet
+     * @param sheetName	name of the pivot sheet
+     * @param stat		statistic to display
+     */
+    public void save(File outFile, String sheetName, Stat stat) {
+        this.save(outFile, sheetName, stat, Layout.WIDE);
+    }
+
+    /**
+     * Save a spreadsheet for this pivot.
+     *
+     * @param outFile	name of the file in which to store the spreadsheet
+     * @param sheetName	name of the pivot sheet
+     * @param stat		statistic to display
+     * @param layout	layout to use for the pivot data
+     */
+    public void save(File outFile, String sheetName, Stat stat, Layout layout) {
+        if (layout == Layout.WIDE && this.colKeys.size() > MAX_WIDE_COLUMNS)
+            throw new IllegalStateException("Too many column keys (" + this.colKeys.size()
+                    + ") for the wide layout.  Use the long layout.");
+        try (CustomWorkbook workbook = CustomWorkbook.createStreaming(outFile)) {
+            log.info("Saving {} of {} key pairs to {}.", stat, this.nPairs, outFile);
+            workbook.setListener(this.listener);
+            switch (layout) {
+            case WIDE -> this.saveWide(workbook, sheetName, stat);
+            case LONG -> this.saveLong(workbook, sheetName, stat);
+            }
+        }
+    }
+
+    /**
+     * Write the pivot in the wide layout.
+     *
+     * @param workbook	output workbook
+     * @param sheetName	name of the pivot sheet
+     * @param stat		statistic to display
+     */
+    private void saveWide(CustomWorkbook workbook, String sheetName, Stat stat) {
+        int[] rowIds = this.rowKeys.sortedIds();
+        int[] colIds = this.colKeys.sortedIds();
+        workbook.addSheet(sheetName, true);
+        String[] headers = new String[colIds.length + 1];
+        headers[0] = this.rowTitle;
+        for (int i = 0; i < colIds.length; i++)
+            headers[i + 1] = this.colKeys.get(colIds[i]);
+        workbook.setHeaders(Arrays.asList(headers));
+        for (int rowId : rowIds) {
+            workbook.addRow();
+            workbook.storeCell(this.rowKeys.get(rowId));
+            for (int colId : colIds) {
+                int idx = this.findPair(rowId, colId, false);
+                if (idx < 0)
+                    workbook.storeBlankCell();
+                else
+                    this.storeStat(workbook, idx, stat);
+            }
+        }
+    }
+
+    /**
+     * Write the pivot in the long layout.
+     *
+     * @param workbook	output workbook
+     * @param sheetName	name of the pivot sheet
+     * @param stat		statistic to display
+     */
+    private void saveLong(CustomWorkbook workbook, String sheetName, Stat stat) {
+        int[] rowIds = this.rowKeys.sortedIds();
+        int[] colIds = this.colKeys.sortedIds();
+        // The pivot may be sparse, so we sort the key pairs that have data rather than scanning every
+        // combination.  Each pair is encoded as its row rank followed by its column rank.
+        int[] rowRanks = ranks(rowIds);
+        int[] colRanks = ranks(colIds);
+        long[] ranked = new long[this.nPairs];
+        int n = 0;
+        for (int i = 0; i < this.slotIdx.length; i++) {
+            if (this.slotIdx[i] >= 0) {
+                long pair = this.slotPairs[i];
+                ranked[n++] = ((long) rowRanks[(int) (pair >>> 32)] << 32) | colRanks[(int) pair];
+            }
+        }
+        Arrays.sort(ranked);
+        workbook.addSheet(sheetName, true);
+        workbook.setHeaders(List.of(this.rowTitle, this.colTitle, stat.name().toLowerCase()));
+        for (long rank : ranked) {
+            int rowId = rowIds[(int) (rank >>> 32)];
+            int colId = colIds[(int) rank];
+            workbook.addRow();
+            workbook.storeCell(this.rowKeys.get(rowId));
+            workbook.storeCell(this.colKeys.get(colId));
+            this.storeStat(workbook, this.findPair(rowId, colId, false), stat);
+        }
+    }
+
+    /**
+     * @return an array mapping each key ID to its position in a sorted ID list
+     *
+     * @param sortedIds		key IDs in sorted order
+     */
+    private static int[] ranks(int[] sortedIds) {
+        int[] retVal = new int[sortedIds.length];
+        for (int i = 0; i < sortedIds.length; i++)
+            retVal[sortedIds[i]] = i;
+        return retVal;
+    }
+
+    /**
+     * Store the value of a statistic in the next cell of the current row.
+     *
+     * @param workbook	output workbook
+     * @param idx		aggregate index
+     * @param stat		statistic to store
+     */
+    private void storeStat(CustomWorkbook workbook, int idx, Stat stat) {
+        if (stat == Stat.COUNT && this.counts[idx] <= Integer.MAX_VALUE)
+            workbook.storeCell((int) this.counts[idx]);
+        else
+            workbook.storeCell(this.statValue(idx, stat));
+    }
+
+}
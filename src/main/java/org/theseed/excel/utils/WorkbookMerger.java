@@ -0,0 +1,458 @@
+/**
+ *
+ */
+package org.theseed.excel.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.excel.CustomWorkbook;
+import org.theseed.excel.MappedSharedStrings;
+import org.theseed.excel.SheetRowReader;
+import org.theseed.excel.WorkbookListener;
+
+/**
+ * This object merges the sheets of many workbooks into a single streaming workbook.  The input workbooks
+ * are read with the event API on a bounded pool of threads, and each reader passes its rows to the writer
+ * in batches through a bounded queue.  The writer consumes the inputs in order, so the output sheets are
+ * in the same order as the input files and sheets.  A reader is only created when there is a thread free
+ * to run it, so the memory used is bounded by the thread count and batch sizes rather than the number of
+ * inputs.  If an input cannot be read, the merge fails and no output file is left behind.
+ *
+ * Cell values are copied, but cell formatting is not:  the output uses the standard {@link CustomWorkbook}
+ * styles.  The first row of each input sheet is taken as the headers.  An input sheet containing a table
+ * becomes a table in the output, and the table names are made unique by the output workbook's table-name
+ * map.  A sheet whose name is already in use in the output is renamed by adding a number in parentheses.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class WorkbookMerger {
+
+    // FIELDS
+    /** logging facility */
+    private static final Logger log = LoggerFactory.getLogger(WorkbookMerger.class);
+    /** number of input workbooks to read at once */
+    private int threads;
+    /** number of rows in each batch passed to the writer */
+    private int batchRows;
+    /** maximum number of batches waiting for the writer from each input */
+    private int queueBatches;
+    /** number of rows per sheet to keep in memory in the output workbook */
+    private int window;
+    /** listener for output workbook metrics, or NULL if there is none */
+    private WorkbookListener listener;
+    /** names of the sheets in the output workbook, in lower case */
+    private Set<String> usedNames;
+    /** number of sheets written */
+    private int sheetCount;
+    /** number of data rows written */
+    private long rowCount;
+    /** default number of rows per batch */
+    public static final int DEFAULT_BATCH_ROWS = 500;
+    /** default number of waiting batches per input */
+    public static final int DEFAULT_QUEUE_BATCHES = 4;
+
+    /**
+     * This enum describes the types of messages passed from a reader to the writer.
+     */
+    private static enum Kind {
+        /** start of a new sheet */
+        SHEET,
+        /** batch of rows for the current sheet */
+        ROWS,
+        /** end of the workbook */
+        END,
+        /** the reader failed */
+        ERROR;
+    }
+
+    /**
+     * This object is a message passed from a reader to the writer.
+     */
+    private static class Message {
+
+        /** type of message */
+        private final Kind kind;
+        /** name of the new sheet */
+        private final String sheetName;
+        /** TRUE if the new sheet contains a table */
+        private final boolean isTable;
+        /** rows in the batch; each cell is a string, a double, or NULL for a blank */
+        private final List<Object[]> rows;
+        /** error that stopped the reader */
+        private final IOException error;
+
+        /**
+         * Construct a message.
+         *
+         * @param kind			type of message
+         * @param sheetName		name of the new sheet (SHEET only)
+         * @param isTable		TRUE if the new sheet contains a table (SHEET only)
+         * @param rows			batch of rows (ROWS only)
+         * @param error			reader failure (ERROR only)
+         */
+        private Message(Kind kind, String sheetName, boolean isTable, List<Object[]> rows, IOException error) {
+            this.kind = kind;
+            this.sheetName = sheetName;
+            this.isTable = isTable;
+            this.rows = rows;
+            this.error = error;
+        }
+
+    }
+
+    /**
+     * This object reads one input workbook and passes its rows to the writer.
+     */
+    private class WorkbookReader implements Runnable {
+
+        /** input workbook file */
+        private final File inFile;
+        /** queue of messages to the writer */
+        private final BlockingQueue<Message> queue;
+        /** current batch of rows, or NULL if the reader has not started */
+        private List<Object[]> batch;
+
+        /**
+         * Construct a reader for an input workbook.
+         *
+         * @param inFile	input workbook file
+         */
+        private WorkbookReader(File inFile) {
+            this.inFile = inFile;
+            this.queue = new ArrayBlockingQueue<>(WorkbookMerger.this.queueBatches);
+            this.batch = null;
+        }
+
+        @Override
+        public void run() {
+            this.batch = new ArrayList<>(WorkbookMerger.this.batchRows);
+            try {
+                try {
+                    this.readWorkbook();
+                    this.queue.put(new Message(Kind.END, null, false, null, null));
+                } catch (IOException e) {
+                    this.queue.put(new Message(Kind.ERROR, null, false, null, e));
+                } catch (OpenXML4JException | RuntimeException e) {
+                    IOException error = new IOException("Error reading " + this.inFile + ": " + e.toString(), e);
+                    this.queue.put(new Message(Kind.ERROR, null, false, null, error));
+                }
+            } catch (InterruptedException e) {
+                // The merge has been abandoned.
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Read all the sheets of the workbook.
+         *
+         * @throws IOException
+         * @throws OpenXML4JException
+         * @throws InterruptedException
+         */
+        private void readWorkbook() throws IOException, OpenXML4JException, InterruptedException {
+            try (OPCPackage pkg = OPCPackage.open(this.inFile, PackageAccess.READ)) {
+                XSSFReader reader = new XSSFReader(pkg);
+                try (MappedSharedStrings strings = MappedSharedStrings.load(reader)) {
+                    XSSFReader.SheetIterator iter = (XSSFReader.SheetIterator) reader.getSheetsData();
+                    while (iter.hasNext()) {
+                        try (InputStream sheetStream = iter.next()) {
+                            boolean isTable = ! iter.getSheetPart().getRelationshipsByType(XSSFRelation.TABLE.getRelation()).isEmpty();
+                            this.queue.put(new Message(Kind.SHEET, iter.getSheetName(), isTable, null, null));
+                            this.readSheet(sheetStream, strings);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Read the rows of a sheet and pass them to the writer.
+         *
+         * @param sheetStream	input stream for the sheet XML
+         * @param strings		shared-strings table for the workbook
+         *
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        private void readSheet(InputStream sheetStream, MappedSharedStrings strings) throws IOException, InterruptedException {
+            try (SheetRowReader rowReader = new SheetRowReader(sheetStream, strings)) {
+                for (Object[] row = rowReader.next(); row != null; row = rowReader.next()) {
+                    this.batch.add(row);
+                    if (this.batch.size() >= WorkbookMerger.this.batchRows)
+                        this.sendBatch();
+                }
+            }
+            this.sendBatch();
+        }
+
+        /**
+         * Pass the current batch of rows to the writer, if it is nonempty.
+         *
+         * @throws InterruptedException
+         */
+        private void sendBatch() throws InterruptedException {
+            if (! this.batch.isEmpty()) {
+                this.queue.put(new Message(Kind.ROWS, null, false, this.batch, null));
+                this.batch = new ArrayList<>(WorkbookMerger.this.batchRows);
+            }
+        }
+
+    }
+
+    /**
+     * Construct a workbook merger with the default settings.
+     */
+    public WorkbookMerger() {
+        this.threads = Math.min(4, Runtime.getRuntime().availableProcessors());
+        this.batchRows = DEFAULT_BATCH_ROWS;
+        this.queueBatches = DEFAULT_QUEUE_BATCHES;
+        this.window = SXSSFWorkbook.DEFAULT_WINDOW_SIZE;
+        this.listener = null;
+    }
+
+    /**
+     * Specify the number of input workbooks to read at once.
+     *
+     * @param threads	number of reader threads
+     */
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Thread count must be at least 1.");
+        this.threads = threads;
+    }
+
+    /**
+     * Specify the size and number of row batches each reader can have waiting for the writer.  The
+     * maximum number of rows in memory is roughly the product of these numbers and the thread count.
+     *
+     * @param batchRows		number of rows per batch
+     * @param queueBatches	maximum number of waiting batches per reader
+     */
+    public void setBatching(int batchRows, int queueBatches) {
+        if (batchRows < 1 || queueBatches < 1)
+            throw new IllegalArgumentException("Batch size and queue length must be at least 1.");
+        this.batchRows = batchRows;
+        this.queueBatches = queueBatches;
+    }
+
+    /**
+     * Specify the number of rows per sheet to keep in memory in the output workbook.
+     *
+     * @param window	number of rows to keep in memory
+     */
+    public void setWindow(int window) {
+        this.window = window;
+    }
+
+    /**
+     * Specify a listener to monitor generation of the output workbook.
+     *
+     * @param listener		listener to use, or NULL to turn off monitoring
+     */
+    public void setListener(WorkbookListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Merge the sheets of the input workbooks into a single output workbook.
+     *
+     * @param inFiles	list of input workbook files
+     * @param outFile	output workbook file
+     *
+     * @throws IOException
+     */
+    public void merge(List<File> inFiles, File outFile) throws IOException {
+        this.usedNames = new HashSet<>();
+        this.sheetCount = 0;
+        this.rowCount = 0;
+        boolean merged = false;
+        ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+        try {
+            try (CustomWorkbook workbook = CustomWorkbook.createStreaming(outFile, this.window)) {
+                workbook.setListener(this.listener);
+                // There is never more than one reader per thread, and a new one is started each time an input
+                // is finished.  The pool starts the readers in order, so the reader for the input we are
+                // waiting on is always running.
+                Deque<WorkbookReader> readers = new ArrayDeque<>(this.threads);
+                Iterator<File> iter = inFiles.iterator();
+                while (iter.hasNext() && readers.size() < this.threads)
+                    readers.add(this.startReader(pool, iter.next()));
+                while (! readers.isEmpty()) {
+                    WorkbookReader reader = readers.remove();
+                    this.copyWorkbook(reader.queue, workbook);
+                    if (iter.hasNext())
+                        readers.add(this.startReader(pool, iter.next()));
+                }
+            }
+            merged = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Workbook merge interrupted.", e);
+        } finally {
+            pool.shutdownNow();
+            if (! merged) {
+                // Do not leave a partial merge that looks like a good one.
+                log.error("Merge failed:  deleting incomplete output file {}.", outFile);
+                if (outFile.exists() && ! outFile.delete())
+                    log.warn("Could not delete incomplete output file {}.", outFile);
+            }
+        }
+        log.info("{} sheets with {} data rows merged from {} workbooks into {}.", this.sheetCount, this.rowCount,
+                inFiles.size(), outFile);
+    }
+
+    /**
+     * @return a new reader for an input workbook, queued to run in the thread pool
+     *
+     * @param pool		thread pool for the readers
+     * @param inFile	input workbook file
+     */
+    private WorkbookReader startReader(ExecutorService pool, File inFile) {
+        WorkbookReader retVal = this.new WorkbookReader(inFile);
+        pool.execute(retVal);
+        return retVal;
+    }
+
+    /**
+     * Copy the sheets of one input workbook to the output workbook.
+     *
+     * @param queue			queue of messages from the input's reader
+     * @param workbook		output workbook
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void copyWorkbook(BlockingQueue<Message> queue, CustomWorkbook workbook) throws IOException, InterruptedException {
+        // This will be the name of a sheet we have not created yet, because no rows have arrived.
+        String pendingName = null;
+        boolean pendingTable = false;
+        boolean done = false;
+        while (! done) {
+            Message message = queue.take();
+            switch (message.kind) {
+            case SHEET -> {
+                if (pendingName != null)
+                    this.startSheet(workbook, pendingName, false);
+                pendingName = message.sheetName;
+                pendingTable = message.isTable;
+            }
+            case ROWS -> {
+                int start = 0;
+                if (pendingName != null) {
+                    this.startSheet(workbook, pendingName, pendingTable);
+                    workbook.setHeaders(headers(message.rows.get(0), pendingTable));
+                    pendingName = null;
+                    start = 1;
+                }
+                final int n = message.rows.size();
+                for (int i = start; i < n; i++)
+                    copyRow(message.rows.get(i), workbook);
+                this.rowCount += n - start;
+            }
+            case END -> {
+                if (pendingName != null)
+                    this.startSheet(workbook, pendingName, false);
+                done = true;
+            }
+            case ERROR -> throw message.error;
+            }
+        }
+    }
+
+    /**
+     * Start a new sheet in the output workbook, giving it a unique name.
+     *
+     * @param workbook		output workbook
+     * @param name			name of the input sheet
+     * @param isTable		TRUE if the sheet should be a table
+     */
+    private void startSheet(CustomWorkbook workbook, String name, boolean isTable) {
+        String retVal = name;
+        int num = 1;
+        while (this.usedNames.contains(retVal.toLowerCase())) {
+            num++;
+            String suffix = " (" + num + ")";
+            retVal = StringUtils.left(name, CustomWorkbook.MAX_SHEET_NAME - suffix.length()) + suffix;
+        }
+        this.usedNames.add(retVal.toLowerCase());
+        workbook.addSheet(retVal, isTable);
+        this.sheetCount++;
+    }
+
+    /**
+     * @return the headers for a sheet, computed from its first row
+     *
+     * @param row			first row of the sheet
+     * @param isTable		TRUE if the sheet is a table, in which case the headers must be nonblank
+     */
+    private static List<String> headers(Object[] row, boolean isTable) {
+        List<String> retVal = new ArrayList<>(row.length);
+        for (int i = 0; i < row.length; i++) {
+            String header = (row[i] == null ? "" : row[i].toString());
+            if (isTable && header.isBlank())
+                header = "Column" + (i + 1);
+            retVal.add(header);
+        }
+        return retVal;
+    }
+
+    /**
+     * Copy a row to the output workbook.
+     *
+     * @param row			cell values for the row
+     * @param workbook		output workbook
+     */
+    private static void copyRow(Object[] row, CustomWorkbook workbook) {
+        workbook.addRow();
+        for (Object value : row) {
+            if (value == null)
+                workbook.storeBlankCell();
+            else if (value instanceof Double number) {
+                double d = number;
+                if (d == Math.rint(d) && Math.abs(d) <= Integer.MAX_VALUE)
+                    workbook.storeCell((int) d);
+                else
+                    workbook.storeCell(d);
+            } else
+                workbook.storeCell((String) value);
+        }
+    }
+
+    /**
+     * @return the number of sheets written by the last merge
+     */
+    public int getSheetCount() {
+        return this.sheetCount;
+    }
+
+    /**
+     * @return the number of data rows written by the last merge
+     */
+    public long getRowCount() {
+        return this.rowCount;
+    }
+
+}
@@ -0,0 +1,133 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+public class TestColumnarSheet {
+
+    @Test
+    public void testSidecar() throws IOException {
+        File outFile = new File("data", "test_cols.xlsx");
+        try (CustomWorkbook workbook = CustomWorkbook.create(outFile)) {
+            workbook.addSheet("col sheet", true);
+            workbook.setHeaders(List.of("fid", "value", "flag"));
+            for (int i = 1; i <= 5; i++) {
+                workbook.addRow();
+                workbook.storeCell("fig|83333.1.peg." + i);
+                workbook.storeCell(i * 1.5);
+                workbook.storeCell((i % 2 == 0 ? "Y" : ""), CustomWorkbook.Text.FLAG);
+            }
+        }
+        File sideFile = ColumnarSheet.sidecarFile(outFile, "col sheet");
+        sideFile.delete();
+        ColumnarSheet cols = ColumnarSheet.load(outFile, "col sheet");
+        assertThat(sideFile.exists(), equalTo(true));
+        checkSheet(cols);
+        // The second load should come from the sidecar and produce the same answers.
+        cols = ColumnarSheet.load(outFile, "col sheet");
+        checkSheet(cols);
+    }
+
+    @Test
+    public void testSimilarNames() throws IOException {
+        File outFile = new File("data", "test_cols2.xlsx");
+        // These names all have the same safe form for a table name.
+        List<String> names = List.of("Data", "data sheet", "DATA_Sheet");
+        try (CustomWorkbook workbook = CustomWorkbook.create(outFile)) {
+            for (int i = 0; i < names.size(); i++) {
+                workbook.addSheet(names.get(i), false);
+                workbook.setHeaders(List.of("name", "value"));
+                workbook.addRow();
+                workbook.storeCell(names.get(i));
+                workbook.storeCell(i);
+            }
+        }
+        Set<File> sideFiles = new HashSet<>();
+        for (String name : names) {
+            File sideFile = ColumnarSheet.sidecarFile(outFile, name);
+            sideFile.delete();
+            assertThat(name, sideFiles.add(sideFile), equalTo(true));
+        }
+        // Load each sheet twice, so the second load comes from the sidecar.
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < names.size(); i++) {
+                ColumnarSheet cols = ColumnarSheet.load(outFile, names.get(i));
+                assertThat(cols.getSheetName(), equalTo(names.get(i)));
+                assertThat(cols.getString(0, 0), equalTo(names.get(i)));
+                assertThat(cols.getDouble(0, 1), equalTo((double) i));
+            }
+        }
+    }
+
+    @Test
+    public void testDamagedSidecar() throws IOException {
+        File outFile = new File("data", "test_cols3.xlsx");
+        try (CustomWorkbook workbook = CustomWorkbook.create(outFile)) {
+            workbook.addSheet("col sheet", true);
+            workbook.setHeaders(List.of("fid", "value", "flag"));
+            for (int i = 1; i <= 5; i++) {
+                workbook.addRow();
+                workbook.storeCell("fig|83333.1.peg." + i);
+                workbook.storeCell(i * 1.5);
+                workbook.storeCell((i % 2 == 0 ? "Y" : ""), CustomWorkbook.Text.FLAG);
+            }
+        }
+        File sideFile = ColumnarSheet.sidecarFile(outFile, "col sheet");
+        sideFile.delete();
+        checkSheet(ColumnarSheet.load(outFile, "col sheet"));
+        byte[] image = Files.readAllBytes(sideFile.toPath());
+        // A truncated sidecar still has a valid header.
+        Files.write(sideFile.toPath(), Arrays.copyOf(image, image.length / 2));
+        checkSheet(ColumnarSheet.load(outFile, "col sheet"));
+        // A sidecar with a huge column count must not be trusted.
+        ByteBuffer.wrap(image).putInt(28, Integer.MAX_VALUE / 2);
+        Files.write(sideFile.toPath(), image);
+        checkSheet(ColumnarSheet.load(outFile, "col sheet"));
+        // The damaged sidecar is replaced when the sheet is parsed again.
+        assertThat(Files.readAllBytes(sideFile.toPath()).length, equalTo(image.length));
+        checkSheet(ColumnarSheet.load(outFile, "col sheet"));
+    }
+
+    /**
+     * Verify the contents of the test sheet.
+     *
+     * @param cols	columnar sheet to check
+     */
+    private static void checkSheet(ColumnarSheet cols) {
+        assertThat(cols.size(), equalTo(5));
+        assertThat(cols.width(), equalTo(3));
+        assertThat(cols.findColumn("value"), equalTo(1));
+        assertThat(cols.findColumn("missing"), equalTo(-1));
+        assertThat(cols.isNumeric(0), equalTo(false));
+        assertThat(cols.isNumeric(1), equalTo(true));
+        assertThat(cols.getString(2, 0), equalTo("fig|83333.1.peg.3"));
+        DoubleBuffer values = cols.getNumbers(1);
+        assertThat(values.remaining(), equalTo(5));
+        for (int r = 0; r < 5; r++) {
+            assertThat(values.get(r), closeTo((r + 1) * 1.5, 1e-9));
+            assertThat(cols.getDouble(r, 1), closeTo((r + 1) * 1.5, 1e-9));
+        }
+        assertThat(cols.getString(0, 2), equalTo(""));
+        assertThat(cols.getString(1, 2), equalTo("Y"));
+    }
+
+}
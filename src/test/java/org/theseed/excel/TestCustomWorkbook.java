@@ -1,12 +1,29 @@
 package org.theseed.excel;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFCell;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.junit.jupiter.api.Test;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.STCellType;
 import org.theseed.io.TabbedLineReader;
 
 /**
@@ -41,6 +58,539 @@ public class TestCustomWorkbook {
         }
     }
 
+    @Test
+    public void testNotesMode() throws IOException {
+        File inFile = new File("data", "test.tbl");
+        File outFile = new File("data", "test_notes.xlsx");
+        try (CustomWorkbook workbook = CustomWorkbook.create(outFile)) {
+            workbook.setCommentMode(CustomWorkbook.CommentMode.NOTES);
+            workbook.addSheet("test sheet", true);
+            createTestSheet(inFile, workbook);
+        }
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            Sheet notes = workbook.getSheet("test sheet notes");
+            assertThat(notes, not(nullValue()));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(notes, 1, 0)), equalTo("B2"));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(notes, 1, 1)), equalTo("f11"));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(notes, 1, 2)), equalTo("Comment for f11"));
+            Sheet main = workbook.getSheet("test sheet");
+            assertThat(ExcelUtils.getCell(main, 1, 1).getCellComment(), nullValue());
+        }
+    }
+
+    @Test
+    public void testNotesNames() throws IOException {
+        File outFile = new File("data", "test_notes2.xlsx");
+        final String prefix = "abcdefghijklmnopqrstuvwxy";
+        List<String> names = Arrays.asList(prefix + " one", prefix + " two", "short");
+        try (CustomWorkbook workbook = CustomWorkbook.create(outFile)) {
+            workbook.setCommentMode(CustomWorkbook.CommentMode.NOTES);
+            // This sheet has the name the notes sheet for "short" would normally get.
+            workbook.addSheet("short notes", false);
+            workbook.setHeaders(Arrays.asList("data"));
+            workbook.addRow();
+            workbook.storeCell("user data");
+            for (String name : names) {
+                workbook.addSheet(name, false);
+                workbook.setHeaders(Arrays.asList("id"));
+                workbook.addRow();
+                workbook.storeCell("id", null, "Comment for " + name);
+            }
+        }
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(workbook.getSheet("short notes"), 1, 0)),
+                    equalTo("user data"));
+            List<String> notesNames = Arrays.asList(prefix + " notes", "abcdefghijklmnopqrstu notes (2)",
+                    "short notes (2)");
+            for (int i = 0; i < names.size(); i++) {
+                Sheet notes = workbook.getSheet(notesNames.get(i));
+                assertThat(notesNames.get(i), notes, not(nullValue()));
+                assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(notes, 1, 2)), equalTo("Comment for " + names.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void testLinkTemplate() throws IOException {
+        File outFile = new File("data", "test_links.xlsx");
+        try (CustomWorkbook workbook = CustomWorkbook.create(outFile)) {
+            workbook.addSheet("link sheet", true);
+            workbook.setHeaders(Arrays.asList("gene", "other"));
+            workbook.setLinkTemplate(0, "https://rnaseq.theseed.org/");
+            for (String gene : new String[] { "f11", "f22", "a\"quote" }) {
+                workbook.addRow();
+                workbook.storeCell(gene);
+                workbook.storeCell(gene + "x");
+            }
+        }
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            Sheet sheet = workbook.getSheet("link sheet");
+            Cell cell = ExcelUtils.getCell(sheet, 1, 0);
+            assertThat(cell.getCellType(), equalTo(CellType.FORMULA));
+            assertThat(cell.getCellFormula(), containsString("https://rnaseq.theseed.org/f11"));
+            assertThat(cell.getHyperlink(), nullValue());
+            assertThat(ExcelUtils.stringValue(cell), equalTo("f11"));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 3, 0)), equalTo("a\"quote"));
+            cell = ExcelUtils.getCell(sheet, 1, 1);
+            assertThat(cell.getCellType(), equalTo(CellType.STRING));
+            assertThat(ExcelUtils.stringValue(cell), equalTo("f11x"));
+        }
+    }
+
+    @Test
+    public void testPatchLimits() throws IOException {
+        File outFile = new File("data", "test_patch_limits.xlsx");
+        try (CustomWorkbook workbook = CustomWorkbook.createStreaming(outFile, 10)) {
+            workbook.addSheet("patch sheet", false);
+            workbook.setHeaders(Arrays.asList("name"));
+            // Stores to rows that are not in memory are buffered, so the buffer must reject impossible cells.
+            final int maxRows = SpreadsheetVersion.EXCEL2007.getMaxRows();
+            assertThrows(IllegalArgumentException.class, () -> workbook.storeCell(-1, 0, "negative"));
+            assertThrows(IllegalArgumentException.class, () -> workbook.storeCell(maxRows, 0, "too far"));
+            assertThrows(IllegalArgumentException.class, () -> workbook.storeCell(5, -1, "bad column"));
+            workbook.storeCell(maxRows - 1, 0, "last row");
+        }
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            Sheet sheet = workbook.getSheet("patch sheet");
+            assertThat(sheet.getLastRowNum(), equalTo(SpreadsheetVersion.EXCEL2007.getLastRowIndex()));
+        }
+    }
+
+    @Test
+    public void testStreamingPatches() throws IOException {
+        File outFile = new File("data", "test_patches.xlsx");
+        try (CustomWorkbook workbook = CustomWorkbook.createStreaming(outFile, 10)) {
+            workbook.addSheet("patch sheet", true);
+            workbook.setHeaders(Arrays.asList("name", "value", "total"));
+            // This store is for a row that does not exist yet.
+            workbook.storeCell(50, 2, "future");
+            double total = 0.0;
+            for (int i = 1; i <= 100; i++) {
+                workbook.addRow();
+                workbook.storeCell("row" + i);
+                workbook.storeCell((double) i, CustomWorkbook.Num.NORMAL);
+                total += i;
+            }
+            // These stores are for rows that have been flushed.
+            workbook.storeCell(1, 2, total, CustomWorkbook.Num.NORMAL);
+            workbook.storeCell(2, 0, "replaced");
+            workbook.storeCell(1, 2, total + 1.0, CustomWorkbook.Num.NORMAL);
+            // This one is for a row still in memory.
+            workbook.storeCell(99, 2, "recent");
+        }
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            Sheet sheet = workbook.getSheet("patch sheet");
+            assertThat(sheet.getLastRowNum(), equalTo(100));
+            assertThat(ExcelUtils.numValue(ExcelUtils.getCell(sheet, 1, 2)), closeTo(5051.0, 1e-6));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 1, 0)), equalTo("row1"));
+            assertThat(ExcelUtils.numValue(ExcelUtils.getCell(sheet, 1, 1)), closeTo(1.0, 1e-6));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 2, 0)), equalTo("replaced"));
+            assertThat(ExcelUtils.numValue(ExcelUtils.getCell(sheet, 2, 1)), closeTo(2.0, 1e-6));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 50, 2)), equalTo("future"));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 50, 0)), equalTo("row50"));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 99, 2)), equalTo("recent"));
+        }
+    }
+
+    @Test
+    public void testSheetBudget() throws IOException {
+        File outFile = new File("data", "test_budget.xlsx");
+        try (CustomWorkbook workbook = CustomWorkbook.create(outFile)) {
+            // Each row is about 1150 bytes, so the switch comes at about row 20.
+            workbook.setSheetBudget(20000);
+            workbook.addSheet("small sheet", true);
+            workbook.setHeaders(Arrays.asList("name", "count", "flag"));
+            workbook.addRow();
+            workbook.storeCell("only");
+            workbook.storeCell(1.0);
+            workbook.storeCell("Y");
+            workbook.addSheet("budget sheet", true);
+            workbook.setHeaders(Arrays.asList("name", "count", "flag"));
+            for (int i = 1; i <= 500; i++) {
+                workbook.addRow();
+                workbook.storeCell((i == 400 ? "a much longer name for row " : "row") + i);
+                workbook.storeCell((double) i);
+                workbook.storeCell((i % 2 == 0 ? "Y" : ""));
+            }
+            // This store is for a row that stayed in memory.
+            workbook.storeCell(5, 0, "five");
+            workbook.reformatIntColumn(1);
+            workbook.reformatFlagColumn(2);
+            workbook.autoSizeColumns();
+        }
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            Sheet small = workbook.getSheet("small sheet");
+            assertThat(small.getLastRowNum(), equalTo(1));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(small, 1, 0)), equalTo("only"));
+            XSSFSheet sheet = workbook.getSheet("budget sheet");
+            assertThat(sheet.getLastRowNum(), equalTo(500));
+            assertThat(sheet.getTables().size(), equalTo(1));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 0, 2)), equalTo("flag"));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 5, 0)), equalTo("five"));
+            Cell early = ExcelUtils.getCell(sheet, 2, 1);
+            Cell flushed = ExcelUtils.getCell(sheet, 300, 1);
+            Cell recent = ExcelUtils.getCell(sheet, 499, 1);
+            assertThat(ExcelUtils.numValue(flushed), closeTo(300.0, 1e-6));
+            assertThat(early.getCellStyle().getDataFormatString(), equalTo("##0"));
+            assertThat(flushed.getCellStyle().getDataFormatString(), equalTo("##0"));
+            assertThat(recent.getCellStyle().getDataFormatString(), equalTo("##0"));
+            short flagStyle = ExcelUtils.getCell(sheet, 2, 2).getCellStyle().getIndex();
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 300, 2)), equalTo("Y"));
+            assertThat(ExcelUtils.getCell(sheet, 300, 2).getCellStyle().getIndex(), equalTo(flagStyle));
+            // The long name in a flushed row must be reflected in the column width.
+            assertThat(sheet.getColumnWidth(0), greaterThan(sheet.getColumnWidth(2)));
+        }
+    }
+
+    @Test
+    public void testFingerprints() throws IOException, InvalidFormatException {
+        File outFile = new File("data", "test_fingerprints.xlsx");
+        try (CustomWorkbook workbook = CustomWorkbook.create(outFile)) {
+            for (String name : new String[] { "alpha", "beta" }) {
+                assertThat(name, workbook.addSheet(name, true, name + "1"), equalTo(true));
+                workbook.setHeaders(Arrays.asList("name", "version"));
+                workbook.addRow();
+                workbook.storeCell(name);
+                workbook.storeCell(1);
+            }
+            workbook.closeSheet();
+        }
+        try (CustomWorkbook workbook = CustomWorkbook.load(outFile)) {
+            assertThat(workbook.getFingerprint("alpha"), equalTo("alpha1"));
+            assertThat(workbook.getFingerprint("beta"), equalTo("beta1"));
+            assertThat(workbook.getFingerprint("gamma"), nullValue());
+            assertThat(workbook.addSheet("alpha", true, "alpha1"), equalTo(false));
+            assertThat(workbook.addSheet("beta", true, "beta2"), equalTo(true));
+            workbook.setHeaders(Arrays.asList("name", "version"));
+            workbook.addRow();
+            workbook.storeCell("beta");
+            workbook.storeCell(2);
+            workbook.closeSheet();
+        }
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            assertThat(workbook.getNumberOfSheets(), equalTo(2));
+            XSSFSheet alpha = workbook.getSheet("alpha");
+            assertThat(alpha.getTables().size(), equalTo(1));
+            assertThat(ExcelUtils.numValue(ExcelUtils.getCell(alpha, 1, 1)), closeTo(1.0, 1e-6));
+            XSSFSheet beta = workbook.getSheet("beta");
+            assertThat(beta.getTables().size(), equalTo(1));
+            assertThat(ExcelUtils.numValue(ExcelUtils.getCell(beta, 1, 1)), closeTo(2.0, 1e-6));
+        }
+        try (CustomWorkbook workbook = CustomWorkbook.load(outFile)) {
+            assertThat(workbook.getFingerprint("alpha"), equalTo("alpha1"));
+            assertThat(workbook.getFingerprint("beta"), equalTo("beta2"));
+        }
+        // An error while the sheet is being regenerated must not leave the new fingerprint behind.
+        try (CustomWorkbook workbook = CustomWorkbook.load(outFile)) {
+            assertThat(workbook.addSheet("beta", true, "beta3"), equalTo(true));
+            workbook.setHeaders(Arrays.asList("name", "version"));
+            workbook.addRow();
+            workbook.storeCell("beta");
+            throw new IllegalStateException("Generation failed.");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), equalTo("Generation failed."));
+        }
+        try (CustomWorkbook workbook = CustomWorkbook.load(outFile)) {
+            assertThat(workbook.getFingerprint("alpha"), equalTo("alpha1"));
+            assertThat(workbook.getFingerprint("beta"), nullValue());
+            assertThat(workbook.addSheet("beta", true, "beta3"), equalTo(true));
+        }
+    }
+
+    @Test
+    public void testFingerprintContinuations() throws IOException {
+        File outFile = new File("data", "test_fingerprints2.xlsx");
+        // The first version of the sheet fills three parts.
+        try (CustomWorkbook workbook = CustomWorkbook.create(outFile)) {
+            workbook.setRowLimit(11);
+            workbook.addSheet("big", true, "v1");
+            workbook.setHeaders(Arrays.asList("name", "value"));
+            for (int i = 1; i <= 25; i++) {
+                workbook.addRow();
+                workbook.storeCell("row" + i);
+                workbook.storeCell(i);
+            }
+            workbook.addSheet("other", false);
+            workbook.setHeaders(Arrays.asList("name"));
+        }
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            assertThat(workbook.getSheet("big (3)"), not(nullValue()));
+        }
+        // The second version fits in one part, so the old continuations must go.
+        try (CustomWorkbook workbook = CustomWorkbook.load(outFile)) {
+            workbook.setRowLimit(11);
+            assertThat(workbook.addSheet("big", true, "v2"), equalTo(true));
+            workbook.setHeaders(Arrays.asList("name", "value"));
+            for (int i = 1; i <= 5; i++) {
+                workbook.addRow();
+                workbook.storeCell("new" + i);
+                workbook.storeCell(i);
+            }
+            workbook.closeSheet();
+        }
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            assertThat(workbook.getNumberOfSheets(), equalTo(2));
+            assertThat(workbook.getSheet("big (2)"), nullValue());
+            assertThat(workbook.getSheet("big (3)"), nullValue());
+            XSSFSheet big = workbook.getSheet("big");
+            assertThat(big.getLastRowNum(), equalTo(5));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(big, 5, 0)), equalTo("new5"));
+            assertThat(workbook.getSheet("other"), not(nullValue()));
+        }
+    }
+
+    @Test
+    public void testOverflow() throws IOException {
+        File outFile = new File("data", "test_overflow.xlsx");
+        try (CustomWorkbook workbook = CustomWorkbook.createStreaming(outFile, 5)) {
+            workbook.setRowLimit(11);
+            workbook.addSheet("big sheet", true);
+            workbook.setHeaders(Arrays.asList("name", "value"));
+            for (int i = 1; i <= 25; i++) {
+                workbook.addRow();
+                workbook.storeCell("row" + i);
+                workbook.storeCell(i);
+            }
+        }
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            assertThat(workbook.getNumberOfSheets(), equalTo(3));
+            String[] names = new String[] { "big sheet", "big sheet (2)", "big sheet (3)" };
+            int[] lasts = new int[] { 10, 10, 5 };
+            Set<String> tables = new HashSet<>();
+            for (int i = 0; i < names.length; i++) {
+                XSSFSheet sheet = workbook.getSheet(names[i]);
+                assertThat(names[i], sheet, not(nullValue()));
+                assertThat(names[i], sheet.getLastRowNum(), equalTo(lasts[i]));
+                assertThat(names[i], ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 0, 1)), equalTo("value"));
+                assertThat(names[i], ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 1, 0)), equalTo("row" + (i * 10 + 1)));
+                assertThat(names[i], sheet.getTables().size(), equalTo(1));
+                tables.add(sheet.getTables().get(0).getName());
+            }
+            assertThat(tables.size(), equalTo(3));
+        }
+    }
+
+    @Test
+    public void testRolling() throws IOException {
+        File outFile = new File("data", "test_roll.xlsx");
+        List<File> outFiles;
+        try (CustomWorkbook workbook = CustomWorkbook.create(outFile)) {
+            workbook.setRollLimits(15, 0);
+            workbook.addSheet("roll sheet", true);
+            workbook.setHeaders(Arrays.asList("name", "value"));
+            for (int i = 1; i <= 40; i++) {
+                workbook.addRow();
+                workbook.storeCell("row" + i);
+                workbook.storeCell(i);
+            }
+            outFiles = workbook.getOutputFiles();
+        }
+        assertThat(outFiles.size(), equalTo(3));
+        assertThat(outFiles.get(0), equalTo(outFile));
+        assertThat(outFiles.get(1).getName(), equalTo("test_roll_2.xlsx"));
+        assertThat(outFiles.get(2).getName(), equalTo("test_roll_3.xlsx"));
+        int[] lasts = new int[] { 15, 15, 10 };
+        for (int i = 0; i < 3; i++) {
+            try (FileInputStream inStream = new FileInputStream(outFiles.get(i)); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+                Sheet sheet = workbook.getSheet("roll sheet");
+                assertThat(sheet.getLastRowNum(), equalTo(lasts[i]));
+                assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 0, 0)), equalTo("name"));
+                assertThat(ExcelUtils.numValue(ExcelUtils.getCell(sheet, 1, 1)), closeTo(i * 15 + 1.0, 1e-6));
+            }
+        }
+    }
+
+    @Test
+    public void testSortedRolling() throws IOException {
+        File outFile = new File("data", "test_sroll.xlsx");
+        List<File> outFiles;
+        try (CustomWorkbook workbook = CustomWorkbook.create(outFile)) {
+            workbook.setRollLimits(15, 0);
+            // The rows of a sorted sheet are only added when the sheet is replayed.
+            workbook.addSortedSheet("roll sheet", true);
+            workbook.setHeaders(Arrays.asList("name", "value"));
+            for (int i = 40; i >= 1; i--) {
+                String key = String.format("row%02d", i);
+                workbook.addRow(key);
+                workbook.storeCell(key);
+                workbook.storeCell(i);
+            }
+            workbook.addSheet("other sheet", false);
+            workbook.setHeaders(Arrays.asList("a"));
+            outFiles = workbook.getOutputFiles();
+        }
+        assertThat(outFiles.size(), equalTo(3));
+        int[] lasts = new int[] { 15, 15, 10 };
+        for (int i = 0; i < 3; i++) {
+            try (FileInputStream inStream = new FileInputStream(outFiles.get(i)); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+                Sheet sheet = workbook.getSheet("roll sheet");
+                assertThat(sheet.getLastRowNum(), equalTo(lasts[i]));
+                assertThat(ExcelUtils.numValue(ExcelUtils.getCell(sheet, 1, 1)), closeTo(i * 15 + 1.0, 1e-6));
+            }
+        }
+    }
+
+    @Test
+    public void testSortedManyRuns() throws IOException {
+        File outFile = new File("data", "test_sorted_runs.xlsx");
+        final int n = 2000;
+        try (CustomWorkbook workbook = CustomWorkbook.createStreaming(outFile, 20)) {
+            // This produces far more run files than can be merged in one pass.
+            workbook.addSortedSheet("sorted sheet", false, Comparator.naturalOrder(), 1000);
+            workbook.setHeaders(Arrays.asList("key", "seq"));
+            for (int i = 0; i < n; i++) {
+                String key = String.format("k%05d", (i * 37) % (n / 2));
+                workbook.addRow(key);
+                workbook.storeCell(key);
+                workbook.storeCell(i);
+            }
+        }
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            Sheet sheet = workbook.getSheet("sorted sheet");
+            assertThat(sheet.getLastRowNum(), equalTo(n));
+            String prevKey = "";
+            double prevSeq = -1.0;
+            for (int r = 1; r <= n; r++) {
+                String key = ExcelUtils.stringValue(ExcelUtils.getCell(sheet, r, 0));
+                double seq = ExcelUtils.numValue(ExcelUtils.getCell(sheet, r, 1));
+                assertThat(key, greaterThanOrEqualTo(prevKey));
+                if (key.equals(prevKey))
+                    assertThat(seq, greaterThan(prevSeq));
+                prevKey = key;
+                prevSeq = seq;
+            }
+        }
+    }
+
+    @Test
+    public void testSortedSheet() throws IOException {
+        File outFile = new File("data", "test_sorted.xlsx");
+        final int n = 200;
+        try (CustomWorkbook workbook = CustomWorkbook.createStreaming(outFile, 20)) {
+            // The tiny memory limit forces many run files.
+            workbook.addSortedSheet("sorted sheet", true, Comparator.naturalOrder(), 1000);
+            workbook.setHeaders(Arrays.asList("key", "seq", "link"));
+            for (int i = 0; i < n; i++) {
+                // Scramble the keys, and give each key two rows.
+                String key = String.format("k%04d", (i * 37) % (n / 2));
+                workbook.addRow(key);
+                workbook.storeCell(key);
+                workbook.storeCell(i);
+                workbook.storeCell(key, "https://www.theseed.org/" + key, null);
+            }
+            workbook.addSheet("other sheet", false);
+            workbook.setHeaders(Arrays.asList("a"));
+            workbook.addRow("ignored");
+            workbook.storeCell(1.5);
+        }
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            Sheet sheet = workbook.getSheet("sorted sheet");
+            assertThat(sheet.getLastRowNum(), equalTo(n));
+            String prevKey = "";
+            double prevSeq = -1.0;
+            for (int r = 1; r <= n; r++) {
+                String key = ExcelUtils.stringValue(ExcelUtils.getCell(sheet, r, 0));
+                double seq = ExcelUtils.numValue(ExcelUtils.getCell(sheet, r, 1));
+                assertThat(key, greaterThanOrEqualTo(prevKey));
+                if (key.equals(prevKey))
+                    assertThat(seq, greaterThan(prevSeq));
+                assertThat(ExcelUtils.getCell(sheet, r, 2).getHyperlink().getAddress(), endsWith(key));
+                prevKey = key;
+                prevSeq = seq;
+            }
+            assertThat(ExcelUtils.numValue(ExcelUtils.getCell(workbook.getSheet("other sheet"), 1, 0)), closeTo(1.5, 1e-6));
+        }
+    }
+
+    @Test
+    public void testTemplate() throws IOException {
+        WorkbookTemplate template = WorkbookTemplate.create(x -> {
+            x.setPrecision(3);
+            x.addSheet("legend", false);
+            x.setHeaders(Arrays.asList("code", "meaning"));
+            x.addRow();
+            x.storeCell("X");
+            x.storeCell("unknown");
+            x.setPresetHeaders("data", Arrays.asList("name", "value"));
+        });
+        assertThat(template.getPrecision(), equalTo(3));
+        assertThat(template.getImageSize(), greaterThan(0));
+        for (int i = 0; i < 2; i++) {
+            File outFile = new File("data", "test_template" + i + ".xlsx");
+            try (CustomWorkbook workbook = (i == 0 ? template.create(outFile) : template.createStreaming(outFile, 10))) {
+                workbook.addSheet("data", true);
+                for (int r = 0; r < 50; r++) {
+                    workbook.addRow();
+                    workbook.storeCell("row" + r);
+                    workbook.storeCell(r * 0.5 + i);
+                }
+            }
+            try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+                Sheet legend = workbook.getSheet("legend");
+                assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(legend, 0, 1)), equalTo("meaning"));
+                assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(legend, 1, 0)), equalTo("X"));
+                Sheet data = workbook.getSheet("data");
+                assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(data, 0, 0)), equalTo("name"));
+                assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(data, 0, 1)), equalTo("value"));
+                assertThat(data.getLastRowNum(), equalTo(50));
+                assertThat(ExcelUtils.numValue(ExcelUtils.getCell(data, 50, 1)), closeTo(24.5 + i, 1e-6));
+                assertThat(ExcelUtils.getCell(data, 50, 1).getCellStyle().getDataFormatString(), equalTo("###0.000"));
+            }
+        }
+    }
+
+    @Test
+    public void testStringModes() throws IOException {
+        File outFile = new File("data", "test_strings.xlsx");
+        try (CustomWorkbook workbook = CustomWorkbook.create(outFile)) {
+            workbook.addSheet("strings", true);
+            workbook.setHeaders(Arrays.asList("id", "category", "unique", "repeated"));
+            workbook.setStringMode(0, CustomWorkbook.StringMode.INLINE);
+            workbook.setStringMode(2, CustomWorkbook.StringMode.AUTO);
+            workbook.setStringMode(3, CustomWorkbook.StringMode.AUTO);
+            for (int r = 0; r < 300; r++) {
+                workbook.addRow();
+                workbook.storeCell("id" + r);
+                workbook.storeCell("cat" + (r % 3));
+                workbook.storeCell("u" + r);
+                workbook.storeCell("rep" + (r % 5));
+            }
+            // Only the automatic column that chose to share its text uses the interning cache.
+            assertThat(workbook.getInternedCount(), equalTo(5));
+        }
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            Sheet sheet = workbook.getSheet("strings");
+            assertThat(sheet.getLastRowNum(), equalTo(300));
+            for (int r = 1; r <= 300; r++) {
+                int i = r - 1;
+                assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, r, 0)), equalTo("id" + i));
+                assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, r, 1)), equalTo("cat" + (i % 3)));
+                assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, r, 2)), equalTo("u" + i));
+                assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, r, 3)), equalTo("rep" + (i % 5)));
+            }
+            // The ID column is inline, and the others are shared until the automatic columns decide.
+            assertThat(cellType(sheet, 1, 0), equalTo(STCellType.INLINE_STR));
+            assertThat(cellType(sheet, 1, 1), equalTo(STCellType.S));
+            assertThat(cellType(sheet, 1, 2), equalTo(STCellType.S));
+            assertThat(cellType(sheet, 250, 1), equalTo(STCellType.S));
+            assertThat(cellType(sheet, 250, 2), equalTo(STCellType.INLINE_STR));
+            assertThat(cellType(sheet, 250, 3), equalTo(STCellType.S));
+            // Only the sampled unique values went into the shared-strings table.
+            assertThat(workbook.getSharedStringSource().getUniqueCount(), lessThan(150));
+        }
+    }
+
+    /**
+     * @return the stored type of a cell in a sheet
+     *
+     * @param sheet		sheet containing the cell
+     * @param r			row index
+     * @param c			column index
+     */
+    private static STCellType.Enum cellType(Sheet sheet, int r, int c) {
+        return ((XSSFCell) ExcelUtils.getCell(sheet, r, c)).getCTCell().getT();
+    }
+
     private void createTestSheet(File inFile, CustomWorkbook workbook) throws IOException {
         workbook.setHeaders(Arrays.asList("Fid", "gene", "val1", "val2", "val3", "notes", "thing"));
         try (TabbedLineReader inStream = new TabbedLineReader(inFile)) {
@@ -0,0 +1,335 @@
+package org.theseed.excel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.openxml4j.opc.PackageRelationship;
+import org.apache.poi.openxml4j.opc.PackagingURIHelper;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.xssf.binary.XSSFBSharedStringsTable;
+import org.apache.poi.xssf.binary.XSSFBSheetHandler;
+import org.apache.poi.xssf.binary.XSSFBStylesTable;
+import org.apache.poi.xssf.eventusermodel.XSSFBReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFTable;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.xml.sax.SAXException;
+
+/**
+ * This tests the direct workbook writer by reading its output back with POI.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class TestDirectWorkbook {
+
+    /** numbers to store, chosen to exercise each output notation */
+    private static final double[] VALUES = new double[] { 0.1, 0.1 + 0.2, 1e-7, 12345.678, -3.25, 1e20,
+            123456.0, 0.000123, 6.02214076e23, 1e-300, -0.0, 2.5e15 };
+
+    @Test
+    public void testDirectWorkbook() throws IOException {
+        File outFile = new File("data", "test_direct.xlsx");
+        try (DirectWorkbook workbook = new DirectWorkbook(outFile)) {
+            workbook.setPrecision(3);
+            workbook.addSheet("values", true);
+            workbook.setHeaders(Arrays.asList("value", "count", "value", "text"));
+            for (int i = 0; i < VALUES.length; i++) {
+                workbook.addRow();
+                workbook.storeCell(VALUES[i]);
+                workbook.storeCell(i);
+                workbook.storeCell(VALUES[i], 0.0, 100.0);
+                workbook.storeCell("a<b> & \"c\" \u00e9 \ud83d\ude00 " + i);
+            }
+            workbook.addRow();
+            workbook.storeCell(Double.NaN);
+            workbook.storeBlankCell();
+            workbook.storeCell(0.5, CustomWorkbook.Num.FRACTION);
+            workbook.storeCell("Y", CustomWorkbook.Text.FLAG);
+            workbook.addSheet("plain", false);
+            workbook.setHeaders(Arrays.asList("name", "number"));
+            for (int i = 1; i <= 500; i++) {
+                workbook.addRow();
+                workbook.storeCell("row" + i);
+                workbook.storeCell(i * 0.25, CustomWorkbook.Num.ML);
+            }
+        }
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            assertThat(workbook.getNumberOfSheets(), equalTo(2));
+            XSSFSheet sheet = workbook.getSheet("values");
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 0, 2)), equalTo("value2"));
+            for (int i = 0; i < VALUES.length; i++) {
+                int r = i + 1;
+                double expected = VALUES[i];
+                assertThat(ExcelUtils.numValue(ExcelUtils.getCell(sheet, r, 0)),
+                        closeTo(expected, Math.abs(expected) * 1e-14));
+                assertThat(ExcelUtils.numValue(ExcelUtils.getCell(sheet, r, 1)), equalTo((double) i));
+                assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, r, 3)),
+                        equalTo("a<b> & \"c\" \u00e9 \ud83d\ude00 " + i));
+            }
+            assertThat(ExcelUtils.getCell(sheet, 1, 0).getCellStyle().getDataFormatString(), equalTo("###0.000"));
+            assertThat(ExcelUtils.getCell(sheet, 1, 1).getCellStyle().getDataFormatString(), equalTo("##0"));
+            // 12345.678 is high, -3.25 is low, and 0.1 is normal.
+            short normal = ExcelUtils.getCell(sheet, 1, 0).getCellStyle().getIndex();
+            assertThat(ExcelUtils.getCell(sheet, 1, 2).getCellStyle().getIndex(), equalTo(normal));
+            assertThat(ExcelUtils.getCell(sheet, 4, 2).getCellStyle().getIndex(), not(equalTo(normal)));
+            assertThat(ExcelUtils.getCell(sheet, 5, 2).getCellStyle().getIndex(), not(equalTo(normal)));
+            int last = VALUES.length + 1;
+            Cell error = ExcelUtils.getCell(sheet, last, 0);
+            assertThat(error.getCellType(), equalTo(CellType.ERROR));
+            assertThat(ExcelUtils.getCell(sheet, last, 1), nullValue());
+            assertThat(ExcelUtils.getCell(sheet, last, 2).getCellStyle().getDataFormatString(), equalTo("#0.0000"));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, last, 3)), equalTo("Y"));
+            assertThat(sheet.getTables().size(), equalTo(1));
+            XSSFTable table = sheet.getTables().get(0);
+            assertThat(table.getArea().formatAsString(), equalTo("A1:D" + (last + 1)));
+            assertThat(table.getColumns().get(2).getName(), equalTo("value2"));
+            assertThat(sheet.getColumnWidth(3), greaterThan(sheet.getColumnWidth(1)));
+            XSSFSheet plain = workbook.getSheet("plain");
+            assertThat(plain.getTables().size(), equalTo(0));
+            assertThat(plain.getLastRowNum(), equalTo(500));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(plain, 0, 1)), equalTo("number"));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(plain, 500, 0)), equalTo("row500"));
+            assertThat(ExcelUtils.numValue(ExcelUtils.getCell(plain, 499, 1)), closeTo(124.75, 1e-10));
+            assertThat(ExcelUtils.getCell(plain, 499, 1).getCellStyle().getDataFormatString(), equalTo("#0.0"));
+        }
+    }
+
+    @Test
+    public void testDuplicateSheet() {
+        File outFile = new File("data", "test_direct_dup.xlsx");
+        try (DirectWorkbook workbook = new DirectWorkbook(outFile)) {
+            workbook.addSheet("only", false);
+            try {
+                workbook.addSheet("ONLY", false);
+                assertThat("Duplicate sheet accepted.", false);
+            } catch (IllegalArgumentException e) {
+                assertThat(e.getMessage(), containsString("ONLY"));
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidCells() {
+        File outFile = new File("data", "test_direct_bad.xlsx");
+        try (DirectWorkbook workbook = new DirectWorkbook(outFile)) {
+            for (String name : Arrays.asList("run[1]", "a/b", "123456789012345678901234567890xx")) {
+                try {
+                    workbook.addSheet(name, false);
+                    assertThat("Invalid sheet name " + name + " accepted.", false);
+                } catch (IllegalArgumentException e) {
+                    // This is the expected result.
+                }
+            }
+            workbook.addSheet("good", false);
+            workbook.addRow();
+            try {
+                workbook.storeCell("x".repeat(40000));
+                assertThat("Oversized string accepted.", false);
+            } catch (IllegalArgumentException e) {
+                assertThat(e.getMessage(), containsString("32767"));
+            }
+        }
+    }
+
+    @Test
+    public void testHeaderOnlyTable() throws IOException {
+        File outFile = new File("data", "test_direct_headers.xlsx");
+        try (DirectWorkbook workbook = new DirectWorkbook(outFile)) {
+            workbook.addSheet("empty", true);
+            workbook.setHeaders(Arrays.asList("name", "value", "note"));
+        }
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            XSSFSheet sheet = workbook.getSheet("empty");
+            assertThat(sheet.getTables().size(), equalTo(1));
+            assertThat(sheet.getTables().get(0).getArea().formatAsString(), equalTo("A1:C2"));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 0, 2)), equalTo("note"));
+        }
+    }
+
+    @Test
+    public void testLinks() throws IOException {
+        File outFile = new File("data", "test_direct_links.xlsx");
+        try (DirectWorkbook workbook = new DirectWorkbook(outFile)) {
+            workbook.addSheet("links", true);
+            workbook.setHeaders(Arrays.asList("id", "name"));
+            workbook.addRow();
+            workbook.storeCell("fig|83333.1.peg.4", "https://example.org/feature?id=fig|83333.1.peg.4&x=1");
+            workbook.storeCell("thrL", null);
+        }
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            XSSFSheet sheet = workbook.getSheet("links");
+            Cell linked = ExcelUtils.getCell(sheet, 1, 0);
+            assertThat(ExcelUtils.stringValue(linked), equalTo("fig|83333.1.peg.4"));
+            assertThat(linked.getHyperlink().getAddress(), equalTo("https://example.org/feature?id=fig|83333.1.peg.4&x=1"));
+            assertThat(ExcelUtils.getCell(sheet, 1, 1).getHyperlink(), nullValue());
+            assertThat(sheet.getTables().size(), equalTo(1));
+        }
+    }
+
+    @Test
+    public void testTableNames() throws IOException {
+        File outFile = new File("data", "test_direct_tables.xlsx");
+        // All these sheet names have the same safe form for a table name.
+        List<String> names = Arrays.asList("Data", "Data Sheet", "data-sheet");
+        try (DirectWorkbook workbook = new DirectWorkbook(outFile)) {
+            for (String name : names) {
+                workbook.addSheet(name, true);
+                workbook.setHeaders(Arrays.asList("name", "value"));
+                workbook.addRow();
+                workbook.storeCell(name);
+                workbook.storeCell(name.length());
+            }
+        }
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            Set<String> displayNames = new HashSet<>();
+            Set<Long> ids = new HashSet<>();
+            for (String name : names) {
+                XSSFSheet sheet = workbook.getSheet(name);
+                assertThat(name, sheet.getTables().size(), equalTo(1));
+                XSSFTable table = sheet.getTables().get(0);
+                assertThat(name, displayNames.add(table.getDisplayName().toLowerCase()), equalTo(true));
+                assertThat(name, ids.add(table.getCTTable().getId()), equalTo(true));
+                assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 1, 0)), equalTo(name));
+            }
+        }
+    }
+
+    @Test
+    public void testBinaryWorkbook() throws IOException, OpenXML4JException, SAXException {
+        File outFile = new File("data", "test_direct.xlsb");
+        try (DirectWorkbook workbook = new DirectWorkbook(outFile)) {
+            assertThat(workbook.getFormat(), equalTo(DirectWorkbook.Format.XLSB));
+            workbook.setPrecision(3);
+            workbook.addSheet("values", true);
+            workbook.setHeaders(Arrays.asList("value", "count", "text"));
+            workbook.addRow();
+            workbook.storeCell(0.1);
+            workbook.storeCell(-5);
+            workbook.storeCell("a<b> \u00e9");
+            workbook.addRow();
+            workbook.storeCell(12345.678, 0.0, 100.0);
+            workbook.storeCell(1 << 30);
+            workbook.storeCell("site", "https://example.org/site");
+            workbook.addRow();
+            workbook.storeCell(0.5, CustomWorkbook.Num.FRACTION);
+            workbook.storeBlankCell();
+            workbook.storeCell("Y", CustomWorkbook.Text.FLAG);
+            workbook.addSheet("plain", false);
+            for (int i = 1; i <= 2000; i++) {
+                workbook.addRow();
+                workbook.storeCell(i);
+            }
+        }
+        try (OPCPackage pkg = OPCPackage.open(outFile, PackageAccess.READ)) {
+            XSSFBReader reader = new XSSFBReader(pkg);
+            XSSFBStylesTable styles = reader.getXSSFBStylesTable();
+            XSSFBSharedStringsTable strings = new XSSFBSharedStringsTable(pkg);
+            XSSFBReader.SheetIterator iter = (XSSFBReader.SheetIterator) reader.getSheetsData();
+            List<String> names = new ArrayList<>();
+            List<Map<String, String>> sheets = new ArrayList<>();
+            while (iter.hasNext()) {
+                try (InputStream sheetStream = iter.next()) {
+                    names.add(iter.getSheetName());
+                    Map<String, String> cells = new HashMap<>();
+                    XSSFSheetXMLHandler.SheetContentsHandler handler = new XSSFSheetXMLHandler.SheetContentsHandler() {
+                        @Override
+                        public void startRow(int rowNum) { }
+                        @Override
+                        public void endRow(int rowNum) { }
+                        @Override
+                        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+                            cells.put(cellReference, formattedValue);
+                        }
+                    };
+                    new XSSFBSheetHandler(sheetStream, styles, iter.getXSSFBSheetComments(), strings, handler,
+                            new DataFormatter(), false).parse();
+                    sheets.add(cells);
+                    if (names.size() == 1) {
+                        List<String> urls = new ArrayList<>();
+                        for (PackageRelationship rel : iter.getSheetPart().getRelationshipsByType(
+                                "http://schemas.openxmlformats.org/officeDocument/2006/relationships/hyperlink"))
+                            urls.add(rel.getTargetURI().toString());
+                        assertThat(urls, contains("https://example.org/site"));
+                    }
+                }
+            }
+            assertThat(names, contains("values", "plain"));
+            Map<String, String> values = sheets.get(0);
+            assertThat(values.get("A1"), equalTo("value"));
+            assertThat(values.get("C1"), equalTo("text"));
+            assertThat(values.get("A2"), equalTo("0.100"));
+            assertThat(values.get("B2"), equalTo("-5"));
+            assertThat(values.get("C2"), equalTo("a<b> \u00e9"));
+            assertThat(values.get("A3"), equalTo("12345.678"));
+            assertThat(values.get("B3"), equalTo("1073741824"));
+            assertThat(values.get("C3"), equalTo("site"));
+            assertThat(values.get("A4"), equalTo("0.5000"));
+            assertThat(values.containsKey("B4"), equalTo(false));
+            assertThat(values.get("C4"), equalTo("Y"));
+            Map<String, String> plain = sheets.get(1);
+            assertThat(plain.size(), equalTo(2000));
+            assertThat(plain.get("A2001"), equalTo("2000"));
+            assertThat(pkg.getPartsByContentType("application/vnd.ms-excel.table").size(), equalTo(1));
+            // Verify the record sequence in the workbook part.
+            PackagePart bookPart = pkg.getPart(PackagingURIHelper.createPartName("/xl/workbook.bin"));
+            byte[] book;
+            try (InputStream bookStream = bookPart.getInputStream()) {
+                book = bookStream.readAllBytes();
+            }
+            assertThat(recordTypes(book), contains(XlsbWriter.BEGIN_BOOK, XlsbWriter.FILE_VERSION,
+                    XlsbWriter.WB_PROP, XlsbWriter.BEGIN_BOOK_VIEWS, XlsbWriter.BOOK_VIEW, XlsbWriter.END_BOOK_VIEWS,
+                    XlsbWriter.BEGIN_BUNDLE_SHS, XlsbWriter.BUNDLE_SH, XlsbWriter.BUNDLE_SH,
+                    XlsbWriter.END_BUNDLE_SHS, XlsbWriter.CALC_PROP, XlsbWriter.END_BOOK));
+        }
+    }
+
+    /**
+     * @return the types of the records in a binary part, in order
+     *
+     * @param data	content of the part
+     */
+    private static List<Integer> recordTypes(byte[] data) {
+        List<Integer> retVal = new ArrayList<>();
+        int pos = 0;
+        while (pos < data.length) {
+            // The type is one or two bytes, and the size is up to four bytes, with seven bits per byte.
+            int type = data[pos] & 0x7F;
+            if ((data[pos++] & 0x80) != 0)
+                type |= (data[pos++] & 0x7F) << 7;
+            int size = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = data[pos++] & 0xFF;
+                size |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            retVal.add(type);
+            pos += size;
+        }
+        return retVal;
+    }
+
+}
@@ -0,0 +1,63 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.SharedStringsTable;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+public class TestMappedSharedStrings {
+
+    @Test
+    public void testMappedStrings() throws IOException, OpenXML4JException {
+        File outFile = new File("data", "test_sst.xlsx");
+        try (CustomWorkbook workbook = CustomWorkbook.create(outFile)) {
+            workbook.addSheet("strings", true);
+            workbook.setHeaders(List.of("name", "function"));
+            for (int i = 0; i < 200; i++) {
+                workbook.addRow();
+                workbook.storeCell("peg." + i);
+                workbook.storeCell((i % 3 == 0 ? "hypothetical protein" : "Ribosomal protein S" + i + " \u00e9"));
+            }
+        }
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            SharedStringsTable expected = workbook.getSharedStringSource();
+            try (OPCPackage pkg = OPCPackage.open(outFile, PackageAccess.READ);
+                    MappedSharedStrings sst = MappedSharedStrings.load(new XSSFReader(pkg))) {
+                assertThat(sst.getUniqueCount(), equalTo(expected.getUniqueCount()));
+                for (int i = 0; i < sst.getUniqueCount(); i++)
+                    assertThat(sst.getItemAt(i).getString(), equalTo(expected.getItemAt(i).getString()));
+            }
+        }
+    }
+
+    @Test
+    public void testClosed() throws IOException {
+        MappedSharedStrings sst = new MappedSharedStrings(new ByteArrayInputStream(
+                "<sst><si><t>alpha</t></si><si><t>beta</t></si></sst>".getBytes(StandardCharsets.UTF_8)));
+        assertThat(sst.getString(1), equalTo("beta"));
+        sst.close();
+        assertThrows(IllegalStateException.class, () -> sst.getString(0));
+    }
+
+}
@@ -0,0 +1,65 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+class TestParallelSheetReader {
+
+    @Test
+    void testParallelRead() throws IOException {
+        File outFile = new File("data", "test_parallel.xlsx");
+        final int nSheets = 6;
+        try (CustomWorkbook workbook = CustomWorkbook.create(outFile)) {
+            for (int s = 0; s < nSheets; s++) {
+                workbook.addSheet("sheet" + s, false);
+                workbook.setHeaders(Arrays.asList("name", "value"));
+                for (int r = 0; r < 100 * (s + 1); r++) {
+                    workbook.addRow();
+                    // The same strings are used in every sheet, so the shared-strings table is shared.
+                    workbook.storeCell("item" + (r % 50));
+                    workbook.storeCell(r + s);
+                }
+            }
+        }
+        try (ParallelSheetReader reader = new ParallelSheetReader(outFile)) {
+            assertThat(reader.getSheetNames(), contains("sheet0", "sheet1", "sheet2", "sheet3", "sheet4", "sheet5"));
+            Map<String, double[]> results = reader.readAll((name, rows) -> {
+                // Count the data rows and total the values.
+                double[] retVal = new double[2];
+                rows.next();
+                for (Object[] row = rows.next(); row != null; row = rows.next()) {
+                    assertThat(row[0], equalTo("item" + ((int) retVal[0] % 50)));
+                    retVal[0]++;
+                    retVal[1] += (Double) row[1];
+                }
+                return retVal;
+            });
+            for (int s = 0; s < nSheets; s++) {
+                double[] result = results.get("sheet" + s);
+                int n = 100 * (s + 1);
+                assertThat(result[0], equalTo((double) n));
+                assertThat(result[1], closeTo(n * (n - 1) / 2.0 + n * s, 1e-6));
+            }
+            // Errors in a sheet function are passed back.
+            assertThrows(IOException.class, () -> reader.readAll((name, rows) -> {
+                throw new IOException("Test error.");
+            }));
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+class TestRecordMapper {
+
+    /** test record */
+    record Feature(@ExcelColumn(header = "Feature ID", link = "https://www.theseed.org/") String fid,
+            int length, @ExcelColumn(num = CustomWorkbook.Num.FRACTION) double score, boolean flag,
+            Double weight, @ExcelColumn(ignore = true) String secret) {
+    }
+
+    /** test ordinary class */
+    static class Sample {
+        @ExcelColumn(order = 2)
+        private long count;
+        @ExcelColumn(order = 1, header = "Sample")
+        private String name;
+        private String unmapped;
+
+        Sample(String name, long count) {
+            this.name = name;
+            this.count = count;
+            this.unmapped = "x";
+        }
+    }
+
+    /** test record with long integers */
+    record Counter(String name, long count, Long total) {
+    }
+
+    /** test record with a link on a floating-point column */
+    record BadLink(@ExcelColumn(link = "https://www.theseed.org/") double score) {
+    }
+
+    @Test
+    void testMapper() throws IOException {
+        RecordMapper<Feature> mapper = RecordMapper.of(Feature.class);
+        assertThat(mapper.getHeaders(), contains("Feature ID", "length", "score", "flag", "weight"));
+        assertThat(RecordMapper.of(Feature.class), sameInstance(mapper));
+        RecordMapper<Sample> sampleMapper = RecordMapper.of(Sample.class);
+        assertThat(sampleMapper.getHeaders(), contains("Sample", "count"));
+        assertThrows(IllegalArgumentException.class, () -> RecordMapper.of(String.class));
+        List<Feature> features = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            features.add(new Feature("fig|83333.1.peg." + i, i * 3, i / 4.0, (i % 2 == 0), (i % 5 == 0 ? null : i * 1.5), "no"));
+        File outFile = new File("data", "test_records.xlsx");
+        try (CustomWorkbook workbook = CustomWorkbook.create(outFile)) {
+            RecordMapper<Feature> sheetMapper = workbook.addSheet("features", true, Feature.class);
+            workbook.storeRecords(sheetMapper, features);
+            RecordMapper<Sample> samples = workbook.addSheet("samples", false, Sample.class);
+            workbook.storeRecords(samples, List.of(new Sample("s1", 10L), new Sample(null, 20L)));
+        }
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            Sheet sheet = workbook.getSheet("features");
+            assertThat(sheet.getLastRowNum(), equalTo(20));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 0, 0)), equalTo("Feature ID"));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 4, 0)), equalTo("fig|83333.1.peg.3"));
+            assertThat(ExcelUtils.numValue(ExcelUtils.getCell(sheet, 4, 1)), closeTo(9.0, 1e-6));
+            assertThat(ExcelUtils.numValue(ExcelUtils.getCell(sheet, 4, 2)), closeTo(0.75, 1e-6));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 1, 3)), equalTo("Y"));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 2, 3)), equalTo(""));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 1, 4)), equalTo(""));
+            assertThat(ExcelUtils.numValue(ExcelUtils.getCell(sheet, 2, 4)), closeTo(1.5, 1e-6));
+            assertThat(ExcelUtils.getCell(sheet, 0, 5), nullValue());
+            Sheet samples = workbook.getSheet("samples");
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(samples, 1, 0)), equalTo("s1"));
+            assertThat(ExcelUtils.numValue(ExcelUtils.getCell(samples, 2, 1)), closeTo(20.0, 1e-6));
+        }
+    }
+
+    @Test
+    void testLongs() throws IOException {
+        assertThrows(IllegalArgumentException.class, () -> RecordMapper.of(BadLink.class));
+        long big = (1L << 60) + 1;
+        File outFile = new File("data", "test_longs.xlsx");
+        try (CustomWorkbook workbook = CustomWorkbook.create(outFile)) {
+            RecordMapper<Counter> mapper = workbook.addSheet("counts", false, Counter.class);
+            workbook.storeRecords(mapper, List.of(new Counter("small", 12345L, 67890L),
+                    new Counter("big", big, -big), new Counter("none", 0L, null)));
+        }
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            Sheet sheet = workbook.getSheet("counts");
+            assertThat(ExcelUtils.numValue(ExcelUtils.getCell(sheet, 1, 1)), closeTo(12345.0, 1e-6));
+            assertThat(ExcelUtils.getCell(sheet, 1, 1).getCellStyle().getDataFormatString(), equalTo("##0"));
+            assertThat(ExcelUtils.getCell(sheet, 1, 2).getCellStyle().getDataFormatString(), equalTo("##0"));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 2, 1)), equalTo(Long.toString(big)));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 2, 2)), equalTo(Long.toString(-big)));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 3, 2)), equalTo(""));
+        }
+    }
+
+}
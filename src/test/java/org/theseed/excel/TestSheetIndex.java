@@ -0,0 +1,53 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.IOException;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+class TestSheetIndex {
+
+    @Test
+    void testIndex() throws IOException {
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            Sheet sheet = workbook.createSheet("test");
+            Row row = sheet.createRow(0);
+            row.createCell(0).setCellValue("key");
+            row.createCell(1).setCellValue(" value ");
+            row.createCell(2).setCellValue("other");
+            String[] keys = new String[] { "a", "b", "a", "MARKER", "c", "a" };
+            for (int r = 1; r <= keys.length; r++) {
+                row = sheet.createRow(r);
+                row.createCell(0).setCellValue(keys[r - 1]);
+                row.createCell(1).setCellValue(r * 10.0);
+            }
+            SheetIndex index = new SheetIndex(sheet);
+            assertThat(index.getHeaders(), contains("key", "value", "other"));
+            assertThat(index.findColumn("value"), equalTo(1));
+            assertThat(index.findColumn("missing"), equalTo(-1));
+            assertThat(index.findRow("b"), equalTo(2));
+            assertThat(index.findRow("a"), equalTo(1));
+            assertThat(index.findRows("a"), contains(1, 3, 6));
+            assertThat(index.findRows("c"), contains(5));
+            assertThat(index.findRows("z"), empty());
+            assertThat(index.findMarker("MARKER"), equalTo(5));
+            assertThat(index.findMarker("NONE"), equalTo(-1));
+            assertThat(ExcelUtils.numValue(index.getCell("c", "value")), closeTo(50.0, 1e-6));
+            assertThat(index.getCell("c", "other"), nullValue());
+            assertThat(index.getCell("z", "value"), nullValue());
+        }
+    }
+
+}
@@ -0,0 +1,175 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+class TestTsv2XlsxProcessor {
+
+    @Test
+    void testConversion() throws IOException {
+        File outDir = Files.createTempDirectory("tsv2xlsx").toFile();
+        outDir.deleteOnExit();
+        Tsv2XlsxProcessor processor = new Tsv2XlsxProcessor();
+        boolean ok = processor.parseCommand(new String[] { "-o", outDir.toString(), "-t", "2",
+                "data/test.tbl", "data/test2.tbl" });
+        assertThat(ok, equalTo(true));
+        processor.run();
+        File outFile = new File(outDir, "test.xlsx");
+        outFile.deleteOnExit();
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            Sheet sheet = workbook.getSheet("test");
+            assertThat(workbook.getSheetAt(0).getTables().size(), equalTo(1));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 0, 0)), equalTo("fig"));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 1, 0)), equalTo("feature1"));
+            assertThat(ExcelUtils.numValue(ExcelUtils.getCell(sheet, 2, 2)), closeTo(2.0, 1e-6));
+            assertThat(ExcelUtils.numValue(ExcelUtils.getCell(sheet, 2, 4)), closeTo(200.2, 1e-6));
+        }
+        File outFile2 = new File(outDir, "test2.xlsx");
+        outFile2.deleteOnExit();
+        assertThat(outFile2.canRead(), equalTo(true));
+        // Now combine the files into one workbook.
+        File combined = new File(outDir, "combined.xlsx");
+        combined.deleteOnExit();
+        processor = new Tsv2XlsxProcessor();
+        ok = processor.parseCommand(new String[] { "--combined", combined.toString(), "--plain",
+                "data/test.tbl", "data/test2.tbl" });
+        assertThat(ok, equalTo(true));
+        processor.run();
+        try (FileInputStream inStream = new FileInputStream(combined); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            assertThat(workbook.getSheetName(0), equalTo("test"));
+            assertThat(workbook.getSheetName(1), equalTo("test2"));
+            assertThat(workbook.getSheetAt(1).getTables().size(), equalTo(0));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(workbook.getSheet("test2"), 1, 6)), equalTo("thing 1"));
+        }
+    }
+
+    @Test
+    void testDuplicateNames() throws IOException {
+        File inDir = Files.createTempDirectory("tsv2xlsx").toFile();
+        File outDir = Files.createTempDirectory("tsv2xlsx").toFile();
+        // These files all have the same base name.
+        List<File> inFiles = new ArrayList<>();
+        for (String dirName : Arrays.asList("dir1", "dir2")) {
+            File dir = new File(inDir, dirName);
+            dir.mkdir();
+            inFiles.add(new File(dir, "results.tbl"));
+        }
+        inFiles.add(new File(inDir, "results.tsv"));
+        for (int i = 0; i < inFiles.size(); i++)
+            Files.writeString(inFiles.get(i).toPath(), "name\tnum\nfile" + i + "\t" + i + "\n");
+        List<String> parms = new ArrayList<>(List.of("-o", outDir.toString()));
+        for (File inFile : inFiles)
+            parms.add(inFile.toString());
+        Tsv2XlsxProcessor processor = new Tsv2XlsxProcessor();
+        assertThat(processor.parseCommand(parms.toArray(new String[0])), equalTo(true));
+        processor.run();
+        List<String> outNames = Arrays.asList("results.xlsx", "results_2.xlsx", "results_3.xlsx");
+        for (int i = 0; i < inFiles.size(); i++) {
+            File outFile = new File(outDir, outNames.get(i));
+            try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+                assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(workbook.getSheet("results"), 1, 0)),
+                        equalTo("file" + i));
+            }
+        }
+        // In a combined workbook, the sheet names must be different.
+        File combined = new File(outDir, "combined.xlsx");
+        parms.set(0, "--combined");
+        parms.set(1, combined.toString());
+        processor = new Tsv2XlsxProcessor();
+        assertThat(processor.parseCommand(parms.toArray(new String[0])), equalTo(true));
+        processor.run();
+        try (FileInputStream inStream = new FileInputStream(combined); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            assertThat(workbook.getNumberOfSheets(), equalTo(3));
+            List<String> sheetNames = Arrays.asList("results", "results (2)", "results (3)");
+            for (int i = 0; i < inFiles.size(); i++)
+                assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(workbook.getSheet(sheetNames.get(i)), 1, 0)),
+                        equalTo("file" + i));
+        }
+        FileUtils.deleteDirectory(inDir);
+        FileUtils.deleteDirectory(outDir);
+    }
+
+    @Test
+    void testUnsafeNames() throws IOException {
+        File inDir = Files.createTempDirectory("tsv2xlsx").toFile();
+        File outDir = Files.createTempDirectory("tsv2xlsx").toFile();
+        // The first two names are not valid sheet names, and both become the same safe name.  The third is too
+        // long, so it is truncated, and there must still be room for a suffix.
+        List<String> baseNames = Arrays.asList("run[1]", "run:1", "a very long name for a sheet of results",
+                "a very long name for a sheet of results x");
+        List<String> parms = new ArrayList<>();
+        File combined = new File(outDir, "combined.xlsx");
+        parms.add("--combined");
+        parms.add(combined.toString());
+        for (int i = 0; i < baseNames.size(); i++) {
+            File inFile = new File(inDir, baseNames.get(i) + ".tbl");
+            Files.writeString(inFile.toPath(), "name\tnum\nfile" + i + "\t" + i + "\n");
+            parms.add(inFile.toString());
+        }
+        Tsv2XlsxProcessor processor = new Tsv2XlsxProcessor();
+        assertThat(processor.parseCommand(parms.toArray(new String[0])), equalTo(true));
+        processor.run();
+        try (FileInputStream inStream = new FileInputStream(combined); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            List<String> sheetNames = Arrays.asList("run_1_", "run_1_ (2)", "a very long name for a sheet of",
+                    "a very long name for a shee (2)");
+            for (int i = 0; i < sheetNames.size(); i++) {
+                assertThat(workbook.getSheetName(i), equalTo(sheetNames.get(i)));
+                assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(workbook.getSheetAt(i), 1, 0)), equalTo("file" + i));
+            }
+        }
+        FileUtils.deleteDirectory(inDir);
+        FileUtils.deleteDirectory(outDir);
+    }
+
+    @Test
+    void testHeapBudget() throws IOException {
+        File inDir = Files.createTempDirectory("tsv2xlsx").toFile();
+        File outDir = Files.createTempDirectory("tsv2xlsx").toFile();
+        // At 30 heap bytes per input byte, each medium file needs 18 megabytes, so two cannot be converted at
+        // once within the minimum budget of 32.  The large file needs more than the whole budget, so it is
+        // streamed.
+        List<String> parms = new ArrayList<>(List.of("-o", outDir.toString(), "-t", "4", "--heap", "32"));
+        int[] sizes = new int[] { 600_000, 600_000, 600_000, 1_200_000 };
+        for (int i = 0; i < sizes.length; i++) {
+            File inFile = new File(inDir, "heap" + i + ".tbl");
+            StringBuilder text = new StringBuilder(sizes[i] + 100);
+            text.append("id\tcount\tscore\tdescription\n");
+            for (int r = 0; text.length() < sizes[i]; r++)
+                text.append("row").append(r).append('\t').append(r % 1000).append('\t').append(r * 0.5)
+                        .append("\tsome text\n");
+            Files.writeString(inFile.toPath(), text);
+            parms.add(inFile.toString());
+        }
+        Tsv2XlsxProcessor processor = new Tsv2XlsxProcessor();
+        assertThat(processor.parseCommand(parms.toArray(new String[0])), equalTo(true));
+        processor.run();
+        assertThat(processor.getPeakActive(), equalTo(1));
+        assertThat(processor.getStreamCount(), equalTo(1));
+        assertThat(processor.getAvailableHeap(), equalTo(32));
+        for (File outFile : processor.getOutFiles())
+            assertThat(outFile.toString(), outFile.canRead(), equalTo(true));
+        FileUtils.deleteDirectory(inDir);
+        FileUtils.deleteDirectory(outDir);
+    }
+
+}
@@ -0,0 +1,81 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.poi.ss.usermodel.Workbook;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+public class TestWorkbookCache {
+
+    @Test
+    public void testCache() throws IOException, InterruptedException, ExecutionException {
+        File outFile = new File("data", "test_cache.xlsx");
+        writeWorkbook(outFile, "first");
+        WorkbookCache cache = new WorkbookCache(Long.MAX_VALUE);
+        Workbook wb1 = cache.get(outFile);
+        assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(wb1.getSheet("cache"), 1, 0)), equalTo("first"));
+        Workbook wb2 = cache.get(outFile);
+        assertThat(wb2, sameInstance(wb1));
+        assertThat(cache.getHits(), equalTo(1L));
+        assertThat(cache.getMisses(), equalTo(1L));
+        // Concurrent requests should all get the same object.
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Workbook>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++)
+                futures.add(pool.submit(() -> cache.get(outFile)));
+            for (Future<Workbook> future : futures)
+                assertThat(future.get(), sameInstance(wb1));
+        } finally {
+            pool.shutdown();
+        }
+        // Changing the file should force a reload.
+        writeWorkbook(outFile, "second");
+        outFile.setLastModified(outFile.lastModified() + 2000);
+        Workbook wb3 = cache.get(outFile);
+        assertThat(wb3, not(sameInstance(wb1)));
+        assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(wb3.getSheet("cache"), 1, 0)), equalTo("second"));
+        assertThat(cache.size(), equalTo(1));
+        // A tiny cache should still keep the most recent workbook.
+        WorkbookCache tiny = new WorkbookCache(1);
+        File otherFile = new File("data", "test_cache2.xlsx");
+        writeWorkbook(otherFile, "other");
+        tiny.get(outFile);
+        Workbook wb4 = tiny.get(otherFile);
+        assertThat(tiny.size(), equalTo(1));
+        assertThat(tiny.get(otherFile), sameInstance(wb4));
+    }
+
+    /**
+     * Write a tiny workbook with a single value in it.
+     *
+     * @param outFile	output file
+     * @param value		value to store
+     */
+    private static void writeWorkbook(File outFile, String value) {
+        try (CustomWorkbook workbook = CustomWorkbook.create(outFile)) {
+            workbook.addSheet("cache", false);
+            workbook.setHeaders(List.of("value"));
+            workbook.addRow();
+            workbook.storeCell(value);
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+class TestWorkbookDiff {
+
+    /**
+     * Create a test workbook.
+     *
+     * @param outFile	output file
+     * @param delta		amount to add to the last number
+     * @param label		label for the last row
+     * @param extra		TRUE to add an extra sheet
+     */
+    private static void createWorkbook(File outFile, double delta, String label, boolean extra) {
+        try (CustomWorkbook workbook = CustomWorkbook.create(outFile)) {
+            workbook.addSheet("values", true);
+            workbook.setHeaders(Arrays.asList("label", "value"));
+            for (int r = 1; r <= 50; r++) {
+                workbook.addRow();
+                workbook.storeCell(r == 50 ? label : "row " + r);
+                workbook.storeCell(r * 100.0 + (r == 50 ? delta : 0.0));
+            }
+            if (extra) {
+                workbook.addSheet("extra", false);
+                workbook.setHeaders(Arrays.asList("a"));
+            }
+        }
+    }
+
+    @Test
+    void testDiff() throws IOException {
+        File goldFile = new File("data", "test_diff_gold.xlsx");
+        createWorkbook(goldFile, 0.0, "row 50", false);
+        File sameFile = new File("data", "test_diff_same.xlsx");
+        createWorkbook(sameFile, 0.001, "row 50 ", false);
+        WorkbookDiff differ = new WorkbookDiff(1e-4, 10);
+        assertThat(differ.compare(goldFile, sameFile), empty());
+        File badFile = new File("data", "test_diff_bad.xlsx");
+        createWorkbook(badFile, 5.0, "changed", true);
+        List<WorkbookDiff.Difference> diffs = differ.compare(goldFile, badFile);
+        assertThat(diffs, hasSize(3));
+        assertThat(differ.isTruncated(), equalTo(false));
+        WorkbookDiff.Difference diff = diffs.get(0);
+        assertThat(diff.getSheetName(), equalTo("values"));
+        assertThat(diff.getRow(), equalTo(50));
+        assertThat(diff.getCol(), equalTo(0));
+        assertThat(diff.getExpected(), equalTo("row 50"));
+        assertThat(diff.getActual(), equalTo("changed"));
+        assertThat(diff.toString(), equalTo("values!A51: expected \"row 50\", found \"changed\"."));
+        assertThat(diffs.get(1).getCol(), equalTo(1));
+        assertThat(diffs.get(2).getRow(), equalTo(-1));
+        assertThat(diffs.get(2).getActual(), equalTo("extra"));
+        differ = new WorkbookDiff(1e-4, 1);
+        assertThat(differ.compare(goldFile, badFile), hasSize(1));
+        assertThat(differ.isTruncated(), equalTo(true));
+        assertThat(WorkbookDiff.matches(null, "  ", 0.0), equalTo(true));
+        assertThat(WorkbookDiff.matches(1.0, "1.0", 0.0), equalTo(true));
+        assertThat(WorkbookDiff.matches(1000.0, 1000.05, 1e-4), equalTo(true));
+        assertThat(WorkbookDiff.matches(0.0, 0.001, 1e-4), equalTo(false));
+    }
+
+}
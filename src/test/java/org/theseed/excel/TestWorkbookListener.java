@@ -0,0 +1,114 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.theseed.excel.WorkbookListener.Phase;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+public class TestWorkbookListener {
+
+    /**
+     * This listener records the events it receives.
+     */
+    private static class RecordingListener implements WorkbookListener {
+
+        /** row-added events, as sheet name, row count, and cell count */
+        private final List<String> rowEvents = new ArrayList<>();
+        /** sheet-closed events, as sheet name, row count, and cell count */
+        private final List<String> sheetEvents = new ArrayList<>();
+        /** phase timings reported for each closed sheet */
+        private final List<Map<Phase, Long>> sheetTimes = new ArrayList<>();
+        /** files reported written */
+        private final List<File> files = new ArrayList<>();
+        /** byte counts reported for the written files */
+        private final List<Long> fileBytes = new ArrayList<>();
+        /** phase timings reported for the last written file */
+        private Map<Phase, Long> workbookTimes;
+
+        @Override
+        public void rowAdded(String sheetName, int rows, int cells) {
+            this.rowEvents.add(sheetName + ":" + rows + ":" + cells);
+        }
+
+        @Override
+        public void sheetClosed(String sheetName, int rows, int cells, long heapBytes, Map<Phase, Long> times) {
+            this.sheetEvents.add(sheetName + ":" + rows + ":" + cells);
+            this.sheetTimes.add(times);
+        }
+
+        @Override
+        public void workbookWritten(File outFile, long bytes, Map<Phase, Long> times) {
+            this.files.add(outFile);
+            this.fileBytes.add(bytes);
+            this.workbookTimes = times;
+        }
+
+    }
+
+    @Test
+    public void testEvents() throws IOException {
+        File outFile = new File("data", "test_listener.xlsx");
+        RecordingListener listener = new RecordingListener();
+        try (CustomWorkbook workbook = CustomWorkbook.create(outFile)) {
+            workbook.setListener(listener);
+            workbook.addSheet("table sheet", true);
+            workbook.setHeaders(Arrays.asList("name", "value", "note"));
+            for (int i = 1; i <= 10; i++) {
+                workbook.addRow();
+                workbook.storeCell("row" + i);
+                workbook.storeCell(i);
+                workbook.storeCell("n" + i, null, "Comment for row " + i);
+            }
+            workbook.addSheet("plain sheet", false);
+            workbook.setHeaders(Arrays.asList("name"));
+            for (int i = 1; i <= 4; i++) {
+                workbook.addRow();
+                workbook.storeCell("p" + i);
+            }
+        }
+        // Each row is reported with the counts up to and including it, but before its cells are stored.
+        assertThat(listener.rowEvents.size(), equalTo(14));
+        assertThat(listener.rowEvents.get(0), equalTo("table sheet:1:0"));
+        assertThat(listener.rowEvents.get(9), equalTo("table sheet:10:27"));
+        assertThat(listener.rowEvents.get(13), equalTo("plain sheet:4:3"));
+        assertThat(listener.sheetEvents, contains("table sheet:10:30", "plain sheet:4:4"));
+        assertThat(listener.files, contains(outFile));
+        assertThat(listener.fileBytes.get(0), equalTo(outFile.length()));
+        // Every phase must be reported, and the phases used by each sheet must have been timed.
+        for (Map<Phase, Long> times : listener.sheetTimes)
+            assertThat(times.keySet(), equalTo(EnumSet.allOf(Phase.class)));
+        Map<Phase, Long> tableTimes = listener.sheetTimes.get(0);
+        for (Phase phase : List.of(Phase.CELLS, Phase.COMMENTS, Phase.AUTOSIZE, Phase.TABLE))
+            assertThat(phase.toString(), tableTimes.get(phase), greaterThan(0L));
+        Map<Phase, Long> plainTimes = listener.sheetTimes.get(1);
+        assertThat(plainTimes.get(Phase.CELLS), greaterThan(0L));
+        assertThat(plainTimes.get(Phase.TABLE), equalTo(0L));
+        assertThat(listener.workbookTimes.keySet(), equalTo(EnumSet.allOf(Phase.class)));
+        assertThat(listener.workbookTimes.get(Phase.WRITE), greaterThan(0L));
+    }
+
+    @Test
+    public void testLoggingInterval() {
+        assertThrows(IllegalArgumentException.class, () -> new LoggingWorkbookListener(0));
+        assertThrows(IllegalArgumentException.class, () -> new LoggingWorkbookListener(-5));
+        new LoggingWorkbookListener(1).rowAdded("sheet", 1, 1);
+    }
+
+}
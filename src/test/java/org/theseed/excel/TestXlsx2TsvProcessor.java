@@ -0,0 +1,108 @@
+/**
+ *
+ */
+package org.theseed.excel;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+class TestXlsx2TsvProcessor {
+
+    @Test
+    void testExport() throws IOException {
+        File inFile = new File("data", "test_export.xlsx");
+        try (CustomWorkbook workbook = CustomWorkbook.create(inFile)) {
+            workbook.addSheet("Report Sheet", false);
+            workbook.setHeaders(Arrays.asList("title"));
+            workbook.addRow();
+            workbook.storeCell("DATA");
+            workbook.addRow();
+            workbook.storeCell("name");
+            workbook.storeCell("count");
+            workbook.storeCell("score");
+            for (int r = 1; r <= 3; r++) {
+                workbook.addRow();
+                workbook.storeCell("item\t" + r);
+                workbook.storeCell(r);
+                workbook.storeCell(r * 0.5);
+            }
+            workbook.addSheet("other", false);
+            workbook.setHeaders(Arrays.asList("a"));
+        }
+        File outDir = Files.createTempDirectory("xlsx2tsv").toFile();
+        outDir.deleteOnExit();
+        Xlsx2TsvProcessor processor = new Xlsx2TsvProcessor();
+        boolean ok = processor.parseCommand(new String[] { "-o", outDir.toString(), "--sheet", "Report Sheet",
+                "--marker", "DATA", "--cols", "score,1", inFile.toString() });
+        assertThat(ok, equalTo(true));
+        processor.run();
+        File outFile = new File(outDir, "report.tbl");
+        outFile.deleteOnExit();
+        List<String> lines = Files.readAllLines(outFile.toPath());
+        assertThat(lines, contains("score\tname", "0.5\titem 1", "1\titem 2", "1.5\titem 3"));
+        assertThat(new File(outDir, "other.tbl").exists(), equalTo(false));
+    }
+
+    @Test
+    void testDuplicateNames() throws IOException {
+        File inFile = new File("data", "test_export2.xlsx");
+        // Each pair of names has the same safe form.
+        List<String> names = Arrays.asList("Report", "Report Sheet", "a-b", "a b");
+        try (CustomWorkbook workbook = CustomWorkbook.create(inFile)) {
+            for (String name : names) {
+                workbook.addSheet(name, false);
+                workbook.setHeaders(Arrays.asList("sheet"));
+                workbook.addRow();
+                workbook.storeCell(name);
+            }
+        }
+        File outDir = Files.createTempDirectory("xlsx2tsv").toFile();
+        outDir.deleteOnExit();
+        Xlsx2TsvProcessor processor = new Xlsx2TsvProcessor();
+        boolean ok = processor.parseCommand(new String[] { "-o", outDir.toString(), inFile.toString() });
+        assertThat(ok, equalTo(true));
+        processor.run();
+        List<String> fileNames = Arrays.asList("report.tbl", "report_2.tbl", "a_b.tbl", "a_b_2.tbl");
+        for (int i = 0; i < names.size(); i++) {
+            File outFile = new File(outDir, fileNames.get(i));
+            outFile.deleteOnExit();
+            List<String> lines = Files.readAllLines(outFile.toPath());
+            assertThat(lines, contains("sheet", names.get(i)));
+        }
+    }
+
+    @Test
+    void testEmptySheet() throws IOException {
+        File inFile = new File("data", "test_export3.xlsx");
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); FileOutputStream outStream = new FileOutputStream(inFile)) {
+            workbook.createSheet("empty");
+            workbook.write(outStream);
+        }
+        File outDir = Files.createTempDirectory("xlsx2tsv").toFile();
+        outDir.deleteOnExit();
+        Xlsx2TsvProcessor processor = new Xlsx2TsvProcessor();
+        boolean ok = processor.parseCommand(new String[] { "-o", outDir.toString(), inFile.toString() });
+        assertThat(ok, equalTo(true));
+        processor.run();
+        // With no marker, an empty sheet produces an empty file.
+        File outFile = new File(outDir, "empty.tbl");
+        outFile.deleteOnExit();
+        assertThat(outFile.exists(), equalTo(true));
+        assertThat(outFile.length(), equalTo(0L));
+    }
+
+}
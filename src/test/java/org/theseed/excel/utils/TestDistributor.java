@@ -7,10 +7,17 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.util.Arrays;
 
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.junit.jupiter.api.Test;
 import org.theseed.basic.ParseFailureException;
+import org.theseed.excel.ExcelUtils;
+import org.theseed.excel.LoggingWorkbookListener;
 
 /**
  *
@@ -37,4 +44,83 @@ class TestDistributor {
         bucketMap.save(outFile);
     }
 
+    @Test
+    void testPagedLayouts() throws ParseFailureException, IOException {
+        Distributor bucketMap = new Distributor(0.0, 1.0, 10);
+        for (int i = 0; i < 25; i++) {
+            String name = String.format("series%02d", i);
+            bucketMap.addValues(name, (i % 2 == 0 ? series1 : series2));
+        }
+        assertThat(bucketMap.getBuckets("series24"), equalTo(series1Buckets));
+        assertThat(bucketMap.getBuckets("series23"), equalTo(series2Buckets));
+        bucketMap.setPageWidth(10);
+        bucketMap.setListener(new LoggingWorkbookListener(50));
+        File outFile = new File("data", "buckets_wide.xlsx");
+        bucketMap.save(outFile, Distributor.Layout.WIDE);
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            // 25 series at 10 per page is three pages, the last one half full.
+            assertThat(workbook.getNumberOfSheets(), equalTo(3));
+            String[] pageNames = new String[] { "Distribution", "Distribution (2)", "Distribution (3)" };
+            int[] pageWidths = new int[] { 10, 10, 5 };
+            for (int p = 0; p < 3; p++) {
+                Sheet sheet = workbook.getSheet(pageNames[p]);
+                assertThat(pageNames[p], sheet, not(nullValue()));
+                assertThat(sheet.getLastRowNum(), equalTo(10));
+                assertThat(sheet.getRow(0).getLastCellNum(), equalTo((short) (pageWidths[p] + 1)));
+                assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 0, 0)), equalTo("bucket_min"));
+                for (int c = 1; c <= pageWidths[p]; c++) {
+                    int i = p * 10 + c - 1;
+                    assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 0, c)), equalTo(String.format("series%02d", i)));
+                    int[] expected = (i % 2 == 0 ? series1Buckets : series2Buckets);
+                    for (int r = 1; r <= 10; r++)
+                        assertThat(ExcelUtils.numValue(ExcelUtils.getCell(sheet, r, c)), closeTo(expected[r - 1], 1e-6));
+                }
+                assertThat(ExcelUtils.numValue(ExcelUtils.getCell(sheet, 10, 0)), closeTo(0.9, 1e-6));
+            }
+        }
+        outFile = new File("data", "buckets_long.xlsx");
+        bucketMap.save(outFile, Distributor.Layout.LONG);
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            // All 250 series/bucket pairs fit on one page.
+            assertThat(workbook.getNumberOfSheets(), equalTo(1));
+            Sheet sheet = workbook.getSheet("Distribution");
+            assertThat(sheet.getLastRowNum(), equalTo(250));
+            assertThat(sheet.getRow(0).getLastCellNum(), equalTo((short) 3));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 0, 0)), equalTo("series"));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 0, 1)), equalTo("bucket_min"));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 0, 2)), equalTo("count"));
+            for (int r = 1; r <= 250; r++) {
+                int i = (r - 1) / 10;
+                int idx = (r - 1) % 10;
+                int[] expected = (i % 2 == 0 ? series1Buckets : series2Buckets);
+                assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, r, 0)), equalTo(String.format("series%02d", i)));
+                assertThat(ExcelUtils.numValue(ExcelUtils.getCell(sheet, r, 1)), closeTo(idx * 0.1, 1e-6));
+                assertThat(ExcelUtils.numValue(ExcelUtils.getCell(sheet, r, 2)), closeTo(expected[idx], 1e-6));
+            }
+        }
+    }
+
+    @Test
+    void testEmpty() throws ParseFailureException, IOException {
+        Distributor bucketMap = new Distributor(0.0, 1.0, 10);
+        File outFile = new File("data", "buckets_empty.xlsx");
+        bucketMap.save(outFile, Distributor.Layout.LONG);
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            // The only sheet has headers and no data, but it is still a valid table.
+            assertThat(workbook.getNumberOfSheets(), equalTo(1));
+            XSSFSheet sheet = workbook.getSheet("Distribution");
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 0, 2)), equalTo("count"));
+            var tables = sheet.getTables();
+            assertThat(tables.size(), equalTo(1));
+            assertThat(tables.get(0).getArea().formatAsString(), equalTo("A1:C2"));
+        }
+        outFile = new File("data", "buckets_empty_wide.xlsx");
+        bucketMap.save(outFile, Distributor.Layout.WIDE);
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            XSSFSheet sheet = workbook.getSheet("Distribution");
+            assertThat(sheet.getLastRowNum(), equalTo(10));
+            assertThat(sheet.getTables().get(0).getArea().formatAsString(), equalTo("A1:A11"));
+        }
+    }
+
 }
@@ -0,0 +1,83 @@
+/**
+ *
+ */
+package org.theseed.excel.utils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.theseed.excel.ExcelUtils;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+class TestPivot {
+
+    @Test
+    void testAggregation() {
+        Pivot pivot = new Pivot("genome", "sample");
+        for (int i = 0; i < 10000; i++) {
+            String genome = "g" + (i % 7);
+            String sample = "s" + (i % 3);
+            pivot.add(genome, sample, i);
+        }
+        assertThat(pivot.getRowCount(), equalTo(7));
+        assertThat(pivot.getColCount(), equalTo(3));
+        assertThat(pivot.size(), equalTo(21));
+        // Values with i % 21 == 0 fall in g0/s0.
+        double count = 0.0;
+        double sum = 0.0;
+        for (int i = 0; i < 10000; i += 21) {
+            count++;
+            sum += i;
+        }
+        assertThat(pivot.get("g0", "s0", Pivot.Stat.COUNT), equalTo(count));
+        assertThat(pivot.get("g0", "s0", Pivot.Stat.SUM), closeTo(sum, 1e-6));
+        assertThat(pivot.get("g0", "s0", Pivot.Stat.MEAN), closeTo(sum / count, 1e-6));
+        assertThat(pivot.get("g0", "s0", Pivot.Stat.MIN), equalTo(0.0));
+        assertThat(pivot.get("g0", "s0", Pivot.Stat.MAX), equalTo(9996.0));
+        assertThat(pivot.get("g9", "s0", Pivot.Stat.SUM), equalTo(Double.NaN));
+        // The ID interface should find the same aggregates.
+        int rowId = pivot.rowId("g0");
+        int colId = pivot.colId("s0");
+        pivot.add(rowId, colId, 100000.0);
+        assertThat(pivot.get("g0", "s0", Pivot.Stat.MAX), equalTo(100000.0));
+        assertThat(pivot.size(), equalTo(21));
+    }
+
+    @Test
+    void testSave() throws IOException {
+        Pivot pivot = new Pivot("genome", "sample");
+        pivot.add("b", "y", 1.0);
+        pivot.add("a", "y", 2.0);
+        pivot.add("a", "x", 3.0);
+        pivot.add("b", "y", 5.0);
+        File outFile = new File("data", "test_pivot.xlsx");
+        pivot.save(outFile, "pivot", Pivot.Stat.SUM);
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            Sheet sheet = workbook.getSheet("pivot");
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 0, 1)), equalTo("x"));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 0, 2)), equalTo("y"));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 1, 0)), equalTo("a"));
+            assertThat(ExcelUtils.numValue(ExcelUtils.getCell(sheet, 1, 1)), closeTo(3.0, 1e-6));
+            assertThat(ExcelUtils.numValue(ExcelUtils.getCell(sheet, 2, 2)), closeTo(6.0, 1e-6));
+        }
+        pivot.save(outFile, "pivot", Pivot.Stat.COUNT, Pivot.Layout.LONG);
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            Sheet sheet = workbook.getSheet("pivot");
+            assertThat(sheet.getLastRowNum(), equalTo(3));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 3, 0)), equalTo("b"));
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 3, 1)), equalTo("y"));
+            assertThat(ExcelUtils.numValue(ExcelUtils.getCell(sheet, 3, 2)), closeTo(2.0, 1e-6));
+        }
+    }
+
+}
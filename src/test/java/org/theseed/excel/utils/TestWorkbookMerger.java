@@ -0,0 +1,130 @@
+/**
+ *
+ */
+package org.theseed.excel.utils;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.theseed.excel.CustomWorkbook;
+import org.theseed.excel.ExcelUtils;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+class TestWorkbookMerger {
+
+    @Test
+    void testMerge() throws IOException {
+        List<File> inFiles = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            File inFile = new File("data", "test_merge_in" + i + ".xlsx");
+            try (CustomWorkbook workbook = CustomWorkbook.create(inFile)) {
+                workbook.addSheet("data", true);
+                workbook.setHeaders(Arrays.asList("name", "value", "frac"));
+                for (int r = 0; r < 100; r++) {
+                    workbook.addRow();
+                    workbook.storeCell("s" + i + "r" + r);
+                    workbook.storeCell(r);
+                    workbook.storeCell(r * 0.25);
+                }
+                workbook.addSheet("notes sheet " + i, false);
+                workbook.setHeaders(Arrays.asList("text"));
+                workbook.addRow();
+                workbook.storeBlankCell();
+                workbook.storeCell("after blank");
+            }
+            inFiles.add(inFile);
+        }
+        File outFile = new File("data", "test_merge_out.xlsx");
+        WorkbookMerger merger = new WorkbookMerger();
+        merger.setThreads(2);
+        merger.setBatching(7, 2);
+        merger.merge(inFiles, outFile);
+        assertThat(merger.getSheetCount(), equalTo(6));
+        assertThat(merger.getRowCount(), equalTo(303L));
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            assertThat(workbook.getSheetName(0), equalTo("data"));
+            assertThat(workbook.getSheetName(2), equalTo("data (2)"));
+            assertThat(workbook.getSheetName(4), equalTo("data (3)"));
+            List<String> tableNames = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                Sheet sheet = workbook.getSheetAt(i * 2);
+                assertThat(sheet.getLastRowNum(), equalTo(100));
+                assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 0, 2)), equalTo("frac"));
+                assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(sheet, 100, 0)), equalTo("s" + i + "r99"));
+                assertThat(ExcelUtils.numValue(ExcelUtils.getCell(sheet, 100, 1)), closeTo(99.0, 1e-6));
+                assertThat(ExcelUtils.numValue(ExcelUtils.getCell(sheet, 100, 2)), closeTo(24.75, 1e-6));
+                var tables = workbook.getSheetAt(i * 2).getTables();
+                assertThat(tables.size(), equalTo(1));
+                tableNames.add(tables.get(0).getName());
+                Sheet notes = workbook.getSheet("notes sheet " + i);
+                assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(notes, 1, 1)), equalTo("after blank"));
+            }
+            assertThat(tableNames.stream().distinct().count(), equalTo(3L));
+        }
+    }
+
+    @Test
+    void testHeaderOnlyTable() throws IOException {
+        File inFile = new File("data", "test_merge_headers.xlsx");
+        try (CustomWorkbook workbook = CustomWorkbook.create(inFile)) {
+            workbook.addSheet("empty", true);
+            workbook.setHeaders(Arrays.asList("name", "value", "frac"));
+            workbook.addSheet("full", true);
+            workbook.setHeaders(Arrays.asList("name"));
+            workbook.addRow();
+            workbook.storeCell("row1");
+        }
+        File outFile = new File("data", "test_merge_headers_out.xlsx");
+        WorkbookMerger merger = new WorkbookMerger();
+        merger.merge(List.of(inFile), outFile);
+        assertThat(merger.getSheetCount(), equalTo(2));
+        assertThat(merger.getRowCount(), equalTo(1L));
+        try (FileInputStream inStream = new FileInputStream(outFile); XSSFWorkbook workbook = new XSSFWorkbook(inStream)) {
+            var empty = workbook.getSheet("empty");
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(empty, 0, 2)), equalTo("frac"));
+            assertThat(empty.getTables().size(), equalTo(1));
+            assertThat(empty.getTables().get(0).getArea().formatAsString(), equalTo("A1:C2"));
+            var full = workbook.getSheet("full");
+            assertThat(ExcelUtils.stringValue(ExcelUtils.getCell(full, 1, 0)), equalTo("row1"));
+            assertThat(full.getTables().size(), equalTo(1));
+        }
+    }
+
+    @Test
+    void testBadInput() throws IOException {
+        File goodFile = new File("data", "test_merge_good.xlsx");
+        try (CustomWorkbook workbook = CustomWorkbook.create(goodFile)) {
+            workbook.addSheet("data", false);
+            workbook.setHeaders(Arrays.asList("name"));
+            workbook.addRow();
+            workbook.storeCell("row1");
+        }
+        File badFile = new File("data", "test_merge_bad.xlsx");
+        Files.writeString(badFile.toPath(), "This is not a workbook.");
+        List<File> inFiles = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+            inFiles.add(goodFile);
+        inFiles.add(2, badFile);
+        File outFile = new File("data", "test_merge_fail.xlsx");
+        WorkbookMerger merger = new WorkbookMerger();
+        merger.setThreads(2);
+        assertThrows(IOException.class, () -> merger.merge(inFiles, outFile));
+        assertThat(outFile.exists(), equalTo(false));
+    }
+
+}